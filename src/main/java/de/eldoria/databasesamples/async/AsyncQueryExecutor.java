@@ -0,0 +1,178 @@
+package de.eldoria.databasesamples.async;
+
+import de.eldoria.databasesamples.timeout.Deadline;
+import de.eldoria.databasesamples.util.SqlFunction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes database work asynchronously with at most as many tasks in flight as the pool has connections.
+ * <p>
+ * On JVMs with virtual threads every task runs on its own virtual thread. Tasks wait for a permit before they request a
+ * connection, so they never queue inside the connection pool.
+ * <p>
+ * On older JVMs a fixed pool with one platform thread per connection is used. Pending tasks wait in the queue of the
+ * executor.
+ */
+public class AsyncQueryExecutor implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(AsyncQueryExecutor.class);
+    private static final AtomicInteger THREAD_ID = new AtomicInteger();
+
+    private final DataSource source;
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * Create a new executor.
+     *
+     * @param source      source to retrieve connections from
+     * @param maxInFlight max amount of tasks which hold a connection at the same time
+     */
+    public AsyncQueryExecutor(DataSource source, int maxInFlight) {
+        this.source = source;
+        ExecutorService virtual = virtualThreadExecutor();
+        if (virtual != null) {
+            this.executor = virtual;
+            this.permits = new Semaphore(maxInFlight, true);
+        } else {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(maxInFlight, maxInFlight, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), r -> {
+                Thread thread = new Thread(r, "async-query-" + THREAD_ID.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            pool.allowCoreThreadTimeOut(true);
+            this.executor = pool;
+            this.permits = null;
+        }
+    }
+
+    /**
+     * Run a function with a connection of the pool. The connection is closed after the function returned.
+     * <p>
+     * A {@link Deadline} of the calling thread applies to the function as well.
+     *
+     * @param function function to apply on the connection
+     * @param <R>      type of the result
+     * @return future which is completed with the result of the function
+     */
+    public <R> CompletableFuture<R> supply(SqlFunction<Connection, R> function) {
+        return supply(function, Deadline.current());
+    }
+
+    /**
+     * Run a function with a connection of the pool and a deadline. The connection is closed after the function
+     * returned.
+     * <p>
+     * The deadline starts with the call, so time spent waiting for a connection counts towards it. Statements of the
+     * function are cancelled once the deadline passed. The future is completed with a {@link SQLTimeoutException} in
+     * this case. A {@link Deadline} of the calling thread applies as well if it passes earlier.
+     *
+     * @param function function to apply on the connection
+     * @param timeout  time until the deadline passes
+     * @param unit     unit of the timeout
+     * @param <R>      type of the result
+     * @return future which is completed with the result of the function
+     */
+    public <R> CompletableFuture<R> supply(SqlFunction<Connection, R> function, long timeout, TimeUnit unit) {
+        return supply(function, Deadline.after(timeout, unit).earliest(Deadline.current()));
+    }
+
+    private <R> CompletableFuture<R> supply(SqlFunction<Connection, R> function, Deadline deadline) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException(e);
+            }
+            inFlight.incrementAndGet();
+            try {
+                if (deadline == null) return apply(function);
+                return deadline.apply(this::apply, function);
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            } finally {
+                inFlight.decrementAndGet();
+                release();
+            }
+        }, executor);
+    }
+
+    /**
+     * Amount of tasks which currently hold or request a connection.
+     *
+     * @return tasks in flight
+     */
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Whether tasks are executed on virtual threads.
+     *
+     * @return true if virtual threads are used
+     */
+    public boolean isVirtual() {
+        return permits != null;
+    }
+
+    /**
+     * Stops accepting new tasks and waits for submitted tasks to complete.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.warn("Async tasks did not complete in time.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private <R> R apply(SqlFunction<Connection, R> function) throws SQLException {
+        try (Connection conn = source.getConnection()) {
+            return function.apply(conn);
+        }
+    }
+
+    private void acquire() throws InterruptedException {
+        if (permits != null) permits.acquire();
+    }
+
+    private void release() {
+        if (permits != null) permits.release();
+    }
+
+    /**
+     * Creates a virtual thread per task executor if the JVM supports them.
+     * Looked up reflectively since the library is still compiled for java 8.
+     *
+     * @return virtual thread executor or null
+     */
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) java.util.concurrent.Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
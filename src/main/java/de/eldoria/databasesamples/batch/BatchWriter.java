@@ -0,0 +1,258 @@
+package de.eldoria.databasesamples.batch;
+
+import de.eldoria.databasesamples.util.DbUtil;
+import de.eldoria.databasesamples.util.SqlTables;
+import de.eldoria.databasesamples.util.StatementBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Buffers rows and writes them with {@link PreparedStatement#addBatch()} and {@link PreparedStatement#executeBatch()}.
+ * <p>
+ * A batch is flushed when it reached the batch size or when the flush interval elapsed since the first row of the batch
+ * was submitted. Every batch is written in a single transaction on a single connection.
+ * <p>
+ * The buffer is bounded. Submitting a row blocks while the buffer is full.
+ * <p>
+ * Every submitted row gets its own future, which is completed with the update count of the row once the batch was
+ * committed or completed exceptionally if the batch failed.
+ *
+ * @param <T> type of the written rows
+ */
+public class BatchWriter<T> implements AutoCloseable {
+    public static final int DEFAULT_BATCH_SIZE = 250;
+    public static final long DEFAULT_FLUSH_INTERVAL = 50;
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    private static final Logger log = LoggerFactory.getLogger(BatchWriter.class);
+    private static final AtomicInteger THREAD_ID = new AtomicInteger();
+
+    private final DataSource source;
+    private final String sql;
+    private final StatementBinder<T> binder;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final BlockingQueue<Row<T>> queue;
+    private final Thread worker;
+    private final String table;
+    private final Consumer<String> onWrite;
+    private volatile boolean closed;
+
+    /**
+     * Create a new batch writer.
+     *
+     * @param source        source to retrieve connections from
+     * @param sql           statement which is executed for every row
+     * @param binder        binder to bind a row to the statement
+     * @param batchSize     max amount of rows in one batch
+     * @param flushInterval max time a row waits in the buffer
+     * @param unit          unit of the flush interval
+     * @param capacity      max amount of buffered rows
+     */
+    public BatchWriter(DataSource source, String sql, StatementBinder<T> binder, int batchSize, long flushInterval,
+                       TimeUnit unit, int capacity) {
+        this(source, sql, binder, batchSize, flushInterval, unit, capacity, table -> {
+        });
+    }
+
+    /**
+     * Create a new batch writer.
+     *
+     * @param source        source to retrieve connections from
+     * @param sql           statement which is executed for every row
+     * @param binder        binder to bind a row to the statement
+     * @param batchSize     max amount of rows in one batch
+     * @param flushInterval max time a row waits in the buffer
+     * @param unit          unit of the flush interval
+     * @param capacity      max amount of buffered rows
+     * @param onWrite       called with the written table after every committed batch
+     */
+    public BatchWriter(DataSource source, String sql, StatementBinder<T> binder, int batchSize, long flushInterval,
+                       TimeUnit unit, int capacity, Consumer<String> onWrite) {
+        if (batchSize < 1) throw new IllegalArgumentException("Batch size must be at least 1");
+        if (capacity < batchSize) throw new IllegalArgumentException("Capacity must be at least the batch size");
+        this.source = source;
+        this.sql = sql;
+        this.binder = binder;
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = unit.toNanos(flushInterval);
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.table = SqlTables.writtenTable(sql);
+        this.onWrite = onWrite;
+        this.worker = new Thread(this::run, "batch-writer-" + THREAD_ID.incrementAndGet());
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Submit a row. Blocks while the buffer is full.
+     *
+     * @param value row to write
+     * @return future which is completed with the update count of the row once it is committed
+     */
+    public CompletableFuture<Integer> submit(T value) {
+        Row<T> row = new Row<>(value);
+        if (closed) return rejected(row);
+        try {
+            queue.put(row);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            row.future.completeExceptionally(e);
+            return row.future;
+        }
+        return recheck(row);
+    }
+
+    /**
+     * Submit a row. Waits at most the given time for space in the buffer.
+     *
+     * @param value   row to write
+     * @param timeout max time to wait for space in the buffer
+     * @param unit    unit of the timeout
+     * @return future which is completed with the update count of the row once it is committed or completed with a
+     * {@link RejectedExecutionException} if the buffer stayed full
+     */
+    public CompletableFuture<Integer> submit(T value, long timeout, TimeUnit unit) {
+        Row<T> row = new Row<>(value);
+        if (closed) return rejected(row);
+        try {
+            if (!queue.offer(row, timeout, unit)) {
+                row.future.completeExceptionally(new RejectedExecutionException("Batch buffer is full"));
+                return row.future;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            row.future.completeExceptionally(e);
+            return row.future;
+        }
+        return recheck(row);
+    }
+
+    /**
+     * Get the amount of rows which are currently buffered.
+     *
+     * @return amount of buffered rows
+     */
+    public int pending() {
+        return queue.size();
+    }
+
+    /**
+     * Stops accepting new rows and waits until all buffered rows are written.
+     * <p>
+     * Rows which are submitted while the writer closes are either written or completed with an
+     * {@link IllegalStateException}.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        // Rows which were added after the worker saw an empty buffer.
+        List<Row<T>> stranded = new ArrayList<>();
+        queue.drainTo(stranded);
+        for (Row<T> row : stranded) {
+            rejected(row);
+        }
+    }
+
+    /**
+     * Rejects a buffered row if the writer was closed while it was added. The worker may have exited already.
+     */
+    private CompletableFuture<Integer> recheck(Row<T> row) {
+        if (closed && queue.remove(row)) return rejected(row);
+        return row.future;
+    }
+
+    private CompletableFuture<Integer> rejected(Row<T> row) {
+        row.future.completeExceptionally(new IllegalStateException("Batch writer is closed"));
+        return row.future;
+    }
+
+    private void run() {
+        List<Row<T>> batch = new ArrayList<>(batchSize);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Row<T> first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                long deadline = System.nanoTime() + flushIntervalNanos;
+                while (batch.size() < batchSize) {
+                    if (queue.drainTo(batch, batchSize - batch.size()) > 0) continue;
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0 || closed) break;
+                    Row<T> next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // Keep draining. Rows are only dropped if nobody is left to write them.
+                closed = true;
+            }
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<Row<T>> batch) {
+        int[] counts;
+        try (Connection conn = source.getConnection()) {
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                for (Row<T> row : batch) {
+                    binder.bind(stmt, row.value);
+                    stmt.addBatch();
+                }
+                counts = stmt.executeBatch();
+                conn.commit();
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException | RuntimeException e) {
+            if (e instanceof SQLException) {
+                log.warn("Could not write batch of {} rows.\n{}", batch.size(), DbUtil.prettyException((SQLException) e));
+            }
+            for (Row<T> row : batch) {
+                row.future.completeExceptionally(e);
+            }
+            return;
+        }
+        if (table != null) onWrite.accept(table);
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).future.complete(i < counts.length ? counts[i] : PreparedStatement.SUCCESS_NO_INFO);
+        }
+    }
+
+    private static class Row<T> {
+        private final T value;
+        private final CompletableFuture<Integer> future = new CompletableFuture<>();
+
+        private Row(T value) {
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package de.eldoria.databasesamples.batch;
+
+import de.eldoria.databasesamples.util.DbUtil;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Provider neutral bulk load which streams rows with {@link PreparedStatement#executeBatch()}.
+ */
+public final class BulkLoad {
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private BulkLoad() {
+    }
+
+    /**
+     * Load all rows into the table in one transaction.
+     * <p>
+     * Rows are read from the iterator while writing. Only one batch is held in memory.
+     *
+     * @param source    source to retrieve the connection from
+     * @param table     table to load the rows into
+     * @param columns   columns of the rows
+     * @param rows      rows to load. Every row needs to have one value per column.
+     * @param batchSize amount of rows per executed batch
+     * @return amount of loaded rows
+     * @throws SQLException if the rows could not be loaded. No rows are loaded in this case.
+     */
+    public static long batched(DataSource source, String table, List<String> columns, Iterator<Object[]> rows,
+                               int batchSize) throws SQLException {
+        String sql = insertStatement(table, columns);
+        long count = 0;
+        try (Connection conn = source.getConnection()) {
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                int batch = 0;
+                while (rows.hasNext()) {
+                    Object[] row = rows.next();
+                    if (row.length != columns.size()) {
+                        throw new IllegalArgumentException("Expected " + columns.size() + " values but got " + row.length);
+                    }
+                    for (int i = 0; i < row.length; i++) {
+                        stmt.setObject(i + 1, row[i]);
+                    }
+                    stmt.addBatch();
+                    count++;
+                    if (++batch == batchSize) {
+                        stmt.executeBatch();
+                        batch = 0;
+                    }
+                }
+                if (batch != 0) stmt.executeBatch();
+                conn.commit();
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Build the column list of a bulk load statement.
+     *
+     * @param table   table name
+     * @param columns column names
+     * @return table with column list like {@code table(col1, col2)}
+     */
+    public static String target(String table, List<String> columns) {
+        return DbUtil.requireIdentifier(table) + columnList(columns);
+    }
+
+    /**
+     * Build the column list of a bulk load statement without the table.
+     *
+     * @param columns column names
+     * @return column list like {@code (col1, col2)}
+     */
+    public static String columnList(List<String> columns) {
+        if (columns.isEmpty()) throw new IllegalArgumentException("At least one column is required");
+        StringBuilder builder = new StringBuilder("(");
+        for (int i = 0; i < columns.size(); i++) {
+            if (i != 0) builder.append(", ");
+            builder.append(DbUtil.requireIdentifier(columns.get(i)));
+        }
+        return builder.append(')').toString();
+    }
+
+    private static String insertStatement(String table, List<String> columns) {
+        StringBuilder builder = new StringBuilder("INSERT INTO ").append(target(table, columns)).append(" VALUES(");
+        for (int i = 0; i < columns.size(); i++) {
+            builder.append(i == 0 ? "?" : ", ?");
+        }
+        return builder.append(')').toString();
+    }
+}
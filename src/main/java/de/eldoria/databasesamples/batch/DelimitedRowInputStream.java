@@ -0,0 +1,119 @@
+package de.eldoria.databasesamples.batch;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+/**
+ * Encodes rows lazily into the tab delimited text format.
+ * <p>
+ * Columns are separated by a tab and rows by a line feed. Null is written as {@code \N}. Backslashes, tabs, line feeds
+ * and carriage returns are escaped with a backslash.
+ * <p>
+ * This is the default text format of PostgreSQL {@code COPY} and MariaDB {@code LOAD DATA}.
+ * Only the current row is held in memory.
+ */
+public class DelimitedRowInputStream extends InputStream {
+    private final Iterator<Object[]> rows;
+    private final int columns;
+    private final StringBuilder line = new StringBuilder();
+    private byte[] buffer = new byte[0];
+    private int position;
+    private long count;
+
+    /**
+     * Create a new input stream.
+     *
+     * @param rows    rows to encode. Every row needs to have one value per column.
+     * @param columns amount of columns
+     */
+    public DelimitedRowInputStream(Iterator<Object[]> rows, int columns) {
+        this.rows = rows;
+        this.columns = columns;
+    }
+
+    @Override
+    public int read() {
+        if (!fill()) return -1;
+        return buffer[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) return 0;
+        int read = 0;
+        while (read < len && fill()) {
+            int chunk = Math.min(len - read, buffer.length - position);
+            System.arraycopy(buffer, position, b, off + read, chunk);
+            position += chunk;
+            read += chunk;
+        }
+        return read == 0 ? -1 : read;
+    }
+
+    /**
+     * Get the amount of rows which were encoded so far.
+     *
+     * @return amount of encoded rows
+     */
+    public long count() {
+        return count;
+    }
+
+    private boolean fill() {
+        while (position >= buffer.length) {
+            if (!rows.hasNext()) return false;
+            buffer = encode(rows.next());
+            position = 0;
+            count++;
+        }
+        return true;
+    }
+
+    private byte[] encode(Object[] row) {
+        if (row.length != columns) {
+            throw new IllegalArgumentException("Expected " + columns + " values but got " + row.length);
+        }
+        line.setLength(0);
+        for (int i = 0; i < row.length; i++) {
+            if (i != 0) line.append('\t');
+            appendValue(row[i]);
+        }
+        line.append('\n');
+        return line.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void appendValue(Object value) {
+        if (value == null) {
+            line.append("\\N");
+            return;
+        }
+        if (value instanceof Boolean) {
+            line.append((Boolean) value ? '1' : '0');
+            return;
+        }
+        if (value instanceof byte[]) {
+            throw new IllegalArgumentException("Binary values are not supported by the text format");
+        }
+        String string = value.toString();
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            switch (c) {
+                case '\\':
+                    line.append("\\\\");
+                    break;
+                case '\t':
+                    line.append("\\t");
+                    break;
+                case '\n':
+                    line.append("\\n");
+                    break;
+                case '\r':
+                    line.append("\\r");
+                    break;
+                default:
+                    line.append(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package de.eldoria.databasesamples.batch;
+
+import de.eldoria.databasesamples.dialect.MultiRowInsert;
+import de.eldoria.databasesamples.dialect.SqlDialect;
+import de.eldoria.databasesamples.util.DbUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Buffers updates of entities and writes them with multi row upserts.
+ * <p>
+ * Updates of the same key are coalesced. Only the latest value of a key is written. Dirty entries are flushed
+ * periodically, when the dirty set is full and on {@link #close()}.
+ * <p>
+ * Flushes never run concurrently. An entry is only removed from the dirty set if it was not updated while it was
+ * written. Values of a key are therefore written in the order of their updates and an older value never overwrites a
+ * newer one. A failed flush keeps all entries dirty and is retried with the next flush.
+ * <p>
+ * Dirty entries are held in memory only. Entries which were not flushed yet are lost if the process dies.
+ *
+ * @param <K> type of the primary key
+ * @param <V> type of the entity
+ */
+public class WriteBehindStore<K, V> implements AutoCloseable {
+    public static final int DEFAULT_MAX_DIRTY = 10000;
+    public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+
+    private static final Logger log = LoggerFactory.getLogger(WriteBehindStore.class);
+    private static final AtomicInteger THREAD_ID = new AtomicInteger();
+
+    private final DataSource source;
+    private final MultiRowInsert upsert;
+    private final String table;
+    private final Function<V, Object[]> toRow;
+    private final int maxDirty;
+    private final Consumer<String> onWrite;
+    private final ConcurrentHashMap<K, Dirty<V>> dirty = new ConcurrentHashMap<>();
+    private final AtomicInteger dirtyCount = new AtomicInteger();
+    private final Object flushLock = new Object();
+    private final ScheduledExecutorService flusher;
+    private final LongAdder updates = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private volatile boolean closed;
+
+    /**
+     * Create a new write behind store.
+     *
+     * @param source        source to retrieve connections from
+     * @param dialect       dialect of the database
+     * @param table         table of the entities
+     * @param columns       columns of a row
+     * @param keyColumns    columns of the primary key
+     * @param toRow         maps an entity to its row with one value per column
+     * @param maxDirty      max amount of dirty keys before writers flush themselves
+     * @param flushInterval interval of the periodic flush
+     * @param unit          unit of the flush interval
+     */
+    public WriteBehindStore(DataSource source, SqlDialect dialect, String table, List<String> columns,
+                            List<String> keyColumns, Function<V, Object[]> toRow, int maxDirty, long flushInterval,
+                            TimeUnit unit) {
+        this(source, dialect, table, columns, keyColumns, toRow, maxDirty, flushInterval, unit, t -> {
+        });
+    }
+
+    /**
+     * Create a new write behind store.
+     *
+     * @param source        source to retrieve connections from
+     * @param dialect       dialect of the database
+     * @param table         table of the entities
+     * @param columns       columns of a row
+     * @param keyColumns    columns of the primary key
+     * @param toRow         maps an entity to its row with one value per column
+     * @param maxDirty      max amount of dirty keys before writers flush themselves
+     * @param flushInterval interval of the periodic flush
+     * @param unit          unit of the flush interval
+     * @param onWrite       called with the written table after every flush
+     */
+    public WriteBehindStore(DataSource source, SqlDialect dialect, String table, List<String> columns,
+                            List<String> keyColumns, Function<V, Object[]> toRow, int maxDirty, long flushInterval,
+                            TimeUnit unit, Consumer<String> onWrite) {
+        if (maxDirty < 1) throw new IllegalArgumentException("Max dirty entries must be at least 1");
+        if (keyColumns.isEmpty()) throw new IllegalArgumentException("At least one key column is required");
+        this.source = source;
+        this.upsert = new MultiRowInsert(dialect, table, columns, keyColumns);
+        this.table = DbUtil.requireIdentifier(table);
+        this.toRow = toRow;
+        this.maxDirty = maxDirty;
+        this.onWrite = onWrite;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "write-behind-" + THREAD_ID.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushInterval, flushInterval, unit);
+    }
+
+    /**
+     * Store the latest value of an entity. Replaces a value of the same key which was not written yet.
+     * <p>
+     * Flushes on the calling thread if the key is new and the dirty set is full. An update which races with
+     * {@link #close()} is flushed on the calling thread as well, so it is never dropped silently.
+     *
+     * @param key   primary key of the entity
+     * @param value latest value of the entity
+     * @throws SQLException          if the dirty set was full or the store was closed concurrently and the update
+     *                               could not be flushed
+     * @throws IllegalStateException if the store is closed
+     */
+    public void put(K key, V value) throws SQLException {
+        if (closed) throw new IllegalStateException("Write behind store is closed");
+        updates.increment();
+        if (dirty.put(key, new Dirty<>(value)) == null && dirtyCount.incrementAndGet() > maxDirty) {
+            flush();
+        } else if (closed) {
+            // The final flush of close() may have run before the update was stored.
+            flush();
+        }
+    }
+
+    /**
+     * Get the value of a key which was not written yet.
+     *
+     * @param key primary key of the entity
+     * @return the pending value or null if the key is not dirty
+     */
+    public V pending(K key) {
+        Dirty<V> entry = dirty.get(key);
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * Amount of keys with a value which was not written yet.
+     *
+     * @return amount of dirty keys
+     */
+    public int dirty() {
+        return dirtyCount.get();
+    }
+
+    /**
+     * Amount of updates which were stored.
+     *
+     * @return amount of updates
+     */
+    public long updates() {
+        return updates.sum();
+    }
+
+    /**
+     * Amount of rows which were written to the database.
+     *
+     * @return amount of written rows
+     */
+    public long written() {
+        return written.sum();
+    }
+
+    /**
+     * Amount of successful flushes which wrote at least one row.
+     *
+     * @return amount of flushes
+     */
+    public long flushes() {
+        return flushes.sum();
+    }
+
+    /**
+     * Write all dirty entries in one transaction. Waits for a running flush first.
+     *
+     * @return amount of written rows
+     * @throws SQLException if the entries could not be written. The entries stay dirty in this case.
+     */
+    public long flush() throws SQLException {
+        synchronized (flushLock) {
+            List<K> keys = new ArrayList<>(dirty.size());
+            List<Dirty<V>> entries = new ArrayList<>(dirty.size());
+            List<Object[]> rows = new ArrayList<>(dirty.size());
+            for (Map.Entry<K, Dirty<V>> entry : dirty.entrySet()) {
+                keys.add(entry.getKey());
+                entries.add(entry.getValue());
+                rows.add(toRow.apply(entry.getValue().value));
+            }
+            if (rows.isEmpty()) return 0;
+            long count = upsert.execute(source, rows.iterator());
+            for (int i = 0; i < keys.size(); i++) {
+                // Entries which were updated during the write stay dirty with their newer value.
+                if (dirty.remove(keys.get(i), entries.get(i))) dirtyCount.decrementAndGet();
+            }
+            written.add(count);
+            flushes.increment();
+            onWrite.accept(table);
+            return count;
+        }
+    }
+
+    /**
+     * Stops accepting updates and writes all dirty entries.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            flush();
+        } catch (SQLException e) {
+            log.error("Could not write {} dirty entries of {}. The entries are lost.\n{}", dirty(), table,
+                    DbUtil.prettyException(e));
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (SQLException e) {
+            log.warn("Could not flush {} dirty entries of {}. Retrying with the next flush.\n{}", dirty(), table,
+                    DbUtil.prettyException(e));
+        } catch (RuntimeException e) {
+            log.warn("Could not flush dirty entries of {}.", table, e);
+        }
+    }
+
+    /**
+     * A dirty value. Every update creates a new instance, so a flush can detect updates by identity.
+     */
+    private static final class Dirty<V> {
+        private final V value;
+
+        private Dirty(V value) {
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package de.eldoria.databasesamples.cache;
+
+import de.eldoria.databasesamples.util.RowMapper;
+import de.eldoria.databasesamples.util.SqlTables;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Read through cache for query results.
+ * <p>
+ * Results are cached by sql and bound parameters. The cache is bounded by the amount of entries and the estimated
+ * weight of the cached rows. Entries expire after the time to live and the least recently used entries are evicted
+ * first. The cache is split into segments with their own lock to reduce contention.
+ * <p>
+ * The bounds apply to the whole cache. If the cache is full, the least recently used entry of the written segment is
+ * evicted, so the evicted entry is only approximately the least recently used one of the whole cache. Concurrent
+ * writes may exceed the bounds for a moment.
+ * <p>
+ * Every entry remembers the tables of its query. A write to one of these tables via {@link #invalidate(String)}
+ * invalidates the entry.
+ * <p>
+ * Closing the cache drops all results and runs the {@link #onClose(Runnable) close handlers}, which unregister the
+ * cache from the writes it listens to.
+ */
+public class QueryCache implements AutoCloseable {
+    private static final int SEGMENTS = 16;
+    private static final long ENTRY_OVERHEAD = 96;
+
+    private final DataSource source;
+    private final long ttlNanos;
+    private final int maxEntries;
+    private final long maxWeight;
+    private final Segment[] segments;
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong weight = new AtomicLong();
+    private final Map<String, AtomicLong> tableVersions = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final List<Runnable> closeHandlers = new CopyOnWriteArrayList<>();
+    private volatile boolean closed;
+
+    /**
+     * Create a new query cache.
+     *
+     * @param source     source to load missing results from
+     * @param maxEntries max amount of cached results
+     * @param maxWeight  max estimated size of all cached results in bytes
+     * @param ttl        time to live of a result
+     * @param unit       unit of the time to live
+     */
+    public QueryCache(DataSource source, int maxEntries, long maxWeight, long ttl, TimeUnit unit) {
+        this.source = source;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.maxEntries = Math.max(1, maxEntries);
+        this.maxWeight = Math.max(1, maxWeight);
+        // Small caches get fewer segments, so every segment holds a few entries to choose the eviction from.
+        this.segments = new Segment[Math.max(1, Math.min(SEGMENTS, Integer.highestOneBit(this.maxEntries / 4)))];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Get the result of a query from the cache or load it from the database.
+     * <p>
+     * The mapper is not part of the cache key. Use the same mapper for the same query.
+     *
+     * @param sql    query
+     * @param mapper mapper for the rows of the result
+     * @param params parameters which are bound in order
+     * @param <T>    type of the mapped rows
+     * @return unmodifiable list of the mapped rows
+     * @throws SQLException          if the result could not be loaded
+     * @throws IllegalStateException if the cache is closed
+     */
+    public <T> List<T> query(String sql, RowMapper<T> mapper, Object... params) throws SQLException {
+        // A closed cache no longer sees writes and would return stale results.
+        if (closed) throw new IllegalStateException("Query cache is closed");
+        Key key = new Key(sql, params);
+        Segment segment = segments[index(key)];
+        Entry entry = segment.get(key);
+        if (entry != null) {
+            if (entry.expires - System.nanoTime() < 0) {
+                expirations.increment();
+                segment.remove(key, entry);
+            } else if (!current(entry)) {
+                segment.remove(key, entry);
+            } else {
+                hits.increment();
+                @SuppressWarnings("unchecked")
+                List<T> rows = (List<T>) entry.rows;
+                return rows;
+            }
+        }
+        misses.increment();
+
+        // Versions are taken before loading. A write during the load invalidates the entry right away.
+        Set<String> tables = SqlTables.referencedTables(sql);
+        String[] tableNames = tables.toArray(new String[0]);
+        long[] versions = new long[tableNames.length];
+        for (int i = 0; i < tableNames.length; i++) {
+            versions[i] = version(tableNames[i]).get();
+        }
+
+        List<T> rows = load(sql, mapper, params);
+        long weight = ENTRY_OVERHEAD + Weights.estimate(sql) + Weights.estimate(params) + Weights.estimate(rows);
+        put(key, new Entry(rows, weight, System.nanoTime() + ttlNanos, tableNames, versions));
+        return rows;
+    }
+
+    /**
+     * Invalidate all cached results which read from the table.
+     *
+     * @param table table which was written
+     */
+    public void invalidate(String table) {
+        version(SqlTables.normalize(table)).incrementAndGet();
+        invalidations.increment();
+    }
+
+    /**
+     * Remove all cached results.
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * Register a handler which is called once the cache is closed.
+     *
+     * @param handler handler to call on close
+     * @return this cache
+     */
+    public QueryCache onClose(Runnable handler) {
+        closeHandlers.add(handler);
+        return this;
+    }
+
+    /**
+     * Remove all cached results and run the close handlers. Further queries fail.
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        clear();
+        for (Runnable handler : closeHandlers) {
+            handler.run();
+        }
+    }
+
+    /**
+     * Get a snapshot of the cache statistics.
+     *
+     * @return cache statistics
+     */
+    public CacheStats stats() {
+        return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), expirations.sum(), invalidations.sum(),
+                size.get(), weight.get());
+    }
+
+    private void put(Key key, Entry entry) {
+        if (entry.weight > maxWeight) return;
+        int index = index(key);
+        segments[index].put(key, entry);
+        // Evict from the written segment first and from the following segments once it holds no other entry.
+        for (int i = 0; i < segments.length && (size.get() > maxEntries || weight.get() > maxWeight); ) {
+            if (!segments[(index + i) % segments.length].evictEldest(key)) i++;
+        }
+    }
+
+    private void removed(Entry entry) {
+        size.decrementAndGet();
+        weight.addAndGet(-entry.weight);
+    }
+
+    private <T> List<T> load(String sql, RowMapper<T> mapper, Object[] params) throws SQLException {
+        try (Connection conn = source.getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < params.length; i++) {
+                stmt.setObject(i + 1, params[i]);
+            }
+            ResultSet resultSet = stmt.executeQuery();
+            List<T> rows = new ArrayList<>();
+            while (resultSet.next()) {
+                rows.add(mapper.map(resultSet));
+            }
+            return Collections.unmodifiableList(rows);
+        }
+    }
+
+    private boolean current(Entry entry) {
+        for (int i = 0; i < entry.tables.length; i++) {
+            if (version(entry.tables[i]).get() != entry.versions[i]) return false;
+        }
+        return true;
+    }
+
+    private AtomicLong version(String table) {
+        return tableVersions.computeIfAbsent(table, k -> new AtomicLong());
+    }
+
+    private int index(Key key) {
+        int hash = key.hash ^ (key.hash >>> 16);
+        return hash & (segments.length - 1);
+    }
+
+    private static final class Key {
+        private final String sql;
+        private final Object[] params;
+        private final int hash;
+
+        private Key(String sql, Object[] params) {
+            this.sql = sql;
+            this.params = params.clone();
+            this.hash = 31 * sql.hashCode() + Arrays.deepHashCode(this.params);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return hash == key.hash && sql.equals(key.sql) && Arrays.deepEquals(params, key.params);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Entry {
+        private final List<?> rows;
+        private final long weight;
+        private final long expires;
+        private final String[] tables;
+        private final long[] versions;
+
+        private Entry(List<?> rows, long weight, long expires, String[] tables, long[] versions) {
+            this.rows = rows;
+            this.weight = weight;
+            this.expires = expires;
+            this.tables = tables;
+            this.versions = versions;
+        }
+    }
+
+    private final class Segment {
+        private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+        private synchronized Entry get(Key key) {
+            return entries.get(key);
+        }
+
+        private synchronized void put(Key key, Entry entry) {
+            Entry previous = entries.put(key, entry);
+            if (previous != null) removed(previous);
+            size.incrementAndGet();
+            weight.addAndGet(entry.weight);
+        }
+
+        /**
+         * Evict the least recently used entry of this segment.
+         *
+         * @param keep key which is not evicted
+         * @return true if an entry was evicted
+         */
+        private synchronized boolean evictEldest(Key keep) {
+            Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Key, Entry> eldest = iterator.next();
+                if (eldest.getKey().equals(keep)) continue;
+                iterator.remove();
+                removed(eldest.getValue());
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+
+        private synchronized void remove(Key key, Entry entry) {
+            if (entries.remove(key, entry)) removed(entry);
+        }
+
+        private synchronized void clear() {
+            for (Entry entry : entries.values()) {
+                removed(entry);
+            }
+            entries.clear();
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package de.eldoria.databasesamples.cache;
+
+import de.eldoria.databasesamples.timeout.TimeoutDataSource;
+import de.eldoria.databasesamples.util.DbUtil;
+import de.eldoria.databasesamples.util.DelegatingDataSource;
+import de.eldoria.databasesamples.util.Proxies;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps prepared statements open per pooled connection.
+ * <p>
+ * Statements are prepared on the physical connection behind the pooled connection. Closing a cached statement clears
+ * its parameters and returns it to the cache instead of closing it. The next {@link Connection#prepareStatement(String)}
+ * with the same sql on the same physical connection reuses the statement and skips parsing and planning.
+ * <p>
+ * Every physical connection has its own LRU cache. Evicted statements are closed. The caches of physical connections
+ * which were closed by the pool are dropped on a later borrow. A cached statement which fails with a connection failure
+ * drops the cache of its connection and evicts the connection from the pool, because the pool does not see errors of
+ * statements it did not create. For the same reason the transaction of a connection is rolled back on close if a
+ * cached statement was executed and neither commit nor rollback was called.
+ */
+public class StatementCachingDataSource extends DelegatingDataSource implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(StatementCachingDataSource.class);
+    /**
+     * Amount of borrows after which the caches of closed physical connections are dropped.
+     */
+    private static final int SWEEP_INTERVAL = 64;
+
+    private final int cacheSize;
+    private final TimeoutDataSource.Evictor evictor;
+    private final Map<Connection, StatementLru> caches = new ConcurrentHashMap<>();
+    private final AtomicInteger borrows = new AtomicInteger();
+
+    /**
+     * Create a new caching data source.
+     *
+     * @param delegate  pooled data source
+     * @param cacheSize max amount of cached statements per connection
+     * @param evictor   removes a connection from the pool once a cached statement reported a connection failure
+     */
+    public StatementCachingDataSource(DataSource delegate, int cacheSize, TimeoutDataSource.Evictor evictor) {
+        super(delegate);
+        this.cacheSize = cacheSize;
+        this.evictor = evictor;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return wrap(super.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return wrap(super.getConnection(username, password));
+    }
+
+    /**
+     * Amount of physical connections which have a statement cache.
+     *
+     * @return cached connections
+     */
+    public int cachedConnections() {
+        return caches.size();
+    }
+
+    /**
+     * Close all cached statements.
+     */
+    @Override
+    public void close() {
+        for (StatementLru cache : caches.values()) {
+            cache.closeAll();
+        }
+        caches.clear();
+    }
+
+    private Connection wrap(Connection conn) throws SQLException {
+        if (borrows.incrementAndGet() % SWEEP_INTERVAL == 0) sweep();
+        Connection physical = conn.unwrap(Connection.class);
+        StatementLru cache = caches.computeIfAbsent(physical, k -> new StatementLru(cacheSize));
+        return Proxies.create(Connection.class, new ConnectionHandler(conn, physical, cache));
+    }
+
+    /**
+     * Drop the caches of physical connections which were closed by the pool.
+     */
+    private void sweep() {
+        Iterator<Map.Entry<Connection, StatementLru>> iterator = caches.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Connection, StatementLru> entry = iterator.next();
+            if (!isClosed(entry.getKey())) continue;
+            iterator.remove();
+            entry.getValue().closeAll();
+        }
+    }
+
+    private static boolean isClosed(Connection physical) {
+        try {
+            return physical.isClosed();
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+
+    private final class ConnectionHandler implements InvocationHandler {
+        private final Connection conn;
+        private final Connection physical;
+        private final StatementLru cache;
+        private final List<StatementHandler> borrowed = new ArrayList<>();
+        private Connection proxy;
+        private boolean dirty;
+        private boolean broken;
+
+        private ConnectionHandler(Connection conn, Connection physical, StatementLru cache) {
+            this.conn = conn;
+            this.physical = physical;
+            this.cache = cache;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            this.proxy = (Connection) proxy;
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "StatementCaching[" + conn + "]";
+                case "prepareStatement":
+                    if (args.length == 1) return prepare((String) args[0]);
+                    break;
+                case "commit":
+                case "rollback":
+                    if (args == null) {
+                        Object result = Proxies.invoke(conn, method, args);
+                        dirty = false;
+                        return result;
+                    }
+                    break;
+                case "setAutoCommit":
+                    // Enabling auto commit commits the running transaction.
+                    if ((Boolean) args[0]) dirty = false;
+                    break;
+                case "close":
+                    close();
+                    break;
+                default:
+                    break;
+            }
+            return Proxies.invoke(conn, method, args);
+        }
+
+        private PreparedStatement prepare(String sql) throws SQLException {
+            // A broken connection has no cache anymore. The pool creates and tracks the statement.
+            if (broken) return conn.prepareStatement(sql);
+            CachedStatement cached;
+            synchronized (cache) {
+                cached = cache.get(sql);
+                if (cached != null && cached.stmt.isClosed()) {
+                    cache.remove(sql);
+                    cached = null;
+                }
+                if (cached != null && cached.inUse) {
+                    // Same statement twice on one connection. Use an uncached statement tracked by the pool.
+                    return conn.prepareStatement(sql);
+                }
+                if (cached == null) {
+                    cached = new CachedStatement(physical.prepareStatement(sql));
+                    cache.put(sql, cached);
+                }
+                cached.inUse = true;
+            }
+            StatementHandler handler = new StatementHandler(cached, this);
+            borrowed.add(handler);
+            return Proxies.create(PreparedStatement.class, handler);
+        }
+
+        private void close() {
+            for (StatementHandler handler : borrowed) {
+                handler.release();
+            }
+            borrowed.clear();
+            if (!dirty || broken) return;
+            // The pool only rolls back transactions of statements it created.
+            try {
+                if (!conn.getAutoCommit()) conn.rollback();
+            } catch (SQLException e) {
+                failed(e);
+            }
+        }
+
+        /**
+         * Drop the cache and evict the connection if the exception reports a lost connection.
+         */
+        private void failed(SQLException e) {
+            if (broken || !DbUtil.isConnectionFailure(e)) return;
+            broken = true;
+            if (caches.remove(physical, cache)) cache.closeAll();
+            try {
+                evictor.evict(conn);
+            } catch (SQLException ex) {
+                log.warn("Could not evict connection {}.", conn, ex);
+            }
+        }
+    }
+
+    private static final class StatementHandler implements InvocationHandler {
+        private final CachedStatement cached;
+        private final ConnectionHandler owner;
+        private final List<ResultSet> results = new ArrayList<>(1);
+        private boolean closed;
+
+        private StatementHandler(CachedStatement cached, ConnectionHandler owner) {
+            this.cached = cached;
+            this.owner = owner;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Cached[" + cached.stmt + "]";
+                case "close":
+                    release();
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "getConnection":
+                    return owner.proxy;
+                default:
+                    break;
+            }
+            if (closed) throw new SQLException("Statement is closed");
+            if (name.startsWith("execute")) owner.dirty = true;
+            Object result;
+            try {
+                result = Proxies.invoke(cached.stmt, method, args);
+            } catch (SQLException e) {
+                owner.failed(e);
+                throw e;
+            }
+            if (result instanceof ResultSet) results.add((ResultSet) result);
+            return result;
+        }
+
+        private void release() {
+            if (closed) return;
+            closed = true;
+            boolean healthy = true;
+            try {
+                for (ResultSet result : results) {
+                    result.close();
+                }
+                cached.stmt.clearParameters();
+                cached.stmt.clearWarnings();
+            } catch (SQLException e) {
+                healthy = false;
+            }
+            results.clear();
+            synchronized (owner.cache) {
+                cached.inUse = false;
+                if (healthy && !cached.evicted) return;
+                cached.evicted = true;
+            }
+            cached.close();
+        }
+    }
+
+    private static final class CachedStatement {
+        private final PreparedStatement stmt;
+        private boolean inUse;
+        private boolean evicted;
+
+        private CachedStatement(PreparedStatement stmt) {
+            this.stmt = stmt;
+        }
+
+        private void close() {
+            try {
+                stmt.close();
+            } catch (SQLException e) {
+                // The statement is discarded anyway.
+            }
+        }
+    }
+
+    private static final class StatementLru extends LinkedHashMap<String, CachedStatement> {
+        private final int maxSize;
+
+        private StatementLru(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+            if (size() <= maxSize) return false;
+            CachedStatement statement = eldest.getValue();
+            statement.evicted = true;
+            if (!statement.inUse) statement.close();
+            return true;
+        }
+
+        /**
+         * Close all statements. Statements which are in use are closed once they are returned.
+         */
+        private synchronized void closeAll() {
+            for (CachedStatement statement : values()) {
+                statement.evicted = true;
+                if (!statement.inUse) statement.close();
+            }
+            clear();
+        }
+    }
+}
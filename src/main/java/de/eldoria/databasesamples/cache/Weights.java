@@ -0,0 +1,48 @@
+package de.eldoria.databasesamples.cache;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Rough estimation of the heap size of cached values.
+ * <p>
+ * Strings, numbers, arrays, collections and maps are estimated by their content. Other objects are estimated with a
+ * fixed size.
+ */
+final class Weights {
+    private static final long OBJECT = 16;
+    private static final long REFERENCE = 8;
+    private static final long UNKNOWN = 64;
+
+    private Weights() {
+    }
+
+    static long estimate(Object value) {
+        if (value == null) return 0;
+        if (value instanceof String) return OBJECT + 24 + 2L * ((String) value).length();
+        if (value instanceof Number || value instanceof Boolean || value instanceof Character) return OBJECT + 8;
+        if (value instanceof byte[]) return OBJECT + ((byte[]) value).length;
+        if (value instanceof Object[]) {
+            long weight = OBJECT;
+            for (Object element : (Object[]) value) {
+                weight += REFERENCE + estimate(element);
+            }
+            return weight;
+        }
+        if (value instanceof Collection) {
+            long weight = OBJECT * 2;
+            for (Object element : (Collection<?>) value) {
+                weight += REFERENCE + estimate(element);
+            }
+            return weight;
+        }
+        if (value instanceof Map) {
+            long weight = OBJECT * 2;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                weight += OBJECT * 2 + estimate(entry.getKey()) + estimate(entry.getValue());
+            }
+            return weight;
+        }
+        return UNKNOWN;
+    }
+}
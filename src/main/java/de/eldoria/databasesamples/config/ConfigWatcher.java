@@ -0,0 +1,163 @@
+package de.eldoria.databasesamples.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Watches a config file and notifies listeners when its content changed.
+ * <p>
+ * The directory of the file is watched with a {@link WatchService}. Editors often write a file in several steps, so
+ * the file is read once no further events arrived for the settle time. A file with the same content as before does not
+ * notify the listeners. A file which can not be parsed is logged and ignored, the previous config stays active.
+ *
+ * @see de.eldoria.databasesamples.util.DataSourceProvider#watch(ConfigWatcher)
+ */
+public class ConfigWatcher implements AutoCloseable {
+    public static final long DEFAULT_SETTLE_TIME = 200;
+
+    private static final Logger log = LoggerFactory.getLogger(ConfigWatcher.class);
+    private static final AtomicInteger THREAD_ID = new AtomicInteger();
+
+    private final Path file;
+    private final long settleMillis;
+    private final WatchService service;
+    private final List<Consumer<DbConfig>> listeners = new CopyOnWriteArrayList<>();
+    private final Thread thread;
+    private volatile DbConfig config;
+    private byte[] content;
+
+    /**
+     * Create a new watcher with the default settle time.
+     *
+     * @param file config file to watch
+     * @throws IOException if the file could not be read or watched
+     */
+    public ConfigWatcher(Path file) throws IOException {
+        this(file, DEFAULT_SETTLE_TIME, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Create a new watcher. The file is read once and watched from now on.
+     *
+     * @param file       config file to watch
+     * @param settleTime time without further events before a changed file is read
+     * @param unit       unit of the settle time
+     * @throws IOException if the file could not be read or watched
+     */
+    public ConfigWatcher(Path file, long settleTime, TimeUnit unit) throws IOException {
+        this.file = file.toAbsolutePath();
+        this.settleMillis = unit.toMillis(settleTime);
+        this.content = Files.readAllBytes(this.file);
+        this.config = DbConfig.load(this.file);
+        this.service = this.file.getFileSystem().newWatchService();
+        try {
+            this.file.getParent().register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            service.close();
+            throw e;
+        }
+        this.thread = new Thread(this::watch, "config-watcher-" + THREAD_ID.incrementAndGet());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Get the last valid config of the file.
+     *
+     * @return current config
+     */
+    public DbConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Register a listener which is called with the new config after the file changed.
+     * <p>
+     * Listeners are called on the watcher thread. An exception of a listener is logged and does not affect other
+     * listeners.
+     *
+     * @param listener listener to register
+     */
+    public void onChange(Consumer<DbConfig> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Read the file and notify the listeners if its content changed.
+     *
+     * @return true if a new config was applied
+     */
+    public synchronized boolean reload() {
+        DbConfig loaded;
+        byte[] read;
+        try {
+            read = Files.readAllBytes(file);
+            if (Arrays.equals(read, content)) return false;
+            loaded = DbConfig.load(file);
+        } catch (IOException e) {
+            log.warn("Could not reload config {}. Keeping the previous config.", file, e);
+            return false;
+        }
+        content = read;
+        config = loaded;
+        log.info("Config {} changed.", file);
+        for (Consumer<DbConfig> listener : listeners) {
+            try {
+                listener.accept(loaded);
+            } catch (RuntimeException e) {
+                log.warn("Config listener failed.", e);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        service.close();
+        thread.interrupt();
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                boolean changed = false;
+                // Collect events until the file settled.
+                while (key != null) {
+                    changed |= concernsFile(key);
+                    key.reset();
+                    key = service.poll(settleMillis, TimeUnit.MILLISECONDS);
+                }
+                if (changed) reload();
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            log.debug("Stopped watching config {}.", file);
+        }
+    }
+
+    private boolean concernsFile(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context())) {
+                changed = true;
+            }
+        }
+        return changed;
+    }
+}
@@ -2,7 +2,11 @@ package de.eldoria.databasesamples.config;
 
 public enum DatabaseType {
     MARIADB("mysql", "org.mariadb.jdbc.MariaDbDataSource"),
-    POSTGRESQL("postgresql", "org.postgresql.ds.PGSimpleDataSource");
+    POSTGRESQL("postgresql", "org.postgresql.ds.PGSimpleDataSource"),
+    /**
+     * Embedded H2 database, which runs in the compatibility mode of another type.
+     */
+    H2("h2", "org.h2.jdbcx.JdbcDataSource");
 
     private final String database;
     private final String driverClass;
@@ -1,8 +1,39 @@
 package de.eldoria.databasesamples.config;
 
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 public class DbConfig {
     private DBSettings postgres;
     private DBSettings mariadb;
+    private DBSettings h2;
+
+    /**
+     * Read a config from a json file.
+     *
+     * @param path path of the config file
+     * @return config of the file
+     * @throws IOException if the file could not be read or is not a valid config
+     * @see ConfigWatcher
+     */
+    public static DbConfig load(Path path) throws IOException {
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            DbConfig config = new Gson().fromJson(reader, DbConfig.class);
+            if (config == null) throw new IOException("Config file " + path + " is empty");
+            return config;
+        } catch (JsonParseException e) {
+            throw new IOException("Config file " + path + " is not valid", e);
+        }
+    }
 
     public DBSettings getPostgres() {
         return postgres;
@@ -12,6 +43,29 @@ public class DbConfig {
         return mariadb;
     }
 
+    public DBSettings getH2() {
+        return h2;
+    }
+
+    /**
+     * Get the settings of a database type.
+     *
+     * @param type type of the database
+     * @return settings of the database or null if the section is missing
+     */
+    public DBSettings getSettings(DatabaseType type) {
+        switch (type) {
+            case MARIADB:
+                return mariadb;
+            case POSTGRESQL:
+                return postgres;
+            case H2:
+                return h2;
+            default:
+                throw new IllegalArgumentException("Unknown database type " + type);
+        }
+    }
+
     public static class DBSettings implements Cloneable {
         private String address;
         private String port;
@@ -20,6 +74,20 @@ public class DbConfig {
         private String password;
         private int minConnections;
         private int maxConnections;
+        private boolean adaptivePoolSize;
+        private String poolBackend;
+        private DatabaseType compatibility;
+        private boolean multiQueries;
+        private int fetchSize;
+        private StatementCache statementCache;
+        private Metrics metrics;
+        private Startup startup;
+        private Outbox outbox;
+        private Resilience resilience;
+        private Timeouts timeouts;
+        private Retry retry;
+        private List<DBSettings> replicas;
+        private int maxReplicaLag;
 
         public DBSettings(String address, String port, String database, String user, String password, int minConnections, int maxConnections) {
             this.address = address;
@@ -59,6 +127,143 @@ public class DbConfig {
             return Math.max(maxConnections, 1);
         }
 
+        /**
+         * Whether the pool size is adjusted to the load between min and max connections at runtime.
+         *
+         * @return true if the pool size is adaptive
+         */
+        public boolean isAdaptivePoolSize() {
+            return adaptivePoolSize;
+        }
+
+        /**
+         * Name of the pool backend. {@code hikari}, {@code lockfree}, {@code unpooled} or the name of a backend which
+         * is registered as service.
+         *
+         * @return name of the pool backend
+         */
+        public String getPoolBackend() {
+            return poolBackend == null ? "hikari" : poolBackend;
+        }
+
+        /**
+         * Database type which an embedded database emulates. Only used by {@link DatabaseType#H2}.
+         *
+         * @return emulated database type. {@link DatabaseType#MARIADB} by default.
+         */
+        public DatabaseType getCompatibility() {
+            return compatibility == null || compatibility == DatabaseType.H2 ? DatabaseType.MARIADB : compatibility;
+        }
+
+        /**
+         * Whether pipelines may send several statements in one request. Only used by MariaDB.
+         * <p>
+         * MariaDB needs {@code allowMultiQueries} for this, which also permits stacked queries. It is only enabled on
+         * a separate pool for pipelines.
+         *
+         * @return true if pipelines send their statements at once
+         */
+        public boolean isMultiQueries() {
+            return multiQueries;
+        }
+
+        /**
+         * Amount of rows which are fetched at once when a query result is streamed.
+         *
+         * @return fetch size
+         */
+        public int getFetchSize() {
+            return fetchSize <= 0 ? 1000 : fetchSize;
+        }
+
+        /**
+         * Get the statement cache settings. Defaults are used if the section is missing.
+         *
+         * @return statement cache settings
+         */
+        public StatementCache getStatementCache() {
+            if (statementCache == null) statementCache = new StatementCache();
+            return statementCache;
+        }
+
+        /**
+         * Get the metrics settings. Defaults are used if the section is missing.
+         *
+         * @return metrics settings
+         */
+        public Metrics getMetrics() {
+            if (metrics == null) metrics = new Metrics();
+            return metrics;
+        }
+
+        /**
+         * Get the startup settings. Defaults are used if the section is missing.
+         *
+         * @return startup settings
+         */
+        public Startup getStartup() {
+            if (startup == null) startup = new Startup();
+            return startup;
+        }
+
+        /**
+         * Get the outbox settings. Defaults are used if the section is missing.
+         *
+         * @return outbox settings
+         */
+        public Outbox getOutbox() {
+            if (outbox == null) outbox = new Outbox();
+            return outbox;
+        }
+
+        /**
+         * Get the admission and circuit breaker settings. Defaults are used if the section is missing.
+         *
+         * @return resilience settings
+         */
+        public Resilience getResilience() {
+            if (resilience == null) resilience = new Resilience();
+            return resilience;
+        }
+
+        /**
+         * Get the timeout settings. Defaults are used if the section is missing.
+         *
+         * @return timeout settings
+         */
+        public Timeouts getTimeouts() {
+            if (timeouts == null) timeouts = new Timeouts();
+            return timeouts;
+        }
+
+        /**
+         * Get the retry settings. Defaults are used if the section is missing.
+         *
+         * @return retry settings
+         */
+        public Retry getRetry() {
+            if (retry == null) retry = new Retry();
+            return retry;
+        }
+
+        /**
+         * Get the read replicas of this database.
+         *
+         * @return read replicas. Empty if no replicas are configured.
+         */
+        public List<DBSettings> getReplicas() {
+            return replicas == null ? Collections.emptyList() : replicas;
+        }
+
+        /**
+         * Max replication lag of a replica in seconds before reads are routed to other replicas or the primary.
+         *
+         * @return max replication lag in seconds
+         */
+        public int getMaxReplicaLag() {
+            return maxReplicaLag <= 0 ? 10 : maxReplicaLag;
+        }
+
         public String getUrl(DatabaseType databaseType) {
             return String.format("jdbs:%s://%s:%s/%s", databaseType.getDatabase(), address, port, database);
         }
@@ -91,10 +296,813 @@ public class DbConfig {
             this.maxConnections = maxConnections;
         }
 
+        public void setAdaptivePoolSize(boolean adaptivePoolSize) {
+            this.adaptivePoolSize = adaptivePoolSize;
+        }
+
+        public void setPoolBackend(String poolBackend) {
+            this.poolBackend = poolBackend;
+        }
+
+        public void setCompatibility(DatabaseType compatibility) {
+            this.compatibility = compatibility;
+        }
+
+        public void setMultiQueries(boolean multiQueries) {
+            this.multiQueries = multiQueries;
+        }
+
+        public void setFetchSize(int fetchSize) {
+            this.fetchSize = fetchSize;
+        }
+
+        public void setStatementCache(StatementCache statementCache) {
+            this.statementCache = statementCache;
+        }
+
+        public void setMetrics(Metrics metrics) {
+            this.metrics = metrics;
+        }
+
+        public void setStartup(Startup startup) {
+            this.startup = startup;
+        }
+
+        public void setOutbox(Outbox outbox) {
+            this.outbox = outbox;
+        }
+
+        public void setResilience(Resilience resilience) {
+            this.resilience = resilience;
+        }
+
+        public void setTimeouts(Timeouts timeouts) {
+            this.timeouts = timeouts;
+        }
+
+        public void setRetry(Retry retry) {
+            this.retry = retry;
+        }
+
+        public void setReplicas(List<DBSettings> replicas) {
+            this.replicas = replicas;
+        }
+
+        public void setMaxReplicaLag(int maxReplicaLag) {
+            this.maxReplicaLag = maxReplicaLag;
+        }
+
         @Override
         public DBSettings clone() {
-            return new DBSettings(address, port, database,user,password,minConnections,maxConnections);
+            DBSettings clone = new DBSettings(address, port, database,user,password,minConnections,maxConnections);
+            clone.adaptivePoolSize = adaptivePoolSize;
+            clone.poolBackend = poolBackend;
+            clone.compatibility = compatibility;
+            clone.multiQueries = multiQueries;
+            clone.fetchSize = fetchSize;
+            clone.statementCache = getStatementCache().clone();
+            clone.metrics = getMetrics().clone();
+            clone.startup = getStartup().clone();
+            clone.outbox = getOutbox().clone();
+            clone.resilience = getResilience().clone();
+            clone.timeouts = getTimeouts().clone();
+            clone.retry = getRetry().clone();
+            clone.maxReplicaLag = maxReplicaLag;
+            if (replicas != null) {
+                clone.replicas = new ArrayList<>();
+                for (DBSettings replica : replicas) {
+                    clone.replicas.add(replica.clone());
+                }
+            }
+            return clone;
+        }
+    }
+
+    /**
+     * Settings of the driver side and library side prepared statement caches.
+     */
+    public static class StatementCache implements Cloneable {
+        private boolean serverPrepare = true;
+        private int cacheSize = 250;
+        private int cacheSqlLimit = 2048;
+        private int prepareThreshold = 5;
+        private int connectionCacheSize = 0;
+
+        public StatementCache() {
+        }
+
+        public StatementCache(boolean serverPrepare, int cacheSize, int cacheSqlLimit, int prepareThreshold, int connectionCacheSize) {
+            this.serverPrepare = serverPrepare;
+            this.cacheSize = cacheSize;
+            this.cacheSqlLimit = cacheSqlLimit;
+            this.prepareThreshold = prepareThreshold;
+            this.connectionCacheSize = connectionCacheSize;
+        }
+
+        /**
+         * Whether statements should be prepared on the server instead of being emulated by the driver.
+         *
+         * @return true if server side prepares are used
+         */
+        public boolean isServerPrepare() {
+            return serverPrepare;
+        }
+
+        /**
+         * Amount of prepared statements the driver caches per connection.
+         *
+         * @return driver cache size
+         */
+        public int getCacheSize() {
+            return cacheSize;
+        }
+
+        /**
+         * Max length of a query which is still cached by the driver.
+         *
+         * @return max sql length
+         */
+        public int getCacheSqlLimit() {
+            return cacheSqlLimit;
+        }
+
+        /**
+         * Amount of executions before a statement is prepared on the server. Only used by PostgreSQL.
+         *
+         * @return prepare threshold
+         */
+        public int getPrepareThreshold() {
+            return prepareThreshold;
+        }
+
+        /**
+         * Amount of prepared statements which are kept open per pooled connection by the library. 0 disables the cache.
+         *
+         * @return library cache size
+         */
+        public int getConnectionCacheSize() {
+            return connectionCacheSize;
+        }
+
+        public void setServerPrepare(boolean serverPrepare) {
+            this.serverPrepare = serverPrepare;
+        }
+
+        public void setCacheSize(int cacheSize) {
+            this.cacheSize = cacheSize;
+        }
+
+        public void setCacheSqlLimit(int cacheSqlLimit) {
+            this.cacheSqlLimit = cacheSqlLimit;
+        }
+
+        public void setPrepareThreshold(int prepareThreshold) {
+            this.prepareThreshold = prepareThreshold;
+        }
+
+        public void setConnectionCacheSize(int connectionCacheSize) {
+            this.connectionCacheSize = connectionCacheSize;
+        }
+
+        @Override
+        public StatementCache clone() {
+            return new StatementCache(serverPrepare, cacheSize, cacheSqlLimit, prepareThreshold, connectionCacheSize);
+        }
+    }
+
+    /**
+     * Settings of the pool and query metrics.
+     */
+    public static class Metrics implements Cloneable {
+        private boolean queries = false;
+        private boolean jmx = true;
+        private long slowQueryMillis = 1000;
+        private int maxShapes = 500;
+
+        public Metrics() {
+        }
+
+        public Metrics(boolean queries, boolean jmx, long slowQueryMillis, int maxShapes) {
+            this.queries = queries;
+            this.jmx = jmx;
+            this.slowQueryMillis = slowQueryMillis;
+            this.maxShapes = maxShapes;
+        }
+
+        /**
+         * Whether connections and statements are wrapped to record query latencies.
+         * <p>
+         * Disabled by default, because every jdbc call goes through the recording wrapper. The pool metrics are
+         * recorded either way.
+         *
+         * @return true if queries are recorded
+         */
+        public boolean isQueries() {
+            return queries;
+        }
+
+        /**
+         * Whether the metrics are registered as MXBean.
+         *
+         * @return true if the metrics are exported via jmx
+         */
+        public boolean isJmx() {
+            return jmx;
+        }
+
+        /**
+         * Duration after which a query is reported as slow query.
+         *
+         * @return slow query threshold in milliseconds
+         */
+        public long getSlowQueryMillis() {
+            return slowQueryMillis;
+        }
+
+        /**
+         * Max amount of distinct sql shapes which are recorded. Further shapes are recorded together.
+         *
+         * @return max amount of sql shapes
+         */
+        public int getMaxShapes() {
+            return maxShapes;
+        }
+
+        public void setQueries(boolean queries) {
+            this.queries = queries;
+        }
+
+        public void setJmx(boolean jmx) {
+            this.jmx = jmx;
+        }
+
+        public void setSlowQueryMillis(long slowQueryMillis) {
+            this.slowQueryMillis = slowQueryMillis;
+        }
+
+        public void setMaxShapes(int maxShapes) {
+            this.maxShapes = maxShapes;
+        }
+
+        @Override
+        public Metrics clone() {
+            return new Metrics(queries, jmx, slowQueryMillis, maxShapes);
+        }
+    }
+
+    /**
+     * Settings of the pool startup.
+     */
+    public static class Startup implements Cloneable {
+        private Mode mode = Mode.EAGER;
+        private List<String> hotStatements;
+
+        public Startup() {
+        }
+
+        public Startup(Mode mode, List<String> hotStatements) {
+            this.mode = mode;
+            this.hotStatements = hotStatements;
+        }
+
+        /**
+         * Get the startup mode of the pool.
+         *
+         * @return startup mode
+         */
+        public Mode getMode() {
+            return mode == null ? Mode.EAGER : mode;
+        }
+
+        /**
+         * Statements which are prepared on every connection opened during warm up.
+         *
+         * @return hot statements. Empty if none are configured.
+         */
+        public List<String> getHotStatements() {
+            return hotStatements == null ? Collections.emptyList() : hotStatements;
+        }
+
+        public void setMode(Mode mode) {
+            this.mode = mode;
+        }
+
+        public void setHotStatements(List<String> hotStatements) {
+            this.hotStatements = hotStatements;
+        }
+
+        @Override
+        public Startup clone() {
+            return new Startup(mode, hotStatements == null ? null : new ArrayList<>(hotStatements));
+        }
+
+        public enum Mode {
+            /**
+             * The pool is created and one connection is validated before the provider is returned.
+             */
+            EAGER,
+            /**
+             * Like {@link #EAGER}. Additionally the min connections are opened in parallel and the hot statements are
+             * prepared on each of them in the background.
+             */
+            WARM,
+            /**
+             * The pool is created on the first connection request.
+             */
+            LAZY
+        }
+    }
+
+    /**
+     * Settings of the outbox which journals writes while the database is not reachable.
+     */
+    public static class Outbox implements Cloneable {
+        private String directory = "outbox";
+        private int segmentSize = 16 * 1024 * 1024;
+        private boolean sync = true;
+        private long deadlineMillis = 250;
+        private long replayIntervalMillis = 1000;
+
+        public Outbox() {
+        }
+
+        public Outbox(String directory, int segmentSize, boolean sync, long deadlineMillis, long replayIntervalMillis) {
+            this.directory = directory;
+            this.segmentSize = segmentSize;
+            this.sync = sync;
+            this.deadlineMillis = deadlineMillis;
+            this.replayIntervalMillis = replayIntervalMillis;
+        }
+
+        /**
+         * Directory of the journals. Every database gets its own sub directory.
+         *
+         * @return journal directory
+         */
+        public String getDirectory() {
+            return directory;
+        }
+
+        /**
+         * Size of a journal segment file.
+         *
+         * @return segment size in bytes
+         */
+        public int getSegmentSize() {
+            return segmentSize;
+        }
+
+        /**
+         * Whether every journal write is forced to the disk.
+         *
+         * @return true if journal writes are synced
+         */
+        public boolean isSync() {
+            return sync;
+        }
+
+        /**
+         * Max time a write waits for the database before it is journaled.
+         *
+         * @return deadline in milliseconds
+         */
+        public long getDeadlineMillis() {
+            return deadlineMillis;
+        }
+
+        /**
+         * Interval in which the journal is replayed.
+         *
+         * @return replay interval in milliseconds
+         */
+        public long getReplayIntervalMillis() {
+            return replayIntervalMillis;
+        }
+
+        public void setDirectory(String directory) {
+            this.directory = directory;
+        }
+
+        public void setSegmentSize(int segmentSize) {
+            this.segmentSize = segmentSize;
+        }
+
+        public void setSync(boolean sync) {
+            this.sync = sync;
+        }
+
+        public void setDeadlineMillis(long deadlineMillis) {
+            this.deadlineMillis = deadlineMillis;
+        }
+
+        public void setReplayIntervalMillis(long replayIntervalMillis) {
+            this.replayIntervalMillis = replayIntervalMillis;
+        }
+
+        @Override
+        public Outbox clone() {
+            return new Outbox(directory, segmentSize, sync, deadlineMillis, replayIntervalMillis);
+        }
+    }
+
+    /**
+     * Settings of the admission queue and the circuit breaker of the resilient source.
+     */
+    public static class Resilience implements Cloneable {
+        private int maxConcurrent = 0;
+        private int reservedCritical = 1;
+        private int maxQueued = 1000;
+        private long admissionTimeoutMillis = 1000;
+        private int windowSize = 50;
+        private int minCalls = 20;
+        private int failureRateThreshold = 50;
+        private int slowCallRateThreshold = 80;
+        private long slowCallMillis = 2000;
+        private long openMillis = 5000;
+        private int halfOpenCalls = 3;
+
+        public Resilience() {
+        }
+
+        public Resilience(int maxConcurrent, int reservedCritical, int maxQueued, long admissionTimeoutMillis,
+                          int windowSize, int minCalls, int failureRateThreshold, int slowCallRateThreshold,
+                          long slowCallMillis, long openMillis, int halfOpenCalls) {
+            this.maxConcurrent = maxConcurrent;
+            this.reservedCritical = reservedCritical;
+            this.maxQueued = maxQueued;
+            this.admissionTimeoutMillis = admissionTimeoutMillis;
+            this.windowSize = windowSize;
+            this.minCalls = minCalls;
+            this.failureRateThreshold = failureRateThreshold;
+            this.slowCallRateThreshold = slowCallRateThreshold;
+            this.slowCallMillis = slowCallMillis;
+            this.openMillis = openMillis;
+            this.halfOpenCalls = halfOpenCalls;
+        }
+
+        /**
+         * Max amount of concurrently leased connections. 0 uses the max connections of the pool.
+         *
+         * @return max concurrent connections
+         */
+        public int getMaxConcurrent() {
+            return maxConcurrent;
+        }
+
+        /**
+         * Amount of connections which can only be leased by critical requests.
+         *
+         * @return reserved connections
+         */
+        public int getReservedCritical() {
+            return reservedCritical;
+        }
+
+        /**
+         * Max amount of requests which wait for a connection. Further requests are rejected at once.
+         *
+         * @return max waiting requests
+         */
+        public int getMaxQueued() {
+            return maxQueued;
+        }
+
+        /**
+         * Default time a request waits for a connection.
+         *
+         * @return admission timeout in milliseconds
+         */
+        public long getAdmissionTimeoutMillis() {
+            return admissionTimeoutMillis;
+        }
+
+        /**
+         * Amount of calls the failure and slow call rates are calculated of.
+         *
+         * @return window size
+         */
+        public int getWindowSize() {
+            return windowSize;
+        }
+
+        /**
+         * Min amount of calls in the window before the circuit breaker may open.
+         *
+         * @return min calls
+         */
+        public int getMinCalls() {
+            return minCalls;
+        }
+
+        /**
+         * Rate of failed calls at which the circuit breaker opens.
+         *
+         * @return failure rate in percent
+         */
+        public int getFailureRateThreshold() {
+            return failureRateThreshold;
+        }
+
+        /**
+         * Rate of slow calls at which the circuit breaker opens.
+         *
+         * @return slow call rate in percent
+         */
+        public int getSlowCallRateThreshold() {
+            return slowCallRateThreshold;
+        }
+
+        /**
+         * Duration after which a call counts as slow.
+         *
+         * @return slow call duration in milliseconds
+         */
+        public long getSlowCallMillis() {
+            return slowCallMillis;
+        }
+
+        /**
+         * Time the circuit breaker stays open before trial calls are let through.
+         *
+         * @return open duration in milliseconds
+         */
+        public long getOpenMillis() {
+            return openMillis;
+        }
+
+        /**
+         * Amount of trial calls which need to succeed to close the circuit breaker again.
+         *
+         * @return half open calls
+         */
+        public int getHalfOpenCalls() {
+            return halfOpenCalls;
+        }
+
+        public void setMaxConcurrent(int maxConcurrent) {
+            this.maxConcurrent = maxConcurrent;
+        }
+
+        public void setReservedCritical(int reservedCritical) {
+            this.reservedCritical = reservedCritical;
+        }
+
+        public void setMaxQueued(int maxQueued) {
+            this.maxQueued = maxQueued;
+        }
+
+        public void setAdmissionTimeoutMillis(long admissionTimeoutMillis) {
+            this.admissionTimeoutMillis = admissionTimeoutMillis;
+        }
+
+        public void setWindowSize(int windowSize) {
+            this.windowSize = windowSize;
+        }
+
+        public void setMinCalls(int minCalls) {
+            this.minCalls = minCalls;
+        }
+
+        public void setFailureRateThreshold(int failureRateThreshold) {
+            this.failureRateThreshold = failureRateThreshold;
+        }
+
+        public void setSlowCallRateThreshold(int slowCallRateThreshold) {
+            this.slowCallRateThreshold = slowCallRateThreshold;
+        }
+
+        public void setSlowCallMillis(long slowCallMillis) {
+            this.slowCallMillis = slowCallMillis;
+        }
+
+        public void setOpenMillis(long openMillis) {
+            this.openMillis = openMillis;
+        }
+
+        public void setHalfOpenCalls(int halfOpenCalls) {
+            this.halfOpenCalls = halfOpenCalls;
+        }
+
+        @Override
+        public Resilience clone() {
+            return new Resilience(maxConcurrent, reservedCritical, maxQueued, admissionTimeoutMillis, windowSize,
+                    minCalls, failureRateThreshold, slowCallRateThreshold, slowCallMillis, openMillis, halfOpenCalls);
         }
     }
 
+    /**
+     * Timeouts of connection requests, statements and sockets.
+     */
+    public static class Timeouts implements Cloneable {
+        private long connectionTimeoutMillis = 30 * 1000;
+        private long queryTimeoutMillis = 0;
+        private long socketTimeoutMillis = 5 * 60 * 1000;
+        private long cancelGraceMillis = 5 * 1000;
+        private long drainTimeoutMillis = 60 * 1000;
+        private boolean deadlines = false;
+
+        public Timeouts() {
+        }
+
+        public Timeouts(long connectionTimeoutMillis, long queryTimeoutMillis, long socketTimeoutMillis,
+                        long cancelGraceMillis, long drainTimeoutMillis) {
+            this(connectionTimeoutMillis, queryTimeoutMillis, socketTimeoutMillis, cancelGraceMillis,
+                    drainTimeoutMillis, false);
+        }
+
+        public Timeouts(long connectionTimeoutMillis, long queryTimeoutMillis, long socketTimeoutMillis,
+                        long cancelGraceMillis, long drainTimeoutMillis, boolean deadlines) {
+            this.connectionTimeoutMillis = connectionTimeoutMillis;
+            this.queryTimeoutMillis = queryTimeoutMillis;
+            this.socketTimeoutMillis = socketTimeoutMillis;
+            this.cancelGraceMillis = cancelGraceMillis;
+            this.drainTimeoutMillis = drainTimeoutMillis;
+            this.deadlines = deadlines;
+        }
+
+        /**
+         * Max time to wait for a connection of the pool.
+         *
+         * @return connection timeout in milliseconds
+         */
+        public long getConnectionTimeoutMillis() {
+            return connectionTimeoutMillis;
+        }
+
+        /**
+         * Default timeout of every statement. Deadlines of a call may shorten it. 0 disables the default timeout.
+         * <p>
+         * Disabled by default. The timeout applies to every statement of the provider, so it also cancels long
+         * running streams, parallel scans, bulk loads and the flushes of outboxes and write behind stores.
+         *
+         * @return query timeout in milliseconds
+         */
+        public long getQueryTimeoutMillis() {
+            return queryTimeoutMillis;
+        }
+
+        /**
+         * Max time the driver blocks on a read from the database. Should be longer than the query timeout.
+         * 0 disables the socket timeout.
+         *
+         * @return socket timeout in milliseconds
+         */
+        public long getSocketTimeoutMillis() {
+            return socketTimeoutMillis;
+        }
+
+        /**
+         * Time a cancelled statement gets to return before its connection is evicted.
+         *
+         * @return grace period in milliseconds
+         */
+        public long getCancelGraceMillis() {
+            return cancelGraceMillis;
+        }
+
+        /**
+         * Max time a replaced pool waits for its borrowed connections to be returned before it is closed.
+         *
+         * @return drain timeout in milliseconds
+         */
+        public long getDrainTimeoutMillis() {
+            return drainTimeoutMillis;
+        }
+
+        /**
+         * Whether statements are cancelled once the {@link de.eldoria.databasesamples.timeout.Deadline} of the caller
+         * passed.
+         * <p>
+         * Disabled by default. Deadlines and the query timeout wrap every connection and statement, so they are only
+         * paid for if one of them is enabled. A query timeout enforces deadlines as well.
+         *
+         * @return true if deadlines are enforced
+         */
+        public boolean isDeadlines() {
+            return deadlines;
+        }
+
+        public void setConnectionTimeoutMillis(long connectionTimeoutMillis) {
+            this.connectionTimeoutMillis = connectionTimeoutMillis;
+        }
+
+        public void setQueryTimeoutMillis(long queryTimeoutMillis) {
+            this.queryTimeoutMillis = queryTimeoutMillis;
+        }
+
+        public void setSocketTimeoutMillis(long socketTimeoutMillis) {
+            this.socketTimeoutMillis = socketTimeoutMillis;
+        }
+
+        public void setCancelGraceMillis(long cancelGraceMillis) {
+            this.cancelGraceMillis = cancelGraceMillis;
+        }
+
+        public void setDrainTimeoutMillis(long drainTimeoutMillis) {
+            this.drainTimeoutMillis = drainTimeoutMillis;
+        }
+
+        public void setDeadlines(boolean deadlines) {
+            this.deadlines = deadlines;
+        }
+
+        @Override
+        public Timeouts clone() {
+            return new Timeouts(connectionTimeoutMillis, queryTimeoutMillis, socketTimeoutMillis, cancelGraceMillis,
+                    drainTimeoutMillis, deadlines);
+        }
+    }
+
+    /**
+     * Settings of the retries of transient failures in transactions.
+     */
+    public static class Retry implements Cloneable {
+        private int maxAttempts = 3;
+        private long baseDelayMillis = 10;
+        private long maxDelayMillis = 1000;
+        private double budgetRatio = 0.1;
+        private int budgetTokens = 10;
+
+        public Retry() {
+        }
+
+        public Retry(int maxAttempts, long baseDelayMillis, long maxDelayMillis, double budgetRatio,
+                     int budgetTokens) {
+            this.maxAttempts = maxAttempts;
+            this.baseDelayMillis = baseDelayMillis;
+            this.maxDelayMillis = maxDelayMillis;
+            this.budgetRatio = budgetRatio;
+            this.budgetTokens = budgetTokens;
+        }
+
+        /**
+         * Max attempts of a transaction including the first one. 1 disables retries.
+         *
+         * @return max attempts
+         */
+        public int getMaxAttempts() {
+            return maxAttempts;
+        }
+
+        /**
+         * Max delay before the first retry. The max delay doubles with every further retry.
+         *
+         * @return base delay in milliseconds
+         */
+        public long getBaseDelayMillis() {
+            return baseDelayMillis;
+        }
+
+        /**
+         * Max delay before any retry.
+         *
+         * @return max delay in milliseconds
+         */
+        public long getMaxDelayMillis() {
+            return maxDelayMillis;
+        }
+
+        /**
+         * Retries which are allowed per transaction on average.
+         *
+         * @return ratio of retries to transactions
+         */
+        public double getBudgetRatio() {
+            return budgetRatio;
+        }
+
+        /**
+         * Max amount of retries which can be saved up for bursts of failures.
+         *
+         * @return max saved retries
+         */
+        public int getBudgetTokens() {
+            return budgetTokens;
+        }
+
+        public void setMaxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+        }
+
+        public void setBaseDelayMillis(long baseDelayMillis) {
+            this.baseDelayMillis = baseDelayMillis;
+        }
+
+        public void setMaxDelayMillis(long maxDelayMillis) {
+            this.maxDelayMillis = maxDelayMillis;
+        }
+
+        public void setBudgetRatio(double budgetRatio) {
+            this.budgetRatio = budgetRatio;
+        }
+
+        public void setBudgetTokens(int budgetTokens) {
+            this.budgetTokens = budgetTokens;
+        }
+
+        @Override
+        public Retry clone() {
+            return new Retry(maxAttempts, baseDelayMillis, maxDelayMillis, budgetRatio, budgetTokens);
+        }
+    }
 }
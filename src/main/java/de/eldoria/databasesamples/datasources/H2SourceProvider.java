@@ -0,0 +1,147 @@
+package de.eldoria.databasesamples.datasources;
+
+import com.zaxxer.hikari.HikariConfig;
+import de.eldoria.databasesamples.config.DatabaseType;
+import de.eldoria.databasesamples.config.DbConfig;
+import de.eldoria.databasesamples.dialect.SqlDialect;
+import de.eldoria.databasesamples.pool.ManagedPool;
+import de.eldoria.databasesamples.util.DataSourceProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Embedded H2 database which runs in the process of the application.
+ * <p>
+ * H2 runs in the compatibility mode of MariaDB or PostgreSQL, so queries and the sql dialect of the emulated database
+ * can be used. Meant for tests and benchmarks without a database server and to compare the startup and request costs
+ * with the network backed providers. The driver is an optional dependency and has to be added by the application.
+ * <p>
+ * The address {@code mem} keeps the database in memory until the provider is shut down or switches to another
+ * database. Any other address is the directory of the database files.
+ */
+public class H2SourceProvider extends DataSourceProvider<ManagedPool> {
+    private static final Logger log = LoggerFactory.getLogger(H2SourceProvider.class);
+    /**
+     * Url of every open pool. Static, because the first pool is created before the fields of a provider are set.
+     */
+    private static final Map<ManagedPool, String> URLS = new ConcurrentHashMap<>();
+    private volatile boolean closing;
+
+    /**
+     * Create a provider of the type {@link DatabaseType#H2}, which emulates the
+     * {@link DbConfig.DBSettings#getCompatibility() configured database}.
+     *
+     * @param config settings of the database
+     * @throws SQLException if the database could not be started
+     */
+    public H2SourceProvider(DbConfig.DBSettings config) throws SQLException {
+        super(DatabaseType.H2, config);
+        attach(() -> closing = true);
+    }
+
+    /**
+     * Create an embedded stand-in for a database server.
+     * <p>
+     * The provider reports the type of the server, uses its dialect and reads its section on config changes.
+     *
+     * @param type   emulated database type
+     * @param config settings of the database
+     * @throws SQLException if the database could not be started
+     */
+    public H2SourceProvider(DatabaseType type, DbConfig.DBSettings config) throws SQLException {
+        super(type, config);
+        attach(() -> closing = true);
+    }
+
+    @Override
+    protected ManagedPool initSource() throws SQLException {
+        String url = jdbcUrl();
+        HikariConfig config = new HikariConfig();
+        config.setDataSourceClassName(DatabaseType.H2.getDriverClass());
+        config.addDataSourceProperty("URL", url);
+        config.setUsername(getConfig().getUser());
+        config.setPassword(getConfig().getPassword());
+
+        configurePool(config);
+        ManagedPool pool = createPool(config);
+        URLS.put(pool, url);
+        return pool;
+    }
+
+    /**
+     * Build the url of the database with the settings of the compatibility mode.
+     *
+     * @return jdbc url
+     */
+    protected String jdbcUrl() {
+        DbConfig.DBSettings settings = getConfig();
+        String address = settings.getAddress();
+        StringBuilder url = new StringBuilder("jdbc:h2:");
+        if (isInMemory(settings)) {
+            url.append("mem:").append(settings.getDatabase()).append(";DB_CLOSE_DELAY=-1");
+        } else {
+            url.append("file:").append(Paths.get(address, settings.getDatabase()).toAbsolutePath());
+        }
+        if (getCompatibility() == DatabaseType.POSTGRESQL) {
+            url.append(";MODE=PostgreSQL;DEFAULT_NULL_ORDERING=HIGH");
+        } else {
+            url.append(";MODE=MariaDB");
+        }
+        url.append(";DATABASE_TO_LOWER=TRUE");
+        // The closest equivalent of a server side statement cache is the cache of parsed queries per session.
+        DbConfig.StatementCache cache = settings.getStatementCache();
+        if (cache.isServerPrepare()) url.append(";QUERY_CACHE_SIZE=").append(cache.getCacheSize());
+        return url.toString();
+    }
+
+    private static String database(String url) {
+        int settings = url.indexOf(';');
+        return settings < 0 ? url : url.substring(0, settings);
+    }
+
+    private static boolean isInMemory(DbConfig.DBSettings settings) {
+        String address = settings.getAddress();
+        return address == null || address.isEmpty() || "mem".equalsIgnoreCase(address);
+    }
+
+    /**
+     * Get the database type which is emulated by this provider.
+     *
+     * @return emulated database type
+     */
+    public DatabaseType getCompatibility() {
+        return getType() == DatabaseType.H2 ? getConfig().getCompatibility() : getType();
+    }
+
+    @Override
+    public SqlDialect getDialect() {
+        return SqlDialect.forType(getCompatibility());
+    }
+
+    /**
+     * Closes the pool. An in memory database is dropped if the provider is shut down or uses another database now.
+     */
+    @Override
+    protected void close(ManagedPool source) {
+        source.close();
+        String url = URLS.remove(source);
+        if (url == null || !url.startsWith("jdbc:h2:mem:")) return;
+        // A new pool of the same database still uses it.
+        if (!closing && database(url).equals(database(jdbcUrl()))) return;
+        DbConfig.DBSettings settings = getConfig();
+        try (Connection conn = DriverManager.getConnection(url, settings.getUser(), settings.getPassword());
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("SHUTDOWN");
+        } catch (SQLException e) {
+            log.warn("Could not drop the in memory database {}.", url, e);
+        }
+    }
+}
@@ -1,43 +1,208 @@
 package de.eldoria.databasesamples.datasources;
 
 import com.zaxxer.hikari.HikariConfig;
-import com.zaxxer.hikari.HikariDataSource;
+import de.eldoria.databasesamples.batch.BulkLoad;
+import de.eldoria.databasesamples.batch.DelimitedRowInputStream;
 import de.eldoria.databasesamples.config.DatabaseType;
 import de.eldoria.databasesamples.config.DbConfig;
+import de.eldoria.databasesamples.pipeline.Pipeline;
+import de.eldoria.databasesamples.pool.ManagedPool;
 import de.eldoria.databasesamples.util.DataSourceProvider;
 import de.eldoria.databasesamples.util.DbUtil;
+import de.eldoria.databasesamples.util.DelegatingDataSource;
+import org.mariadb.jdbc.MariaDbDataSource;
+import org.mariadb.jdbc.MariaDbStatement;
 
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
 /**
  * MariaDB driver.
  * <p>
- * Utilized HikariCP for connection pooling.
+ * Utilized HikariCP for connection pooling unless another pool backend is configured.
  */
-public class MariaDBSourceProvider extends DataSourceProvider<HikariDataSource> {
+public class MariaDBSourceProvider extends DataSourceProvider<ManagedPool> {
+    private final Map<ManagedPool, PipelinePool> pipelinePools = new ConcurrentHashMap<>();
+
     public MariaDBSourceProvider(DbConfig.DBSettings config) throws SQLException {
-        super(config);
+        super(DatabaseType.MARIADB, config);
     }
 
     @Override
-    protected HikariDataSource initSource() {
+    protected ManagedPool initSource() throws SQLException {
+        HikariConfig config = hikariConfig(driverOptions());
+
+        configurePool(config);
+
+        ManagedPool pool = createPool(config);
+        if (getConfig().isMultiQueries()) {
+            try {
+                pipelinePools.put(pool, createPipelinePool());
+            } catch (SQLException | RuntimeException e) {
+                pool.close();
+                throw e;
+            }
+        }
+        return pool;
+    }
+
+    private HikariConfig hikariConfig(Map<String, String> options) {
         Properties props = new Properties();
         props.setProperty("dataSourceClassName", DatabaseType.MARIADB.getDriverClass());
         DbUtil.mapSettings(props, getConfig());
-        HikariConfig config = new HikariConfig(props);
+        props.setProperty("dataSource.properties", joinOptions(options));
+        return new HikariConfig(props);
+    }
+
+    /**
+     * Options which are passed to the driver.
+     *
+     * @return driver options
+     */
+    protected Map<String, String> driverOptions() {
+        Map<String, String> options = new LinkedHashMap<>();
+        // The server may request any local file. Only the dedicated bulk load connection allows it.
+        options.put("allowLocalInfile", "false");
+        // Stacked queries are only allowed on the pipeline pool
+        options.put("allowMultiQueries", "false");
+        // Marks read only transactions on the server, which then skips the transaction id and undo log
+        options.put("assureReadOnly", "true");
+        DbConfig.StatementCache cache = getConfig().getStatementCache();
+        options.put("useServerPrepStmts", String.valueOf(cache.isServerPrepare()));
+        options.put("cachePrepStmts", String.valueOf(cache.getCacheSize() > 0));
+        options.put("prepStmtCacheSize", String.valueOf(cache.getCacheSize()));
+        options.put("prepStmtCacheSqlLimit", String.valueOf(cache.getCacheSqlLimit()));
+        long socketTimeout = getConfig().getTimeouts().getSocketTimeoutMillis();
+        if (socketTimeout > 0) options.put("socketTimeout", String.valueOf(socketTimeout));
+        return options;
+    }
+
+    /**
+     * Joined statements are only sent if {@link DbConfig.DBSettings#isMultiQueries()} is enabled. They are prepared
+     * on the pipeline pool, which prepares on the client, because the server can not prepare several statements.
+     */
+    @Override
+    protected Pipeline.MultiStatements multiStatements() {
+        return getConfig().isMultiQueries() ? Connection::prepareStatement : null;
+    }
+
+    /**
+     * Pipelines get connections of a separate pool which allows several statements per request, if
+     * {@link DbConfig.DBSettings#isMultiQueries()} is enabled. Every main pool has its own pipeline pool, which is
+     * created with the same settings, decorated like the main pool and drained and closed together with it.
+     */
+    @Override
+    protected DataSource pipelineSource() {
+        if (!getConfig().isMultiQueries()) return getSource();
+        return new DelegatingDataSource(getSource()) {
+            @Override
+            public Connection getConnection() throws SQLException {
+                while (true) {
+                    ManagedPool main = currentSource();
+                    PipelinePool pipelines = pipelinePools.get(main);
+                    if (pipelines != null) return pipelines.decorated.getConnection();
+                    // The main pool was replaced and closed in the meantime.
+                    if (main == currentSource()) throw new SQLException("Pipeline pool is closed");
+                }
+            }
+        };
+    }
+
+    private PipelinePool createPipelinePool() throws SQLException {
+        Map<String, String> options = driverOptions();
+        options.put("allowMultiQueries", "true");
+        options.put("useServerPrepStmts", "false");
+        HikariConfig config = configurePool(hikariConfig(options));
+        config.setPoolName(config.getPoolName() + "-pipeline");
+        config.setMinimumIdle(0);
+        ManagedPool pool = createPool(config);
+        return new PipelinePool(pool, decorate(pool));
+    }
 
-        config.setMaximumPoolSize(getConfig().getMaxConnections());
-        config.setConnectionTimeout(5 * 60 * 1000);
+    /**
+     * Streams the rows with {@code LOAD DATA LOCAL INFILE} from an input stream.
+     * <p>
+     * The load runs on a dedicated connection outside of the pool, which is the only connection that allows local
+     * files. The stream is always encoded as UTF-8.
+     */
+    @Override
+    protected long loadRows(String table, List<String> columns, Iterator<Object[]> rows) throws SQLException {
+        String sql = "LOAD DATA LOCAL INFILE 'stream' INTO TABLE " + DbUtil.requireIdentifier(table)
+                + " CHARACTER SET utf8mb4 " + BulkLoad.columnList(columns);
+        DelimitedRowInputStream in = new DelimitedRowInputStream(rows, columns.size());
+        try (Connection conn = localInfileConnection(); Statement stmt = conn.createStatement()) {
+            stmt.unwrap(MariaDbStatement.class).setLocalInfileInputStream(in);
+            stmt.execute(sql);
+        }
+        return in.count();
+    }
+
+    /**
+     * Open a connection outside of the pool which allows {@code LOAD DATA LOCAL INFILE}.
+     *
+     * @return new connection. Has to be closed by the caller.
+     * @throws SQLException if the connection could not be opened
+     */
+    protected Connection localInfileConnection() throws SQLException {
+        DbConfig.DBSettings settings = getConfig();
+        MariaDbDataSource source = new MariaDbDataSource(settings.getAddress(), Integer.parseInt(settings.getPort()),
+                settings.getDatabase());
+        source.setUser(settings.getUser());
+        source.setPassword(settings.getPassword());
+        Map<String, String> options = driverOptions();
+        options.put("allowLocalInfile", "true");
+        source.setProperties(joinOptions(options));
+        return source.getConnection();
+    }
 
-        return new HikariDataSource(config);
+    private static String joinOptions(Map<String, String> options) {
+        return options.entrySet().stream()
+                .map(e -> e.getKey() + "=" + e.getValue())
+                .collect(Collectors.joining("&"));
+    }
+
+    /**
+     * The pool size and the connection timeout are applied to the pipeline pool as well.
+     */
+    @Override
+    protected boolean applyLive(ManagedPool source, DbConfig.DBSettings settings) {
+        if (!super.applyLive(source, settings)) return false;
+        PipelinePool pipelines = pipelinePools.get(source);
+        if (pipelines != null) {
+            pipelines.pool.setMaximumPoolSize(settings.getMaxConnections());
+            pipelines.pool.setConnectionTimeout(settings.getTimeouts().getConnectionTimeoutMillis());
+        }
+        return true;
     }
 
+    /**
+     * Borrowed pipeline connections count towards the main pool, so a replaced pool is only closed once its pipelines
+     * are done as well.
+     */
     @Override
-    protected void close(HikariDataSource source) {
+    protected int activeConnections(ManagedPool source) {
+        PipelinePool pipelines = pipelinePools.get(source);
+        int pipelineConnections = pipelines == null ? 0 : pipelines.pool.getActiveConnections();
+        return super.activeConnections(source) + pipelineConnections;
+    }
+
+    @Override
+    protected void close(ManagedPool source) {
         source.close();
+        PipelinePool pipelines = pipelinePools.remove(source);
+        if (pipelines != null) {
+            closeDecorators(pipelines.decorated, pipelines.pool);
+            pipelines.pool.close();
+        }
     }
 
     @Override
@@ -46,4 +211,17 @@ public class MariaDBSourceProvider extends DataSourceProvider<HikariDataSource>
             return conn.isValid(5 * 1000);
         }
     }
+
+    /**
+     * The pool of the pipeline connections with its decorated source.
+     */
+    private static final class PipelinePool {
+        private final ManagedPool pool;
+        private final DataSource decorated;
+
+        private PipelinePool(ManagedPool pool, DataSource decorated) {
+            this.pool = pool;
+            this.decorated = decorated;
+        }
+    }
 }
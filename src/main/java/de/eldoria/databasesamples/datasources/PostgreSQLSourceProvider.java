@@ -1,36 +1,85 @@
 package de.eldoria.databasesamples.datasources;
 
 import com.zaxxer.hikari.HikariConfig;
-import com.zaxxer.hikari.HikariDataSource;
+import de.eldoria.databasesamples.batch.BulkLoad;
+import de.eldoria.databasesamples.batch.DelimitedRowInputStream;
+import de.eldoria.databasesamples.pipeline.Pipeline;
+import de.eldoria.databasesamples.pool.ManagedPool;
 import de.eldoria.databasesamples.util.DataSourceProvider;
 import de.eldoria.databasesamples.util.DbUtil;
 import de.eldoria.databasesamples.config.DatabaseType;
 import de.eldoria.databasesamples.config.DbConfig;
+import org.postgresql.PGConnection;
 
 import javax.sql.DataSource;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 
-public class PostgreSQLSourceProvider extends DataSourceProvider<HikariDataSource> {
+public class PostgreSQLSourceProvider extends DataSourceProvider<ManagedPool> {
 
     public PostgreSQLSourceProvider(DbConfig.DBSettings config) throws SQLException {
-        super(config);
+        super(DatabaseType.POSTGRESQL, config);
     }
 
     @Override
-    protected HikariDataSource initSource() {
+    protected ManagedPool initSource() throws SQLException {
         Properties props = new Properties();
         props.setProperty("dataSourceClassName", DatabaseType.POSTGRESQL.getDriverClass());
         DbUtil.mapSettings(props, getConfig());
+        DbConfig.StatementCache cache = getConfig().getStatementCache();
+        // A threshold of 0 disables server side prepared statements
+        props.setProperty("dataSource.prepareThreshold",
+                String.valueOf(cache.isServerPrepare() ? cache.getPrepareThreshold() : 0));
+        props.setProperty("dataSource.preparedStatementCacheQueries", String.valueOf(cache.getCacheSize()));
+        long socketTimeout = getConfig().getTimeouts().getSocketTimeoutMillis();
+        // pgjdbc expects the socket timeout in seconds
+        if (socketTimeout > 0) {
+            props.setProperty("dataSource.socketTimeout",
+                    String.valueOf(TimeUnit.MILLISECONDS.toSeconds(socketTimeout + 999)));
+        }
         HikariConfig config = new HikariConfig(props);
 
-        config.setMaximumPoolSize(getConfig().getMaxConnections());
-        return new HikariDataSource(config);
+        configurePool(config);
+        return createPool(config);
+    }
+
+    /**
+     * pgjdbc splits joined statements and sends them with the extended protocol in one batch with a single sync.
+     */
+    @Override
+    protected Pipeline.MultiStatements multiStatements() {
+        return Connection::prepareStatement;
+    }
+
+    /**
+     * Streams the rows with {@code COPY ... FROM STDIN} through the pgjdbc copy api.
+     */
+    @Override
+    protected long loadRows(String table, List<String> columns, Iterator<Object[]> rows) throws SQLException {
+        String sql = "COPY " + BulkLoad.target(table, columns) + " FROM STDIN";
+        try (Connection conn = getSource().getConnection()) {
+            return conn.unwrap(PGConnection.class).getCopyAPI()
+                    .copyIn(sql, new DelimitedRowInputStream(rows, columns.size()));
+        } catch (IOException e) {
+            throw new SQLException("Could not stream rows", e);
+        }
+    }
+
+    /**
+     * pgjdbc ignores the fetch size and loads the whole result unless auto commit is disabled.
+     */
+    @Override
+    protected boolean cursorRequiresTransaction() {
+        return true;
     }
 
     @Override
-    protected void close(HikariDataSource source) {
+    protected void close(ManagedPool source) {
         source.close();
     }
 
@@ -0,0 +1,89 @@
+package de.eldoria.databasesamples.datasources;
+
+import de.eldoria.databasesamples.config.DatabaseType;
+import de.eldoria.databasesamples.config.DbConfig;
+import de.eldoria.databasesamples.routing.ReplicaLagProbe;
+import de.eldoria.databasesamples.routing.RoutingDataSource;
+import de.eldoria.databasesamples.util.DataSourceProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Provider for a primary with read replicas.
+ * <p>
+ * Every database gets its own pool. Read only connections are routed to the replicas.
+ * See {@link RoutingDataSource} for the routing rules.
+ */
+public class ReplicaRoutingSourceProvider extends DataSourceProvider<RoutingDataSource> {
+    private static final Logger log = LoggerFactory.getLogger(ReplicaRoutingSourceProvider.class);
+    private static final long PROBE_INTERVAL = 5 * 1000;
+
+    private final Map<RoutingDataSource, List<DataSourceProvider<?>>> providers = new ConcurrentHashMap<>();
+
+    /**
+     * Create a new routing provider.
+     *
+     * @param type   type of the primary and replicas
+     * @param config settings of the primary. The replicas are taken from {@link DbConfig.DBSettings#getReplicas()}.
+     * @throws SQLException if the connection to the primary failed
+     */
+    public ReplicaRoutingSourceProvider(DatabaseType type, DbConfig.DBSettings config) throws SQLException {
+        super(type, config);
+    }
+
+    @Override
+    protected RoutingDataSource initSource() throws SQLException {
+        DbConfig.DBSettings primarySettings = getConfig().clone();
+        primarySettings.setReplicas(Collections.emptyList());
+        DataSourceProvider<?> primary = SourceProviders.create(getType(), primarySettings);
+        List<DataSourceProvider<?>> started = new ArrayList<>();
+        started.add(primary);
+
+        List<DataSource> replicas = new ArrayList<>();
+        for (DbConfig.DBSettings settings : getConfig().getReplicas()) {
+            try {
+                DataSourceProvider<?> replica = SourceProviders.create(getType(), settings);
+                started.add(replica);
+                replicas.add(replica.getSource());
+            } catch (SQLException | RuntimeException e) {
+                log.warn("Could not connect to replica {}. Skipping it.", settings.getAddress(), e);
+            }
+        }
+        RoutingDataSource routing;
+        try {
+            routing = new RoutingDataSource(primary.getSource(), replicas, ReplicaLagProbe.forType(getType()),
+                    getConfig().getMaxReplicaLag() * 1000L, PROBE_INTERVAL);
+        } catch (RuntimeException e) {
+            started.forEach(DataSourceProvider::shutdown);
+            throw e;
+        }
+        providers.put(routing, started);
+        return routing;
+    }
+
+    /**
+     * The primary and replica providers already apply their own decorators.
+     */
+    @Override
+    protected DataSource decorate(RoutingDataSource source) {
+        return source;
+    }
+
+    /**
+     * Stops the monitor before the pools of the primary and the replicas are closed.
+     */
+    @Override
+    protected void close(RoutingDataSource source) {
+        source.close();
+        List<DataSourceProvider<?>> started = providers.remove(source);
+        if (started != null) started.forEach(DataSourceProvider::shutdown);
+    }
+}
@@ -0,0 +1,212 @@
+package de.eldoria.databasesamples.datasources;
+
+import de.eldoria.databasesamples.config.DatabaseType;
+import de.eldoria.databasesamples.config.DbConfig;
+import de.eldoria.databasesamples.sharding.ShardStrategy;
+import de.eldoria.databasesamples.stream.RowMerge;
+import de.eldoria.databasesamples.util.DataSourceProvider;
+import de.eldoria.databasesamples.util.RowMapper;
+import de.eldoria.databasesamples.util.SqlFunction;
+import de.eldoria.databasesamples.util.UncheckedSQLException;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Distributes data over several databases with one pool per shard.
+ * <p>
+ * The shard of a key is chosen by a {@link ShardStrategy}. Every shard has its own provider, pool and async executor.
+ * Writes to different shards never compete for connections, so write throughput grows with the amount of shards.
+ * <p>
+ * Queries over all shards are executed in parallel with {@link #scatterGather(String, RowMapper, Object...)}.
+ */
+public class ShardedSourceProvider implements AutoCloseable {
+    private final List<DataSourceProvider<?>> shards;
+    private final ShardStrategy strategy;
+
+    /**
+     * Create a provider for every shard.
+     *
+     * @param type     database type of the shards
+     * @param settings settings of the shards. The index in this list is the shard index.
+     * @param strategy strategy to map keys to shards
+     * @throws SQLException if a shard could not be connected
+     */
+    public ShardedSourceProvider(DatabaseType type, List<DbConfig.DBSettings> settings, ShardStrategy strategy)
+            throws SQLException {
+        this(connect(type, settings), strategy);
+    }
+
+    /**
+     * Create a sharded provider from existing providers.
+     *
+     * @param shards   providers of the shards. The index in this list is the shard index.
+     * @param strategy strategy to map keys to shards
+     */
+    public ShardedSourceProvider(List<? extends DataSourceProvider<?>> shards, ShardStrategy strategy) {
+        if (shards.size() != strategy.shards()) {
+            throw new IllegalArgumentException("Strategy distributes to " + strategy.shards()
+                    + " shards but " + shards.size() + " shards are configured");
+        }
+        this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+        this.strategy = strategy;
+    }
+
+    /**
+     * Get the index of the shard which holds the key.
+     *
+     * @param shardKey shard key
+     * @return index of the shard
+     */
+    public int shardOf(Object shardKey) {
+        return strategy.shardOf(shardKey);
+    }
+
+    /**
+     * Get the provider of the shard which holds the key.
+     *
+     * @param shardKey shard key
+     * @return provider of the shard
+     */
+    public DataSourceProvider<?> getProvider(Object shardKey) {
+        return shards.get(shardOf(shardKey));
+    }
+
+    /**
+     * Get the source of the shard which holds the key.
+     *
+     * @param shardKey shard key
+     * @return source of the shard
+     */
+    public DataSource getSource(Object shardKey) {
+        return getProvider(shardKey).getSource();
+    }
+
+    /**
+     * Get the providers of all shards.
+     *
+     * @return unmodifiable list of providers ordered by shard index
+     */
+    public List<DataSourceProvider<?>> getShards() {
+        return shards;
+    }
+
+    /**
+     * Run a function asynchronously on the shard which holds the key.
+     *
+     * @param shardKey shard key
+     * @param function function to apply on a connection of the shard
+     * @param <R>      type of the result
+     * @return future which is completed with the result of the function
+     */
+    public <R> CompletableFuture<R> supply(Object shardKey, SqlFunction<Connection, R> function) {
+        return getProvider(shardKey).async().supply(function);
+    }
+
+    /**
+     * Run a query on all shards in parallel.
+     * <p>
+     * The rows of every shard are streamed while they are read. Only a few chunks of {@value RowMerge#CHUNK_SIZE}
+     * rows per shard are buffered and the shard queries block while the consumer is behind. The order of rows from
+     * different shards is undefined. A failed shard fails the stream with an {@link UncheckedSQLException}.
+     * <p>
+     * The shard queries hold their connections until they read all rows or the stream is closed. Always close the
+     * stream, especially if it is not consumed completely, for example because of a {@link Stream#limit(long)}.
+     *
+     * @param sql    query
+     * @param mapper mapper for the rows of the result
+     * @param params parameters which are bound in order
+     * @param <R>    type of the mapped rows
+     * @return stream of the rows of all shards
+     */
+    public <R> Stream<R> scatterGather(String sql, RowMapper<R> mapper, Object... params) {
+        RowMerge<R> merge = new RowMerge<>(shards.size(), shards.size() * 4, "Query on shard failed");
+        for (DataSourceProvider<?> shard : shards) {
+            shard.async().supply(conn -> {
+                try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                    for (int i = 0; i < params.length; i++) {
+                        stmt.setObject(i + 1, params[i]);
+                    }
+                    try (ResultSet resultSet = stmt.executeQuery()) {
+                        merge.read(resultSet, mapper);
+                    }
+                }
+                return null;
+            }).whenComplete((result, err) -> merge.finished(err));
+        }
+        return merge.stream();
+    }
+
+    /**
+     * Run a function on all shards in parallel.
+     * <p>
+     * The results of a shard are streamed as soon as the function completed on this shard. Every shard holds its whole
+     * result in memory. Use {@link #scatterGather(String, RowMapper, Object...)} to stream large results.
+     *
+     * @param function function to apply on a connection of every shard
+     * @param <R>      type of the results
+     * @return stream of the results of all shards
+     */
+    public <R> Stream<R> scatterGather(SqlFunction<Connection, ? extends List<R>> function) {
+        BlockingQueue<CompletableFuture<? extends List<R>>> completed = new LinkedBlockingQueue<>();
+        for (DataSourceProvider<?> shard : shards) {
+            CompletableFuture<? extends List<R>> future = shard.async().supply(function);
+            future.whenComplete((result, err) -> completed.add(future));
+        }
+        return IntStream.range(0, shards.size())
+                .mapToObj(i -> take(completed))
+                .flatMap(rows -> rows.stream());
+    }
+
+    /**
+     * Shut down all shards.
+     */
+    public void shutdown() {
+        shards.forEach(DataSourceProvider::shutdown);
+    }
+
+    @Override
+    public void close() {
+        shutdown();
+    }
+
+    private static <R> List<R> take(BlockingQueue<CompletableFuture<? extends List<R>>> completed) {
+        try {
+            return completed.take().join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw new UncheckedSQLException("Query on shard failed", (SQLException) e.getCause());
+            }
+            throw e;
+        }
+    }
+
+    private static List<DataSourceProvider<?>> connect(DatabaseType type, List<DbConfig.DBSettings> settings)
+            throws SQLException {
+        List<DataSourceProvider<?>> providers = new ArrayList<>();
+        try {
+            for (DbConfig.DBSettings setting : settings) {
+                providers.add(SourceProviders.create(type, setting));
+            }
+        } catch (SQLException | RuntimeException e) {
+            providers.forEach(DataSourceProvider::shutdown);
+            throw e;
+        }
+        return providers;
+    }
+}
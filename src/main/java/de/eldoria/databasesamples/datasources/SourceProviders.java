@@ -0,0 +1,36 @@
+package de.eldoria.databasesamples.datasources;
+
+import de.eldoria.databasesamples.config.DatabaseType;
+import de.eldoria.databasesamples.config.DbConfig;
+import de.eldoria.databasesamples.util.DataSourceProvider;
+
+import java.sql.SQLException;
+
+/**
+ * Creates the provider of a database type.
+ */
+public final class SourceProviders {
+    private SourceProviders() {
+    }
+
+    /**
+     * Create a new provider for the database type.
+     *
+     * @param type     database type
+     * @param settings settings of the database
+     * @return new provider
+     * @throws SQLException if the connection failed
+     */
+    public static DataSourceProvider<?> create(DatabaseType type, DbConfig.DBSettings settings) throws SQLException {
+        switch (type) {
+            case MARIADB:
+                return new MariaDBSourceProvider(settings);
+            case POSTGRESQL:
+                return new PostgreSQLSourceProvider(settings);
+            case H2:
+                return new H2SourceProvider(settings);
+            default:
+                throw new IllegalArgumentException("Unsupported database type " + type);
+        }
+    }
+}
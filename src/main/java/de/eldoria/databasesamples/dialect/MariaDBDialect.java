@@ -0,0 +1,88 @@
+package de.eldoria.databasesamples.dialect;
+
+import de.eldoria.databasesamples.retry.FailureClass;
+import de.eldoria.databasesamples.util.DbUtil;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * MariaDB statements and limits.
+ * <p>
+ * The prepare protocol counts parameters with two bytes. Statements are limited by {@code max_allowed_packet} of the
+ * server.
+ */
+final class MariaDBDialect implements SqlDialect {
+    /**
+     * Default of {@code max_allowed_packet} before MariaDB 10.2.4. Used if the variable can not be read.
+     */
+    static final long DEFAULT_MAX_PACKET = 4 * 1024 * 1024;
+
+    @Override
+    public int maxParameters() {
+        return 65535;
+    }
+
+    @Override
+    public long maxStatementSize(Connection conn) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT @@max_allowed_packet")) {
+            ResultSet resultSet = stmt.executeQuery();
+            return resultSet.next() ? resultSet.getLong(1) : DEFAULT_MAX_PACKET;
+        } catch (SQLException e) {
+            // Servers in compatibility mode do not know the variable.
+            return DEFAULT_MAX_PACKET;
+        }
+    }
+
+    /**
+     * Most errors of MariaDB share the SQLState HY000, so they are told apart by their error code.
+     */
+    @Override
+    public FailureClass classify(String sqlState, int errorCode) {
+        switch (errorCode) {
+            // ER_LOCK_DEADLOCK, ER_CHECKREAD
+            case 1213:
+            case 1020:
+                return FailureClass.CONFLICT;
+            // ER_LOCK_WAIT_TIMEOUT
+            case 1205:
+                return FailureClass.LOCK_TIMEOUT;
+            // ER_UNKNOWN_COM_ERROR of a Galera node which is not ready, ER_SERVER_SHUTDOWN, ER_CONNECTION_KILLED,
+            // CR_SERVER_GONE_ERROR, CR_SERVER_LOST
+            case 1047:
+            case 1053:
+            case 1927:
+            case 2006:
+            case 2013:
+                return FailureClass.CONNECTION;
+            // ER_QUERY_INTERRUPTED, ER_STATEMENT_TIMEOUT
+            case 1317:
+            case 1969:
+                return FailureClass.TIMEOUT;
+            default:
+                return SqlDialect.super.classify(sqlState, errorCode);
+        }
+    }
+
+    @Override
+    public String upsert(String table, List<String> columns, List<String> keyColumns, int rows) {
+        StringBuilder builder = SqlDialect.values(new StringBuilder("INSERT INTO "), table, columns, rows)
+                .append(" ON DUPLICATE KEY UPDATE ");
+        boolean first = true;
+        for (String column : columns) {
+            if (keyColumns.contains(column)) continue;
+            if (!first) builder.append(", ");
+            builder.append(column).append(" = VALUES(").append(column).append(')');
+            first = false;
+        }
+        if (first) {
+            // A no op assignment keeps existing rows unchanged without swallowing other errors like INSERT IGNORE.
+            String key = DbUtil.requireIdentifier(keyColumns.get(0));
+            builder.append(key).append(" = ").append(key);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,186 @@
+package de.eldoria.databasesamples.dialect;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes rows with multi row inserts or upserts of a {@link SqlDialect}.
+ * <p>
+ * Rows are grouped into chunks which stay below the parameter limit of the dialect and the max statement size of the
+ * server. The size of a row is estimated from its values. Statements are prepared once per chunk size and reused for
+ * all chunks of the same size. Chunks which are cut short by the statement size are rounded down to a power of two to
+ * keep the amount of distinct statements low.
+ */
+public class MultiRowInsert {
+    /**
+     * Bytes which are kept free in every statement for protocol headers.
+     */
+    private static final long HEADER_RESERVE = 1024;
+
+    private final SqlDialect dialect;
+    private final String table;
+    private final List<String> columns;
+    private final List<String> keyColumns;
+    private final int maxRows;
+
+    /**
+     * Create a multi row insert.
+     *
+     * @param dialect dialect of the database
+     * @param table   table to insert into
+     * @param columns columns of the rows
+     */
+    public MultiRowInsert(SqlDialect dialect, String table, List<String> columns) {
+        this(dialect, table, columns, Collections.emptyList());
+    }
+
+    /**
+     * Create a multi row upsert.
+     *
+     * @param dialect    dialect of the database
+     * @param table      table to insert into
+     * @param columns    columns of the rows
+     * @param keyColumns columns of the unique key. Existing rows are updated. Empty for plain inserts.
+     */
+    public MultiRowInsert(SqlDialect dialect, String table, List<String> columns, List<String> keyColumns) {
+        if (columns.isEmpty()) throw new IllegalArgumentException("At least one column is required");
+        if (!columns.containsAll(keyColumns)) throw new IllegalArgumentException("Key columns have to be written");
+        this.dialect = dialect;
+        this.table = table;
+        this.columns = new ArrayList<>(columns);
+        this.keyColumns = new ArrayList<>(keyColumns);
+        this.maxRows = dialect.maxParameters() / columns.size();
+        // Validates the identifiers before the first row is read.
+        sql(1);
+    }
+
+    /**
+     * Max amount of rows per statement imposed by the parameter limit of the dialect.
+     *
+     * @return max rows per statement
+     */
+    public int maxRows() {
+        return maxRows;
+    }
+
+    /**
+     * Build the statement for a chunk.
+     *
+     * @param rows amount of rows in the chunk
+     * @return insert or upsert statement
+     */
+    public String sql(int rows) {
+        return keyColumns.isEmpty() ? dialect.insert(table, columns, rows) : dialect.upsert(table, columns, keyColumns, rows);
+    }
+
+    /**
+     * Write all rows in one transaction.
+     * <p>
+     * Rows are read from the iterator while writing. Only one chunk is held in memory.
+     *
+     * @param source source to retrieve the connection from
+     * @param rows   rows to write. Every row needs to have one value per column.
+     * @return amount of written rows
+     * @throws SQLException if the rows could not be written. No rows are written in this case.
+     */
+    public long execute(DataSource source, Iterator<Object[]> rows) throws SQLException {
+        try (Connection conn = source.getConnection()) {
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            Map<Integer, PreparedStatement> statements = new HashMap<>();
+            try {
+                long count = execute(conn, rows, statements);
+                conn.commit();
+                return count;
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                for (PreparedStatement stmt : statements.values()) {
+                    stmt.close();
+                }
+                conn.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    private long execute(Connection conn, Iterator<Object[]> rows, Map<Integer, PreparedStatement> statements)
+            throws SQLException {
+        long maxSize = dialect.maxStatementSize(conn) - HEADER_RESERVE - sql(1).length();
+        List<Object[]> chunk = new ArrayList<>();
+        long size = 0;
+        long count = 0;
+        while (rows.hasNext()) {
+            Object[] row = rows.next();
+            if (row.length != columns.size()) {
+                throw new IllegalArgumentException("Expected " + columns.size() + " values but got " + row.length);
+            }
+            long rowSize = estimateSize(row);
+            if (chunk.size() == maxRows) {
+                count += flush(conn, chunk, chunk.size(), statements);
+                size = 0;
+            }
+            while (!chunk.isEmpty() && size + rowSize > maxSize) {
+                count += flush(conn, chunk, Integer.highestOneBit(chunk.size()), statements);
+                size = 0;
+                for (Object[] remaining : chunk) {
+                    size += estimateSize(remaining);
+                }
+            }
+            chunk.add(row);
+            size += rowSize;
+        }
+        if (!chunk.isEmpty()) count += flush(conn, chunk, chunk.size(), statements);
+        return count;
+    }
+
+    private int flush(Connection conn, List<Object[]> chunk, int rows, Map<Integer, PreparedStatement> statements)
+            throws SQLException {
+        PreparedStatement stmt = statements.get(rows);
+        if (stmt == null) {
+            stmt = conn.prepareStatement(sql(rows));
+            statements.put(rows, stmt);
+        }
+        List<Object[]> written = chunk.subList(0, rows);
+        int index = 1;
+        for (Object[] row : written) {
+            for (Object value : row) {
+                stmt.setObject(index++, value);
+            }
+        }
+        stmt.executeUpdate();
+        written.clear();
+        return rows;
+    }
+
+    /**
+     * Estimates the size of a row in a statement. Text is estimated with escaping of mostly ASCII text.
+     *
+     * @param row values of the row
+     * @return estimated size in bytes including the placeholders
+     */
+    static long estimateSize(Object[] row) {
+        long size = 4;
+        for (Object value : row) {
+            size += 3;
+            if (value == null) {
+                size += 4;
+            } else if (value instanceof CharSequence) {
+                size += 2L * ((CharSequence) value).length() + 2;
+            } else if (value instanceof byte[]) {
+                size += 2L * ((byte[]) value).length + 3;
+            } else {
+                size += 24;
+            }
+        }
+        return size;
+    }
+}
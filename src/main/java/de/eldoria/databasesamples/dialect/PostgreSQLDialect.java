@@ -0,0 +1,81 @@
+package de.eldoria.databasesamples.dialect;
+
+import de.eldoria.databasesamples.retry.FailureClass;
+import de.eldoria.databasesamples.transaction.Isolation;
+import de.eldoria.databasesamples.util.DbUtil;
+
+import java.sql.Connection;
+import java.util.List;
+
+/**
+ * PostgreSQL statements and limits.
+ * <p>
+ * The wire protocol counts bind parameters with a signed two byte integer. A single message is limited to 1 GB.
+ */
+final class PostgreSQLDialect implements SqlDialect {
+    private static final long MAX_MESSAGE = 1024L * 1024 * 1024 - 1;
+
+    @Override
+    public int maxParameters() {
+        return 32767;
+    }
+
+    @Override
+    public long maxStatementSize(Connection conn) {
+        return MAX_MESSAGE;
+    }
+
+    /**
+     * PostgreSQL never reads uncommitted rows and runs read uncommitted transactions as read committed.
+     */
+    @Override
+    public Isolation isolation(Isolation requested) {
+        return requested == Isolation.READ_UNCOMMITTED ? Isolation.READ_COMMITTED : requested;
+    }
+
+    @Override
+    public FailureClass classify(String sqlState, int errorCode) {
+        if (sqlState == null) return FailureClass.PERMANENT;
+        switch (sqlState) {
+            // serialization_failure, deadlock_detected
+            case "40001":
+            case "40P01":
+                return FailureClass.CONFLICT;
+            // lock_not_available, raised by lock_timeout and NOWAIT
+            case "55P03":
+                return FailureClass.LOCK_TIMEOUT;
+            // admin_shutdown, crash_shutdown, cannot_connect_now and writes on a demoted primary after a failover
+            case "57P01":
+            case "57P02":
+            case "57P03":
+            case "25006":
+                return FailureClass.CONNECTION;
+            // query_canceled, raised by statement_timeout and cancel requests
+            case "57014":
+                return FailureClass.TIMEOUT;
+            default:
+                return SqlDialect.super.classify(sqlState, errorCode);
+        }
+    }
+
+    @Override
+    public String upsert(String table, List<String> columns, List<String> keyColumns, int rows) {
+        if (keyColumns.isEmpty()) throw new IllegalArgumentException("At least one key column is required");
+        StringBuilder builder = SqlDialect.values(new StringBuilder("INSERT INTO "), table, columns, rows)
+                .append(" ON CONFLICT (");
+        for (int i = 0; i < keyColumns.size(); i++) {
+            if (i != 0) builder.append(", ");
+            builder.append(DbUtil.requireIdentifier(keyColumns.get(i)));
+        }
+        builder.append(')');
+        boolean first = true;
+        for (String column : columns) {
+            if (keyColumns.contains(column)) continue;
+            builder.append(first ? " DO UPDATE SET " : ", ");
+            builder.append(column).append(" = EXCLUDED.").append(column);
+            first = false;
+        }
+        if (first) builder.append(" DO NOTHING");
+        return builder.toString();
+    }
+}
@@ -0,0 +1,168 @@
+package de.eldoria.databasesamples.dialect;
+
+import de.eldoria.databasesamples.batch.BulkLoad;
+import de.eldoria.databasesamples.config.DatabaseType;
+import de.eldoria.databasesamples.retry.FailureClass;
+import de.eldoria.databasesamples.transaction.Isolation;
+import de.eldoria.databasesamples.util.DbUtil;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransactionRollbackException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Generates vendor specific statements and knows the statement limits of a database.
+ */
+public interface SqlDialect {
+    /**
+     * MariaDB dialect with {@code ON DUPLICATE KEY UPDATE} upserts.
+     */
+    SqlDialect MARIADB = new MariaDBDialect();
+
+    /**
+     * PostgreSQL dialect with {@code ON CONFLICT DO UPDATE} upserts.
+     */
+    SqlDialect POSTGRESQL = new PostgreSQLDialect();
+
+    /**
+     * Get the dialect for a database type.
+     *
+     * @param type database type
+     * @return dialect of the type
+     */
+    static SqlDialect forType(DatabaseType type) {
+        switch (type) {
+            case POSTGRESQL:
+                return POSTGRESQL;
+            case MARIADB:
+            default:
+                return MARIADB;
+        }
+    }
+
+    /**
+     * Max amount of bind parameters in a single statement.
+     *
+     * @return max amount of bind parameters
+     */
+    int maxParameters();
+
+    /**
+     * Max size of a single statement including its parameters.
+     *
+     * @param conn connection to the server
+     * @return max statement size in bytes
+     * @throws SQLException if the limit could not be read
+     */
+    long maxStatementSize(Connection conn) throws SQLException;
+
+    /**
+     * Build an insert of multiple rows like {@code INSERT INTO table(a, b) VALUES (?, ?), (?, ?)}.
+     *
+     * @param table   table name
+     * @param columns column names
+     * @param rows    amount of rows
+     * @return insert statement
+     */
+    default String insert(String table, List<String> columns, int rows) {
+        return values(new StringBuilder("INSERT INTO "), table, columns, rows).toString();
+    }
+
+    /**
+     * Build an insert of multiple rows which updates all non key columns of rows which already exist.
+     * <p>
+     * Rows which only consist of key columns are left unchanged if they exist.
+     *
+     * @param table      table name
+     * @param columns    column names
+     * @param keyColumns columns of the unique key which identifies existing rows. Have to be part of the columns.
+     * @param rows       amount of rows
+     * @return upsert statement
+     */
+    String upsert(String table, List<String> columns, List<String> keyColumns, int rows);
+
+    /**
+     * Classify a failed database call.
+     * <p>
+     * The exception, its chained exceptions and its causes are checked in this order. The first class which is not
+     * {@link FailureClass#PERMANENT} is returned.
+     *
+     * @param e exception of the call
+     * @return class of the failure
+     */
+    default FailureClass classify(SQLException e) {
+        Deque<Throwable> pending = new ArrayDeque<>();
+        Set<Throwable> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        pending.add(e);
+        while (!pending.isEmpty()) {
+            Throwable current = pending.poll();
+            if (!(current instanceof SQLException) || !seen.add(current)) continue;
+            SQLException exception = (SQLException) current;
+            FailureClass failure = classify(exception.getSQLState(), exception.getErrorCode());
+            if (failure != FailureClass.PERMANENT) return failure;
+            if (exception instanceof SQLTimeoutException) return FailureClass.TIMEOUT;
+            if (exception instanceof SQLTransactionRollbackException) return FailureClass.CONFLICT;
+            if (DbUtil.isConnectionFailure(exception)) return FailureClass.CONNECTION;
+            if (exception.getNextException() != null) pending.add(exception.getNextException());
+            if (exception.getCause() != null) pending.add(exception.getCause());
+        }
+        return FailureClass.PERMANENT;
+    }
+
+    /**
+     * Classify a SQLState and vendor error code.
+     * <p>
+     * The default implementation only knows the standard SQLStates for serialization failures and connection errors.
+     *
+     * @param sqlState  SQLState of the exception. May be null.
+     * @param errorCode vendor error code of the exception
+     * @return class of the failure
+     */
+    default FailureClass classify(String sqlState, int errorCode) {
+        if (sqlState == null) return FailureClass.PERMANENT;
+        if ("40001".equals(sqlState)) return FailureClass.CONFLICT;
+        if (sqlState.startsWith("08")) return FailureClass.CONNECTION;
+        return FailureClass.PERMANENT;
+    }
+
+    /**
+     * Get the isolation level which the database uses for a requested level.
+     * <p>
+     * The default implementation supports all levels.
+     *
+     * @param requested requested isolation level
+     * @return level to set on the connection
+     */
+    default Isolation isolation(Isolation requested) {
+        return requested;
+    }
+
+    /**
+     * Appends the target and the placeholders of a multi row insert.
+     *
+     * @param builder builder to append to
+     * @param table   table name
+     * @param columns column names
+     * @param rows    amount of rows
+     * @return the builder
+     */
+    static StringBuilder values(StringBuilder builder, String table, List<String> columns, int rows) {
+        if (rows < 1) throw new IllegalArgumentException("At least one row is required");
+        builder.append(BulkLoad.target(table, columns)).append(" VALUES ");
+        for (int row = 0; row < rows; row++) {
+            builder.append(row == 0 ? "(" : ", (");
+            for (int i = 0; i < columns.size(); i++) {
+                builder.append(i == 0 ? "?" : ", ?");
+            }
+            builder.append(')');
+        }
+        return builder;
+    }
+}
@@ -0,0 +1,449 @@
+package de.eldoria.databasesamples.metrics;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+import de.eldoria.databasesamples.config.DbConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Pool and query metrics of a provider.
+ * <p>
+ * Pool metrics are reported by HikariCP through the {@link MetricsTrackerFactory}. The gauges of all pools which report
+ * to the same metrics are summed up, for example a replaced pool which still drains its connections. Query metrics are
+ * recorded by an {@link InstrumentedDataSource} per sql shape. A shape is the sql with all literals replaced by
+ * placeholders.
+ * <p>
+ * Metrics are pulled via {@link #snapshot()} or via jmx once {@link #registerMBean()} was called.
+ */
+public class DatabaseMetrics implements MetricsTrackerFactory, DatabaseMetricsMXBean, AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(DatabaseMetrics.class);
+    private static final String OTHER = "<other>";
+    private static final int SLOW_QUERY_BUFFER = 256;
+    private static final long SLOW_QUERY_DISPATCH_INTERVAL = 100;
+    private static final AtomicInteger THREAD_ID = new AtomicInteger();
+
+    private final String name;
+    private final int maxShapes;
+    private final LatencyHistogram acquire = new LatencyHistogram();
+    private final LatencyHistogram usage = new LatencyHistogram();
+    private final LatencyHistogram creation = new LatencyHistogram();
+    private final LongAdder borrowNanos = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder retriesExhausted = new LongAdder();
+    private final LongAdder retriesRejected = new LongAdder();
+    private final Map<String, QueryMetrics> bySql = new ConcurrentHashMap<>();
+    private final Map<String, QueryMetrics> byShape = new ConcurrentHashMap<>();
+    private final List<Consumer<SlowQuery>> slowQueryListeners = new CopyOnWriteArrayList<>();
+    private final Map<String, PoolStats> poolStats = new ConcurrentHashMap<>();
+    private final SlowQuerySlot[] slowQueries = new SlowQuerySlot[SLOW_QUERY_BUFFER];
+    private final AtomicLong slowQuerySequence = new AtomicLong();
+    private long dispatchedSlowQueries;
+    private volatile ScheduledExecutorService dispatcher;
+    private volatile long slowQueryNanos;
+    private boolean closed;
+    private ObjectName objectName;
+
+    /**
+     * Create new metrics.
+     *
+     * @param name     name of the metrics. Used as name of the MXBean.
+     * @param settings metrics settings
+     */
+    public DatabaseMetrics(String name, DbConfig.Metrics settings) {
+        this.name = name;
+        this.maxShapes = Math.max(1, settings.getMaxShapes());
+        this.slowQueryNanos = TimeUnit.MILLISECONDS.toNanos(settings.getSlowQueryMillis());
+        for (int i = 0; i < slowQueries.length; i++) {
+            slowQueries[i] = new SlowQuerySlot();
+        }
+        onSlowQuery(query -> log.warn("{}", query));
+    }
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+        this.poolStats.put(poolName, poolStats);
+        return new IMetricsTracker() {
+            @Override
+            public void recordConnectionCreatedMillis(long connectionCreatedMillis) {
+                creation.record(TimeUnit.MILLISECONDS.toNanos(connectionCreatedMillis));
+            }
+
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                acquire.record(elapsedAcquiredNanos);
+            }
+
+            @Override
+            public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+                usage.record(TimeUnit.MILLISECONDS.toNanos(elapsedBorrowedMillis));
+            }
+
+            @Override
+            public void recordConnectionTimeout() {
+                timeouts.increment();
+            }
+
+            @Override
+            public void close() {
+                DatabaseMetrics.this.poolStats.remove(poolName, poolStats);
+            }
+        };
+    }
+
+    /**
+     * Register a listener which is called for every query which exceeded the slow query threshold.
+     * <p>
+     * Slow queries are written to a preallocated buffer, so the query thread does not allocate. Listeners are called on
+     * a background thread shortly after the query. If more than 256 slow queries are recorded between two dispatches,
+     * the oldest ones are dropped.
+     *
+     * @param listener listener to register
+     */
+    public void onSlowQuery(Consumer<SlowQuery> listener) {
+        slowQueryListeners.add(listener);
+    }
+
+    /**
+     * Take a snapshot of all metrics.
+     *
+     * @return metrics snapshot
+     */
+    public MetricsSnapshot snapshot() {
+        return new MetricsSnapshot(name, getActiveConnections(), getIdleConnections(), getTotalConnections(),
+                getPendingThreads(), getConnectionTimeouts(), acquire.snapshot(), usage.snapshot(),
+                creation.snapshot(), getQueries(), getRetries(), getRetriesExhausted(), getRetriesRejected());
+    }
+
+    /**
+     * Register the metrics as MXBean named {@code de.eldoria.databasesamples:type=DatabaseMetrics,name=<name>}.
+     * Call {@link #close()} to unregister it.
+     */
+    public synchronized void registerMBean() {
+        if (objectName != null) return;
+        try {
+            ObjectName objectName = new ObjectName("de.eldoria.databasesamples:type=DatabaseMetrics,name="
+                    + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            this.objectName = objectName;
+        } catch (JMException e) {
+            log.warn("Could not register metrics {} via jmx.", name, e);
+        }
+    }
+
+    /**
+     * Unregister the MXBean and stop the dispatch of slow queries. Recorded slow queries are dispatched before.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        ScheduledExecutorService executor = dispatcher;
+        if (executor != null) {
+            executor.execute(this::dispatchSlowQueries);
+            executor.shutdown();
+            try {
+                executor.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (objectName == null) return;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(objectName);
+        } catch (JMException e) {
+            log.warn("Could not unregister metrics {}.", name, e);
+        }
+        objectName = null;
+    }
+
+    @Override
+    public int getActiveConnections() {
+        int sum = 0;
+        for (PoolStats stats : poolStats.values()) {
+            sum += stats.getActiveConnections();
+        }
+        return sum;
+    }
+
+    @Override
+    public int getIdleConnections() {
+        int sum = 0;
+        for (PoolStats stats : poolStats.values()) {
+            sum += stats.getIdleConnections();
+        }
+        return sum;
+    }
+
+    @Override
+    public int getTotalConnections() {
+        int sum = 0;
+        for (PoolStats stats : poolStats.values()) {
+            sum += stats.getTotalConnections();
+        }
+        return sum;
+    }
+
+    @Override
+    public int getPendingThreads() {
+        int sum = 0;
+        for (PoolStats stats : poolStats.values()) {
+            sum += stats.getPendingThreads();
+        }
+        return sum;
+    }
+
+    @Override
+    public long getConnectionTimeouts() {
+        return timeouts.sum();
+    }
+
+    @Override
+    public HistogramSnapshot getConnectionAcquire() {
+        return acquire.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getConnectionUsage() {
+        return usage.snapshot();
+    }
+
+    @Override
+    public long getBorrowNanos() {
+        return borrowNanos.sum();
+    }
+
+    @Override
+    public long getQueryCount() {
+        long count = 0;
+        for (QueryMetrics metrics : byShape.values()) {
+            count += metrics.latency.count();
+        }
+        return count;
+    }
+
+    @Override
+    public long getQueryNanos() {
+        long nanos = 0;
+        for (QueryMetrics metrics : byShape.values()) {
+            nanos += metrics.latency.sum();
+        }
+        return nanos;
+    }
+
+    @Override
+    public List<QueryStats> getQueries() {
+        List<QueryStats> queries = new ArrayList<>();
+        for (QueryMetrics metrics : byShape.values()) {
+            queries.add(metrics.snapshot());
+        }
+        queries.sort(Comparator.comparingLong(
+                (QueryStats stats) -> stats.getLatency().getCount() * stats.getLatency().getMean()).reversed());
+        return queries;
+    }
+
+    @Override
+    public long getSlowQueryMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(slowQueryNanos);
+    }
+
+    @Override
+    public void setSlowQueryMillis(long millis) {
+        slowQueryNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * Reset the pool histograms and remove all query metrics.
+     */
+    @Override
+    public void reset() {
+        acquire.reset();
+        usage.reset();
+        creation.reset();
+        borrowNanos.reset();
+        timeouts.reset();
+        retries.reset();
+        retriesExhausted.reset();
+        retriesRejected.reset();
+        bySql.clear();
+        byShape.clear();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Record a retry after a transient failure.
+     */
+    public void recordRetry() {
+        retries.increment();
+    }
+
+    /**
+     * Record a call which failed with a transient failure and is not retried anymore.
+     *
+     * @param rejected true if the retry was rejected by the retry budget
+     */
+    public void recordRetriesExhausted(boolean rejected) {
+        if (rejected) {
+            retriesRejected.increment();
+        } else {
+            retriesExhausted.increment();
+        }
+    }
+
+    @Override
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    @Override
+    public long getRetriesExhausted() {
+        return retriesExhausted.sum();
+    }
+
+    @Override
+    public long getRetriesRejected() {
+        return retriesRejected.sum();
+    }
+
+    /**
+     * Get the metrics of the shape of a sql.
+     * <p>
+     * The metrics are cached by the sql itself. Repeated lookups of the same sql do not allocate.
+     *
+     * @param sql executed sql
+     * @return metrics of the sql shape
+     */
+    QueryMetrics forSql(String sql) {
+        QueryMetrics metrics = bySql.get(sql);
+        if (metrics != null) return metrics;
+        String shape = SqlShapes.of(sql);
+        metrics = byShape.get(shape);
+        if (metrics == null) {
+            metrics = byShape.size() < maxShapes
+                    ? byShape.computeIfAbsent(shape, QueryMetrics::new)
+                    : byShape.computeIfAbsent(OTHER, QueryMetrics::new);
+        }
+        // Bound the sql cache as well. Queries with inlined literals would fill it otherwise.
+        if (bySql.size() < maxShapes * 4) bySql.put(sql, metrics);
+        return metrics;
+    }
+
+    /**
+     * Record the time a connection was borrowed.
+     *
+     * @param nanos time between the connection request and the return of the connection
+     */
+    void recordBorrow(long nanos) {
+        borrowNanos.add(nanos);
+    }
+
+    /**
+     * Record the execution of a statement.
+     *
+     * @param metrics metrics of the sql shape
+     * @param sql     executed sql
+     * @param nanos   execution time
+     * @param failed  whether the execution failed
+     */
+    void recordExecution(QueryMetrics metrics, String sql, long nanos, boolean failed) {
+        metrics.latency.record(nanos);
+        if (failed) metrics.errors.increment();
+        if (nanos >= slowQueryNanos) {
+            metrics.slow.increment();
+            long sequence = slowQuerySequence.getAndIncrement();
+            SlowQuerySlot slot = slowQueries[(int) (sequence % SLOW_QUERY_BUFFER)];
+            synchronized (slot) {
+                slot.set(sequence, sql, metrics.shape, nanos, System.currentTimeMillis());
+            }
+            if (dispatcher == null) startDispatcher();
+        }
+    }
+
+    private synchronized void startDispatcher() {
+        if (dispatcher != null || closed) return;
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "slow-query-dispatcher-" + THREAD_ID.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::dispatchSlowQueries, SLOW_QUERY_DISPATCH_INTERVAL,
+                SLOW_QUERY_DISPATCH_INTERVAL, TimeUnit.MILLISECONDS);
+        dispatcher = executor;
+    }
+
+    /**
+     * Call the listeners for the slow queries which were recorded since the last dispatch. Runs on the dispatcher.
+     */
+    private void dispatchSlowQueries() {
+        long recorded = slowQuerySequence.get();
+        if (recorded - dispatchedSlowQueries > SLOW_QUERY_BUFFER) {
+            log.debug("Dropped {} slow queries of {}.", recorded - dispatchedSlowQueries - SLOW_QUERY_BUFFER, name);
+            dispatchedSlowQueries = recorded - SLOW_QUERY_BUFFER;
+        }
+        while (dispatchedSlowQueries < recorded) {
+            SlowQuerySlot slot = slowQueries[(int) (dispatchedSlowQueries % SLOW_QUERY_BUFFER)];
+            SlowQuery query;
+            synchronized (slot) {
+                // The slot was claimed but is not written yet.
+                if (slot.sequence < dispatchedSlowQueries) return;
+                // A slot which was overwritten already is dropped.
+                query = slot.sequence == dispatchedSlowQueries ? slot.toSlowQuery() : null;
+            }
+            dispatchedSlowQueries++;
+            if (query == null) continue;
+            for (Consumer<SlowQuery> listener : slowQueryListeners) {
+                try {
+                    listener.accept(query);
+                } catch (RuntimeException e) {
+                    log.warn("Slow query listener failed.", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reusable entry of the slow query buffer.
+     */
+    private static final class SlowQuerySlot {
+        private long sequence = -1;
+        private String sql;
+        private String shape;
+        private long nanos;
+        private long timestamp;
+
+        private void set(long sequence, String sql, String shape, long nanos, long timestamp) {
+            this.sequence = sequence;
+            this.sql = sql;
+            this.shape = shape;
+            this.nanos = nanos;
+            this.timestamp = timestamp;
+        }
+
+        private SlowQuery toSlowQuery() {
+            return new SlowQuery(sql, shape, nanos, timestamp);
+        }
+    }
+}
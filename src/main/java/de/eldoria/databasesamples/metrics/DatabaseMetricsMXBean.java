@@ -0,0 +1,73 @@
+package de.eldoria.databasesamples.metrics;
+
+import java.util.List;
+
+/**
+ * Jmx view of the {@link DatabaseMetrics} of a provider.
+ */
+public interface DatabaseMetricsMXBean {
+    int getActiveConnections();
+
+    int getIdleConnections();
+
+    int getTotalConnections();
+
+    int getPendingThreads();
+
+    long getConnectionTimeouts();
+
+    HistogramSnapshot getConnectionAcquire();
+
+    HistogramSnapshot getConnectionUsage();
+
+    /**
+     * Total time connections were borrowed from the pool, measured by the {@link InstrumentedDataSource}. Unlike the
+     * {@link #getConnectionUsage() usage} reported by the pool, borrows below a millisecond are not truncated.
+     *
+     * @return borrow time in nanoseconds
+     */
+    long getBorrowNanos();
+
+    /**
+     * Amount of recorded statement executions of all shapes.
+     *
+     * @return executions
+     */
+    long getQueryCount();
+
+    /**
+     * Total execution time of all recorded statements.
+     *
+     * @return execution time in nanoseconds
+     */
+    long getQueryNanos();
+
+    List<QueryStats> getQueries();
+
+    /**
+     * Amount of retries after transient failures.
+     *
+     * @return retries
+     */
+    long getRetries();
+
+    /**
+     * Amount of calls which failed with a transient failure after their last attempt.
+     *
+     * @return exhausted calls
+     */
+    long getRetriesExhausted();
+
+    /**
+     * Amount of retries which were not made because the retry budget was drained.
+     *
+     * @return rejected retries
+     */
+    long getRetriesRejected();
+
+    long getSlowQueryMillis();
+
+    void setSlowQueryMillis(long millis);
+
+    void reset();
+}
@@ -0,0 +1,208 @@
+package de.eldoria.databasesamples.metrics;
+
+import de.eldoria.databasesamples.util.DelegatingDataSource;
+import de.eldoria.databasesamples.util.Proxies;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Records the latency, rows returned and errors of every statement execution in {@link DatabaseMetrics}.
+ * <p>
+ * Connections, statements and result sets are wrapped. The metrics of a prepared statement are resolved once when
+ * the statement is prepared. Recording an execution does not allocate, slow queries are handed to the listeners
+ * through a preallocated buffer.
+ * <p>
+ * Like the connection proxies of the pool, a wrapper is created per borrowed connection and per statement. Reusing a
+ * wrapper would let a stale reference of a previous borrower reach the next one.
+ * <p>
+ * The time every connection is borrowed is recorded in nanoseconds as {@link DatabaseMetrics#getBorrowNanos()}.
+ */
+public class InstrumentedDataSource extends DelegatingDataSource {
+    private final DatabaseMetrics metrics;
+    private final boolean statements;
+
+    /**
+     * Create a new instrumented source.
+     *
+     * @param delegate source to instrument
+     * @param metrics  metrics to record to
+     */
+    public InstrumentedDataSource(DataSource delegate, DatabaseMetrics metrics) {
+        this(delegate, metrics, true);
+    }
+
+    /**
+     * Create a new instrumented source.
+     *
+     * @param delegate   source to instrument
+     * @param metrics    metrics to record to
+     * @param statements whether statements are wrapped. If false only the borrow time of connections is recorded.
+     */
+    public InstrumentedDataSource(DataSource delegate, DatabaseMetrics metrics, boolean statements) {
+        super(delegate);
+        this.metrics = metrics;
+        this.statements = statements;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        return wrap(super.getConnection(), start);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        long start = System.nanoTime();
+        return wrap(super.getConnection(username, password), start);
+    }
+
+    private Connection wrap(Connection conn, long borrowed) {
+        return Proxies.create(Connection.class, new ConnectionHandler(conn, borrowed));
+    }
+
+    private final class ConnectionHandler implements InvocationHandler {
+        private final Connection conn;
+        private final long borrowed;
+        private boolean returned;
+
+        private ConnectionHandler(Connection conn, long borrowed) {
+            this.conn = conn;
+            this.borrowed = borrowed;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Instrumented[" + conn + "]";
+                case "close":
+                    if (returned) return null;
+                    returned = true;
+                    try {
+                        conn.close();
+                    } finally {
+                        metrics.recordBorrow(System.nanoTime() - borrowed);
+                    }
+                    return null;
+                default:
+                    break;
+            }
+            Object result = Proxies.invoke(conn, method, args);
+            if (statements && result instanceof Statement) {
+                String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : null;
+                return wrap((Statement) result, (Connection) proxy, sql);
+            }
+            return result;
+        }
+
+        private Statement wrap(Statement stmt, Connection proxy, String sql) {
+            StatementHandler handler = new StatementHandler(stmt, proxy, sql);
+            if (stmt instanceof CallableStatement) return Proxies.create(CallableStatement.class, handler);
+            if (stmt instanceof PreparedStatement) return Proxies.create(PreparedStatement.class, handler);
+            return Proxies.create(Statement.class, handler);
+        }
+    }
+
+    private final class StatementHandler implements InvocationHandler {
+        private final Statement stmt;
+        private final Connection connection;
+        private final String preparedSql;
+        private final QueryMetrics prepared;
+        private String batchSql;
+        private QueryMetrics current;
+
+        private StatementHandler(Statement stmt, Connection connection, String sql) {
+            this.stmt = stmt;
+            this.connection = connection;
+            this.preparedSql = sql;
+            this.prepared = sql == null ? null : metrics.forSql(sql);
+            this.current = prepared;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Instrumented[" + stmt + "]";
+                case "getConnection":
+                    return connection;
+                case "addBatch":
+                    if (args != null && batchSql == null) batchSql = (String) args[0];
+                    break;
+                case "clearBatch":
+                    batchSql = null;
+                    break;
+                default:
+                    break;
+            }
+            if (!name.startsWith("execute")) {
+                Object result = Proxies.invoke(stmt, method, args);
+                if (result instanceof ResultSet && current != null) return wrap((ResultSet) result, proxy, current);
+                return result;
+            }
+
+            String sql;
+            if (args != null && args.length > 0 && args[0] instanceof String) {
+                sql = (String) args[0];
+                current = metrics.forSql(sql);
+            } else if (preparedSql != null) {
+                sql = preparedSql;
+                current = prepared;
+            } else if (batchSql != null) {
+                // Plain statement batches are recorded by their first statement.
+                sql = batchSql;
+                current = metrics.forSql(sql);
+                batchSql = null;
+            } else {
+                return Proxies.invoke(stmt, method, args);
+            }
+
+            QueryMetrics query = current;
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                Object result = Proxies.invoke(stmt, method, args);
+                failed = false;
+                return result instanceof ResultSet ? wrap((ResultSet) result, proxy, query) : result;
+            } finally {
+                metrics.recordExecution(query, sql, System.nanoTime() - start, failed);
+            }
+        }
+
+        private ResultSet wrap(ResultSet resultSet, Object statement, QueryMetrics query) {
+            return Proxies.create(ResultSet.class, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "getStatement":
+                        return statement;
+                    case "next":
+                        boolean next = resultSet.next();
+                        if (next) query.rows.increment();
+                        return next;
+                    default:
+                        return Proxies.invoke(resultSet, method, args);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package de.eldoria.databasesamples.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free histogram of latencies in nanoseconds.
+ * <p>
+ * Values are counted in log linear buckets like in HdrHistogram. Every power of two is split into 16 buckets, so a
+ * recorded value is reported with a relative error below 6.25%. The buckets are allocated once. Recording a value does
+ * not allocate.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR = SUB_BUCKETS * 2;
+    private static final int BUCKETS = LINEAR + (63 - (SUB_BUCKET_BITS + 1)) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Record a latency.
+     *
+     * @param nanos latency in nanoseconds. Negative values are recorded as 0.
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(index(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Amount of recorded values.
+     *
+     * @return amount of values
+     */
+    public long count() {
+        return count.sum();
+    }
+
+    /**
+     * Sum of all recorded values.
+     *
+     * @return sum in nanoseconds
+     */
+    public long sum() {
+        return sum.sum();
+    }
+
+    /**
+     * Take a snapshot of the histogram. Values recorded while the snapshot is taken may be missing.
+     *
+     * @return snapshot
+     */
+    public HistogramSnapshot snapshot() {
+        long[] buckets = new long[BUCKETS];
+        long values = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = counts.get(i);
+            values += buckets[i];
+        }
+        long maxValue = max.get();
+        long recorded = count.sum();
+        long total = sum.sum();
+        return new HistogramSnapshot(values, total, recorded == 0 ? 0 : total / recorded,
+                percentile(buckets, values, 0.5, maxValue),
+                percentile(buckets, values, 0.9, maxValue),
+                percentile(buckets, values, 0.99, maxValue),
+                percentile(buckets, values, 0.999, maxValue),
+                maxValue);
+    }
+
+    /**
+     * Reset all counts.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    private static long percentile(long[] buckets, long total, double percentile, long max) {
+        if (total == 0) return 0;
+        long rank = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) return Math.min(highestValue(i), max);
+        }
+        return max;
+    }
+
+    static int index(long value) {
+        if (value < LINEAR) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int sub = (int) (value >>> shift) - SUB_BUCKETS;
+        return LINEAR + (exponent - (SUB_BUCKET_BITS + 1)) * SUB_BUCKETS + sub;
+    }
+
+    static long highestValue(int index) {
+        if (index < LINEAR) return index;
+        int exponent = (index - LINEAR) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+        int sub = (index - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+        int shift = exponent - SUB_BUCKET_BITS;
+        return ((long) (sub + 1) << shift) - 1;
+    }
+}
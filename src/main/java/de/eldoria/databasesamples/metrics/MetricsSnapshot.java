@@ -0,0 +1,164 @@
+package de.eldoria.databasesamples.metrics;
+
+import java.util.List;
+
+/**
+ * Point in time view of the pool and query metrics of a provider.
+ */
+public class MetricsSnapshot {
+    private final String name;
+    private final int activeConnections;
+    private final int idleConnections;
+    private final int totalConnections;
+    private final int pendingThreads;
+    private final long connectionTimeouts;
+    private final HistogramSnapshot connectionAcquire;
+    private final HistogramSnapshot connectionUsage;
+    private final HistogramSnapshot connectionCreation;
+    private final List<QueryStats> queries;
+    private final long retries;
+    private final long retriesExhausted;
+    private final long retriesRejected;
+
+    public MetricsSnapshot(String name, int activeConnections, int idleConnections, int totalConnections,
+                           int pendingThreads, long connectionTimeouts, HistogramSnapshot connectionAcquire,
+                           HistogramSnapshot connectionUsage, HistogramSnapshot connectionCreation,
+                           List<QueryStats> queries, long retries, long retriesExhausted, long retriesRejected) {
+        this.name = name;
+        this.activeConnections = activeConnections;
+        this.idleConnections = idleConnections;
+        this.totalConnections = totalConnections;
+        this.pendingThreads = pendingThreads;
+        this.connectionTimeouts = connectionTimeouts;
+        this.connectionAcquire = connectionAcquire;
+        this.connectionUsage = connectionUsage;
+        this.connectionCreation = connectionCreation;
+        this.queries = queries;
+        this.retries = retries;
+        this.retriesExhausted = retriesExhausted;
+        this.retriesRejected = retriesRejected;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Connections which are currently borrowed from the pool.
+     *
+     * @return active connections
+     */
+    public int getActiveConnections() {
+        return activeConnections;
+    }
+
+    /**
+     * Connections which are currently idle in the pool.
+     *
+     * @return idle connections
+     */
+    public int getIdleConnections() {
+        return idleConnections;
+    }
+
+    public int getTotalConnections() {
+        return totalConnections;
+    }
+
+    /**
+     * Threads which are currently waiting for a connection. A constant value above 0 indicates pool starvation.
+     *
+     * @return waiting threads
+     */
+    public int getPendingThreads() {
+        return pendingThreads;
+    }
+
+    /**
+     * Amount of requests which did not get a connection within the connection timeout.
+     *
+     * @return connection timeouts
+     */
+    public long getConnectionTimeouts() {
+        return connectionTimeouts;
+    }
+
+    /**
+     * Time threads waited for a connection from the pool.
+     *
+     * @return acquisition latency
+     */
+    public HistogramSnapshot getConnectionAcquire() {
+        return connectionAcquire;
+    }
+
+    /**
+     * Time connections were borrowed from the pool.
+     *
+     * @return usage time
+     */
+    public HistogramSnapshot getConnectionUsage() {
+        return connectionUsage;
+    }
+
+    /**
+     * Time to open a new physical connection.
+     *
+     * @return creation time
+     */
+    public HistogramSnapshot getConnectionCreation() {
+        return connectionCreation;
+    }
+
+    /**
+     * Metrics per sql shape ordered by total execution time.
+     *
+     * @return query metrics
+     */
+    public List<QueryStats> getQueries() {
+        return queries;
+    }
+
+    /**
+     * Amount of retries after transient failures.
+     *
+     * @return retries
+     */
+    public long getRetries() {
+        return retries;
+    }
+
+    /**
+     * Amount of calls which failed with a transient failure after their last attempt.
+     *
+     * @return exhausted calls
+     */
+    public long getRetriesExhausted() {
+        return retriesExhausted;
+    }
+
+    /**
+     * Amount of retries which were not made because the retry budget was drained.
+     *
+     * @return rejected retries
+     */
+    public long getRetriesRejected() {
+        return retriesRejected;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder()
+                .append(name).append(": active=").append(activeConnections)
+                .append(" idle=").append(idleConnections)
+                .append(" pending=").append(pendingThreads)
+                .append(" timeouts=").append(connectionTimeouts)
+                .append(" retries=").append(retries)
+                .append("\n  acquire ").append(connectionAcquire)
+                .append("\n  usage ").append(connectionUsage);
+        for (QueryStats query : queries) {
+            builder.append("\n  ").append(query);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,22 @@
+package de.eldoria.databasesamples.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of one sql shape.
+ */
+final class QueryMetrics {
+    final String shape;
+    final LatencyHistogram latency = new LatencyHistogram();
+    final LongAdder rows = new LongAdder();
+    final LongAdder errors = new LongAdder();
+    final LongAdder slow = new LongAdder();
+
+    QueryMetrics(String shape) {
+        this.shape = shape;
+    }
+
+    QueryStats snapshot() {
+        return new QueryStats(shape, latency.snapshot(), rows.sum(), errors.sum(), slow.sum());
+    }
+}
@@ -0,0 +1,73 @@
+package de.eldoria.databasesamples.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Snapshot of the metrics of one sql shape.
+ */
+public class QueryStats {
+    private final String shape;
+    private final HistogramSnapshot latency;
+    private final long rows;
+    private final long errors;
+    private final long slowQueries;
+
+    @ConstructorProperties({"shape", "latency", "rows", "errors", "slowQueries"})
+    public QueryStats(String shape, HistogramSnapshot latency, long rows, long errors, long slowQueries) {
+        this.shape = shape;
+        this.latency = latency;
+        this.rows = rows;
+        this.errors = errors;
+        this.slowQueries = slowQueries;
+    }
+
+    /**
+     * Sql with literals replaced by placeholders.
+     *
+     * @return sql shape
+     */
+    public String getShape() {
+        return shape;
+    }
+
+    /**
+     * Execution time of the statements.
+     *
+     * @return latency snapshot
+     */
+    public HistogramSnapshot getLatency() {
+        return latency;
+    }
+
+    /**
+     * Amount of rows read from result sets of the statements.
+     *
+     * @return rows returned
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * Amount of executions which failed.
+     *
+     * @return failed executions
+     */
+    public long getErrors() {
+        return errors;
+    }
+
+    /**
+     * Amount of executions which exceeded the slow query threshold.
+     *
+     * @return slow executions
+     */
+    public long getSlowQueries() {
+        return slowQueries;
+    }
+
+    @Override
+    public String toString() {
+        return shape + ": " + latency + " rows=" + rows + " errors=" + errors + " slow=" + slowQueries;
+    }
+}
@@ -0,0 +1,59 @@
+package de.eldoria.databasesamples.metrics;
+
+/**
+ * A statement execution which exceeded the slow query threshold.
+ */
+public class SlowQuery {
+    private final String sql;
+    private final String shape;
+    private final long durationNanos;
+    private final long timestamp;
+
+    public SlowQuery(String sql, String shape, long durationNanos, long timestamp) {
+        this.sql = sql;
+        this.shape = shape;
+        this.durationNanos = durationNanos;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Executed sql.
+     *
+     * @return sql
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * Sql with literals replaced by placeholders.
+     *
+     * @return sql shape
+     */
+    public String getShape() {
+        return shape;
+    }
+
+    /**
+     * Execution time.
+     *
+     * @return duration in nanoseconds
+     */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * Time the execution finished.
+     *
+     * @return epoch millis
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Slow query (%.1fms): %s", durationNanos / 1e6, sql);
+    }
+}
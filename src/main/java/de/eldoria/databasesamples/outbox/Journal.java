@@ -0,0 +1,311 @@
+package de.eldoria.databasesamples.outbox;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append only journal of statements in memory mapped segment files.
+ * <p>
+ * Records are appended to the newest segment. A new segment is started once a record does not fit into the current one.
+ * Every record consists of its length, a CRC32 checksum and the encoded statement. The length is written last. A record
+ * which was torn by a crash has no length or a wrong checksum and marks the end of the journal.
+ * <p>
+ * The header of every segment contains the offset of the first record which was not acknowledged yet. Segments are
+ * deleted once all their records are acknowledged. Records are read in the order they were appended.
+ * <p>
+ * With sync enabled, every append and acknowledgement is forced to the disk before the call returns.
+ * Otherwise the operating system writes the pages back on its own, which survives a crash of the process but not of
+ * the machine.
+ * <p>
+ * The journal supports any amount of writers but only a single reader.
+ */
+public class Journal implements AutoCloseable {
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    private static final Logger log = LoggerFactory.getLogger(Journal.class);
+    private static final int MAGIC = 0x4A524E4C;
+    private static final int VERSION = 1;
+    private static final int HEADER = 16;
+    private static final int READ_OFFSET = 8;
+    private static final int RECORD_HEADER = 8;
+    private static final String SUFFIX = ".journal";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final boolean sync;
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private long pending;
+    private long nextId;
+    private boolean closed;
+
+    /**
+     * Open or create a journal.
+     * <p>
+     * Records of existing segments which were not acknowledged are read again.
+     *
+     * @param directory   directory of the segment files
+     * @param segmentSize size of a segment file in bytes
+     * @param sync        whether every write is forced to the disk
+     * @throws IOException if the directory or a segment could not be opened
+     */
+    public Journal(Path directory, int segmentSize, boolean sync) throws IOException {
+        if (segmentSize < HEADER + RECORD_HEADER) throw new IllegalArgumentException("Segment size is too small");
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.sync = sync;
+        Files.createDirectories(directory);
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(directory)) {
+            files = stream.filter(path -> path.getFileName().toString().endsWith(SUFFIX)).sorted()
+                    .collect(Collectors.toList());
+        }
+        for (Iterator<Path> iterator = files.iterator(); iterator.hasNext(); ) {
+            Path file = iterator.next();
+            Segment segment = Segment.open(file, iterator.hasNext());
+            nextId = Math.max(nextId, segment.id + 1);
+            if (segment.pending == 0 && iterator.hasNext()) {
+                segment.delete();
+                continue;
+            }
+            segments.add(segment);
+            pending += segment.pending;
+        }
+        if (segments.isEmpty()) rotate(0);
+        if (pending > 0) log.info("Recovered {} journal records from {}.", pending, directory);
+    }
+
+    /**
+     * Append a statement to the journal.
+     *
+     * @param sql    statement
+     * @param params parameters which are bound in order
+     * @throws IOException              if the record could not be written
+     * @throws IllegalArgumentException if a parameter type is not supported
+     */
+    public void append(String sql, Object... params) throws IOException {
+        byte[] payload = RecordCodec.encode(sql, params);
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        synchronized (this) {
+            if (closed) throw new IOException("Journal is closed");
+            Segment segment = segments.peekLast();
+            if (segment.writePos + RECORD_HEADER + payload.length > segment.buffer.capacity()) {
+                segment = rotate(payload.length);
+            }
+            int pos = segment.writePos;
+            ByteBuffer target = segment.buffer.duplicate();
+            target.position(pos + RECORD_HEADER);
+            target.put(payload);
+            segment.buffer.putInt(pos + 4, (int) crc.getValue());
+            segment.buffer.putInt(pos, payload.length);
+            if (sync) segment.buffer.force();
+            segment.writePos = pos + RECORD_HEADER + payload.length;
+            segment.pending++;
+            pending++;
+        }
+    }
+
+    /**
+     * Read the oldest records which were not acknowledged yet. Reading does not remove the records.
+     *
+     * @param max max amount of records
+     * @return records in the order they were appended
+     */
+    public synchronized List<JournalRecord> read(int max) {
+        if (pending == 0) return Collections.emptyList();
+        List<JournalRecord> records = new ArrayList<>();
+        for (Segment segment : segments) {
+            int pos = segment.readPos;
+            while (pos < segment.writePos && records.size() < max) {
+                int length = segment.buffer.getInt(pos);
+                byte[] payload = new byte[length];
+                ByteBuffer source = segment.buffer.duplicate();
+                source.position(pos + RECORD_HEADER);
+                source.get(payload);
+                pos += RECORD_HEADER + length;
+                records.add(RecordCodec.decode(payload, segment, pos));
+            }
+            if (records.size() == max) break;
+        }
+        return records;
+    }
+
+    /**
+     * Acknowledge records which were returned by {@link #read(int)}. The records and all records before them are
+     * removed from the journal.
+     *
+     * @param records records to acknowledge in the order they were read
+     * @throws IOException if the acknowledgement could not be written
+     */
+    public synchronized void acknowledge(List<JournalRecord> records) throws IOException {
+        if (records.isEmpty()) return;
+        JournalRecord last = records.get(records.size() - 1);
+        Segment segment;
+        while ((segment = segments.peekFirst()) != last.segment()) {
+            if (segment == null) throw new IllegalArgumentException("Records were already acknowledged");
+            pending -= segment.pending;
+            segments.pollFirst();
+            segment.delete();
+        }
+        int acknowledged = segment.countUntil(last.end());
+        segment.readPos = last.end();
+        segment.buffer.putLong(READ_OFFSET, segment.readPos);
+        if (sync) segment.buffer.force();
+        segment.pending -= acknowledged;
+        pending -= acknowledged;
+        if (segment.pending == 0 && segment != segments.peekLast()) {
+            segments.pollFirst();
+            segment.delete();
+        }
+    }
+
+    /**
+     * Amount of records which were not acknowledged yet.
+     *
+     * @return amount of pending records
+     */
+    public synchronized long pending() {
+        return pending;
+    }
+
+    /**
+     * Amount of segment files of the journal.
+     *
+     * @return amount of segments
+     */
+    public synchronized int segments() {
+        return segments.size();
+    }
+
+    /**
+     * Get the directory of the segment files.
+     *
+     * @return journal directory
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        for (Segment segment : segments) {
+            segment.buffer.force();
+            segment.channel.close();
+        }
+    }
+
+    private Segment rotate(int payloadLength) throws IOException {
+        long id = nextId++;
+        int size = Math.max(segmentSize, HEADER + RECORD_HEADER + payloadLength);
+        Segment segment = Segment.create(directory.resolve(String.format("%020d%s", id, SUFFIX)), id, size);
+        segments.add(segment);
+        return segment;
+    }
+
+    /**
+     * A memory mapped segment file.
+     */
+    static final class Segment {
+        private final long id;
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private int readPos;
+        private int writePos;
+        private long pending;
+
+        private Segment(long id, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        private static Segment create(Path path, long id, int size) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            Segment segment = new Segment(id, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            segment.buffer.putInt(0, MAGIC);
+            segment.buffer.putInt(4, VERSION);
+            segment.buffer.putLong(READ_OFFSET, HEADER);
+            segment.readPos = HEADER;
+            segment.writePos = HEADER;
+            return segment;
+        }
+
+        private static Segment open(Path path, boolean sealed) throws IOException {
+            String name = path.getFileName().toString();
+            long id = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            Segment segment = new Segment(id, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+            if (segment.buffer.capacity() < HEADER || segment.buffer.getInt(0) != MAGIC) {
+                channel.close();
+                throw new IOException("Not a journal segment: " + path);
+            }
+            segment.readPos = (int) segment.buffer.getLong(READ_OFFSET);
+            segment.writePos = segment.scan();
+            segment.pending = segment.countUntil(segment.writePos);
+            if (!sealed) {
+                // Clears a torn record, so it is not mistaken for a record once the space is written again.
+                for (int i = segment.writePos; i < segment.buffer.capacity(); i++) {
+                    segment.buffer.put(i, (byte) 0);
+                }
+            }
+            return segment;
+        }
+
+        private int scan() {
+            int pos = readPos;
+            CRC32 crc = new CRC32();
+            while (pos + RECORD_HEADER <= buffer.capacity()) {
+                int length = buffer.getInt(pos);
+                if (length <= 0 || pos + RECORD_HEADER + length > buffer.capacity()) break;
+                byte[] payload = new byte[length];
+                ByteBuffer source = buffer.duplicate();
+                source.position(pos + RECORD_HEADER);
+                source.get(payload);
+                crc.reset();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != buffer.getInt(pos + 4)) break;
+                pos += RECORD_HEADER + length;
+            }
+            return pos;
+        }
+
+        private int countUntil(int end) {
+            int count = 0;
+            for (int pos = readPos; pos < end; pos += RECORD_HEADER + buffer.getInt(pos)) {
+                count++;
+            }
+            return count;
+        }
+
+        private void delete() {
+            try {
+                channel.close();
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                log.warn("Could not delete journal segment {}.", path, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package de.eldoria.databasesamples.outbox;
+
+/**
+ * A statement which was appended to a {@link Journal}.
+ */
+public final class JournalRecord {
+    private final String sql;
+    private final Object[] params;
+    private final Journal.Segment segment;
+    private final int end;
+
+    JournalRecord(String sql, Object[] params, Journal.Segment segment, int end) {
+        this.sql = sql;
+        this.params = params;
+        this.segment = segment;
+        this.end = end;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * Get the parameters of the statement which are bound in order.
+     *
+     * @return parameters of the statement
+     */
+    public Object[] getParams() {
+        return params.clone();
+    }
+
+    Object[] params() {
+        return params;
+    }
+
+    Journal.Segment segment() {
+        return segment;
+    }
+
+    int end() {
+        return end;
+    }
+}
@@ -0,0 +1,346 @@
+package de.eldoria.databasesamples.outbox;
+
+import de.eldoria.databasesamples.async.AsyncQueryExecutor;
+import de.eldoria.databasesamples.util.DbUtil;
+import de.eldoria.databasesamples.util.SqlTables;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Executes writes directly or spills them to a {@link Journal} while the database is not reachable.
+ * <p>
+ * A write which does not get a connection within the deadline or fails because the connection was lost is appended to
+ * the journal. Writes are appended to the journal as well while it contains records, so they stay behind the earlier
+ * writes. The caller waits at most for the deadline plus the execution of its statement.
+ * <p>
+ * A replayer drains the journal periodically in the order of the records. Consecutive records with the same statement
+ * are executed as one batch. Every batch runs in a transaction and is acknowledged in the journal after the commit.
+ * A record which is rejected by the database is logged and skipped.
+ * <p>
+ * Records are replayed at least once. A crash between the commit and the acknowledgement replays the batch again.
+ * Writes which go through the outbox should therefore be idempotent, like upserts or updates to absolute values.
+ */
+public class Outbox implements AutoCloseable {
+    public static final long DEFAULT_DEADLINE = 250;
+    public static final long DEFAULT_REPLAY_INTERVAL = 1000;
+    public static final int REPLAY_BATCH = 500;
+
+    private static final Logger log = LoggerFactory.getLogger(Outbox.class);
+    private static final AtomicInteger THREAD_ID = new AtomicInteger();
+
+    private final DataSource source;
+    private final AsyncQueryExecutor executor;
+    private final Journal journal;
+    private final long deadlineNanos;
+    private final Consumer<String> onWrite;
+    private final ScheduledExecutorService replayer;
+    private final Object replayLock = new Object();
+    private final LongAdder direct = new LongAdder();
+    private final LongAdder journaled = new LongAdder();
+    private final LongAdder replayed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private volatile boolean closed;
+
+    /**
+     * Create a new outbox.
+     *
+     * @param source         source to replay the journal with
+     * @param executor       executor for direct writes
+     * @param journal        journal for writes which could not be executed directly
+     * @param deadline       max time to wait for a direct write before it is journaled
+     * @param replayInterval interval in which the journal is replayed
+     * @param unit           unit of the deadline and the replay interval
+     * @param onWrite        called with the written table after every direct or replayed write
+     */
+    public Outbox(DataSource source, AsyncQueryExecutor executor, Journal journal, long deadline, long replayInterval,
+                  TimeUnit unit, Consumer<String> onWrite) {
+        this.source = source;
+        this.executor = executor;
+        this.journal = journal;
+        this.deadlineNanos = unit.toNanos(deadline);
+        this.onWrite = onWrite;
+        this.replayer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "outbox-replay-" + THREAD_ID.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        replayer.scheduleWithFixedDelay(this::replayQuietly, 0, replayInterval, unit);
+    }
+
+    /**
+     * Execute a write or append it to the journal.
+     *
+     * @param sql    statement
+     * @param params parameters which are bound in order
+     * @return true if the write was executed directly. False if it was appended to the journal.
+     * @throws SQLException          if the statement was rejected by the database or the journal could not be written
+     * @throws IllegalStateException if the outbox is closed
+     */
+    public boolean execute(String sql, Object... params) throws SQLException {
+        if (closed) throw new IllegalStateException("Outbox is closed");
+        if (journal.pending() == 0 && executeDirect(sql, params)) {
+            direct.increment();
+            written(sql);
+            return true;
+        }
+        try {
+            journal.append(sql, params);
+        } catch (IOException e) {
+            throw new SQLException("Could not append the write to the journal", e);
+        }
+        journaled.increment();
+        return false;
+    }
+
+    /**
+     * Replay all records of the journal. Waits for a running replay first.
+     *
+     * @return amount of replayed records
+     * @throws SQLException if the database is not reachable. The remaining records stay in the journal.
+     */
+    public long replay() throws SQLException {
+        synchronized (replayLock) {
+            long count = 0;
+            List<JournalRecord> records;
+            while (!(records = journal.read(REPLAY_BATCH)).isEmpty()) {
+                count += replay(records);
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Amount of writes in the journal which were not replayed yet.
+     *
+     * @return amount of pending writes
+     */
+    public long pending() {
+        return journal.pending();
+    }
+
+    /**
+     * Amount of writes which were executed directly.
+     *
+     * @return amount of direct writes
+     */
+    public long direct() {
+        return direct.sum();
+    }
+
+    /**
+     * Amount of writes which were appended to the journal.
+     *
+     * @return amount of journaled writes
+     */
+    public long journaled() {
+        return journaled.sum();
+    }
+
+    /**
+     * Amount of journaled writes which were replayed.
+     *
+     * @return amount of replayed writes
+     */
+    public long replayed() {
+        return replayed.sum();
+    }
+
+    /**
+     * Amount of journaled writes which were rejected by the database and skipped.
+     *
+     * @return amount of rejected writes
+     */
+    public long rejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Stops the replayer and closes the journal. Pending records are replayed after the next start.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        replayer.shutdown();
+        try {
+            replayer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (replayLock) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                log.warn("Could not close journal {}.", journal.getDirectory(), e);
+            }
+        }
+        if (journal.pending() > 0) {
+            log.warn("{} writes are left in journal {}.", journal.pending(), journal.getDirectory());
+        }
+    }
+
+    private boolean executeDirect(String sql, Object[] params) throws SQLException {
+        // Whoever claims the write first decides whether it is executed directly or journaled.
+        AtomicBoolean claimed = new AtomicBoolean();
+        CompletableFuture<Integer> future = executor.supply(conn -> {
+            if (!claimed.compareAndSet(false, true)) return null;
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                bind(stmt, params);
+                return stmt.executeUpdate();
+            }
+        });
+        try {
+            future.get(deadlineNanos, TimeUnit.NANOSECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            if (claimed.compareAndSet(false, true)) return false;
+            // The statement is already executing.
+            return await(future);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (claimed.compareAndSet(false, true)) return false;
+            return await(future);
+        } catch (ExecutionException e) {
+            return failed(e);
+        }
+    }
+
+    private boolean await(CompletableFuture<Integer> future) throws SQLException {
+        try {
+            future.get();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for the write", e);
+        } catch (ExecutionException e) {
+            return failed(e);
+        }
+    }
+
+    private boolean failed(ExecutionException e) throws SQLException {
+        Throwable cause = e.getCause();
+        if (cause instanceof SQLException) {
+            if (DbUtil.isConnectionFailure((SQLException) cause)) return false;
+            throw (SQLException) cause;
+        }
+        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+        throw new SQLException(cause);
+    }
+
+    private long replay(List<JournalRecord> records) throws SQLException {
+        try (Connection conn = source.getConnection()) {
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try {
+                executeBatched(conn, records);
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                if (DbUtil.isConnectionFailure(e)) throw e;
+                // At least one record is rejected. Replays the records one by one to skip only the rejected ones.
+                conn.setAutoCommit(true);
+                replayEach(conn, records);
+                return records.size();
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+        }
+        acknowledge(records);
+        replayed.add(records.size());
+        notifyWrites(records);
+        return records.size();
+    }
+
+    private void executeBatched(Connection conn, List<JournalRecord> records) throws SQLException {
+        int start = 0;
+        while (start < records.size()) {
+            String sql = records.get(start).getSql();
+            int end = start;
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                while (end < records.size() && records.get(end).getSql().equals(sql)) {
+                    bind(stmt, records.get(end).params());
+                    stmt.addBatch();
+                    end++;
+                }
+                stmt.executeBatch();
+            }
+            start = end;
+        }
+    }
+
+    private void replayEach(Connection conn, List<JournalRecord> records) throws SQLException {
+        for (JournalRecord record : records) {
+            try (PreparedStatement stmt = conn.prepareStatement(record.getSql())) {
+                bind(stmt, record.params());
+                stmt.executeUpdate();
+                replayed.increment();
+            } catch (SQLException e) {
+                if (DbUtil.isConnectionFailure(e)) throw e;
+                rejected.increment();
+                log.error("Dropping journaled write which was rejected by the database: {} {}\n{}", record.getSql(),
+                        Arrays.toString(record.params()), DbUtil.prettyException(e));
+            }
+            acknowledge(Collections.singletonList(record));
+            written(record.getSql());
+        }
+    }
+
+    private void acknowledge(List<JournalRecord> records) throws SQLException {
+        try {
+            journal.acknowledge(records);
+        } catch (IOException e) {
+            throw new SQLException("Could not acknowledge replayed writes", e);
+        }
+    }
+
+    private void notifyWrites(List<JournalRecord> records) {
+        String last = null;
+        for (JournalRecord record : records) {
+            if (record.getSql().equals(last)) continue;
+            last = record.getSql();
+            written(last);
+        }
+    }
+
+    private void written(String sql) {
+        String table = SqlTables.writtenTable(sql);
+        if (table != null) onWrite.accept(table);
+    }
+
+    private void replayQuietly() {
+        if (journal.pending() == 0) return;
+        try {
+            long count = replay();
+            log.info("Replayed {} journaled writes.", count);
+        } catch (SQLException e) {
+            log.debug("Database is still not reachable. {} writes are pending.\n{}", journal.pending(),
+                    DbUtil.prettyException(e));
+        } catch (RuntimeException e) {
+            log.warn("Could not replay the journal.", e);
+        }
+    }
+
+    private static void bind(PreparedStatement stmt, Object[] params) throws SQLException {
+        for (int i = 0; i < params.length; i++) {
+            stmt.setObject(i + 1, params[i]);
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package de.eldoria.databasesamples.pipeline;
+
+import de.eldoria.databasesamples.util.RowMapper;
+import de.eldoria.databasesamples.util.SqlTables;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Sends several statements over one connection without waiting for the response of each statement.
+ * <p>
+ * Statements are added with {@link #update(String, Object...)} and {@link #query(String, RowMapper, Object...)}. Each
+ * call returns a future for the result of its statement. Nothing is sent before {@link #execute()} is called. The
+ * futures are completed in the order the statements were added.
+ * <p>
+ * If the driver supports several statements in one prepared statement, all statements are joined and sent at once.
+ * The database answers with one result per statement, so the whole pipeline takes about one round trip. Otherwise
+ * the statements are executed one after another on the same connection. Before the statements are joined, comments
+ * are removed and statements which contain another statement or an unterminated quote or comment are rejected.
+ * <p>
+ * Once a statement failed, the remaining statements are not executed and their futures fail with the same exception.
+ * In multi statement mode the failed statement can not be told apart, so all statements without a result fail.
+ * Whether earlier statements are rolled back depends on the driver. Run the pipeline in a transaction if they must.
+ * <p>
+ * A pipeline is executed once and is not thread safe.
+ */
+public class Pipeline {
+    private final DataSource source;
+    private final MultiStatements multiStatements;
+    private final Consumer<String> onWrite;
+    private final List<Step<?>> steps = new ArrayList<>();
+    private boolean executed;
+
+    /**
+     * Create a new pipeline.
+     *
+     * @param source          source which provides the connection
+     * @param multiStatements prepares several joined statements. null if the driver does not support it.
+     */
+    public Pipeline(DataSource source, MultiStatements multiStatements) {
+        this(source, multiStatements, table -> {
+        });
+    }
+
+    /**
+     * Create a new pipeline.
+     *
+     * @param source          source which provides the connection
+     * @param multiStatements prepares several joined statements. null if the driver does not support it.
+     * @param onWrite         called with the written table after every successful update
+     */
+    public Pipeline(DataSource source, MultiStatements multiStatements, Consumer<String> onWrite) {
+        this.source = source;
+        this.multiStatements = multiStatements;
+        this.onWrite = onWrite;
+    }
+
+    /**
+     * Add a statement which changes rows.
+     *
+     * @param sql    statement
+     * @param params parameters which are bound in order
+     * @return future of the amount of changed rows
+     * @throws IllegalArgumentException if the statement contains several statements or an unterminated quote
+     */
+    public CompletableFuture<Integer> update(String sql, Object... params) {
+        return add(new Update(sql, params));
+    }
+
+    /**
+     * Add a query.
+     *
+     * @param sql    query
+     * @param mapper mapper for the rows of the result
+     * @param params parameters which are bound in order
+     * @param <R>    type of the mapped rows
+     * @return future of the mapped rows
+     * @throws IllegalArgumentException if the statement contains several statements or an unterminated quote
+     */
+    public <R> CompletableFuture<List<R>> query(String sql, RowMapper<R> mapper, Object... params) {
+        return add(new Query<>(sql, mapper, params));
+    }
+
+    /**
+     * Amount of statements in this pipeline.
+     *
+     * @return amount of statements
+     */
+    public int size() {
+        return steps.size();
+    }
+
+    /**
+     * Execute all statements on a connection of the source.
+     *
+     * @throws SQLException          if a statement failed
+     * @throws IllegalStateException if the pipeline was already executed
+     */
+    public void execute() throws SQLException {
+        checkExecutable();
+        if (steps.isEmpty()) {
+            executed = true;
+            return;
+        }
+        try (Connection conn = source.getConnection()) {
+            execute(conn);
+        } catch (SQLException | RuntimeException e) {
+            // The connection could not be opened or closed.
+            failRemaining(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Execute all statements on a connection. The connection stays open.
+     *
+     * @param conn connection to use
+     * @throws SQLException          if a statement failed
+     * @throws IllegalStateException if the pipeline was already executed
+     */
+    public void execute(Connection conn) throws SQLException {
+        checkExecutable();
+        executed = true;
+        try {
+            if (multiStatements != null && steps.size() > 1) {
+                executeJoined(conn);
+            } else {
+                executeSequential(conn);
+            }
+        } catch (SQLException | RuntimeException e) {
+            failRemaining(e);
+            throw e;
+        } finally {
+            notifyWrites();
+        }
+    }
+
+    private void executeSequential(Connection conn) throws SQLException {
+        for (Step<?> step : steps) {
+            try (PreparedStatement stmt = conn.prepareStatement(step.sql)) {
+                bind(stmt, step.params, 1);
+                step.complete(stmt, stmt.execute());
+            }
+        }
+    }
+
+    private void executeJoined(Connection conn) throws SQLException {
+        StringBuilder sql = new StringBuilder();
+        for (Step<?> step : steps) {
+            if (sql.length() > 0) sql.append(";\n");
+            sql.append(step.sql);
+        }
+        try (PreparedStatement stmt = multiStatements.prepare(conn, sql.toString())) {
+            int index = 1;
+            for (Step<?> step : steps) {
+                index = bind(stmt, step.params, index);
+            }
+            boolean result = stmt.execute();
+            for (int i = 0; i < steps.size(); i++) {
+                if (i > 0) result = stmt.getMoreResults();
+                steps.get(i).complete(stmt, result);
+            }
+        }
+    }
+
+    private <F> CompletableFuture<F> add(Step<F> step) {
+        if (executed) throw new IllegalStateException("Pipeline was already executed");
+        steps.add(step);
+        return step.future;
+    }
+
+    /**
+     * Reports the tables of all updates which succeeded. Earlier updates may be committed even if a later one failed.
+     */
+    private void notifyWrites() {
+        for (Step<?> step : steps) {
+            if (step instanceof Update && step.future.isDone() && !step.future.isCompletedExceptionally()) {
+                onWrite.accept(SqlTables.writtenTable(step.sql));
+            }
+        }
+    }
+
+    private void checkExecutable() {
+        if (executed) throw new IllegalStateException("Pipeline was already executed");
+    }
+
+    private void failRemaining(Throwable e) {
+        for (Step<?> step : steps) {
+            step.future.completeExceptionally(e);
+        }
+    }
+
+    private static int bind(PreparedStatement stmt, Object[] params, int index) throws SQLException {
+        for (Object param : params) {
+            stmt.setObject(index++, param);
+        }
+        return index;
+    }
+
+    private static String trim(String sql) {
+        int end = sql.length();
+        while (end > 0 && (Character.isWhitespace(sql.charAt(end - 1)) || sql.charAt(end - 1) == ';')) end--;
+        return sql.substring(0, end);
+    }
+
+    /**
+     * Removes comments and trailing semicolons, so the statement can be joined with others.
+     * <p>
+     * Line comments would otherwise hide the following statement and a semicolon would shift the results of all
+     * following statements. Quotes are skipped, but dollar quoted strings of PostgreSQL are not recognized.
+     *
+     * @param sql single statement
+     * @return statement without comments
+     * @throws IllegalArgumentException if the statement contains several statements or an unterminated quote or
+     *                                  comment
+     */
+    static String clean(String sql) {
+        StringBuilder out = new StringBuilder(sql.length());
+        boolean ended = false;
+        int i = 0;
+        while (i < sql.length()) {
+            char c = sql.charAt(i);
+            if (c == '-' && sql.startsWith("--", i)) {
+                int end = sql.indexOf('\n', i);
+                i = end < 0 ? sql.length() : end;
+                continue;
+            }
+            if (c == '/' && sql.startsWith("/*", i)) {
+                int end = sql.indexOf("*/", i + 2);
+                if (end < 0) throw new IllegalArgumentException("Unterminated comment in statement: " + sql);
+                out.append(' ');
+                i = end + 2;
+                continue;
+            }
+            if (c == ';') {
+                ended = true;
+                i++;
+                continue;
+            }
+            if (Character.isWhitespace(c)) {
+                out.append(c);
+                i++;
+                continue;
+            }
+            if (ended) throw new IllegalArgumentException("Pipeline statements must be single statements: " + sql);
+            if (c == '\'' || c == '"' || c == '`') {
+                int end = closingQuote(sql, i);
+                if (end < 0) throw new IllegalArgumentException("Unterminated quote in statement: " + sql);
+                out.append(sql, i, end + 1);
+                i = end + 1;
+                continue;
+            }
+            out.append(c);
+            i++;
+        }
+        return trim(out.toString());
+    }
+
+    private static int closingQuote(String sql, int start) {
+        char quote = sql.charAt(start);
+        for (int i = start + 1; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '\\' && quote != '`') {
+                i++;
+            } else if (c == quote) {
+                if (i + 1 < sql.length() && sql.charAt(i + 1) == quote) {
+                    i++;
+                } else {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Prepares a statement which contains several statements separated by semicolons.
+     */
+    @FunctionalInterface
+    public interface MultiStatements {
+        /**
+         * Prepare the joined statements.
+         *
+         * @param conn connection to prepare the statement on
+         * @param sql  statements separated by semicolons
+         * @return statement which returns one result per statement
+         * @throws SQLException if the statement could not be prepared
+         */
+        PreparedStatement prepare(Connection conn, String sql) throws SQLException;
+    }
+
+    private abstract static class Step<F> {
+        private final String sql;
+        private final Object[] params;
+        protected final CompletableFuture<F> future = new CompletableFuture<>();
+
+        private Step(String sql, Object[] params) {
+            this.sql = clean(sql);
+            this.params = params == null ? new Object[0] : params;
+        }
+
+        /**
+         * Read the current result of the statement and complete the future.
+         *
+         * @param stmt   executed statement
+         * @param result true if the current result is a result set
+         * @throws SQLException if the result could not be read
+         */
+        protected abstract void complete(PreparedStatement stmt, boolean result) throws SQLException;
+
+        protected String sql() {
+            return sql;
+        }
+    }
+
+    private static final class Update extends Step<Integer> {
+        private Update(String sql, Object[] params) {
+            super(sql, params);
+        }
+
+        @Override
+        protected void complete(PreparedStatement stmt, boolean result) throws SQLException {
+            if (result) {
+                stmt.getResultSet().close();
+                future.complete(-1);
+                return;
+            }
+            future.complete(stmt.getUpdateCount());
+        }
+    }
+
+    private static final class Query<R> extends Step<List<R>> {
+        private final RowMapper<R> mapper;
+
+        private Query(String sql, RowMapper<R> mapper, Object[] params) {
+            super(sql, params);
+            this.mapper = mapper;
+        }
+
+        @Override
+        protected void complete(PreparedStatement stmt, boolean result) throws SQLException {
+            if (!result) throw new SQLException("Statement did not return a result set: " + sql());
+            List<R> rows = new ArrayList<>();
+            try (ResultSet rs = stmt.getResultSet()) {
+                while (rs.next()) {
+                    rows.add(mapper.map(rs));
+                }
+            }
+            future.complete(Collections.unmodifiableList(rows));
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package de.eldoria.databasesamples.pool;
+
+import de.eldoria.databasesamples.metrics.DatabaseMetrics;
+import de.eldoria.databasesamples.metrics.InstrumentedDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Resizes a running pool with a {@link PoolSizeController}.
+ * <p>
+ * The load is sampled from the {@link DatabaseMetrics} of the pool in a fixed interval. The new size is applied through
+ * the {@link ManagedPool}. The pool opens new connections on demand and retires surplus idle connections.
+ * <p>
+ * The borrow time is read from {@link DatabaseMetrics#getBorrowNanos()}, which is recorded in nanoseconds by the
+ * {@link InstrumentedDataSource} of the provider. Borrows below a millisecond would be lost in the usage reported by
+ * the pool.
+ */
+public class AdaptivePoolSizer implements AutoCloseable {
+    public static final long DEFAULT_INTERVAL = 1000;
+
+    private static final Logger log = LoggerFactory.getLogger(AdaptivePoolSizer.class);
+    private static final AtomicInteger THREAD_ID = new AtomicInteger();
+
+    private final ManagedPool pool;
+    private final DatabaseMetrics metrics;
+    private final PoolSizeController controller;
+    private final int minIdle;
+    private final ScheduledExecutorService scheduler;
+    private long lastSample;
+    private long lastUsageNanos;
+    private long lastQueryCount;
+    private long lastQueryNanos;
+
+    /**
+     * Create and start a new sizer.
+     *
+     * @param pool     running pool
+     * @param metrics  metrics of the pool
+     * @param minSize  min pool size
+     * @param maxSize  max pool size
+     * @param interval interval between two resizes in milliseconds
+     */
+    public AdaptivePoolSizer(ManagedPool pool, DatabaseMetrics metrics, int minSize, int maxSize,
+                             long interval) {
+        this.pool = pool;
+        this.metrics = metrics;
+        this.minIdle = pool.getMinimumIdle();
+        this.controller = new PoolSizeController(minSize, maxSize, pool.getMaximumPoolSize());
+        this.lastSample = System.nanoTime();
+        this.lastUsageNanos = metrics.getBorrowNanos();
+        this.lastQueryCount = metrics.getQueryCount();
+        this.lastQueryNanos = metrics.getQueryNanos();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "pool-sizer-" + THREAD_ID.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::resize, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Current pool size chosen by the controller.
+     *
+     * @return pool size
+     */
+    public int size() {
+        return pool.getMaximumPoolSize();
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private void resize() {
+        try {
+            long now = System.nanoTime();
+            long usageNanos = metrics.getBorrowNanos();
+            long queryCount = metrics.getQueryCount();
+            long queryNanos = metrics.getQueryNanos();
+
+            // Little's law: total borrow time in the interval divided by the interval is the average concurrency.
+            double concurrency = Math.max(0, usageNanos - lastUsageNanos) / (double) Math.max(1, now - lastSample);
+            long queries = queryCount - lastQueryCount;
+            double latency = queries > 0 ? (queryNanos - lastQueryNanos) / (double) queries : 0;
+
+            lastSample = now;
+            lastUsageNanos = usageNanos;
+            lastQueryCount = queryCount;
+            lastQueryNanos = queryNanos;
+
+            int size = controller.update(concurrency, metrics.getPendingThreads(), latency);
+            if (size != pool.getMaximumPoolSize()) {
+                log.debug("Resizing pool {} from {} to {} connections.", metrics.getName(),
+                        pool.getMaximumPoolSize(), size);
+                pool.setMinimumIdle(Math.min(minIdle, size));
+                pool.setMaximumPoolSize(size);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Could not resize pool {}.", metrics.getName(), e);
+        }
+    }
+}
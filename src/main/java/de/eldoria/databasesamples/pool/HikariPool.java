@@ -0,0 +1,85 @@
+package de.eldoria.databasesamples.pool;
+
+import com.zaxxer.hikari.HikariConfigMXBean;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import de.eldoria.databasesamples.util.DelegatingDataSource;
+
+import java.sql.Connection;
+
+/**
+ * A HikariCP pool.
+ * <p>
+ * Sizes are changed through the {@link HikariConfigMXBean}. HikariCP opens new connections on demand and retires
+ * surplus idle connections.
+ */
+public final class HikariPool extends DelegatingDataSource implements ManagedPool {
+    private final HikariDataSource source;
+
+    /**
+     * Create a new pool.
+     *
+     * @param source started HikariCP pool
+     */
+    public HikariPool(HikariDataSource source) {
+        super(source);
+        this.source = source;
+    }
+
+    @Override
+    public int getMaximumPoolSize() {
+        return config().getMaximumPoolSize();
+    }
+
+    @Override
+    public void setMaximumPoolSize(int maxPoolSize) {
+        config().setMaximumPoolSize(maxPoolSize);
+    }
+
+    @Override
+    public int getMinimumIdle() {
+        return config().getMinimumIdle();
+    }
+
+    @Override
+    public void setMinimumIdle(int minIdle) {
+        config().setMinimumIdle(minIdle);
+    }
+
+    @Override
+    public void setConnectionTimeout(long connectionTimeoutMs) {
+        config().setConnectionTimeout(connectionTimeoutMs);
+    }
+
+    @Override
+    public int getActiveConnections() {
+        HikariPoolMXBean pool = source.getHikariPoolMXBean();
+        return pool == null ? 0 : pool.getActiveConnections();
+    }
+
+    @Override
+    public int getTotalConnections() {
+        HikariPoolMXBean pool = source.getHikariPoolMXBean();
+        return pool == null ? 0 : pool.getTotalConnections();
+    }
+
+    @Override
+    public void softEvictConnections() {
+        HikariPoolMXBean pool = source.getHikariPoolMXBean();
+        if (pool != null) pool.softEvictConnections();
+    }
+
+    @Override
+    public void evictConnection(Connection connection) {
+        source.evictConnection(connection);
+    }
+
+    @Override
+    public void close() {
+        source.close();
+    }
+
+    private HikariConfigMXBean config() {
+        return source.getHikariConfigMXBean();
+    }
+}
@@ -0,0 +1,470 @@
+package de.eldoria.databasesamples.pool;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+import de.eldoria.databasesamples.util.DelegatingDataSource;
+import de.eldoria.databasesamples.util.Proxies;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A small connection pool without locks and without background threads.
+ * <p>
+ * Idle connections are kept in a lock free stack. The most recently returned connection is handed out first, so
+ * a pool which is larger than the load keeps using the same few connections. A caller which finds no idle connection
+ * opens a new one if the pool is below its max size. Otherwise it parks until a connection is returned or the
+ * connection timeout passed. Callers only park if the pool is exhausted.
+ * <p>
+ * Connections which were idle for more than {@value #VALIDATION_WINDOW_MS} ms are validated before they are handed
+ * out. Statements which are still open are closed when a connection is returned, open transactions are rolled back
+ * and auto commit, read only mode, isolation level, catalog, schema and network timeout are reset. The pool does not
+ * close idle connections over time and does not refill to the min idle connections. Use HikariCP for long running
+ * pools which need these features.
+ */
+public class LockFreePool extends DelegatingDataSource implements ManagedPool {
+    private static final Logger log = LoggerFactory.getLogger(LockFreePool.class);
+    private static final long VALIDATION_WINDOW_MS = 500;
+    private static final int VALIDATION_TIMEOUT = 5;
+    private static final int STATEMENT_PRUNE_SIZE = 32;
+
+    private final String name;
+    private final ConcurrentLinkedDeque<Entry> idle = new ConcurrentLinkedDeque<>();
+    private final ConcurrentLinkedQueue<Thread> waiters = new ConcurrentLinkedQueue<>();
+    private final Map<Connection, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger generation = new AtomicInteger();
+    private final IMetricsTracker tracker;
+    private volatile int maxPoolSize;
+    private volatile int minIdle;
+    private volatile long connectionTimeoutNanos;
+    private volatile boolean closed;
+
+    /**
+     * Create a new pool and open the min idle connections.
+     *
+     * @param name                name of the pool
+     * @param driver              source of the physical connections
+     * @param minIdle             connections which are opened on start
+     * @param maxPoolSize         max amount of open connections
+     * @param connectionTimeoutMs time a caller waits for a connection. 0 waits without limit.
+     * @param metrics             receives the pool metrics. May be null.
+     * @throws SQLException if the min idle connections could not be opened
+     */
+    public LockFreePool(String name, DataSource driver, int minIdle, int maxPoolSize, long connectionTimeoutMs,
+                        MetricsTrackerFactory metrics) throws SQLException {
+        super(driver);
+        this.name = name;
+        this.maxPoolSize = Math.max(1, maxPoolSize);
+        this.minIdle = Math.max(0, minIdle);
+        setConnectionTimeout(connectionTimeoutMs);
+        this.tracker = metrics == null ? new IMetricsTracker() {
+        } : metrics.create(name, new Stats());
+        try {
+            for (int i = 0; i < Math.min(this.minIdle, this.maxPoolSize); i++) {
+                total.incrementAndGet();
+                idle.offerFirst(open());
+            }
+        } catch (SQLException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        Entry entry = acquire(start + connectionTimeoutNanos);
+        active.incrementAndGet();
+        long now = System.nanoTime();
+        tracker.recordConnectionAcquiredNanos(now - start);
+        return Proxies.create(Connection.class, new Lease(entry, now));
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLException("The pool " + name + " does not support other credentials");
+    }
+
+    @Override
+    public int getMaximumPoolSize() {
+        return maxPoolSize;
+    }
+
+    @Override
+    public void setMaximumPoolSize(int maxPoolSize) {
+        this.maxPoolSize = Math.max(1, maxPoolSize);
+        Entry entry;
+        while (total.get() > this.maxPoolSize && (entry = idle.pollLast()) != null) {
+            discard(entry);
+        }
+        // Callers which wait may open new connections now.
+        signalAll();
+    }
+
+    @Override
+    public int getMinimumIdle() {
+        return minIdle;
+    }
+
+    @Override
+    public void setMinimumIdle(int minIdle) {
+        this.minIdle = Math.max(0, minIdle);
+    }
+
+    @Override
+    public void setConnectionTimeout(long connectionTimeoutMs) {
+        this.connectionTimeoutNanos = connectionTimeoutMs <= 0 ? Long.MAX_VALUE / 2
+                : TimeUnit.MILLISECONDS.toNanos(connectionTimeoutMs);
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return active.get();
+    }
+
+    @Override
+    public int getTotalConnections() {
+        return total.get();
+    }
+
+    /**
+     * Get the amount of callers which wait for a connection.
+     *
+     * @return waiting callers
+     */
+    public int getPendingThreads() {
+        return pending.get();
+    }
+
+    @Override
+    public void softEvictConnections() {
+        generation.incrementAndGet();
+        Entry entry;
+        while ((entry = idle.pollFirst()) != null) {
+            discard(entry);
+        }
+    }
+
+    /**
+     * The physical connection is aborted and discarded once it is returned.
+     */
+    @Override
+    public void evictConnection(Connection connection) throws SQLException {
+        Connection physical = connection.unwrap(Connection.class);
+        Entry entry = entries.get(physical);
+        if (entry != null) entry.evicted = true;
+        if (!physical.isClosed()) physical.abort(Runnable::run);
+    }
+
+    /**
+     * Check whether the pool was closed.
+     *
+     * @return true if the pool is closed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        softEvictConnections();
+        signalAll();
+        tracker.close();
+    }
+
+    @Override
+    public String toString() {
+        return "LockFreePool{" + name + ", total=" + total.get() + ", active=" + active.get() + '}';
+    }
+
+    private Entry acquire(long deadline) throws SQLException {
+        Thread thread = Thread.currentThread();
+        boolean waited = false;
+        try {
+            while (true) {
+                if (closed) throw new SQLTransientConnectionException("The pool " + name + " is closed");
+                Entry entry = idle.pollFirst();
+                if (entry != null) {
+                    if (usable(entry)) return handOver(entry, waited);
+                    continue;
+                }
+                int current = total.get();
+                if (current < maxPoolSize) {
+                    if (total.compareAndSet(current, current + 1)) return handOver(open(), waited);
+                    continue;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    tracker.recordConnectionTimeout();
+                    throw new SQLTransientConnectionException(name + " - Connection is not available, request timed "
+                            + "out after " + TimeUnit.NANOSECONDS.toMillis(connectionTimeoutNanos) + "ms.");
+                }
+                if (!waited) {
+                    waited = true;
+                    pending.incrementAndGet();
+                }
+                waiters.add(thread);
+                // A connection may have been returned before this caller was registered.
+                if (idle.isEmpty() && total.get() >= maxPoolSize && !closed) {
+                    LockSupport.parkNanos(this, remaining);
+                }
+                waiters.remove(thread);
+            }
+        } finally {
+            if (waited) pending.decrementAndGet();
+        }
+    }
+
+    /**
+     * A waiting caller may have consumed the signal of another returned connection. It is passed on in this case.
+     */
+    private Entry handOver(Entry entry, boolean waited) {
+        if (waited && (!idle.isEmpty() || total.get() < maxPoolSize)) signal();
+        return entry;
+    }
+
+    private Entry open() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            Connection connection = getDelegate().getConnection();
+            tracker.recordConnectionCreatedMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            Entry entry = new Entry(connection, generation.get());
+            entries.put(connection, entry);
+            return entry;
+        } catch (SQLException | RuntimeException e) {
+            total.decrementAndGet();
+            signal();
+            throw e;
+        }
+    }
+
+    private boolean usable(Entry entry) {
+        if (entry.generation != generation.get()) {
+            discard(entry);
+            return false;
+        }
+        if (System.nanoTime() - entry.returned < TimeUnit.MILLISECONDS.toNanos(VALIDATION_WINDOW_MS)) return true;
+        try {
+            if (entry.connection.isValid(VALIDATION_TIMEOUT)) return true;
+        } catch (SQLException e) {
+            log.debug("Validation of a connection of pool {} failed.", name, e);
+        }
+        discard(entry);
+        return false;
+    }
+
+    private void release(Entry entry, Lease lease, long borrowed) {
+        active.decrementAndGet();
+        tracker.recordConnectionUsageMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - borrowed));
+        boolean reusable;
+        try {
+            reusable = !entry.evicted && !entry.connection.isClosed() && reset(entry, lease);
+        } catch (SQLException e) {
+            log.debug("Could not reset a connection of pool {}.", name, e);
+            reusable = false;
+        }
+        if (!reusable || closed || entry.generation != generation.get() || total.get() > maxPoolSize) {
+            discard(entry);
+            return;
+        }
+        entry.returned = System.nanoTime();
+        idle.offerFirst(entry);
+        signal();
+    }
+
+    private boolean reset(Entry entry, Lease lease) throws SQLException {
+        Connection connection = entry.connection;
+        lease.closeStatements();
+        if (!connection.getAutoCommit()) {
+            connection.rollback();
+            connection.setAutoCommit(true);
+        }
+        if (lease.readOnly) connection.setReadOnly(false);
+        if (lease.isolation && entry.isolation != -1) connection.setTransactionIsolation(entry.isolation);
+        if (lease.catalogChanged && lease.catalog != null) connection.setCatalog(lease.catalog);
+        if (lease.schemaChanged && lease.schema != null) connection.setSchema(lease.schema);
+        if (lease.networkTimeout != -1) connection.setNetworkTimeout(Runnable::run, lease.networkTimeout);
+        return true;
+    }
+
+    private void discard(Entry entry) {
+        total.decrementAndGet();
+        entries.remove(entry.connection);
+        try {
+            entry.connection.close();
+        } catch (SQLException e) {
+            log.debug("Could not close a connection of pool {}.", name, e);
+        }
+        signal();
+    }
+
+    private void signal() {
+        Thread waiter = waiters.poll();
+        if (waiter != null) LockSupport.unpark(waiter);
+    }
+
+    private void signalAll() {
+        Thread waiter;
+        while ((waiter = waiters.poll()) != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    /**
+     * A physical connection of the pool.
+     */
+    private static final class Entry {
+        private final Connection connection;
+        private final int generation;
+        private volatile long returned = System.nanoTime();
+        private int isolation = -1;
+        private volatile boolean evicted;
+
+        private Entry(Connection connection, int generation) {
+            this.connection = connection;
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * A borrowed connection. Closing it returns the connection to the pool.
+     * <p>
+     * Statements which are opened on the lease and the session settings which are changed by the borrower are tracked
+     * and closed or restored once the connection is returned.
+     */
+    private final class Lease implements InvocationHandler {
+        private final Entry entry;
+        private final long borrowed;
+        private List<Statement> statements;
+        private boolean readOnly;
+        private boolean isolation;
+        private boolean catalogChanged;
+        private String catalog;
+        private boolean schemaChanged;
+        private String schema;
+        private int networkTimeout = -1;
+        private boolean closed;
+
+        private Lease(Entry entry, long borrowed) {
+            this.entry = entry;
+            this.borrowed = borrowed;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled[" + entry.connection + "]";
+                case "isClosed":
+                    return closed || entry.evicted || entry.connection.isClosed();
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        release(entry, this, borrowed);
+                    }
+                    return null;
+                case "unwrap":
+                case "isWrapperFor":
+                    return Proxies.invoke(entry.connection, method, args);
+                default:
+                    break;
+            }
+            if (closed) throw new SQLException("Connection is closed");
+            switch (method.getName()) {
+                case "setReadOnly":
+                    readOnly = true;
+                    break;
+                case "setTransactionIsolation":
+                    if (entry.isolation == -1) entry.isolation = entry.connection.getTransactionIsolation();
+                    isolation = true;
+                    break;
+                case "setCatalog":
+                    if (!catalogChanged) catalog = entry.connection.getCatalog();
+                    catalogChanged = true;
+                    break;
+                case "setSchema":
+                    if (!schemaChanged) schema = entry.connection.getSchema();
+                    schemaChanged = true;
+                    break;
+                case "setNetworkTimeout":
+                    if (networkTimeout == -1) networkTimeout = entry.connection.getNetworkTimeout();
+                    break;
+                default:
+                    break;
+            }
+            Object result = Proxies.invoke(entry.connection, method, args);
+            if (result instanceof Statement) track((Statement) result);
+            return result;
+        }
+
+        private void track(Statement statement) throws SQLException {
+            // Drop statements which were closed by the borrower, so a long lease does not collect them.
+            if (statements == null) {
+                statements = new ArrayList<>();
+            } else if (statements.size() % STATEMENT_PRUNE_SIZE == 0) {
+                Iterator<Statement> iterator = statements.iterator();
+                while (iterator.hasNext()) {
+                    if (iterator.next().isClosed()) iterator.remove();
+                }
+            }
+            statements.add(statement);
+        }
+
+        private void closeStatements() {
+            if (statements == null) return;
+            for (Statement statement : statements) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                    log.debug("Could not close a statement of pool {}.", name, e);
+                }
+            }
+            statements.clear();
+        }
+    }
+
+    /**
+     * Pool state for the metrics tracker.
+     */
+    private final class Stats extends PoolStats {
+        private Stats() {
+            super(TimeUnit.SECONDS.toMillis(1));
+        }
+
+        @Override
+        protected void update() {
+            totalConnections = total.get();
+            activeConnections = active.get();
+            idleConnections = Math.max(0, totalConnections - activeConnections);
+            pendingThreads = pending.get();
+            maxConnections = maxPoolSize;
+            minConnections = minIdle;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package de.eldoria.databasesamples.pool;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * A connection pool which can be resized and drained while it is running.
+ * <p>
+ * Pools are created by a {@link PoolBackend}. The names of the size methods follow the HikariCP config bean.
+ */
+public interface ManagedPool extends DataSource, AutoCloseable {
+    /**
+     * Get the max amount of connections the pool opens.
+     *
+     * @return max pool size
+     */
+    int getMaximumPoolSize();
+
+    /**
+     * Change the max amount of connections. Surplus connections are closed once they are idle.
+     *
+     * @param maxPoolSize new max pool size
+     */
+    void setMaximumPoolSize(int maxPoolSize);
+
+    /**
+     * Get the amount of idle connections the pool tries to keep open.
+     *
+     * @return min idle connections
+     */
+    int getMinimumIdle();
+
+    /**
+     * Change the amount of idle connections the pool tries to keep open.
+     *
+     * @param minIdle new min idle connections
+     */
+    void setMinimumIdle(int minIdle);
+
+    /**
+     * Change the time a caller waits for a connection before the request fails.
+     *
+     * @param connectionTimeoutMs timeout in milliseconds
+     */
+    void setConnectionTimeout(long connectionTimeoutMs);
+
+    /**
+     * Get the amount of connections which are currently borrowed.
+     *
+     * @return borrowed connections
+     */
+    int getActiveConnections();
+
+    /**
+     * Get the amount of open connections.
+     *
+     * @return open connections
+     */
+    int getTotalConnections();
+
+    /**
+     * Close all idle connections and all borrowed connections once they are returned.
+     */
+    void softEvictConnections();
+
+    /**
+     * Remove a borrowed connection from the pool. It is closed instead of reused once it is returned.
+     *
+     * @param connection connection which was handed out by this pool
+     * @throws SQLException if the connection could not be evicted
+     */
+    void evictConnection(Connection connection) throws SQLException;
+
+    /**
+     * Close the pool and all of its connections.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,33 @@
+package de.eldoria.databasesamples.pool;
+
+import com.zaxxer.hikari.HikariConfig;
+
+import java.sql.SQLException;
+
+/**
+ * Creates the connection pools of a provider.
+ * <p>
+ * The settings of the pool and the driver are passed as a {@link HikariConfig}, which is filled by the provider. Other
+ * backends read the settings they support and create the driver source with
+ * {@link PoolBackends#driverSource(HikariConfig)}.
+ * <p>
+ * Backends which do not ship with this library are found with a {@link java.util.ServiceLoader} by their
+ * {@link #getName() name}.
+ */
+public interface PoolBackend {
+    /**
+     * Get the name which selects this backend in the config.
+     *
+     * @return name of the backend
+     */
+    String getName();
+
+    /**
+     * Create and start a pool.
+     *
+     * @param config settings of the pool and the driver
+     * @return started pool
+     * @throws SQLException if the pool could not be started
+     */
+    ManagedPool create(HikariConfig config) throws SQLException;
+}
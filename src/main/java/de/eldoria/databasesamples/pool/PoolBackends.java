@@ -0,0 +1,119 @@
+package de.eldoria.databasesamples.pool;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.util.DriverDataSource;
+import com.zaxxer.hikari.util.PropertyElf;
+import com.zaxxer.hikari.util.UtilityElf;
+import de.eldoria.databasesamples.util.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Locale;
+import java.util.ServiceLoader;
+
+/**
+ * The pool backends which ship with this library and the lookup of further backends.
+ */
+public final class PoolBackends {
+    /**
+     * HikariCP. The default backend.
+     */
+    public static final PoolBackend HIKARI = new PoolBackend() {
+        @Override
+        public String getName() {
+            return "hikari";
+        }
+
+        @Override
+        public ManagedPool create(HikariConfig config) {
+            return new HikariPool(new HikariDataSource(config));
+        }
+    };
+
+    /**
+     * The bundled {@link LockFreePool}.
+     */
+    public static final PoolBackend LOCK_FREE = new PoolBackend() {
+        @Override
+        public String getName() {
+            return "lockfree";
+        }
+
+        @Override
+        public ManagedPool create(HikariConfig config) throws SQLException {
+            return new LockFreePool(config.getPoolName(), driverSource(config), config.getMinimumIdle(),
+                    config.getMaximumPoolSize(), config.getConnectionTimeout(), config.getMetricsTrackerFactory());
+        }
+    };
+
+    /**
+     * An {@link UnpooledSource} which opens a connection per request.
+     */
+    public static final PoolBackend UNPOOLED = new PoolBackend() {
+        @Override
+        public String getName() {
+            return "unpooled";
+        }
+
+        @Override
+        public ManagedPool create(HikariConfig config) {
+            return new UnpooledSource(config.getPoolName(), driverSource(config), config.getMaximumPoolSize(),
+                    config.getMetricsTrackerFactory());
+        }
+    };
+
+    private PoolBackends() {
+    }
+
+    /**
+     * Get a backend by its name.
+     * <p>
+     * The bundled backends are checked first. Other backends are looked up with a {@link ServiceLoader}.
+     *
+     * @param name name of the backend. null selects {@link #HIKARI}.
+     * @return backend with the name
+     * @throws IllegalArgumentException if there is no backend with this name
+     */
+    public static PoolBackend forName(String name) {
+        if (name == null) return HIKARI;
+        String key = name.toLowerCase(Locale.ROOT);
+        for (PoolBackend backend : new PoolBackend[]{HIKARI, LOCK_FREE, UNPOOLED}) {
+            if (backend.getName().equals(key)) return backend;
+        }
+        for (PoolBackend backend : ServiceLoader.load(PoolBackend.class)) {
+            if (backend.getName().equalsIgnoreCase(name)) return backend;
+        }
+        throw new IllegalArgumentException("Unknown pool backend " + name);
+    }
+
+    /**
+     * Create the unpooled driver source which is described by a config.
+     * <p>
+     * Uses the data source or data source class of the config with the data source properties. Falls back to the jdbc
+     * url and the driver class otherwise. This is the same lookup as HikariCP does.
+     *
+     * @param config config of the pool
+     * @return source of physical connections
+     */
+    public static DataSource driverSource(HikariConfig config) {
+        DataSource source = config.getDataSource();
+        if (source == null && config.getDataSourceClassName() != null) {
+            source = UtilityElf.createInstance(config.getDataSourceClassName(), DataSource.class);
+            PropertyElf.setTargetFromProperties(source, config.getDataSourceProperties());
+        } else if (source == null) {
+            return new DriverDataSource(config.getJdbcUrl(), config.getDriverClassName(),
+                    config.getDataSourceProperties(), config.getUsername(), config.getPassword());
+        }
+        if (config.getUsername() == null) return source;
+        String username = config.getUsername();
+        String password = config.getPassword();
+        return new DelegatingDataSource(source) {
+            @Override
+            public Connection getConnection() throws SQLException {
+                return getDelegate().getConnection(username, password);
+            }
+        };
+    }
+}
@@ -0,0 +1,111 @@
+package de.eldoria.databasesamples.pool;
+
+/**
+ * Computes the size of a connection pool from the observed load.
+ * <p>
+ * The demand is estimated with Little's law. The average amount of borrowed connections is the throughput multiplied
+ * with the time a connection is borrowed. Threads waiting for a connection are added on top. The pool is sized to the
+ * demand with some headroom. The pool grows by at most the square root of its size per update, so the latency can be
+ * observed before growing further.
+ * <p>
+ * More connections only help while the database keeps up. The controller tracks the lowest observed query latency as
+ * baseline. If the current latency rises above the tolerated multiple of the baseline the database is saturated and
+ * the limit is reduced by the ratio of both latencies, like a gradient based concurrency limit.
+ * <p>
+ * This class is not thread safe. It is meant to be updated by a single scheduler.
+ */
+public class PoolSizeController {
+    /**
+     * Spare connections on top of the estimated demand.
+     */
+    public static final double HEADROOM = 1.25;
+    /**
+     * Latency increase over the baseline which is still tolerated.
+     */
+    public static final double TOLERANCE = 1.5;
+    /**
+     * Weight of a new target in the smoothed limit.
+     */
+    public static final double SMOOTHING = 0.5;
+    /**
+     * Weight of a higher latency when the baseline drifts up.
+     */
+    private static final double BASELINE_DRIFT = 0.002;
+    private static final double MIN_GRADIENT = 0.5;
+
+    private final int minSize;
+    private final int maxSize;
+    private double limit;
+    private double baseline = Double.NaN;
+
+    /**
+     * Create a new controller.
+     *
+     * @param minSize     min pool size
+     * @param maxSize     max pool size
+     * @param initialSize pool size to start with
+     */
+    public PoolSizeController(int minSize, int maxSize, int initialSize) {
+        if (minSize < 1 || maxSize < minSize) {
+            throw new IllegalArgumentException("Invalid pool size bounds " + minSize + " to " + maxSize);
+        }
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.limit = clamp(initialSize);
+    }
+
+    /**
+     * Update the controller with the load of the last interval.
+     *
+     * @param concurrency   average amount of borrowed connections in the interval
+     * @param pending       threads which are currently waiting for a connection
+     * @param latencyNanos  average query latency in the interval or 0 if nothing was executed
+     * @return new pool size
+     */
+    public int update(double concurrency, int pending, double latencyNanos) {
+        double gradient = 1.0;
+        if (latencyNanos > 0) {
+            if (Double.isNaN(baseline) || latencyNanos < baseline) {
+                baseline = latencyNanos;
+            } else {
+                // Let the baseline slowly follow permanent changes of the latency, e.g. a larger data set.
+                // With one update per second a permanent change is learned within a few minutes.
+                baseline += (latencyNanos - baseline) * BASELINE_DRIFT;
+            }
+            gradient = Math.max(MIN_GRADIENT, Math.min(1.0, TOLERANCE * baseline / latencyNanos));
+        }
+
+        double target = (concurrency + pending) * HEADROOM;
+        if (gradient < 1.0) {
+            // The database is saturated. More connections would only queue inside the database.
+            target = Math.min(target, limit * gradient);
+        } else {
+            // Probe for more capacity step by step instead of jumping to the whole backlog.
+            target = Math.min(target, limit + Math.sqrt(limit));
+        }
+        limit = clamp(limit + (target - limit) * SMOOTHING);
+        return size();
+    }
+
+    /**
+     * Current pool size.
+     *
+     * @return pool size
+     */
+    public int size() {
+        return (int) Math.ceil(limit - 1e-9);
+    }
+
+    /**
+     * Lowest latency observed by the controller.
+     *
+     * @return baseline latency in nanoseconds or {@link Double#NaN} if no latency was observed
+     */
+    public double baseline() {
+        return baseline;
+    }
+
+    private double clamp(double value) {
+        return Math.max(minSize, Math.min(maxSize, value));
+    }
+}
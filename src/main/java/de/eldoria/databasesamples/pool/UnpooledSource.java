@@ -0,0 +1,147 @@
+package de.eldoria.databasesamples.pool;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+import de.eldoria.databasesamples.util.DelegatingDataSource;
+import de.eldoria.databasesamples.util.Proxies;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Opens a new physical connection for every request and closes it once it is returned.
+ * <p>
+ * Meant for tools and embedded databases which open few connections, and as baseline to measure what pooling saves.
+ * The sizes are only reported and not enforced.
+ */
+public class UnpooledSource extends DelegatingDataSource implements ManagedPool {
+    private final AtomicInteger active = new AtomicInteger();
+    private final IMetricsTracker tracker;
+    private final String name;
+    private volatile int maxPoolSize;
+    private volatile int minIdle;
+    private volatile boolean closed;
+
+    /**
+     * Create a new source.
+     *
+     * @param name        name of the source
+     * @param driver      source of the physical connections
+     * @param maxPoolSize reported max pool size
+     * @param metrics     receives the connection metrics. May be null.
+     */
+    public UnpooledSource(String name, DataSource driver, int maxPoolSize, MetricsTrackerFactory metrics) {
+        super(driver);
+        this.name = name;
+        this.maxPoolSize = maxPoolSize;
+        this.tracker = metrics == null ? new IMetricsTracker() {
+        } : metrics.create(name, new Stats());
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (closed) throw new SQLTransientConnectionException("The source " + name + " is closed");
+        long start = System.nanoTime();
+        Connection connection = getDelegate().getConnection();
+        long opened = System.nanoTime();
+        tracker.recordConnectionCreatedMillis(TimeUnit.NANOSECONDS.toMillis(opened - start));
+        tracker.recordConnectionAcquiredNanos(opened - start);
+        active.incrementAndGet();
+        boolean[] released = {false};
+        return Proxies.create(Connection.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "close":
+                    if (!released[0]) {
+                        released[0] = true;
+                        active.decrementAndGet();
+                        tracker.recordConnectionUsageMillis(
+                                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - opened));
+                    }
+                    break;
+                default:
+                    break;
+            }
+            return Proxies.invoke(connection, method, args);
+        });
+    }
+
+    @Override
+    public int getMaximumPoolSize() {
+        return maxPoolSize;
+    }
+
+    @Override
+    public void setMaximumPoolSize(int maxPoolSize) {
+        this.maxPoolSize = maxPoolSize;
+    }
+
+    @Override
+    public int getMinimumIdle() {
+        return minIdle;
+    }
+
+    @Override
+    public void setMinimumIdle(int minIdle) {
+        this.minIdle = minIdle;
+    }
+
+    @Override
+    public void setConnectionTimeout(long connectionTimeoutMs) {
+        // Connections are opened right away. The login timeout of the driver applies.
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return active.get();
+    }
+
+    @Override
+    public int getTotalConnections() {
+        return active.get();
+    }
+
+    /**
+     * There are no idle connections. Borrowed connections are closed once they are returned anyway.
+     */
+    @Override
+    public void softEvictConnections() {
+    }
+
+    @Override
+    public void evictConnection(Connection connection) throws SQLException {
+        Connection physical = connection.unwrap(Connection.class);
+        if (!physical.isClosed()) physical.abort(Runnable::run);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        tracker.close();
+    }
+
+    /**
+     * Connection state for the metrics tracker.
+     */
+    private final class Stats extends PoolStats {
+        private Stats() {
+            super(TimeUnit.SECONDS.toMillis(1));
+        }
+
+        @Override
+        protected void update() {
+            totalConnections = active.get();
+            activeConnections = totalConnections;
+            maxConnections = maxPoolSize;
+            minConnections = minIdle;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package de.eldoria.databasesamples.resilience;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the amount of concurrent requests and queues the remaining requests in one lane per {@link Priority}.
+ * <p>
+ * A released permit is handed to the oldest request of the highest waiting lane. A new request never overtakes
+ * waiting requests of its own or a higher lane. Requests which are not {@link Priority#CRITICAL} can not take the
+ * reserved permits, so critical requests get through even while bulk work saturates the pool.
+ * <p>
+ * Every request waits at most for its timeout. A request is rejected at once if the max amount of requests is queued.
+ */
+public class AdmissionQueue {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ArrayDeque<Waiter>[] lanes;
+    private final int permits;
+    private final int reserved;
+    private final int maxQueued;
+    private int available;
+    private int queued;
+    private long rejected;
+    private long timedOut;
+
+    /**
+     * Create a new admission queue.
+     *
+     * @param permits   max amount of concurrent requests
+     * @param reserved  permits which can only be taken by critical requests
+     * @param maxQueued max amount of waiting requests over all lanes
+     */
+    @SuppressWarnings("unchecked")
+    public AdmissionQueue(int permits, int reserved, int maxQueued) {
+        if (permits < 1) throw new IllegalArgumentException("Permits need to be at least 1");
+        if (reserved < 0 || reserved >= permits) {
+            throw new IllegalArgumentException("Reserved permits need to be between 0 and " + (permits - 1));
+        }
+        this.permits = permits;
+        this.reserved = reserved;
+        this.maxQueued = maxQueued;
+        this.available = permits;
+        this.lanes = new ArrayDeque[Priority.values().length];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Acquire a permit. Every acquired permit has to be released with {@link #release()}.
+     *
+     * @param priority lane of the request
+     * @param timeout  max time to wait for a permit
+     * @param unit     unit of the timeout
+     * @return true if a permit was acquired. False if the queue is full or the timeout elapsed.
+     * @throws InterruptedException if the thread was interrupted while waiting. No permit is held in this case.
+     */
+    public boolean acquire(Priority priority, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            if (canTake(priority) && !waitingAhead(priority)) {
+                available--;
+                return true;
+            }
+            if (queued >= maxQueued || nanos <= 0) {
+                rejected++;
+                return false;
+            }
+            Waiter waiter = new Waiter(priority, lock.newCondition());
+            lanes[priority.ordinal()].add(waiter);
+            queued++;
+            try {
+                while (!waiter.granted) {
+                    if (nanos <= 0) {
+                        remove(waiter);
+                        timedOut++;
+                        return false;
+                    }
+                    nanos = waiter.condition.awaitNanos(nanos);
+                }
+                return true;
+            } catch (InterruptedException e) {
+                if (waiter.granted) {
+                    // The permit was handed over while the thread got interrupted.
+                    available++;
+                    dispatch();
+                } else {
+                    remove(waiter);
+                }
+                throw e;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Release a permit and hand it to the next waiting request.
+     */
+    public void release() {
+        lock.lock();
+        try {
+            if (available == permits) throw new IllegalStateException("No permit was acquired");
+            available++;
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Amount of permits which are currently held.
+     *
+     * @return held permits
+     */
+    public int inUse() {
+        lock.lock();
+        try {
+            return permits - available;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Amount of requests which are currently waiting for a permit.
+     *
+     * @return waiting requests
+     */
+    public int queued() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Amount of requests which were rejected because the queue was full.
+     *
+     * @return rejected requests
+     */
+    public long rejected() {
+        lock.lock();
+        try {
+            return rejected;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Amount of requests which did not get a permit within their timeout.
+     *
+     * @return timed out requests
+     */
+    public long timedOut() {
+        lock.lock();
+        try {
+            return timedOut;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean canTake(Priority priority) {
+        return priority == Priority.CRITICAL ? available > 0 : available > reserved;
+    }
+
+    private boolean waitingAhead(Priority priority) {
+        for (int i = 0; i <= priority.ordinal(); i++) {
+            if (!lanes[i].isEmpty()) return true;
+        }
+        return false;
+    }
+
+    private void dispatch() {
+        for (ArrayDeque<Waiter> lane : lanes) {
+            Waiter waiter;
+            while ((waiter = lane.peekFirst()) != null && canTake(waiter.priority)) {
+                lane.pollFirst();
+                queued--;
+                available--;
+                waiter.granted = true;
+                waiter.condition.signal();
+            }
+            // Lower lanes can not take a permit if this lane could not.
+            if (waiter != null) return;
+        }
+    }
+
+    private void remove(Waiter waiter) {
+        lanes[waiter.priority.ordinal()].remove(waiter);
+        queued--;
+    }
+
+    private static final class Waiter {
+        private final Priority priority;
+        private final Condition condition;
+        private boolean granted;
+
+        private Waiter(Priority priority, Condition condition) {
+            this.priority = priority;
+            this.condition = condition;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package de.eldoria.databasesamples.resilience;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Circuit breaker which is driven by the failure rate and the slow call rate of the last calls.
+ * <p>
+ * While {@link State#CLOSED} the outcomes of the calls are kept in a sliding window. The breaker opens once the window
+ * contains the min amount of calls and the rate of failed or slow calls reaches its threshold. While
+ * {@link State#OPEN} every call is rejected. After the open duration the breaker lets a few trial calls through in
+ * {@link State#HALF_OPEN}. It closes if all trial calls succeed in time and opens again on the first failed or slow
+ * trial call.
+ * <p>
+ * Every permitted call has to report its outcome with {@link #record(long, long, boolean)} or give up its permit with
+ * {@link #release(long)}. A permit belongs to the state in which it was granted. Outcomes of calls which were permitted
+ * before the last state change are ignored, so a call which started while the breaker was closed never counts as a
+ * trial call.
+ */
+public class CircuitBreaker {
+    /**
+     * Permit which is returned by {@link #tryAcquire()} if the call is rejected.
+     */
+    public static final long REJECTED = -1;
+
+    private static final Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    private final String name;
+    private final boolean[] failedCalls;
+    private final boolean[] slowCalls;
+    private final int minCalls;
+    private final int failureRateThreshold;
+    private final int slowCallRateThreshold;
+    private final long slowCallNanos;
+    private final long openNanos;
+    private final int halfOpenCalls;
+    private volatile State state = State.CLOSED;
+    // Incremented on every state change after the new state was set.
+    private volatile long generation;
+    private int index;
+    private int calls;
+    private int failures;
+    private int slow;
+    private long openUntil;
+    private int trialsStarted;
+    private int trialsSucceeded;
+    private long rejected;
+
+    /**
+     * Create a new circuit breaker.
+     *
+     * @param name                  name of the breaker for logging
+     * @param windowSize            amount of calls in the sliding window
+     * @param minCalls              min amount of calls in the window before the rates are evaluated
+     * @param failureRateThreshold  failure rate in percent at which the breaker opens
+     * @param slowCallRateThreshold slow call rate in percent at which the breaker opens
+     * @param slowCall              duration after which a call counts as slow
+     * @param openDuration          duration the breaker stays open before trial calls are let through
+     * @param unit                  unit of the slow call duration and the open duration
+     * @param halfOpenCalls         amount of trial calls which need to succeed to close the breaker
+     */
+    public CircuitBreaker(String name, int windowSize, int minCalls, int failureRateThreshold,
+                          int slowCallRateThreshold, long slowCall, long openDuration, TimeUnit unit,
+                          int halfOpenCalls) {
+        if (windowSize < 1) throw new IllegalArgumentException("Window size needs to be at least 1");
+        if (halfOpenCalls < 1) throw new IllegalArgumentException("Half open calls need to be at least 1");
+        this.name = name;
+        this.failedCalls = new boolean[windowSize];
+        this.slowCalls = new boolean[windowSize];
+        this.minCalls = Math.max(1, Math.min(minCalls, windowSize));
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.slowCallNanos = unit.toNanos(slowCall);
+        this.openNanos = unit.toNanos(openDuration);
+        this.halfOpenCalls = halfOpenCalls;
+    }
+
+    /**
+     * Request a permit for a call.
+     *
+     * @return permit of the call or {@link #REJECTED} if the breaker is open
+     */
+    public long tryAcquire() {
+        // The generation is read before the state. A permit which sees the closed state therefore never carries the
+        // generation of a later state.
+        long permit = generation;
+        if (state == State.CLOSED) return permit;
+        synchronized (this) {
+            switch (state) {
+                case CLOSED:
+                    return generation;
+                case OPEN:
+                    if (System.nanoTime() - openUntil < 0) {
+                        rejected++;
+                        return REJECTED;
+                    }
+                    trialsStarted = 0;
+                    trialsSucceeded = 0;
+                    transition(State.HALF_OPEN);
+                    log.info("Circuit breaker {} is half open.", name);
+                    // fall through
+                default:
+                    if (trialsStarted >= halfOpenCalls) {
+                        rejected++;
+                        return REJECTED;
+                    }
+                    trialsStarted++;
+                    return generation;
+            }
+        }
+    }
+
+    /**
+     * Give up a permit without an outcome, because the call was not executed.
+     *
+     * @param permit permit of the call
+     */
+    public synchronized void release(long permit) {
+        if (permit != generation) return;
+        if (state == State.HALF_OPEN && trialsStarted > 0) trialsStarted--;
+    }
+
+    /**
+     * Record the outcome of a permitted call. Outcomes of permits of an earlier state are ignored.
+     *
+     * @param permit permit of the call
+     * @param nanos  duration of the call
+     * @param failed whether the call failed
+     */
+    public synchronized void record(long permit, long nanos, boolean failed) {
+        if (permit != generation) return;
+        boolean slowCall = nanos >= slowCallNanos;
+        switch (state) {
+            case CLOSED:
+                if (calls == failedCalls.length) {
+                    if (failedCalls[index]) failures--;
+                    if (slowCalls[index]) slow--;
+                } else {
+                    calls++;
+                }
+                failedCalls[index] = failed;
+                slowCalls[index] = slowCall;
+                if (failed) failures++;
+                if (slowCall) slow++;
+                index = (index + 1) % failedCalls.length;
+                if (calls >= minCalls && (failures * 100 >= failureRateThreshold * calls
+                        || slow * 100 >= slowCallRateThreshold * calls)) {
+                    log.warn("Circuit breaker {} opened. {} of {} calls failed and {} were slow.", name, failures,
+                            calls, slow);
+                    open();
+                }
+                break;
+            case HALF_OPEN:
+                if (failed || slowCall) {
+                    log.warn("Circuit breaker {} opened again after a {} trial call.", name,
+                            failed ? "failed" : "slow");
+                    open();
+                } else if (++trialsSucceeded >= halfOpenCalls) {
+                    log.info("Circuit breaker {} closed.", name);
+                    reset();
+                    transition(State.CLOSED);
+                }
+                break;
+            default:
+                // Open breakers permit no calls.
+                break;
+        }
+    }
+
+    /**
+     * Get the current state of the breaker.
+     *
+     * @return state
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Amount of calls which were rejected while the breaker was open.
+     *
+     * @return rejected calls
+     */
+    public synchronized long rejected() {
+        return rejected;
+    }
+
+    private void open() {
+        reset();
+        openUntil = System.nanoTime() + openNanos;
+        transition(State.OPEN);
+    }
+
+    private void transition(State next) {
+        state = next;
+        generation++;
+    }
+
+    private void reset() {
+        index = 0;
+        calls = 0;
+        failures = 0;
+        slow = 0;
+    }
+
+    public enum State {
+        /**
+         * Calls are executed and their outcomes are recorded.
+         */
+        CLOSED,
+        /**
+         * Calls are rejected.
+         */
+        OPEN,
+        /**
+         * A limited amount of trial calls is executed.
+         */
+        HALF_OPEN
+    }
+}
@@ -0,0 +1,19 @@
+package de.eldoria.databasesamples.resilience;
+
+/**
+ * Lane of a connection request in the {@link AdmissionQueue}. Lanes are served in the order of declaration.
+ */
+public enum Priority {
+    /**
+     * Requests which need to be served even if the pool is saturated. Critical requests may use the reserved permits.
+     */
+    CRITICAL,
+    /**
+     * Regular requests.
+     */
+    NORMAL,
+    /**
+     * Background and bulk work which only gets a connection while no other request is waiting.
+     */
+    BULK
+}
@@ -0,0 +1,238 @@
+package de.eldoria.databasesamples.resilience;
+
+import de.eldoria.databasesamples.util.DbUtil;
+import de.eldoria.databasesamples.util.DelegatingDataSource;
+import de.eldoria.databasesamples.util.Proxies;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Guards the connection requests of a source with an {@link AdmissionQueue} and a {@link CircuitBreaker}.
+ * <p>
+ * A request fails at once while the breaker is open. Otherwise it waits in the lane of its {@link Priority} for at
+ * most its timeout until it is admitted. Since no more requests are admitted than the pool has connections, admitted
+ * requests do not queue up inside the pool.
+ * <p>
+ * Every lease of a connection counts as one call of the breaker. A call fails if the connection could not be obtained
+ * or a statement failed because the connection was lost or timed out. Errors like constraint violations do not count.
+ * The duration of a call is the longest time spent obtaining the connection or executing a single statement. The
+ * outcome is recorded and the permit is released once the connection is closed.
+ * <p>
+ * Rejected requests fail with a {@link SQLTransientConnectionException}.
+ */
+public class ResilientDataSource extends DelegatingDataSource {
+    private final AdmissionQueue admission;
+    private final CircuitBreaker breaker;
+    private final long timeoutNanos;
+
+    /**
+     * Create a new resilient source.
+     *
+     * @param delegate  source to guard
+     * @param admission admission queue of the requests
+     * @param breaker   circuit breaker of the source
+     * @param timeout   default time a request waits to be admitted
+     * @param unit      unit of the timeout
+     */
+    public ResilientDataSource(DataSource delegate, AdmissionQueue admission, CircuitBreaker breaker, long timeout,
+                               TimeUnit unit) {
+        super(delegate);
+        this.admission = admission;
+        this.breaker = breaker;
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * Get a connection with {@link Priority#NORMAL} priority and the default timeout.
+     *
+     * @return connection
+     * @throws SQLException if the request was rejected or the connection could not be obtained
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+        return getConnection(Priority.NORMAL, timeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return open(Priority.NORMAL, timeoutNanos, username, password);
+    }
+
+    /**
+     * Get a connection with the default timeout.
+     *
+     * @param priority priority of the request
+     * @return connection
+     * @throws SQLException if the request was rejected or the connection could not be obtained
+     */
+    public Connection getConnection(Priority priority) throws SQLException {
+        return getConnection(priority, timeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Get a connection.
+     *
+     * @param priority priority of the request
+     * @param timeout  max time to wait to be admitted
+     * @param unit     unit of the timeout
+     * @return connection
+     * @throws SQLException if the request was rejected or the connection could not be obtained
+     */
+    public Connection getConnection(Priority priority, long timeout, TimeUnit unit) throws SQLException {
+        return open(priority, unit.toNanos(timeout), null, null);
+    }
+
+    /**
+     * Get the admission queue of this source.
+     *
+     * @return admission queue
+     */
+    public AdmissionQueue getAdmission() {
+        return admission;
+    }
+
+    /**
+     * Get the circuit breaker of this source.
+     *
+     * @return circuit breaker
+     */
+    public CircuitBreaker getBreaker() {
+        return breaker;
+    }
+
+    private Connection open(Priority priority, long nanos, String username, String password) throws SQLException {
+        long permit = breaker.tryAcquire();
+        if (permit == CircuitBreaker.REJECTED) {
+            throw new SQLTransientConnectionException("Circuit breaker is open. The database is unhealthy.");
+        }
+        boolean admitted;
+        try {
+            admitted = admission.acquire(priority, nanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            breaker.release(permit);
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+        if (!admitted) {
+            breaker.release(permit);
+            throw new SQLTransientConnectionException(String.format("No %s connection available within %d ms",
+                    priority.name().toLowerCase(Locale.ROOT), TimeUnit.NANOSECONDS.toMillis(nanos)));
+        }
+        long start = System.nanoTime();
+        Connection conn;
+        try {
+            conn = username == null ? super.getConnection() : super.getConnection(username, password);
+        } catch (SQLException | RuntimeException e) {
+            breaker.record(permit, System.nanoTime() - start, true);
+            admission.release();
+            throw e;
+        }
+        return Proxies.create(Connection.class, new Lease(conn, permit, System.nanoTime() - start));
+    }
+
+    private static boolean isUnhealthy(SQLException e) {
+        return e instanceof SQLTimeoutException || DbUtil.isConnectionFailure(e);
+    }
+
+    /**
+     * A connection lease which reports its outcome once the connection is closed.
+     */
+    private final class Lease implements InvocationHandler {
+        private final Connection conn;
+        private final long permit;
+        private volatile long slowest;
+        private volatile boolean failed;
+        private boolean closed;
+
+        private Lease(Connection conn, long permit, long connectNanos) {
+            this.conn = conn;
+            this.permit = permit;
+            this.slowest = connectNanos;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Resilient[" + conn + "]";
+                case "close":
+                    return close(method, args);
+                default:
+                    break;
+            }
+            Object result;
+            try {
+                result = Proxies.invoke(conn, method, args);
+            } catch (SQLException e) {
+                failed(e);
+                throw e;
+            }
+            if (result instanceof Statement) return wrap((Statement) result, (Connection) proxy);
+            return result;
+        }
+
+        private Object close(Method method, Object[] args) throws Throwable {
+            synchronized (this) {
+                if (closed) return null;
+                closed = true;
+            }
+            try {
+                return Proxies.invoke(conn, method, args);
+            } finally {
+                breaker.record(permit, slowest, failed);
+                admission.release();
+            }
+        }
+
+        private Statement wrap(Statement stmt, Connection proxy) {
+            InvocationHandler handler = (stmtProxy, method, args) -> {
+                String name = method.getName();
+                switch (name) {
+                    case "equals":
+                        return stmtProxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(stmtProxy);
+                    case "getConnection":
+                        return proxy;
+                    default:
+                        break;
+                }
+                long start = System.nanoTime();
+                try {
+                    return Proxies.invoke(stmt, method, args);
+                } catch (SQLException e) {
+                    failed(e);
+                    throw e;
+                } finally {
+                    if (name.startsWith("execute")) executed(System.nanoTime() - start);
+                }
+            };
+            if (stmt instanceof CallableStatement) return Proxies.create(CallableStatement.class, handler);
+            if (stmt instanceof PreparedStatement) return Proxies.create(PreparedStatement.class, handler);
+            return Proxies.create(Statement.class, handler);
+        }
+
+        private void executed(long nanos) {
+            if (nanos > slowest) slowest = nanos;
+        }
+
+        private void failed(SQLException e) {
+            if (isUnhealthy(e)) failed = true;
+        }
+    }
+}
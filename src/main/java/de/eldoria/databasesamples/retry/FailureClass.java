@@ -0,0 +1,44 @@
+package de.eldoria.databasesamples.retry;
+
+/**
+ * Class of a failed database call. Decides whether the call may succeed when it is retried.
+ *
+ * @see de.eldoria.databasesamples.dialect.SqlDialect#classify(java.sql.SQLException)
+ */
+public enum FailureClass {
+    /**
+     * Deadlock, serialization failure or write conflict. The transaction was rolled back by the database.
+     */
+    CONFLICT(true),
+    /**
+     * A lock was not granted within the lock wait timeout.
+     */
+    LOCK_TIMEOUT(true),
+    /**
+     * The connection was lost or could not be established, for example during a failover.
+     */
+    CONNECTION(true),
+    /**
+     * The statement was cancelled by a query timeout or deadline. A retry would most likely time out again.
+     */
+    TIMEOUT(false),
+    /**
+     * Any other failure like a syntax error or a constraint violation.
+     */
+    PERMANENT(false);
+
+    private final boolean transientFailure;
+
+    FailureClass(boolean transientFailure) {
+        this.transientFailure = transientFailure;
+    }
+
+    /**
+     * Whether a retry of the call may succeed.
+     *
+     * @return true if the failure is transient
+     */
+    public boolean isTransient() {
+        return transientFailure;
+    }
+}
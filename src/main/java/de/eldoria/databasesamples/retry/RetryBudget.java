@@ -0,0 +1,60 @@
+package de.eldoria.databasesamples.retry;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits retries to a share of all calls.
+ * <p>
+ * Every call deposits the ratio into a token bucket and every retry withdraws one token. While a database is down,
+ * all calls fail and the bucket is drained after a few retries. Retries then stop instead of multiplying the load on
+ * the recovering database. The bucket starts full, so retries are possible right after startup.
+ */
+public class RetryBudget {
+    private static final long SCALE = 1000;
+
+    private final long deposit;
+    private final long maxTokens;
+    private final AtomicLong tokens;
+
+    /**
+     * Create a new budget.
+     *
+     * @param ratio     retries which are allowed per call
+     * @param maxTokens max amount of retries which can be saved up
+     */
+    public RetryBudget(double ratio, int maxTokens) {
+        this.deposit = Math.max(0, Math.round(ratio * SCALE));
+        this.maxTokens = Math.max(0, maxTokens) * SCALE;
+        this.tokens = new AtomicLong(this.maxTokens);
+    }
+
+    /**
+     * Record a call which is not a retry.
+     */
+    public void recordCall() {
+        if (deposit == 0) return;
+        tokens.accumulateAndGet(deposit, (current, add) -> Math.min(maxTokens, current + add));
+    }
+
+    /**
+     * Withdraw a token for a retry.
+     *
+     * @return true if the retry is within the budget
+     */
+    public boolean tryRetry() {
+        while (true) {
+            long current = tokens.get();
+            if (current < SCALE) return false;
+            if (tokens.compareAndSet(current, current - SCALE)) return true;
+        }
+    }
+
+    /**
+     * Retries which are currently left.
+     *
+     * @return available retries
+     */
+    public int available() {
+        return (int) (tokens.get() / SCALE);
+    }
+}
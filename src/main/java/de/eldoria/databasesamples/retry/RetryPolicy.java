@@ -0,0 +1,59 @@
+package de.eldoria.databasesamples.retry;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Max attempts and jittered exponential backoff between the attempts of a call.
+ * <p>
+ * The delay before a retry is picked at random between zero and the base delay doubled per previous retry, capped at
+ * the max delay. The full jitter spreads retries of calls which failed at the same time, like the two sides of a
+ * deadlock.
+ */
+public class RetryPolicy {
+    private final int maxAttempts;
+    private final long baseDelayNanos;
+    private final long maxDelayNanos;
+    private final RetryBudget budget;
+
+    /**
+     * Create a new policy.
+     *
+     * @param maxAttempts max attempts of a call including the first one. 1 disables retries.
+     * @param baseDelay   max delay before the first retry
+     * @param maxDelay    max delay before any retry
+     * @param unit        unit of the delays
+     * @param budget      budget which all retries of this policy share
+     */
+    public RetryPolicy(int maxAttempts, long baseDelay, long maxDelay, TimeUnit unit, RetryBudget budget) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelayNanos = unit.toNanos(baseDelay);
+        this.maxDelayNanos = unit.toNanos(maxDelay);
+        this.budget = budget;
+    }
+
+    /**
+     * Max attempts of a call including the first one.
+     *
+     * @return max attempts
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public RetryBudget getBudget() {
+        return budget;
+    }
+
+    /**
+     * Get a random delay before a retry.
+     *
+     * @param retry number of the retry, starting at 1
+     * @return delay in nanoseconds
+     */
+    public long backoffNanos(int retry) {
+        int shift = Math.min(Math.max(0, retry - 1), 30);
+        long cap = baseDelayNanos > maxDelayNanos >> shift ? maxDelayNanos : baseDelayNanos << shift;
+        return cap <= 0 ? 0 : ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+}
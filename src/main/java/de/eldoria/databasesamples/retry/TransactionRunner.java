@@ -0,0 +1,157 @@
+package de.eldoria.databasesamples.retry;
+
+import de.eldoria.databasesamples.dialect.SqlDialect;
+import de.eldoria.databasesamples.metrics.DatabaseMetrics;
+import de.eldoria.databasesamples.timeout.Deadline;
+import de.eldoria.databasesamples.transaction.TransactionOptions;
+import de.eldoria.databasesamples.transaction.Transactions;
+import de.eldoria.databasesamples.transaction.UnitOfWork;
+import de.eldoria.databasesamples.util.SqlFunction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs blocks in a transaction and retries them after transient failures.
+ * <p>
+ * Failures are classified by the {@link SqlDialect} of the database. Deadlocks, lock wait timeouts and lost
+ * connections are retried with the jittered backoff of the {@link RetryPolicy} as long as attempts and retry budget
+ * are left and the {@link Deadline} of the caller is not reached.
+ * <p>
+ * A block runs again on every retry, so only blocks which are marked as idempotent are retried once they were
+ * started. A block is idempotent if running it twice has the same effect as running it once, for example because its
+ * transaction was rolled back or it only writes absolute values. Blocks which are not idempotent are only retried if
+ * no connection could be acquired, because the block did not run at all then.
+ * <p>
+ * A block which joins a transaction that is already in progress on the current thread is never retried. A deadlock
+ * aborts the whole transaction, so only the outermost transaction can be retried.
+ * <p>
+ * Tables which are written by a committed attempt are reported to the write listener of the {@link Transactions}.
+ * Rolled back attempts are not reported.
+ */
+public class TransactionRunner {
+    private static final Logger log = LoggerFactory.getLogger(TransactionRunner.class);
+
+    private final Transactions transactions;
+    private final RetryPolicy policy;
+    private final DatabaseMetrics metrics;
+
+    /**
+     * Create a new runner.
+     *
+     * @param transactions transactions of the database. Its dialect classifies the failures.
+     * @param policy       retry policy
+     * @param metrics      metrics which count the retries
+     */
+    public TransactionRunner(Transactions transactions, RetryPolicy policy, DatabaseMetrics metrics) {
+        this.transactions = transactions;
+        this.policy = policy;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Run a block which is not idempotent in a transaction.
+     * <p>
+     * The block is only retried if no connection could be acquired.
+     *
+     * @param block block to run. The transaction is committed once the block returned.
+     * @param <R>   type of the result
+     * @return result of the block
+     * @throws SQLException if the block failed. The transaction is rolled back in this case.
+     */
+    public <R> R run(SqlFunction<UnitOfWork, R> block) throws SQLException {
+        return run(TransactionOptions.DEFAULT, block, false);
+    }
+
+    /**
+     * Run a block which is not idempotent in a transaction.
+     * <p>
+     * The block is only retried if no connection could be acquired.
+     *
+     * @param options isolation level and access mode of the transaction
+     * @param block   block to run. The transaction is committed once the block returned.
+     * @param <R>     type of the result
+     * @return result of the block
+     * @throws SQLException if the block failed. The transaction is rolled back in this case.
+     */
+    public <R> R run(TransactionOptions options, SqlFunction<UnitOfWork, R> block) throws SQLException {
+        return run(options, block, false);
+    }
+
+    /**
+     * Run an idempotent block in a transaction and retry it after transient failures.
+     *
+     * @param block block to run. The transaction is committed once the block returned.
+     * @param <R>   type of the result
+     * @return result of the block
+     * @throws SQLException if the block failed after its last attempt. The transaction is rolled back in this case.
+     */
+    public <R> R runIdempotent(SqlFunction<UnitOfWork, R> block) throws SQLException {
+        return run(TransactionOptions.DEFAULT, block, true);
+    }
+
+    /**
+     * Run an idempotent block in a transaction and retry it after transient failures.
+     *
+     * @param options isolation level and access mode of the transaction
+     * @param block   block to run. The transaction is committed once the block returned.
+     * @param <R>     type of the result
+     * @return result of the block
+     * @throws SQLException if the block failed after its last attempt. The transaction is rolled back in this case.
+     */
+    public <R> R runIdempotent(TransactionOptions options, SqlFunction<UnitOfWork, R> block) throws SQLException {
+        return run(options, block, true);
+    }
+
+    public RetryPolicy getPolicy() {
+        return policy;
+    }
+
+    private <R> R run(TransactionOptions options, SqlFunction<UnitOfWork, R> block, boolean idempotent)
+            throws SQLException {
+        if (transactions.current() != null) return transactions.inTransaction(options, block);
+        policy.getBudget().recordCall();
+        for (int attempt = 1; ; attempt++) {
+            boolean started = false;
+            try (Connection conn = transactions.getSource().getConnection()) {
+                started = true;
+                return transactions.inTransaction(conn, options, block);
+            } catch (SQLException e) {
+                FailureClass failure = transactions.getDialect().classify(e);
+                if (!failure.isTransient() || started && !idempotent) throw e;
+                if (attempt >= policy.getMaxAttempts()) {
+                    metrics.recordRetriesExhausted(false);
+                    throw e;
+                }
+                long delay = policy.backoffNanos(attempt);
+                Deadline deadline = Deadline.current();
+                if (deadline != null && deadline.remaining(TimeUnit.NANOSECONDS) <= delay) {
+                    metrics.recordRetriesExhausted(false);
+                    throw e;
+                }
+                if (!policy.getBudget().tryRetry()) {
+                    metrics.recordRetriesExhausted(true);
+                    throw e;
+                }
+                metrics.recordRetry();
+                log.debug("Retrying transaction after {} failure in {} ms. Attempt {} failed: {}", failure,
+                        TimeUnit.NANOSECONDS.toMillis(delay), attempt, e.getMessage());
+                sleep(delay, e);
+            }
+        }
+    }
+
+    private static void sleep(long nanos, SQLException failure) throws SQLException {
+        if (nanos <= 0) return;
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.addSuppressed(e);
+            throw failure;
+        }
+    }
+}
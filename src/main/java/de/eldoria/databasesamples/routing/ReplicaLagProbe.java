@@ -0,0 +1,73 @@
+package de.eldoria.databasesamples.routing;
+
+import de.eldoria.databasesamples.config.DatabaseType;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Measures the replication lag of a replica.
+ */
+@FunctionalInterface
+public interface ReplicaLagProbe {
+    /**
+     * Probe which always reports no lag.
+     */
+    ReplicaLagProbe NONE = conn -> 0;
+
+    /**
+     * MariaDB probe based on {@code Seconds_Behind_Master} of {@code SHOW SLAVE STATUS}.
+     * A server which is no replica reports no lag. A stopped replication reports an infinite lag.
+     */
+    ReplicaLagProbe MARIADB = conn -> {
+        try (PreparedStatement stmt = conn.prepareStatement("SHOW SLAVE STATUS")) {
+            ResultSet resultSet = stmt.executeQuery();
+            if (!resultSet.next()) return 0;
+            long seconds = resultSet.getLong("Seconds_Behind_Master");
+            return resultSet.wasNull() ? Long.MAX_VALUE : seconds * 1000;
+        }
+    };
+
+    /**
+     * PostgreSQL probe based on the timestamp of the last replayed transaction.
+     * A server which is not in recovery or has replayed all received wal reports no lag. The replay timestamp does not
+     * move while the primary is idle, so it only counts while wal is waiting for replay.
+     */
+    ReplicaLagProbe POSTGRESQL = conn -> {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT CASE WHEN NOT pg_is_in_recovery() THEN 0 "
+                + "WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 "
+                + "ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000, 0) END")) {
+            ResultSet resultSet = stmt.executeQuery();
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    };
+
+    /**
+     * Get the probe for a database type.
+     *
+     * @param type database type
+     * @return lag probe of the type
+     */
+    static ReplicaLagProbe forType(DatabaseType type) {
+        switch (type) {
+            case MARIADB:
+                return MARIADB;
+            case POSTGRESQL:
+                return POSTGRESQL;
+            default:
+                return NONE;
+        }
+    }
+
+    /**
+     * Measure the replication lag.
+     *
+     * @param conn connection to the replica
+     * @return replication lag in milliseconds
+     * @throws SQLException if the lag could not be measured
+     */
+    long lagMillis(Connection conn) throws SQLException;
+}
@@ -0,0 +1,282 @@
+package de.eldoria.databasesamples.routing;
+
+import de.eldoria.databasesamples.util.DelegatingDataSource;
+import de.eldoria.databasesamples.util.Proxies;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Routes read only connections to read replicas and all other connections to the primary.
+ * <p>
+ * Connections are acquired lazily. {@link #getConnection()} returns a connection which records
+ * {@link Connection#setReadOnly(boolean)}, {@link Connection#setAutoCommit(boolean)} and
+ * {@link Connection#setTransactionIsolation(int)} until the first statement is created. Connections which are read only
+ * at this point are routed to the replica with the least outstanding connections.
+ * <p>
+ * Replicas are probed periodically. Replicas which are lagging behind more than the max lag or which failed are
+ * skipped. Reads fall back to the primary if no replica is usable.
+ */
+public class RoutingDataSource extends DelegatingDataSource implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(RoutingDataSource.class);
+    private static final AtomicInteger THREAD_ID = new AtomicInteger();
+
+    private final List<Replica> replicas;
+    private final ReplicaLagProbe probe;
+    private final long maxLagMillis;
+    private final ScheduledExecutorService monitor;
+
+    /**
+     * Create a new routing data source.
+     *
+     * @param primary       source of the primary
+     * @param replicas      sources of the replicas
+     * @param probe         probe to measure the lag of a replica
+     * @param maxLagMillis  max lag of a replica in milliseconds
+     * @param probeInterval interval of the lag probes in milliseconds
+     */
+    public RoutingDataSource(DataSource primary, List<DataSource> replicas, ReplicaLagProbe probe, long maxLagMillis,
+                             long probeInterval) {
+        super(primary);
+        List<Replica> nodes = new ArrayList<>();
+        for (DataSource replica : replicas) {
+            nodes.add(new Replica(replica));
+        }
+        this.replicas = Collections.unmodifiableList(nodes);
+        this.probe = probe;
+        this.maxLagMillis = maxLagMillis;
+        if (nodes.isEmpty()) {
+            this.monitor = null;
+        } else {
+            this.monitor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "replica-monitor-" + THREAD_ID.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            monitor.scheduleWithFixedDelay(this::probeReplicas, 0, probeInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public Connection getConnection() {
+        return Proxies.create(Connection.class, new LazyConnection());
+    }
+
+    /**
+     * Get a connection to the primary.
+     *
+     * @return connection to the primary
+     * @throws SQLException if no connection could be acquired
+     */
+    public Connection getPrimaryConnection() throws SQLException {
+        return getDelegate().getConnection();
+    }
+
+    /**
+     * Get a read only connection to the usable replica with the least outstanding connections or to the primary if no
+     * replica is usable.
+     *
+     * @return read only connection
+     * @throws SQLException if no connection could be acquired
+     */
+    public Connection getReadConnection() throws SQLException {
+        Connection conn = Proxies.create(Connection.class, new LazyConnection());
+        conn.setReadOnly(true);
+        return conn;
+    }
+
+    /**
+     * Get the replicas of this source.
+     *
+     * @return unmodifiable list of replicas
+     */
+    public List<Replica> getReplicas() {
+        return replicas;
+    }
+
+    @Override
+    public void close() {
+        if (monitor != null) monitor.shutdownNow();
+    }
+
+    private Replica choose() {
+        Replica best = null;
+        for (Replica replica : replicas) {
+            if (!replica.isUsable()) continue;
+            if (best == null || replica.outstanding.get() < best.outstanding.get()) best = replica;
+        }
+        return best;
+    }
+
+    private void probeReplicas() {
+        for (Replica replica : replicas) {
+            try (Connection conn = replica.source.getConnection()) {
+                replica.lagMillis = probe.lagMillis(conn);
+                replica.healthy = true;
+            } catch (SQLException | RuntimeException e) {
+                if (replica.healthy) log.warn("Replica {} is not reachable.", replica.source, e);
+                replica.healthy = false;
+            }
+        }
+    }
+
+    /**
+     * A read replica with its routing state.
+     */
+    public final class Replica {
+        private final DataSource source;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private volatile long lagMillis;
+        private volatile boolean healthy = true;
+
+        private Replica(DataSource source) {
+            this.source = source;
+        }
+
+        public DataSource getSource() {
+            return source;
+        }
+
+        /**
+         * Amount of connections which are currently borrowed from this replica.
+         *
+         * @return outstanding connections
+         */
+        public int getOutstanding() {
+            return outstanding.get();
+        }
+
+        /**
+         * Replication lag measured by the last probe.
+         *
+         * @return lag in milliseconds
+         */
+        public long getLagMillis() {
+            return lagMillis;
+        }
+
+        /**
+         * Whether the replica is reachable and not lagging behind more than the max lag.
+         *
+         * @return true if reads can be routed to this replica
+         */
+        public boolean isUsable() {
+            return healthy && lagMillis <= maxLagMillis;
+        }
+    }
+
+    private final class LazyConnection implements InvocationHandler {
+        private Connection target;
+        private Replica replica;
+        private boolean readOnly;
+        private Boolean autoCommit;
+        private Integer isolation;
+        private boolean closed;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Routing[" + (target == null ? "unbound" : target) + "]";
+                case "isClosed":
+                    return closed || (target != null && target.isClosed());
+                case "close":
+                    close();
+                    return null;
+                default:
+                    break;
+            }
+            if (closed) throw new SQLException("Connection is closed");
+            if (target == null) {
+                switch (method.getName()) {
+                    case "setReadOnly":
+                        readOnly = (Boolean) args[0];
+                        return null;
+                    case "isReadOnly":
+                        return readOnly;
+                    case "setAutoCommit":
+                        autoCommit = (Boolean) args[0];
+                        return null;
+                    case "getAutoCommit":
+                        if (autoCommit != null) return autoCommit;
+                        break;
+                    case "setTransactionIsolation":
+                        isolation = (Integer) args[0];
+                        return null;
+                    case "getTransactionIsolation":
+                        if (isolation != null) return isolation;
+                        break;
+                    case "commit":
+                    case "rollback":
+                        if (args == null) return null;
+                        break;
+                    default:
+                        break;
+                }
+                bind();
+            }
+            return Proxies.invoke(target, method, args);
+        }
+
+        private void bind() throws SQLException {
+            Connection conn = null;
+            if (readOnly) {
+                Replica chosen = choose();
+                if (chosen != null) {
+                    chosen.outstanding.incrementAndGet();
+                    try {
+                        conn = chosen.source.getConnection();
+                        replica = chosen;
+                    } catch (SQLException e) {
+                        chosen.outstanding.decrementAndGet();
+                        chosen.healthy = false;
+                        log.warn("Could not connect to replica. Falling back to primary.", e);
+                    }
+                }
+            }
+            if (conn == null) conn = getDelegate().getConnection();
+            try {
+                if (readOnly) conn.setReadOnly(true);
+                if (autoCommit != null) conn.setAutoCommit(autoCommit);
+                if (isolation != null) conn.setTransactionIsolation(isolation);
+            } catch (SQLException e) {
+                release(conn);
+                throw e;
+            }
+            target = conn;
+        }
+
+        private void close() throws SQLException {
+            if (closed) return;
+            closed = true;
+            if (target != null) release(target);
+        }
+
+        private void release(Connection conn) throws SQLException {
+            try {
+                conn.close();
+            } finally {
+                if (replica != null) {
+                    replica.outstanding.decrementAndGet();
+                    replica = null;
+                }
+            }
+        }
+    }
+}
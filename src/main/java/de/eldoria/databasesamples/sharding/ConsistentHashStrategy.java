@@ -0,0 +1,68 @@
+package de.eldoria.databasesamples.sharding;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent hashing with virtual nodes.
+ * <p>
+ * Every shard is placed on the hash ring multiple times. A key belongs to the first shard on the ring after the hash of
+ * the key. Adding a shard only moves the keys which now belong to the new shard.
+ * <p>
+ * Hashes are stable across JVMs. Numbers are hashed by their long value, all other keys by their string value.
+ */
+public class ConsistentHashStrategy implements ShardStrategy {
+    public static final int DEFAULT_VIRTUAL_NODES = 160;
+
+    private final TreeMap<Long, Integer> ring = new TreeMap<>();
+    private final int shards;
+
+    /**
+     * Create a new strategy.
+     *
+     * @param shards       amount of shards
+     * @param virtualNodes amount of positions of every shard on the ring
+     */
+    public ConsistentHashStrategy(int shards, int virtualNodes) {
+        if (shards < 1) throw new IllegalArgumentException("At least one shard is required");
+        this.shards = shards;
+        for (int shard = 0; shard < shards; shard++) {
+            for (int node = 0; node < virtualNodes; node++) {
+                ring.put(hash("shard-" + shard + "-" + node), shard);
+            }
+        }
+    }
+
+    @Override
+    public int shardOf(Object key) {
+        long hash = key instanceof Number ? mix(((Number) key).longValue()) : hash(String.valueOf(key));
+        Map.Entry<Long, Integer> entry = ring.ceilingEntry(hash);
+        return entry == null ? ring.firstEntry().getValue() : entry.getValue();
+    }
+
+    @Override
+    public int shards() {
+        return shards;
+    }
+
+    private static long hash(String value) {
+        // FNV-1a
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long value) {
+        // Finalizer of murmur3 to spread the bits over the ring
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
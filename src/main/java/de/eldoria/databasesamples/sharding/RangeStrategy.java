@@ -0,0 +1,42 @@
+package de.eldoria.databasesamples.sharding;
+
+import java.util.Arrays;
+
+/**
+ * Distributes numeric keys by ranges.
+ * <p>
+ * n split points result in n + 1 shards. Shard i holds the keys from split point i - 1 inclusive to split point i
+ * exclusive.
+ */
+public class RangeStrategy implements ShardStrategy {
+    private final long[] splitPoints;
+
+    /**
+     * Create a new strategy.
+     *
+     * @param splitPoints strictly ascending split points
+     */
+    public RangeStrategy(long... splitPoints) {
+        for (int i = 1; i < splitPoints.length; i++) {
+            if (splitPoints[i - 1] >= splitPoints[i]) {
+                throw new IllegalArgumentException("Split points must be strictly ascending");
+            }
+        }
+        this.splitPoints = splitPoints.clone();
+    }
+
+    @Override
+    public int shardOf(Object key) {
+        if (!(key instanceof Number)) {
+            throw new IllegalArgumentException("Range sharding requires a numeric key but got " + key);
+        }
+        int index = Arrays.binarySearch(splitPoints, ((Number) key).longValue());
+        // A key equal to a split point belongs to the shard starting at it.
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    @Override
+    public int shards() {
+        return splitPoints.length + 1;
+    }
+}
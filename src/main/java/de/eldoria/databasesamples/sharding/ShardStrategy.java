@@ -0,0 +1,42 @@
+package de.eldoria.databasesamples.sharding;
+
+/**
+ * Maps a shard key to a shard.
+ */
+public interface ShardStrategy {
+    /**
+     * Distribute keys with consistent hashing over the shards.
+     *
+     * @param shards amount of shards
+     * @return new strategy
+     */
+    static ShardStrategy consistentHash(int shards) {
+        return new ConsistentHashStrategy(shards, ConsistentHashStrategy.DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * Distribute numeric keys by ranges. n split points result in n + 1 shards.
+     * Shard i holds the keys from split point i - 1 inclusive to split point i exclusive.
+     *
+     * @param splitPoints ascending split points
+     * @return new strategy
+     */
+    static ShardStrategy range(long... splitPoints) {
+        return new RangeStrategy(splitPoints);
+    }
+
+    /**
+     * Get the shard of the key.
+     *
+     * @param key shard key
+     * @return index of the shard
+     */
+    int shardOf(Object key);
+
+    /**
+     * Amount of shards this strategy distributes to.
+     *
+     * @return amount of shards
+     */
+    int shards();
+}
@@ -0,0 +1,279 @@
+package de.eldoria.databasesamples.stream;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reusable columnar buffer for a chunk of rows.
+ * <p>
+ * Numeric columns are stored in primitive arrays. Strings and binary values are stored back to back in a shared byte
+ * arena and addressed by offset and length. All buffers are allocated once and reused for every chunk. The arena only
+ * grows if a chunk does not fit.
+ * <p>
+ * The content of a batch is only valid inside the callback it was passed to.
+ */
+public final class ColumnBatch {
+    private final ColumnType[] types;
+    private final int capacity;
+    private final int[][] ints;
+    private final long[][] longs;
+    private final double[][] doubles;
+    private final int[][] offsets;
+    private final int[][] lengths;
+    private final boolean[][] nulls;
+    private byte[] arena;
+    private int arenaSize;
+    private int size;
+
+    /**
+     * Create a new batch.
+     *
+     * @param types     types of the columns
+     * @param capacity  max amount of rows per chunk
+     * @param arenaSize initial size of the byte arena
+     */
+    public ColumnBatch(ColumnType[] types, int capacity, int arenaSize) {
+        if (capacity < 1) throw new IllegalArgumentException("Capacity must be at least 1");
+        this.types = types.clone();
+        this.capacity = capacity;
+        this.ints = new int[types.length][];
+        this.longs = new long[types.length][];
+        this.doubles = new double[types.length][];
+        this.offsets = new int[types.length][];
+        this.lengths = new int[types.length][];
+        this.nulls = new boolean[types.length][capacity];
+        for (int column = 0; column < types.length; column++) {
+            switch (types[column]) {
+                case INT:
+                    ints[column] = new int[capacity];
+                    break;
+                case LONG:
+                    longs[column] = new long[capacity];
+                    break;
+                case DOUBLE:
+                    doubles[column] = new double[capacity];
+                    break;
+                default:
+                    offsets[column] = new int[capacity];
+                    lengths[column] = new int[capacity];
+                    break;
+            }
+        }
+        this.arena = new byte[Math.max(16, arenaSize)];
+    }
+
+    /**
+     * Amount of rows in this chunk.
+     *
+     * @return amount of rows
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Max amount of rows per chunk.
+     *
+     * @return capacity
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    public int columns() {
+        return types.length;
+    }
+
+    public ColumnType type(int column) {
+        return types[column];
+    }
+
+    public boolean isNull(int column, int row) {
+        return nulls[column][row];
+    }
+
+    public int getInt(int column, int row) {
+        return ints[column][row];
+    }
+
+    public long getLong(int column, int row) {
+        return longs[column][row];
+    }
+
+    public double getDouble(int column, int row) {
+        return doubles[column][row];
+    }
+
+    /**
+     * Get the int buffer of a column. Only the first {@link #size()} values belong to this chunk.
+     *
+     * @param column index of the column
+     * @return int buffer
+     */
+    public int[] ints(int column) {
+        return ints[column];
+    }
+
+    /**
+     * Get the long buffer of a column. Only the first {@link #size()} values belong to this chunk.
+     *
+     * @param column index of the column
+     * @return long buffer
+     */
+    public long[] longs(int column) {
+        return longs[column];
+    }
+
+    /**
+     * Get the double buffer of a column. Only the first {@link #size()} values belong to this chunk.
+     *
+     * @param column index of the column
+     * @return double buffer
+     */
+    public double[] doubles(int column) {
+        return doubles[column];
+    }
+
+    /**
+     * Get the byte arena which holds the string and binary values of this chunk.
+     *
+     * @return byte arena
+     */
+    public byte[] arena() {
+        return arena;
+    }
+
+    /**
+     * Offset of a string or binary value in the {@link #arena()}.
+     *
+     * @param column index of the column
+     * @param row    index of the row
+     * @return offset in the arena
+     */
+    public int offset(int column, int row) {
+        return offsets[column][row];
+    }
+
+    /**
+     * Length in bytes of a string or binary value in the {@link #arena()}.
+     *
+     * @param column index of the column
+     * @param row    index of the row
+     * @return length in bytes
+     */
+    public int length(int column, int row) {
+        return lengths[column][row];
+    }
+
+    /**
+     * Decode a string value. This allocates a new string.
+     *
+     * @param column index of the column
+     * @param row    index of the row
+     * @return string or null
+     */
+    public String getString(int column, int row) {
+        if (nulls[column][row]) return null;
+        return new String(arena, offsets[column][row], lengths[column][row], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Copy a binary value. This allocates a new array.
+     *
+     * @param column index of the column
+     * @param row    index of the row
+     * @return bytes or null
+     */
+    public byte[] getBytes(int column, int row) {
+        if (nulls[column][row]) return null;
+        int offset = offsets[column][row];
+        return Arrays.copyOfRange(arena, offset, offset + lengths[column][row]);
+    }
+
+    void clear() {
+        size = 0;
+        arenaSize = 0;
+    }
+
+    boolean isFull() {
+        return size == capacity;
+    }
+
+    void nextRow() {
+        size++;
+    }
+
+    void setNull(int column) {
+        nulls[column][size] = true;
+        if (offsets[column] != null) {
+            offsets[column][size] = arenaSize;
+            lengths[column][size] = 0;
+        }
+    }
+
+    void setInt(int column, int value, boolean wasNull) {
+        ints[column][size] = value;
+        nulls[column][size] = wasNull;
+    }
+
+    void setLong(int column, long value, boolean wasNull) {
+        longs[column][size] = value;
+        nulls[column][size] = wasNull;
+    }
+
+    void setDouble(int column, double value, boolean wasNull) {
+        doubles[column][size] = value;
+        nulls[column][size] = wasNull;
+    }
+
+    void setBytes(int column, byte[] value) {
+        ensureArena(value.length);
+        System.arraycopy(value, 0, arena, arenaSize, value.length);
+        offsets[column][size] = arenaSize;
+        lengths[column][size] = value.length;
+        nulls[column][size] = false;
+        arenaSize += value.length;
+    }
+
+    /**
+     * Encode a string as UTF-8 directly into the arena without an intermediate byte array.
+     */
+    void setString(int column, String value) {
+        ensureArena(value.length() * 3);
+        int start = arenaSize;
+        int position = arenaSize;
+        byte[] bytes = arena;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                bytes[position++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[position++] = (byte) (0xC0 | (c >> 6));
+                bytes[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                bytes[position++] = (byte) (0xF0 | (codePoint >> 18));
+                bytes[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                bytes[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                bytes[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogate. Encoded as replacement character like String#getBytes.
+                bytes[position++] = (byte) '?';
+            } else {
+                bytes[position++] = (byte) (0xE0 | (c >> 12));
+                bytes[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        offsets[column][size] = start;
+        lengths[column][size] = position - start;
+        nulls[column][size] = false;
+        arenaSize = position;
+    }
+
+    private void ensureArena(int additional) {
+        if (arenaSize + additional <= arena.length) return;
+        arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaSize + additional));
+    }
+}
@@ -0,0 +1,27 @@
+package de.eldoria.databasesamples.stream;
+
+/**
+ * Storage type of a column in a {@link ColumnBatch}.
+ */
+public enum ColumnType {
+    /**
+     * Read with {@link java.sql.ResultSet#getInt(int)} into an int buffer.
+     */
+    INT,
+    /**
+     * Read with {@link java.sql.ResultSet#getLong(int)} into a long buffer.
+     */
+    LONG,
+    /**
+     * Read with {@link java.sql.ResultSet#getDouble(int)} into a double buffer.
+     */
+    DOUBLE,
+    /**
+     * Read with {@link java.sql.ResultSet#getString(int)} and stored UTF-8 encoded in the byte arena.
+     */
+    STRING,
+    /**
+     * Read with {@link java.sql.ResultSet#getBytes(int)} and stored in the byte arena.
+     */
+    BYTES
+}
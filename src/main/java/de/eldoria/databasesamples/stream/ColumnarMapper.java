@@ -0,0 +1,186 @@
+package de.eldoria.databasesamples.stream;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Reads query results into reusable {@link ColumnBatch ColumnBatches}.
+ * <p>
+ * Columns are declared once by name and type. The column indexes are resolved once per result instead of looking up
+ * the column name for every row. Values are read with the primitive getters of the result set and never boxed.
+ * <p>
+ * Every full batch is passed to the consumer and then reused for the next rows. Apart from the values the driver
+ * allocates itself, e.g. strings, reading a row does not allocate. The rows are read from the unwrapped driver result
+ * set, so they are not counted as returned rows by the query metrics.
+ * <p>
+ * A mapper is immutable and can be shared between threads. Batches can not.
+ */
+public final class ColumnarMapper {
+    private final String[] names;
+    private final ColumnType[] types;
+
+    private ColumnarMapper(String[] names, ColumnType[] types) {
+        this.names = names;
+        this.types = types;
+    }
+
+    /**
+     * Create a new builder.
+     *
+     * @return new builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Create a new batch for this mapper.
+     *
+     * @param capacity max amount of rows per chunk
+     * @return new batch
+     */
+    public ColumnBatch newBatch(int capacity) {
+        return new ColumnBatch(types, capacity, capacity * 32);
+    }
+
+    /**
+     * Read all rows of a result.
+     *
+     * @param resultSet result to read
+     * @param batch     batch to read the rows into
+     * @param consumer  consumer which receives every filled batch
+     * @return amount of read rows
+     * @throws SQLException if the result could not be read
+     */
+    public long read(ResultSet resultSet, ColumnBatch batch, Consumer<ColumnBatch> consumer) throws SQLException {
+        if (batch.columns() != types.length) {
+            throw new IllegalArgumentException("Batch has " + batch.columns() + " columns but mapper has " + types.length);
+        }
+        int[] indexes = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            indexes[i] = resultSet.findColumn(names[i]);
+        }
+        // Read from the driver result set. Reflective wrappers allocate the arguments of every getter call.
+        ResultSet result = resultSet.unwrap(ResultSet.class);
+        long rows = 0;
+        batch.clear();
+        while (result.next()) {
+            for (int column = 0; column < indexes.length; column++) {
+                readValue(result, indexes[column], column, batch);
+            }
+            batch.nextRow();
+            rows++;
+            if (batch.isFull()) {
+                consumer.accept(batch);
+                batch.clear();
+            }
+        }
+        if (batch.size() > 0) consumer.accept(batch);
+        batch.clear();
+        return rows;
+    }
+
+    /**
+     * Execute a query and read its result through a cursor.
+     *
+     * @param source      source to retrieve the connection from
+     * @param sql         query
+     * @param batch       batch to read the rows into. Its capacity is used as fetch size.
+     * @param transaction whether the cursor requires an open transaction
+     * @param consumer    consumer which receives every filled batch
+     * @param params      parameters which are bound in order
+     * @return amount of read rows
+     * @throws SQLException if the query could not be executed
+     */
+    public long scan(DataSource source, String sql, ColumnBatch batch, boolean transaction,
+                     Consumer<ColumnBatch> consumer, Object... params) throws SQLException {
+        Connection conn = source.getConnection();
+        try (PreparedStatement stmt = QueryStream.prepareCursor(conn, sql, batch.capacity(), transaction, params);
+             ResultSet resultSet = stmt.executeQuery()) {
+            return read(resultSet, batch, consumer);
+        } finally {
+            QueryStream.release(conn, transaction);
+        }
+    }
+
+    private void readValue(ResultSet resultSet, int index, int column, ColumnBatch batch) throws SQLException {
+        switch (types[column]) {
+            case INT:
+                int intValue = resultSet.getInt(index);
+                batch.setInt(column, intValue, intValue == 0 && resultSet.wasNull());
+                break;
+            case LONG:
+                long longValue = resultSet.getLong(index);
+                batch.setLong(column, longValue, longValue == 0 && resultSet.wasNull());
+                break;
+            case DOUBLE:
+                double doubleValue = resultSet.getDouble(index);
+                batch.setDouble(column, doubleValue, doubleValue == 0 && resultSet.wasNull());
+                break;
+            case STRING:
+                String string = resultSet.getString(index);
+                if (string == null) batch.setNull(column);
+                else batch.setString(column, string);
+                break;
+            case BYTES:
+                byte[] bytes = resultSet.getBytes(index);
+                if (bytes == null) batch.setNull(column);
+                else batch.setBytes(column, bytes);
+                break;
+            default:
+                throw new IllegalStateException("Unknown column type " + types[column]);
+        }
+    }
+
+    public static final class Builder {
+        private final List<String> names = new ArrayList<>();
+        private final List<ColumnType> types = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Add a column. Columns are numbered in the order they are added.
+         *
+         * @param name name or label of the column in the result
+         * @param type storage type of the column
+         * @return builder instance
+         */
+        public Builder column(String name, ColumnType type) {
+            names.add(name);
+            types.add(type);
+            return this;
+        }
+
+        public Builder intColumn(String name) {
+            return column(name, ColumnType.INT);
+        }
+
+        public Builder longColumn(String name) {
+            return column(name, ColumnType.LONG);
+        }
+
+        public Builder doubleColumn(String name) {
+            return column(name, ColumnType.DOUBLE);
+        }
+
+        public Builder stringColumn(String name) {
+            return column(name, ColumnType.STRING);
+        }
+
+        public Builder bytesColumn(String name) {
+            return column(name, ColumnType.BYTES);
+        }
+
+        public ColumnarMapper build() {
+            if (names.isEmpty()) throw new IllegalStateException("At least one column is required");
+            return new ColumnarMapper(names.toArray(new String[0]), types.toArray(new ColumnType[0]));
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package de.eldoria.databasesamples.stream;
+
+import java.sql.Timestamp;
+
+/**
+ * A range of a numeric or timestamp key. The lower bound is inclusive. The upper bound is exclusive.
+ * <p>
+ * The last range of a table has no upper bound. Its {@link #getTo()} is the max key which was read while the table was
+ * split. Timestamp bounds are truncated to millis, so the last range still covers keys with a finer precision than
+ * the max key and rows which were inserted after the split.
+ */
+public final class KeyRange {
+    private final long from;
+    private final long to;
+    private final boolean last;
+    private final boolean timestamp;
+
+    /**
+     * Create a new range.
+     *
+     * @param from      inclusive lower bound. Epoch millis for timestamp keys.
+     * @param to        exclusive upper bound or the max key of the last range. Epoch millis for timestamp keys.
+     * @param last      whether the range is the last range and has no upper bound
+     * @param timestamp whether the key is a timestamp
+     */
+    public KeyRange(long from, long to, boolean last, boolean timestamp) {
+        this.from = from;
+        this.to = to;
+        this.last = last;
+        this.timestamp = timestamp;
+    }
+
+    public long getFrom() {
+        return from;
+    }
+
+    public long getTo() {
+        return to;
+    }
+
+    public boolean isLast() {
+        return last;
+    }
+
+    public boolean isTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Condition which selects this range.
+     *
+     * @param keyColumn name of the key column
+     * @return condition with the {@link #params()}
+     */
+    String condition(String keyColumn) {
+        if (last) return keyColumn + " >= ?";
+        return keyColumn + " >= ? AND " + keyColumn + " < ?";
+    }
+
+    /**
+     * Parameters of the {@link #condition(String)}.
+     *
+     * @return lower and upper bound or only the lower bound of the last range
+     */
+    Object[] params() {
+        Object lower = timestamp ? new Timestamp(from) : (Object) from;
+        if (last) return new Object[]{lower};
+        return new Object[]{lower, timestamp ? new Timestamp(to) : (Object) to};
+    }
+
+    @Override
+    public String toString() {
+        return "[" + from + (last ? ", ..)" : ", " + to + ")");
+    }
+}
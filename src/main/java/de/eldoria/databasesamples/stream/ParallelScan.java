@@ -0,0 +1,338 @@
+package de.eldoria.databasesamples.stream;
+
+import de.eldoria.databasesamples.async.AsyncQueryExecutor;
+import de.eldoria.databasesamples.util.DbUtil;
+import de.eldoria.databasesamples.util.RowMapper;
+import de.eldoria.databasesamples.util.UncheckedSQLException;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.temporal.Temporal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Scans a table in parallel by splitting it into ranges of an integer or timestamp key.
+ * <p>
+ * Every range is read with its own query on its own connection. {@link #stream(AsyncQueryExecutor, RowMapper)} runs
+ * the range queries on an async executor, so as many ranges are read at once as the pool has connections, and merges
+ * the rows into one sequential stream. {@link #parallelStream(RowMapper)} returns a parallel stream which splits by
+ * ranges on the fork join pool instead.
+ * <p>
+ * The order of the rows is undefined.
+ */
+public final class ParallelScan {
+    private final DataSource source;
+    private final String table;
+    private final String keyColumn;
+    private final String columns;
+    private final List<KeyRange> ranges;
+    private final int fetchSize;
+    private final boolean transaction;
+
+    private ParallelScan(DataSource source, String table, String keyColumn, String columns, List<KeyRange> ranges,
+                         int fetchSize, boolean transaction) {
+        this.source = source;
+        this.table = table;
+        this.keyColumn = keyColumn;
+        this.columns = columns;
+        this.ranges = ranges;
+        this.fetchSize = fetchSize;
+        this.transaction = transaction;
+    }
+
+    /**
+     * Split a table into ranges of equal width between the min and max key.
+     *
+     * @param source      source of the table
+     * @param table       table to scan
+     * @param keyColumn   integer or timestamp column, ideally indexed
+     * @param columns     columns to select
+     * @param partitions  amount of ranges
+     * @param fetchSize   amount of rows which are fetched at once per range
+     * @param transaction whether a cursor requires an open transaction
+     * @return scan of the table
+     * @throws SQLException if the key bounds could not be read
+     */
+    public static ParallelScan byMinMax(DataSource source, String table, String keyColumn, List<String> columns,
+                                        int partitions, int fetchSize, boolean transaction) throws SQLException {
+        requirePartitions(partitions);
+        String sql = "SELECT MIN(" + DbUtil.requireIdentifier(keyColumn) + "), MAX(" + keyColumn + ") FROM "
+                + DbUtil.requireIdentifier(table);
+        List<KeyRange> ranges = new ArrayList<>();
+        try (Connection conn = source.getConnection(); PreparedStatement stmt = conn.prepareStatement(sql);
+             ResultSet resultSet = stmt.executeQuery()) {
+            resultSet.next();
+            Object min = resultSet.getObject(1);
+            if (min != null) {
+                boolean timestamp = min instanceof Date || min instanceof Temporal;
+                long from = timestamp ? resultSet.getTimestamp(1).getTime() : resultSet.getLong(1);
+                long to = timestamp ? resultSet.getTimestamp(2).getTime() : resultSet.getLong(2);
+                long[] splits = new long[partitions - 1];
+                // Computed in double precision to avoid an overflow for large key spans.
+                double width = ((double) to - from) / partitions;
+                for (int i = 0; i < splits.length; i++) {
+                    splits[i] = from + (long) (width * (i + 1));
+                }
+                ranges = split(from, to, splits, timestamp);
+            }
+        }
+        return new ParallelScan(source, table, keyColumn, select(columns), ranges, fetchSize, transaction);
+    }
+
+    /**
+     * Split a table into ranges with roughly the same amount of rows.
+     * <p>
+     * The split points are quantiles of a random sample of the keys. The sample is taken while the key column is read
+     * once, which is cheap for indexed keys. Use this for skewed keys.
+     *
+     * @param source      source of the table
+     * @param table       table to scan
+     * @param keyColumn   integer or timestamp column, ideally indexed
+     * @param columns     columns to select
+     * @param partitions  amount of ranges
+     * @param sampleSize  amount of sampled keys
+     * @param fetchSize   amount of rows which are fetched at once per range
+     * @param transaction whether a cursor requires an open transaction
+     * @return scan of the table
+     * @throws SQLException if the keys could not be sampled
+     */
+    public static ParallelScan bySample(DataSource source, String table, String keyColumn, List<String> columns,
+                                        int partitions, int sampleSize, int fetchSize, boolean transaction)
+            throws SQLException {
+        requirePartitions(partitions);
+        String sql = "SELECT " + DbUtil.requireIdentifier(keyColumn) + " FROM " + DbUtil.requireIdentifier(table)
+                + " WHERE " + keyColumn + " IS NOT NULL";
+        long[] sample = new long[Math.max(partitions, sampleSize)];
+        int sampled = 0;
+        long seen = 0;
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        Boolean timestamp = null;
+        Random random = new Random();
+        Connection conn = source.getConnection();
+        try (PreparedStatement stmt = QueryStream.prepareCursor(conn, sql, fetchSize, transaction, new Object[0]);
+             ResultSet resultSet = stmt.executeQuery()) {
+            while (resultSet.next()) {
+                if (timestamp == null) {
+                    Object value = resultSet.getObject(1);
+                    timestamp = value instanceof Date || value instanceof Temporal;
+                }
+                long key = timestamp ? resultSet.getTimestamp(1).getTime() : resultSet.getLong(1);
+                min = Math.min(min, key);
+                max = Math.max(max, key);
+                // Reservoir sampling
+                if (sampled < sample.length) {
+                    sample[sampled++] = key;
+                } else {
+                    long slot = (long) (random.nextDouble() * (seen + 1));
+                    if (slot < sample.length) sample[(int) slot] = key;
+                }
+                seen++;
+            }
+        } finally {
+            QueryStream.release(conn, transaction);
+        }
+        List<KeyRange> ranges = Collections.emptyList();
+        if (seen > 0) {
+            Arrays.sort(sample, 0, sampled);
+            long[] splits = new long[partitions - 1];
+            int count = 0;
+            for (int i = 1; i < partitions; i++) {
+                long split = sample[(int) ((long) sampled * i / partitions)];
+                // Duplicate keys can not be split. Their ranges are merged.
+                if (split > min && (count == 0 || split > splits[count - 1])) splits[count++] = split;
+            }
+            ranges = split(min, max, Arrays.copyOf(splits, count), timestamp);
+        }
+        return new ParallelScan(source, table, keyColumn, select(columns), ranges, fetchSize, transaction);
+    }
+
+    /**
+     * Get the ranges of this scan.
+     *
+     * @return unmodifiable list of ranges
+     */
+    public List<KeyRange> getRanges() {
+        return ranges;
+    }
+
+    /**
+     * Read all ranges concurrently on the executor and merge their rows into one sequential stream.
+     * <p>
+     * Rows are buffered in a bounded queue. Readers block while the consumer is behind. Closing the stream stops all
+     * readers.
+     *
+     * @param executor executor which limits the amount of concurrently read ranges
+     * @param mapper   mapper for the rows
+     * @param <T>      type of the mapped rows
+     * @return stream of the rows of all ranges
+     */
+    public <T> Stream<T> stream(AsyncQueryExecutor executor, RowMapper<T> mapper) {
+        RowMerge<T> merge = new RowMerge<>(ranges.size(), Math.max(4, fetchSize * 4 / RowMerge.CHUNK_SIZE),
+                "Range scan failed");
+        for (KeyRange range : ranges) {
+            executor.supply(conn -> {
+                read(conn, range, mapper, merge);
+                return null;
+            }).whenComplete((result, err) -> merge.finished(err));
+        }
+        return merge.stream();
+    }
+
+    private <T> void read(Connection conn, KeyRange range, RowMapper<T> mapper, RowMerge<T> merge)
+            throws SQLException {
+        try (PreparedStatement stmt = QueryStream.prepareCursor(conn, query(range), fetchSize, transaction,
+                range.params());
+             ResultSet resultSet = stmt.executeQuery()) {
+            merge.read(resultSet, mapper);
+        } finally {
+            if (transaction) {
+                conn.rollback();
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Get a parallel stream which splits by ranges. Every range is read on the thread which processes it.
+     * <p>
+     * The parallelism is limited by the fork join pool and the connection pool. Close the stream, so the ranges which
+     * are still open after a short circuiting operation like {@link Stream#findAny()} or {@link Stream#limit(long)}
+     * release their connections.
+     *
+     * @param mapper mapper for the rows
+     * @param <T>    type of the mapped rows
+     * @return parallel stream over all ranges
+     */
+    public <T> Stream<T> parallelStream(RowMapper<T> mapper) {
+        Set<QueryStream<T>> open = ConcurrentHashMap.newKeySet();
+        return StreamSupport.stream(new RangeSpliterator<>(mapper, open, 0, ranges.size()), true)
+                .onClose(() -> closeAll(open));
+    }
+
+    private static <T> void closeAll(Set<QueryStream<T>> open) {
+        RuntimeException failure = null;
+        for (QueryStream<T> stream : open) {
+            // Only the side which removes the stream closes it.
+            if (!open.remove(stream)) continue;
+            try {
+                stream.close();
+            } catch (RuntimeException e) {
+                if (failure == null) failure = e;
+                else failure.addSuppressed(e);
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    private String query(KeyRange range) {
+        return "SELECT " + columns + " FROM " + table + " WHERE " + range.condition(keyColumn);
+    }
+
+    private static List<KeyRange> split(long min, long max, long[] splits, boolean timestamp) {
+        List<KeyRange> ranges = new ArrayList<>();
+        long from = min;
+        for (long split : splits) {
+            if (split <= from || split > max) continue;
+            ranges.add(new KeyRange(from, split, false, timestamp));
+            from = split;
+        }
+        ranges.add(new KeyRange(from, max, true, timestamp));
+        return Collections.unmodifiableList(ranges);
+    }
+
+    private static String select(List<String> columns) {
+        if (columns.isEmpty()) return "*";
+        StringBuilder builder = new StringBuilder();
+        for (String column : columns) {
+            if (builder.length() > 0) builder.append(", ");
+            builder.append(DbUtil.requireIdentifier(column));
+        }
+        return builder.toString();
+    }
+
+    private static void requirePartitions(int partitions) {
+        if (partitions < 1) throw new IllegalArgumentException("At least one partition is required");
+    }
+
+    private final class RangeSpliterator<T> implements Spliterator<T> {
+        private final RowMapper<T> mapper;
+        private final Set<QueryStream<T>> open;
+        private int index;
+        private final int end;
+        private QueryStream<T> current;
+
+        private RangeSpliterator(RowMapper<T> mapper, Set<QueryStream<T>> open, int index, int end) {
+            this.mapper = mapper;
+            this.open = open;
+            this.index = index;
+            this.end = end;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            while (true) {
+                if (current != null) {
+                    if (current.hasNext()) {
+                        T row = current.next();
+                        try {
+                            action.accept(row);
+                        } catch (RuntimeException | Error e) {
+                            if (open.remove(current)) current.close();
+                            current = null;
+                            throw e;
+                        }
+                        return true;
+                    }
+                    // An exhausted range already released its connection.
+                    open.remove(current);
+                    current = null;
+                }
+                if (index >= end) return false;
+                current = openRange(ranges.get(index++));
+                open.add(current);
+            }
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            if (current != null || end - index < 2) return null;
+            int middle = index + (end - index) / 2;
+            Spliterator<T> prefix = new RangeSpliterator<>(mapper, open, index, middle);
+            index = middle;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return end - index <= 0 ? 0 : Long.MAX_VALUE;
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.NONNULL;
+        }
+
+        private QueryStream<T> openRange(KeyRange range) {
+            try {
+                return QueryStream.open(source, query(range), mapper, fetchSize, transaction, range.params());
+            } catch (SQLException e) {
+                throw new UncheckedSQLException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package de.eldoria.databasesamples.stream;
+
+import de.eldoria.databasesamples.util.RowMapper;
+import de.eldoria.databasesamples.util.UncheckedSQLException;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Lazily maps the rows of a query while they are fetched from the database.
+ * <p>
+ * The result is read through a cursor in chunks of the fetch size. Only the current chunk is held in memory.
+ * The stream holds its connection until it is closed or exhausted. Always close the stream, preferably with
+ * try-with-resources.
+ *
+ * @param <T> type of the mapped rows
+ */
+public final class QueryStream<T> implements Iterator<T>, AutoCloseable {
+    private final Connection conn;
+    private final PreparedStatement stmt;
+    private final ResultSet resultSet;
+    private final RowMapper<T> mapper;
+    private final boolean transaction;
+    private boolean fetched;
+    private boolean hasNext;
+    private boolean closed;
+
+    private QueryStream(Connection conn, PreparedStatement stmt, ResultSet resultSet, RowMapper<T> mapper,
+                        boolean transaction) {
+        this.conn = conn;
+        this.stmt = stmt;
+        this.resultSet = resultSet;
+        this.mapper = mapper;
+        this.transaction = transaction;
+    }
+
+    /**
+     * Execute a query and open a stream on its result.
+     *
+     * @param source      source to retrieve the connection from
+     * @param sql         query
+     * @param mapper      mapper for the rows of the result
+     * @param fetchSize   amount of rows which are fetched at once
+     * @param transaction whether the cursor requires an open transaction. PostgreSQL only uses a cursor if auto
+     *                    commit is disabled.
+     * @param params      parameters which are bound in order
+     * @param <T>         type of the mapped rows
+     * @return open stream
+     * @throws SQLException if the query could not be executed
+     */
+    public static <T> QueryStream<T> open(DataSource source, String sql, RowMapper<T> mapper, int fetchSize,
+                                          boolean transaction, Object... params) throws SQLException {
+        Connection conn = source.getConnection();
+        PreparedStatement stmt = null;
+        try {
+            stmt = prepareCursor(conn, sql, fetchSize, transaction, params);
+            return new QueryStream<>(conn, stmt, stmt.executeQuery(), mapper, transaction);
+        } catch (SQLException | RuntimeException e) {
+            try {
+                if (stmt != null) stmt.close();
+                release(conn, transaction);
+            } catch (SQLException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Prepare a forward only statement which reads its result in chunks of the fetch size.
+     *
+     * @param conn        connection to prepare the statement on
+     * @param sql         query
+     * @param fetchSize   amount of rows which are fetched at once
+     * @param transaction whether auto commit is disabled for the cursor
+     * @param params      parameters which are bound in order
+     * @return prepared statement
+     * @throws SQLException if the statement could not be prepared
+     */
+    static PreparedStatement prepareCursor(Connection conn, String sql, int fetchSize, boolean transaction,
+                                           Object[] params) throws SQLException {
+        if (transaction) conn.setAutoCommit(false);
+        PreparedStatement stmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        try {
+            stmt.setFetchSize(fetchSize);
+            for (int i = 0; i < params.length; i++) {
+                stmt.setObject(i + 1, params[i]);
+            }
+        } catch (SQLException | RuntimeException e) {
+            stmt.close();
+            throw e;
+        }
+        return stmt;
+    }
+
+    /**
+     * Get a sequential stream of the mapped rows. Closing the stream closes this query stream.
+     *
+     * @return stream of the mapped rows
+     */
+    public Stream<T> stream() {
+        return StreamSupport.stream(
+                        Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(this::close);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (closed) return false;
+        if (!fetched) {
+            try {
+                hasNext = resultSet.next();
+            } catch (SQLException e) {
+                close();
+                throw new UncheckedSQLException(e);
+            }
+            fetched = true;
+            // Release the connection as soon as the result is exhausted.
+            if (!hasNext) close();
+        }
+        return hasNext;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        fetched = false;
+        try {
+            return mapper.map(resultSet);
+        } catch (SQLException e) {
+            close();
+            throw new UncheckedSQLException(e);
+        }
+    }
+
+    /**
+     * Close the cursor and return the connection to the pool.
+     *
+     * @throws UncheckedSQLException if the connection could not be released
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        hasNext = false;
+        try {
+            try {
+                resultSet.close();
+                stmt.close();
+            } finally {
+                release(conn, transaction);
+            }
+        } catch (SQLException e) {
+            throw new UncheckedSQLException(e);
+        }
+    }
+
+    /**
+     * End the cursor transaction if one was started and close the connection.
+     *
+     * @param conn        connection to release
+     * @param transaction whether auto commit was disabled for the cursor
+     * @throws SQLException if the connection could not be released
+     */
+    static void release(Connection conn, boolean transaction) throws SQLException {
+        try {
+            if (transaction) {
+                // Nothing was written. Ending the transaction only closes the cursor.
+                conn.rollback();
+                conn.setAutoCommit(true);
+            }
+        } finally {
+            conn.close();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package de.eldoria.databasesamples.stream;
+
+import de.eldoria.databasesamples.util.RowMapper;
+import de.eldoria.databasesamples.util.UncheckedSQLException;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Merges the rows of several concurrently read results into one sequential stream.
+ * <p>
+ * Readers hand over their rows in chunks through a bounded queue and block while the consumer is behind, so only a
+ * few chunks per reader are held in memory. Every reader has to call {@link #finished(Throwable)} once it is done.
+ * Closing the stream stops all readers.
+ *
+ * @param <T> type of the merged rows
+ */
+public final class RowMerge<T> implements Iterator<T> {
+    /**
+     * Amount of rows which are handed over at once.
+     */
+    public static final int CHUNK_SIZE = 256;
+    private static final Object END = new Object();
+
+    private final BlockingQueue<Object> queue;
+    private final String failure;
+    private int running;
+    private volatile boolean closed;
+    private List<T> chunk;
+    private int position;
+
+    /**
+     * Create a new merge.
+     *
+     * @param readers  amount of readers
+     * @param capacity max amount of buffered chunks
+     * @param failure  message of the exception if a reader failed
+     */
+    public RowMerge(int readers, int capacity, String failure) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.running = readers;
+        this.failure = failure;
+    }
+
+    /**
+     * Read the rows of a result and hand them over to the consumer. Returns early once the merge was closed.
+     *
+     * @param resultSet result to read
+     * @param mapper    mapper for the rows
+     * @throws SQLException if the result could not be read
+     */
+    public void read(ResultSet resultSet, RowMapper<T> mapper) throws SQLException {
+        List<T> rows = new ArrayList<>(CHUNK_SIZE);
+        while (!closed && resultSet.next()) {
+            rows.add(mapper.map(resultSet));
+            if (rows.size() == CHUNK_SIZE) {
+                put(rows);
+                rows = new ArrayList<>(CHUNK_SIZE);
+            }
+        }
+        if (!rows.isEmpty()) put(rows);
+    }
+
+    /**
+     * Mark a reader as done.
+     *
+     * @param err the failure of the reader or null if it read all of its rows
+     */
+    public void finished(Throwable err) {
+        put(err == null ? END : err);
+    }
+
+    /**
+     * Get a stream of the merged rows. Closing the stream closes the merge.
+     *
+     * @return stream of the rows of all readers
+     */
+    public Stream<T> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.NONNULL), false)
+                .onClose(this::close);
+    }
+
+    /**
+     * Stop all readers and drop the buffered rows.
+     */
+    public void close() {
+        closed = true;
+        queue.clear();
+    }
+
+    private void put(Object value) {
+        try {
+            while (!closed && !queue.offer(value, 100, TimeUnit.MILLISECONDS)) {
+                // Wait for the consumer or for the stream to be closed.
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            closed = true;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (chunk == null || position == chunk.size()) {
+            chunk = null;
+            if (running == 0 || closed) return false;
+            Object value;
+            try {
+                value = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+                throw new IllegalStateException("Interrupted while waiting for rows", e);
+            }
+            if (value == END) {
+                running--;
+            } else if (value instanceof Throwable) {
+                close();
+                Throwable cause = value instanceof CompletionException ? ((Throwable) value).getCause() : (Throwable) value;
+                if (cause instanceof SQLException) throw new UncheckedSQLException(failure, (SQLException) cause);
+                throw new IllegalStateException(failure, cause);
+            } else {
+                @SuppressWarnings("unchecked")
+                List<T> rows = (List<T>) value;
+                chunk = rows;
+                position = 0;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        return chunk.get(position++);
+    }
+}
@@ -0,0 +1,109 @@
+package de.eldoria.databasesamples.timeout;
+
+import de.eldoria.databasesamples.util.SqlFunction;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A point in time until which database work has to be completed.
+ * <p>
+ * A deadline is bound to the current thread while a function is applied with {@link #apply(SqlFunction, Object)}.
+ * Statements which are executed through a {@link TimeoutDataSource} on that thread get the remaining time as query
+ * timeout and are cancelled once the deadline passed. A nested deadline never extends the deadline of the caller.
+ */
+public final class Deadline {
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+    private final long deadlineNanos;
+
+    private Deadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * Create a deadline which passes after the timeout.
+     *
+     * @param timeout time until the deadline passes
+     * @param unit    unit of the timeout
+     * @return new deadline
+     */
+    public static Deadline after(long timeout, TimeUnit unit) {
+        return new Deadline(System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    /**
+     * Get the deadline which is bound to the current thread.
+     *
+     * @return deadline of the current thread or null if there is none
+     */
+    public static Deadline current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Apply a function with this deadline bound to the current thread.
+     *
+     * @param function function to apply
+     * @param value    input of the function
+     * @param <T>      type of the input
+     * @param <R>      type of the result
+     * @return result of the function
+     * @throws SQLTimeoutException if the deadline passed before the function was applied
+     * @throws SQLException        if the function failed
+     */
+    public <T, R> R apply(SqlFunction<T, R> function, T value) throws SQLException {
+        Deadline previous = CURRENT.get();
+        Deadline effective = earliest(previous);
+        effective.check();
+        CURRENT.set(effective);
+        try {
+            return function.apply(value);
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Get the earlier of this and another deadline.
+     *
+     * @param other other deadline or null
+     * @return the deadline which passes first
+     */
+    public Deadline earliest(Deadline other) {
+        return other == null || deadlineNanos - other.deadlineNanos < 0 ? this : other;
+    }
+
+    /**
+     * Get the remaining time until the deadline passes.
+     *
+     * @param unit unit of the remaining time
+     * @return remaining time. Zero or negative if the deadline passed.
+     */
+    public long remaining(TimeUnit unit) {
+        return unit.convert(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Checks whether the deadline passed.
+     *
+     * @return true if the deadline passed
+     */
+    public boolean isExpired() {
+        return deadlineNanos - System.nanoTime() <= 0;
+    }
+
+    /**
+     * Fail if the deadline passed.
+     *
+     * @throws SQLTimeoutException if the deadline passed
+     */
+    public void check() throws SQLTimeoutException {
+        if (isExpired()) throw new SQLTimeoutException("Deadline exceeded");
+    }
+}
@@ -0,0 +1,299 @@
+package de.eldoria.databasesamples.timeout;
+
+import de.eldoria.databasesamples.util.DelegatingDataSource;
+import de.eldoria.databasesamples.util.Proxies;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Applies query timeouts and {@link Deadline deadlines} to all statements of a source.
+ * <p>
+ * Every statement gets the default query timeout when it is created. A statement which is executed while a deadline is
+ * bound to the thread gets the remaining time as query timeout instead, rounded up to full seconds. Since the driver
+ * timeouts are not precise, the statement is also cancelled with {@link Statement#cancel()} once the deadline passed.
+ * The drivers cancel a running query on the server, like {@code pg_cancel_backend} or {@code KILL QUERY} do. The
+ * execution then fails with a {@link SQLTimeoutException}.
+ * <p>
+ * A connection with a cancelled statement is evicted once it is closed. A late cancel request can not hit the next
+ * statement on this connection that way. If a statement does not return within the grace period after it was
+ * cancelled, the connection is evicted at once, which aborts the statement.
+ */
+public class TimeoutDataSource extends DelegatingDataSource implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(TimeoutDataSource.class);
+    private static final AtomicInteger THREAD_ID = new AtomicInteger();
+
+    private volatile int queryTimeoutSeconds;
+    private volatile long graceNanos;
+    private final Evictor evictor;
+    private final ScheduledThreadPoolExecutor canceller;
+    private final LongAdder cancelled = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+
+    /**
+     * Create a new timeout source.
+     *
+     * @param delegate     source to apply the timeouts to
+     * @param queryTimeout default query timeout. 0 to disable it.
+     * @param cancelGrace  time a cancelled statement gets to return before its connection is evicted
+     * @param unit         unit of the query timeout and the grace period
+     * @param evictor      removes a connection from the pool
+     */
+    public TimeoutDataSource(DataSource delegate, long queryTimeout, long cancelGrace, TimeUnit unit,
+                             Evictor evictor) {
+        super(delegate);
+        setQueryTimeout(queryTimeout, unit);
+        setCancelGrace(cancelGrace, unit);
+        this.evictor = evictor;
+        this.canceller = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "statement-canceller-" + THREAD_ID.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        canceller.setRemoveOnCancelPolicy(true);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return wrap(super.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return wrap(super.getConnection(username, password));
+    }
+
+    /**
+     * Change the default query timeout. Applies to statements which are created afterwards.
+     *
+     * @param queryTimeout default query timeout. 0 to disable it.
+     * @param unit         unit of the query timeout
+     */
+    public void setQueryTimeout(long queryTimeout, TimeUnit unit) {
+        this.queryTimeoutSeconds = queryTimeout > 0 ? seconds(unit.toNanos(queryTimeout)) : 0;
+    }
+
+    /**
+     * Change the time a cancelled statement gets to return before its connection is evicted.
+     *
+     * @param cancelGrace grace period
+     * @param unit        unit of the grace period
+     */
+    public void setCancelGrace(long cancelGrace, TimeUnit unit) {
+        this.graceNanos = unit.toNanos(cancelGrace);
+    }
+
+    /**
+     * Amount of statements which were cancelled at their deadline.
+     *
+     * @return cancelled statements
+     */
+    public long cancelled() {
+        return cancelled.sum();
+    }
+
+    /**
+     * Amount of connections which were evicted after a cancelled statement.
+     *
+     * @return evicted connections
+     */
+    public long evicted() {
+        return evicted.sum();
+    }
+
+    @Override
+    public void close() {
+        canceller.shutdownNow();
+    }
+
+    private Connection wrap(Connection conn) throws SQLException {
+        Deadline deadline = Deadline.current();
+        if (deadline != null && deadline.isExpired()) {
+            conn.close();
+            throw new SQLTimeoutException("Deadline exceeded while waiting for a connection");
+        }
+        return Proxies.create(Connection.class, new Lease(conn));
+    }
+
+    private static int seconds(long nanos) {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(1, (nanos + 999_999_999L) / 1_000_000_000L));
+    }
+
+    /**
+     * Removes a connection from its pool.
+     */
+    @FunctionalInterface
+    public interface Evictor {
+        /**
+         * Evict the connection. The connection is closed by the caller afterwards.
+         *
+         * @param connection connection which was handed out by the pool
+         * @throws SQLException if the connection could not be evicted
+         */
+        void evict(Connection connection) throws SQLException;
+    }
+
+    /**
+     * A connection which is evicted on close if one of its statements was cancelled.
+     */
+    private final class Lease implements InvocationHandler {
+        private final Connection conn;
+        private volatile boolean cancelled;
+        private boolean evicted;
+
+        private Lease(Connection conn) {
+            this.conn = conn;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Timeout[" + conn + "]";
+                case "close":
+                    if (cancelled) {
+                        evict();
+                        try {
+                            conn.close();
+                        } catch (SQLException e) {
+                            log.debug("Evicted connection failed to close.", e);
+                        }
+                        return null;
+                    }
+                    return Proxies.invoke(conn, method, args);
+                default:
+                    break;
+            }
+            Object result = Proxies.invoke(conn, method, args);
+            if (result instanceof Statement) {
+                Statement stmt = (Statement) result;
+                int timeout = queryTimeoutSeconds;
+                if (timeout > 0) stmt.setQueryTimeout(timeout);
+                return wrap(stmt, (Connection) proxy);
+            }
+            return result;
+        }
+
+        private synchronized void evict() {
+            if (evicted) return;
+            evicted = true;
+            TimeoutDataSource.this.evicted.increment();
+            try {
+                evictor.evict(conn);
+            } catch (SQLException | RuntimeException e) {
+                log.warn("Could not evict connection {}.", conn, e);
+            }
+        }
+
+        private Statement wrap(Statement stmt, Connection proxy) {
+            InvocationHandler handler = (stmtProxy, method, args) -> {
+                String name = method.getName();
+                switch (name) {
+                    case "equals":
+                        return stmtProxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(stmtProxy);
+                    case "getConnection":
+                        return proxy;
+                    default:
+                        break;
+                }
+                Deadline deadline;
+                if (!name.startsWith("execute") || (deadline = Deadline.current()) == null) {
+                    return Proxies.invoke(stmt, method, args);
+                }
+                return execute(stmt, method, args, deadline);
+            };
+            if (stmt instanceof CallableStatement) return Proxies.create(CallableStatement.class, handler);
+            if (stmt instanceof PreparedStatement) return Proxies.create(PreparedStatement.class, handler);
+            return Proxies.create(Statement.class, handler);
+        }
+
+        private Object execute(Statement stmt, Method method, Object[] args, Deadline deadline) throws Throwable {
+            long remaining = deadline.remaining(TimeUnit.NANOSECONDS);
+            if (remaining <= 0) throw new SQLTimeoutException("Deadline exceeded before the statement was executed");
+            int seconds = seconds(remaining);
+            int timeout = queryTimeoutSeconds;
+            stmt.setQueryTimeout(timeout > 0 ? Math.min(seconds, timeout) : seconds);
+            Watchdog watchdog = new Watchdog(stmt, this);
+            watchdog.schedule(remaining);
+            try {
+                return Proxies.invoke(stmt, method, args);
+            } catch (SQLException e) {
+                if (watchdog.fired) {
+                    throw new SQLTimeoutException("Statement was cancelled at its deadline", e.getSQLState(),
+                            e.getErrorCode(), e);
+                }
+                throw e;
+            } finally {
+                watchdog.done();
+                if (!watchdog.fired) stmt.setQueryTimeout(timeout);
+            }
+        }
+    }
+
+    /**
+     * Cancels a statement at its deadline and evicts its connection if it does not return within the grace period.
+     */
+    private final class Watchdog implements Runnable {
+        private final Statement stmt;
+        private final Lease lease;
+        private volatile boolean done;
+        private volatile boolean fired;
+        private volatile ScheduledFuture<?> task;
+
+        private Watchdog(Statement stmt, Lease lease) {
+            this.stmt = stmt;
+            this.lease = lease;
+        }
+
+        private void schedule(long nanos) {
+            task = canceller.schedule(this, nanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void run() {
+            if (done) return;
+            fired = true;
+            lease.cancelled = true;
+            cancelled.increment();
+            try {
+                stmt.cancel();
+            } catch (SQLException | RuntimeException e) {
+                log.debug("Could not cancel statement.", e);
+            }
+            if (!done) task = canceller.schedule(this::abort, graceNanos, TimeUnit.NANOSECONDS);
+        }
+
+        private void abort() {
+            if (done) return;
+            log.warn("Statement did not return {} ms after it was cancelled. Evicting its connection.",
+                    TimeUnit.NANOSECONDS.toMillis(graceNanos));
+            lease.evict();
+        }
+
+        private void done() {
+            done = true;
+            ScheduledFuture<?> current = task;
+            if (current != null) current.cancel(false);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package de.eldoria.databasesamples.transaction;
+
+import java.sql.Connection;
+
+/**
+ * Isolation level of a transaction.
+ */
+public enum Isolation {
+    /**
+     * Keep the isolation level of the connection.
+     */
+    DEFAULT(-1),
+    READ_UNCOMMITTED(Connection.TRANSACTION_READ_UNCOMMITTED),
+    READ_COMMITTED(Connection.TRANSACTION_READ_COMMITTED),
+    REPEATABLE_READ(Connection.TRANSACTION_REPEATABLE_READ),
+    SERIALIZABLE(Connection.TRANSACTION_SERIALIZABLE);
+
+    private final int level;
+
+    Isolation(int level) {
+        this.level = level;
+    }
+
+    /**
+     * Get the jdbc constant of this level.
+     *
+     * @return level as used by {@link Connection#setTransactionIsolation(int)} or -1 for {@link #DEFAULT}
+     */
+    public int level() {
+        return level;
+    }
+}
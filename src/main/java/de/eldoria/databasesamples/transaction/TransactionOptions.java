@@ -0,0 +1,55 @@
+package de.eldoria.databasesamples.transaction;
+
+import java.util.Objects;
+
+/**
+ * Isolation level and access mode of a transaction.
+ */
+public final class TransactionOptions {
+    /**
+     * Read write transaction with the isolation level of the connection.
+     */
+    public static final TransactionOptions DEFAULT = new TransactionOptions(Isolation.DEFAULT, false);
+
+    /**
+     * Read only transaction with the isolation level of the connection.
+     */
+    public static final TransactionOptions READ_ONLY = new TransactionOptions(Isolation.DEFAULT, true);
+
+    private final Isolation isolation;
+    private final boolean readOnly;
+
+    /**
+     * Create new options.
+     *
+     * @param isolation isolation level of the transaction
+     * @param readOnly  true if the transaction does not write. The database may skip locks and undo logs then.
+     */
+    public TransactionOptions(Isolation isolation, boolean readOnly) {
+        this.isolation = Objects.requireNonNull(isolation);
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * Create options for a read write transaction.
+     *
+     * @param isolation isolation level of the transaction
+     * @return new options
+     */
+    public static TransactionOptions isolation(Isolation isolation) {
+        return new TransactionOptions(isolation, false);
+    }
+
+    public Isolation getIsolation() {
+        return isolation;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    @Override
+    public String toString() {
+        return "TransactionOptions{isolation=" + isolation + ", readOnly=" + readOnly + '}';
+    }
+}
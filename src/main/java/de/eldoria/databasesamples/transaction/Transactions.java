@@ -0,0 +1,186 @@
+package de.eldoria.databasesamples.transaction;
+
+import de.eldoria.databasesamples.dialect.SqlDialect;
+import de.eldoria.databasesamples.util.SqlFunction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.function.Consumer;
+
+/**
+ * Runs blocks of statements in a single transaction.
+ * <p>
+ * With auto commit every statement is its own transaction and the database has to flush its log once per statement.
+ * A transaction block commits all of its statements at once, so a loop of inserts costs a single commit.
+ * <p>
+ * A transaction which is started while another transaction of the same instance is in progress on the current thread
+ * joins the running transaction as a {@link UnitOfWork#savepoint(SqlFunction) savepoint}. It is committed with the
+ * outer transaction and only its own changes are rolled back if it fails.
+ * <p>
+ * The isolation level is mapped to the closest level the {@link SqlDialect} of the database supports. Isolation
+ * level, access mode and auto commit of the connection are restored after the transaction.
+ * <p>
+ * The tables which are written by a committed read write transaction are reported to the write listener, which
+ * invalidates cached query results.
+ */
+public class Transactions {
+    private static final Logger log = LoggerFactory.getLogger(Transactions.class);
+
+    private final DataSource source;
+    private final SqlDialect dialect;
+    private final Consumer<String> onWrite;
+    private final ThreadLocal<UnitOfWork> current = new ThreadLocal<>();
+
+    /**
+     * Create a new instance.
+     *
+     * @param source  source of the connections
+     * @param dialect dialect of the database
+     */
+    public Transactions(DataSource source, SqlDialect dialect) {
+        this(source, dialect, null);
+    }
+
+    /**
+     * Create a new instance.
+     *
+     * @param source  source of the connections
+     * @param dialect dialect of the database
+     * @param onWrite called with every written table after a transaction was committed. Null to not track the
+     *                written tables.
+     */
+    public Transactions(DataSource source, SqlDialect dialect, Consumer<String> onWrite) {
+        this.source = source;
+        this.dialect = dialect;
+        this.onWrite = onWrite;
+    }
+
+    /**
+     * Run a block in a read write transaction with the isolation level of the connection.
+     *
+     * @param block block to run. The transaction is committed once the block returned.
+     * @param <R>   type of the result
+     * @return result of the block
+     * @throws SQLException if the block failed. The transaction is rolled back in this case.
+     */
+    public <R> R inTransaction(SqlFunction<UnitOfWork, R> block) throws SQLException {
+        return inTransaction(TransactionOptions.DEFAULT, block);
+    }
+
+    /**
+     * Run a block in a transaction.
+     * <p>
+     * Joins the transaction which is in progress on the current thread if there is one.
+     *
+     * @param options isolation level and access mode of the transaction
+     * @param block   block to run. The transaction is committed once the block returned.
+     * @param <R>     type of the result
+     * @return result of the block
+     * @throws SQLException          if the block failed. The transaction is rolled back in this case.
+     * @throws IllegalStateException if the running transaction is read only or has another isolation level
+     */
+    public <R> R inTransaction(TransactionOptions options, SqlFunction<UnitOfWork, R> block) throws SQLException {
+        UnitOfWork active = current.get();
+        if (active != null) return join(active, options, block);
+        try (Connection conn = source.getConnection()) {
+            return inTransaction(conn, options, block);
+        }
+    }
+
+    /**
+     * Run a block in a new transaction on a connection. The connection stays open.
+     *
+     * @param conn    connection to use
+     * @param options isolation level and access mode of the transaction
+     * @param block   block to run. The transaction is committed once the block returned.
+     * @param <R>     type of the result
+     * @return result of the block
+     * @throws SQLException if the block failed. The transaction is rolled back in this case.
+     */
+    public <R> R inTransaction(Connection conn, TransactionOptions options, SqlFunction<UnitOfWork, R> block)
+            throws SQLException {
+        Isolation isolation = dialect.isolation(options.getIsolation());
+        int previousIsolation = -1;
+        if (isolation != Isolation.DEFAULT) {
+            int level = conn.getTransactionIsolation();
+            if (level != isolation.level()) {
+                conn.setTransactionIsolation(isolation.level());
+                previousIsolation = level;
+            }
+        }
+        // The access mode can only be changed between transactions.
+        boolean readOnly = options.isReadOnly() && !conn.isReadOnly();
+        if (readOnly) conn.setReadOnly(true);
+        boolean autoCommit = conn.getAutoCommit();
+        if (autoCommit) conn.setAutoCommit(false);
+
+        UnitOfWork previous = current.get();
+        UnitOfWork work = new UnitOfWork(conn, isolation, options.isReadOnly(),
+                onWrite != null && !options.isReadOnly());
+        current.set(work);
+        try {
+            R result = block.apply(work);
+            conn.commit();
+            if (onWrite != null) work.getWrittenTables().forEach(onWrite);
+            return result;
+        } catch (SQLException | RuntimeException e) {
+            try {
+                conn.rollback();
+            } catch (SQLException rollback) {
+                e.addSuppressed(rollback);
+            }
+            throw e;
+        } finally {
+            if (previous == null) {
+                current.remove();
+            } else {
+                current.set(previous);
+            }
+            restore(conn, autoCommit, readOnly, previousIsolation);
+        }
+    }
+
+    /**
+     * Get the transaction which is in progress on the current thread.
+     *
+     * @return running transaction or null if there is none
+     */
+    public UnitOfWork current() {
+        return current.get();
+    }
+
+    public DataSource getSource() {
+        return source;
+    }
+
+    public SqlDialect getDialect() {
+        return dialect;
+    }
+
+    private <R> R join(UnitOfWork active, TransactionOptions options, SqlFunction<UnitOfWork, R> block)
+            throws SQLException {
+        if (active.isReadOnly() && !options.isReadOnly()) {
+            throw new IllegalStateException("Can not write in a read only transaction.");
+        }
+        Isolation isolation = dialect.isolation(options.getIsolation());
+        if (isolation != Isolation.DEFAULT && isolation != active.getIsolation()) {
+            throw new IllegalStateException("Can not change the isolation level of a running transaction from "
+                    + active.getIsolation() + " to " + isolation + ".");
+        }
+        return active.savepoint(block);
+    }
+
+    private static void restore(Connection conn, boolean autoCommit, boolean readOnly, int isolation) {
+        try {
+            if (autoCommit) conn.setAutoCommit(true);
+            if (readOnly) conn.setReadOnly(false);
+            if (isolation != -1) conn.setTransactionIsolation(isolation);
+        } catch (SQLException e) {
+            // The connection is broken. The pool discards it.
+            log.debug("Could not restore the connection state.", e);
+        }
+    }
+}
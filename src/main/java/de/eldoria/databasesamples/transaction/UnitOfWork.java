@@ -0,0 +1,125 @@
+package de.eldoria.databasesamples.transaction;
+
+import de.eldoria.databasesamples.util.SqlFunction;
+import de.eldoria.databasesamples.util.SqlTables;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Savepoint;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * A transaction which is in progress.
+ * <p>
+ * All statements which are executed on the {@link #getConnection() connection} are committed at once when the
+ * transaction block returns. Parts of the work can be undone without losing the rest of the transaction by running
+ * them in a {@link #savepoint(SqlFunction) savepoint}.
+ * <p>
+ * A unit of work is bound to the thread which runs the transaction block and is not thread safe.
+ */
+public final class UnitOfWork {
+    private final Connection connection;
+    private final Isolation isolation;
+    private final boolean readOnly;
+    private final Set<String> written = new LinkedHashSet<>();
+    private int depth;
+
+    UnitOfWork(Connection connection, Isolation isolation, boolean readOnly, boolean trackWrites) {
+        this.connection = trackWrites ? WriteTracker.track(connection, written) : connection;
+        this.isolation = isolation;
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * Run a block in a savepoint of this transaction.
+     * <p>
+     * If the block fails, only the changes of the block are rolled back and the exception is thrown. The transaction
+     * stays usable. Savepoints can be nested.
+     *
+     * @param block block to run
+     * @param <R>   type of the result
+     * @return result of the block
+     * @throws SQLException if the block failed or the savepoint could not be set
+     */
+    public <R> R savepoint(SqlFunction<UnitOfWork, R> block) throws SQLException {
+        Savepoint savepoint = connection.setSavepoint();
+        depth++;
+        try {
+            R result = block.apply(this);
+            release(savepoint);
+            return result;
+        } catch (SQLException | RuntimeException e) {
+            try {
+                connection.rollback(savepoint);
+            } catch (SQLException rollback) {
+                e.addSuppressed(rollback);
+            }
+            throw e;
+        } finally {
+            depth--;
+        }
+    }
+
+    /**
+     * Get the connection of the transaction. The connection must not be closed or committed by the caller.
+     *
+     * @return connection of the transaction
+     */
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Get the isolation level of the transaction.
+     *
+     * @return isolation level or {@link Isolation#DEFAULT} if the level of the connection is used
+     */
+    public Isolation getIsolation() {
+        return isolation;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Mark a table as written by this transaction. Listeners of written tables are notified after the commit.
+     * <p>
+     * Tables of insert, update and delete statements are detected by their sql. Use this for writes which are not
+     * detected, like calls of stored procedures.
+     *
+     * @param table written table
+     */
+    public void written(String table) {
+        written.add(SqlTables.normalize(table));
+    }
+
+    /**
+     * Get the tables which were written by this transaction so far.
+     *
+     * @return written tables
+     */
+    public Set<String> getWrittenTables() {
+        return Collections.unmodifiableSet(written);
+    }
+
+    /**
+     * Get the amount of savepoints which are currently open.
+     *
+     * @return amount of open savepoints
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    private void release(Savepoint savepoint) throws SQLException {
+        try {
+            connection.releaseSavepoint(savepoint);
+        } catch (SQLFeatureNotSupportedException e) {
+            // The savepoint is released with the transaction.
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package de.eldoria.databasesamples.transaction;
+
+import de.eldoria.databasesamples.util.Proxies;
+import de.eldoria.databasesamples.util.SqlTables;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Records the tables which are written through the connection of a transaction.
+ * <p>
+ * Statements are classified by their sql when they are prepared or executed. Every statement which is no
+ * {@code SELECT} marks the first table it references as written. A prepared statement counts as a write even if it
+ * is never executed, which only invalidates a cached result more often than necessary.
+ */
+final class WriteTracker implements InvocationHandler {
+    private final Object target;
+    private final Set<String> written;
+
+    private WriteTracker(Object target, Set<String> written) {
+        this.target = target;
+        this.written = written;
+    }
+
+    /**
+     * Wrap a connection which adds the written tables to a set.
+     *
+     * @param conn    connection of the transaction
+     * @param written set of the written tables
+     * @return tracking connection
+     */
+    static Connection track(Connection conn, Set<String> written) {
+        return Proxies.create(Connection.class, new WriteTracker(conn, written));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        Object result = Proxies.invoke(target, method, args);
+        String name = method.getName();
+        if (target instanceof Connection) {
+            if (name.equals("createStatement")) {
+                return Proxies.create(Statement.class, new WriteTracker(result, written));
+            }
+            if (name.startsWith("prepare")) record(args[0]);
+        } else if (name.startsWith("execute") || name.equals("addBatch")) {
+            if (args != null && args.length > 0) record(args[0]);
+        }
+        return result;
+    }
+
+    private void record(Object sql) {
+        if (!(sql instanceof String)) return;
+        String statement = ((String) sql).trim();
+        if (statement.toLowerCase(Locale.ROOT).startsWith("select")) return;
+        String table = SqlTables.writtenTable(statement);
+        if (table != null) written.add(table);
+    }
+}
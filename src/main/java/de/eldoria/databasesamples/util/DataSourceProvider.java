@@ -1,48 +1,1219 @@
 package de.eldoria.databasesamples.util;
 
+import com.zaxxer.hikari.HikariConfig;
+import de.eldoria.databasesamples.async.AsyncQueryExecutor;
+import de.eldoria.databasesamples.batch.BatchWriter;
+import de.eldoria.databasesamples.batch.BulkLoad;
+import de.eldoria.databasesamples.batch.WriteBehindStore;
+import de.eldoria.databasesamples.cache.QueryCache;
+import de.eldoria.databasesamples.cache.StatementCachingDataSource;
+import de.eldoria.databasesamples.config.ConfigWatcher;
+import de.eldoria.databasesamples.config.DatabaseType;
 import de.eldoria.databasesamples.config.DbConfig;
+import de.eldoria.databasesamples.dialect.MultiRowInsert;
+import de.eldoria.databasesamples.dialect.SqlDialect;
+import de.eldoria.databasesamples.metrics.DatabaseMetrics;
+import de.eldoria.databasesamples.metrics.InstrumentedDataSource;
+import de.eldoria.databasesamples.outbox.Journal;
+import de.eldoria.databasesamples.outbox.Outbox;
+import de.eldoria.databasesamples.pipeline.Pipeline;
+import de.eldoria.databasesamples.pool.AdaptivePoolSizer;
+import de.eldoria.databasesamples.pool.ManagedPool;
+import de.eldoria.databasesamples.pool.PoolBackend;
+import de.eldoria.databasesamples.pool.PoolBackends;
+import de.eldoria.databasesamples.resilience.AdmissionQueue;
+import de.eldoria.databasesamples.resilience.CircuitBreaker;
+import de.eldoria.databasesamples.resilience.ResilientDataSource;
+import de.eldoria.databasesamples.retry.RetryBudget;
+import de.eldoria.databasesamples.retry.RetryPolicy;
+import de.eldoria.databasesamples.retry.TransactionRunner;
+import de.eldoria.databasesamples.stream.ColumnBatch;
+import de.eldoria.databasesamples.stream.ColumnarMapper;
+import de.eldoria.databasesamples.stream.ParallelScan;
+import de.eldoria.databasesamples.stream.QueryStream;
+import de.eldoria.databasesamples.timeout.Deadline;
+import de.eldoria.databasesamples.timeout.TimeoutDataSource;
+import de.eldoria.databasesamples.transaction.TransactionOptions;
+import de.eldoria.databasesamples.transaction.Transactions;
+import de.eldoria.databasesamples.transaction.UnitOfWork;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 public abstract class DataSourceProvider<T extends DataSource> {
-    private final T source;
-    private final DbConfig.DBSettings config;
+    private static final Logger log = LoggerFactory.getLogger(DataSourceProvider.class);
+    private static final AtomicInteger PROVIDER_ID = new AtomicInteger();
+    private static final AtomicInteger THREAD_ID = new AtomicInteger();
+    private static final long WARM_UP_TIMEOUT = 30 * 1000;
+    private static final long DRAIN_POLL_INTERVAL = 50;
+    private final DatabaseType type;
+    private final DataSource view = new PoolDataSource();
+    private final CompletableFuture<Void> ready = new CompletableFuture<>();
+    private final Object startLock = new Object();
+    private final Object reloadLock = new Object();
+    private volatile Pool pool;
+    private final Set<Pool> draining = ConcurrentHashMap.newKeySet();
+    private boolean closed;
+    private int generation;
+    private volatile DbConfig.DBSettings config;
+    private final DatabaseMetrics metrics;
+    private final Deque<AutoCloseable> attached = new ConcurrentLinkedDeque<>();
+    private final List<Consumer<String>> writeListeners = new CopyOnWriteArrayList<>();
+    private volatile AsyncQueryExecutor async;
+    private volatile Outbox outbox;
+    private volatile ResilientDataSource resilient;
+    private volatile TransactionRunner runner;
+    private final Transactions transactions;
 
+    /**
+     * Create a provider of a {@link DatabaseType#MARIADB} database.
+     *
+     * @param config settings of the database
+     * @throws SQLException if the pool could not be started
+     * @deprecated pass the type of the database with {@link #DataSourceProvider(DatabaseType, DbConfig.DBSettings)}.
+     * The type selects the sql dialect, the replica lag probe and the name of the metrics.
+     */
+    @Deprecated
     public DataSourceProvider(DbConfig.DBSettings config) throws SQLException {
+        this(DatabaseType.MARIADB, config);
+    }
+
+    public DataSourceProvider(DatabaseType type, DbConfig.DBSettings config) throws SQLException {
+        this.type = type;
         this.config = config;
-        this.source = initSource();
-        testConnection(source);
+        this.transactions = new Transactions(view, getDialect(), this::tableWritten);
+        this.metrics = attach(new DatabaseMetrics(type.name().toLowerCase(Locale.ROOT) + "-" + config.getDatabase()
+                + "-" + PROVIDER_ID.incrementAndGet(), config.getMetrics()));
+        if (config.getMetrics().isJmx()) metrics.registerMBean();
+        DbConfig.Startup startup = config.getStartup();
+        if (startup.getMode() == DbConfig.Startup.Mode.LAZY) return;
+        try {
+            this.pool = start();
+        } catch (SQLException | RuntimeException e) {
+            shutdown();
+            throw e;
+        }
+        if (startup.getMode() == DbConfig.Startup.Mode.WARM) {
+            warmUp(view, startup.getHotStatements()).whenComplete((result, err) -> {
+                if (err == null) {
+                    ready.complete(null);
+                } else {
+                    ready.completeExceptionally(err);
+                }
+            });
+        } else {
+            ready.complete(null);
+        }
+    }
+
+    /**
+     * Applies the pool settings of the config and wires the pool metrics into a HikariCP config.
+     *
+     * @param config config of the pool
+     * @return the same config
+     */
+    protected HikariConfig configurePool(HikariConfig config) {
+        // A replaced pool is still registered under its name while it drains.
+        config.setPoolName(generation <= 1 ? metrics.getName() : metrics.getName() + "-" + generation);
+        config.setMaximumPoolSize(this.config.getMaxConnections());
+        config.setMinimumIdle(Math.max(0, Math.min(this.config.getMinConnections(), this.config.getMaxConnections())));
+        config.setConnectionTimeout(this.config.getTimeouts().getConnectionTimeoutMillis());
+        config.setMetricsTrackerFactory(metrics);
+        config.setRegisterMbeans(this.config.getMetrics().isJmx());
+        return config;
+    }
+
+    /**
+     * Applies the configured decorators to the source.
+     * <p>
+     * Decorators which are {@link AutoCloseable} are closed together with the pool.
+     *
+     * @param source source created by {@link #initSource()}
+     * @return the source which is handed out by {@link #getSource()}
+     */
+    protected DataSource decorate(T source) {
+        DataSource decorated = source;
+        int statementCache = config.getStatementCache().getConnectionCacheSize();
+        if (statementCache > 0) {
+            decorated = new StatementCachingDataSource(decorated, statementCache, conn -> evict(source, conn));
+        }
+        DbConfig.Timeouts timeouts = config.getTimeouts();
+        if (enforcesTimeouts(timeouts)) {
+            decorated = new TimeoutDataSource(decorated, timeouts.getQueryTimeoutMillis(),
+                    timeouts.getCancelGraceMillis(), TimeUnit.MILLISECONDS, conn -> evict(source, conn));
+        }
+        // The adaptive pool size needs the borrow times of the connections.
+        if (config.getMetrics().isQueries() || config.isAdaptivePoolSize()) {
+            decorated = new InstrumentedDataSource(decorated, metrics, config.getMetrics().isQueries());
+        }
+        return decorated;
+    }
+
+    /**
+     * Checks whether the connections have to be wrapped to apply the query timeout or the deadlines of the callers.
+     *
+     * @param timeouts timeout settings
+     * @return true if a query timeout is set or deadlines are enabled
+     */
+    private static boolean enforcesTimeouts(DbConfig.Timeouts timeouts) {
+        return timeouts.getQueryTimeoutMillis() > 0 || timeouts.isDeadlines();
     }
 
-    protected abstract T initSource();
+    protected abstract T initSource() throws SQLException;
+
+    /**
+     * Creates a pool with the {@link PoolBackend} which is selected by {@link DbConfig.DBSettings#getPoolBackend()}.
+     *
+     * @param config settings of the pool and the driver. Filled by {@link #configurePool(HikariConfig)}.
+     * @return started pool
+     * @throws SQLException if the pool could not be started
+     */
+    protected ManagedPool createPool(HikariConfig config) throws SQLException {
+        return PoolBackends.forName(this.config.getPoolBackend()).create(config);
+    }
+
+    /**
+     * Get a future which is completed once the provider is ready to serve queries.
+     * <p>
+     * In {@link DbConfig.Startup.Mode#EAGER} mode the future is already completed. In {@link DbConfig.Startup.Mode#WARM}
+     * mode it is completed once the min connections are open and the hot statements are prepared. In
+     * {@link DbConfig.Startup.Mode#LAZY} mode it is completed once the pool was created by the first connection request.
+     * The future is completed exceptionally if the warm up failed or the provider was shut down before it was ready.
+     *
+     * @return readiness future
+     */
+    public CompletableFuture<Void> ready() {
+        return ready;
+    }
 
     /**
      * Close the data pool and all underlying connections.
+     * <p>
+     * Attached resources are closed before the pool in reverse order of attachment. Replaced pools which are still
+     * draining are closed as well.
      */
     public final void shutdown() {
-        close(source);
+        synchronized (startLock) {
+            closed = true;
+        }
+        ready.completeExceptionally(new IllegalStateException("Provider was shut down"));
+        AutoCloseable closeable;
+        while ((closeable = attached.pollLast()) != null) {
+            try {
+                closeable.close();
+            } catch (Exception e) {
+                log.warn("Could not close attached resource {}.", closeable, e);
+            }
+        }
+        Pool current = pool;
+        if (current != null) current.close();
+        for (Pool old : draining) {
+            if (draining.remove(old)) old.close();
+        }
+    }
+
+    /**
+     * Apply new settings to the running provider without dropping requests.
+     * <p>
+     * The pool size, the connection timeout, the query timeout and the cancel grace period are applied to the running
+     * pool. A change of the address, the credentials or any other setting which is fixed once a connection is open
+     * starts a new pool with the new settings instead. The new pool is validated and warmed up with the hot statements
+     * before {@link #getSource()} switches to it. The old pool is closed once all of its connections were returned or
+     * the drain timeout passed. If the new pool can not be started, the old pool and settings stay active.
+     * <p>
+     * Components which are created on first use, like the {@link #async()} executor, the {@link #outbox()} or the
+     * {@link #resilient()} source, keep the settings they were created with. A lazy provider which was not started yet
+     * just uses the new settings once it starts.
+     *
+     * @param settings new settings of this provider. The settings must not be changed afterwards.
+     * @return true if a new pool was started
+     * @throws SQLException if the provider was shut down or the new pool could not be started
+     */
+    public boolean reload(DbConfig.DBSettings settings) throws SQLException {
+        // Reloads run one at a time. The start lock is only held to check and swap the pool, so the warm up of a new
+        // pool does not block shutdown or the lazy start.
+        synchronized (reloadLock) {
+            DbConfig.DBSettings previous;
+            Pool current;
+            synchronized (startLock) {
+                if (closed) throw new SQLException("Provider was shut down");
+                previous = config;
+                current = pool;
+                if (current == null) {
+                    config = settings;
+                    return false;
+                }
+                if (!requiresNewPool(previous, settings) && applyLive(current.source, settings)) {
+                    config = settings;
+                    TimeoutDataSource timeouts = current.timeouts();
+                    if (timeouts != null) {
+                        timeouts.setQueryTimeout(settings.getTimeouts().getQueryTimeoutMillis(),
+                                TimeUnit.MILLISECONDS);
+                        timeouts.setCancelGrace(settings.getTimeouts().getCancelGraceMillis(), TimeUnit.MILLISECONDS);
+                    }
+                    log.info("Applied new settings to pool {}.", metrics.getName());
+                    return false;
+                }
+                config = settings;
+            }
+            Pool next = null;
+            try {
+                next = start();
+                warmUp(next.decorated, settings.getStartup().getHotStatements())
+                        .get(WARM_UP_TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (SQLException | RuntimeException | ExecutionException | TimeoutException e) {
+                config = previous;
+                if (next != null) next.close();
+                Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+                if (cause instanceof SQLException) throw (SQLException) cause;
+                throw new SQLException("Could not start the new pool of " + metrics.getName(), cause);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                config = previous;
+                if (next != null) next.close();
+                throw new SQLException("Interrupted while starting the new pool of " + metrics.getName(), e);
+            }
+            synchronized (startLock) {
+                if (closed) {
+                    // The provider was shut down during the warm up and already closed the old pool.
+                    next.close();
+                    throw new SQLException("Provider was shut down");
+                }
+                pool = next;
+                drain(current, settings.getTimeouts().getDrainTimeoutMillis());
+            }
+            log.info("Switched {} to a new pool. Draining the old pool.", metrics.getName());
+            return true;
+        }
+    }
+
+    /**
+     * Reload this provider whenever the config file of the watcher changed.
+     * <p>
+     * The settings of the database type of this provider are applied with {@link #reload(DbConfig.DBSettings)}. A
+     * failed reload is logged and the previous settings stay active.
+     *
+     * @param watcher watcher of the config file
+     */
+    public void watch(ConfigWatcher watcher) {
+        watcher.onChange(changed -> {
+            DbConfig.DBSettings settings = changed.getSettings(type);
+            if (settings == null) {
+                log.warn("Changed config has no settings for {}. Keeping the current settings.", type);
+                return;
+            }
+            try {
+                reload(settings);
+            } catch (SQLException e) {
+                log.warn("Could not apply the changed config to {}.", metrics.getName(), e);
+            }
+        });
+    }
+
+    /**
+     * Apply the pool size and the connection timeout of new settings to a running pool.
+     * <p>
+     * Pools of a {@link PoolBackend} are changed through their {@link ManagedPool} interface. Surplus connections are
+     * retired once they are idle and missing connections are opened on demand.
+     *
+     * @param source   source created by {@link #initSource()}
+     * @param settings new settings
+     * @return true if the settings were applied. false if a new pool has to be started instead.
+     */
+    protected boolean applyLive(T source, DbConfig.DBSettings settings) {
+        if (!(source instanceof ManagedPool)) return false;
+        ManagedPool pool = (ManagedPool) source;
+        pool.setMaximumPoolSize(settings.getMaxConnections());
+        pool.setMinimumIdle(Math.max(0, Math.min(settings.getMinConnections(), settings.getMaxConnections())));
+        pool.setConnectionTimeout(settings.getTimeouts().getConnectionTimeoutMillis());
+        return true;
+    }
+
+    /**
+     * Get the amount of connections of a pool which are currently borrowed.
+     *
+     * @param source source created by {@link #initSource()}
+     * @return borrowed connections. 0 if unknown.
+     */
+    protected int activeConnections(T source) {
+        return source instanceof ManagedPool ? ((ManagedPool) source).getActiveConnections() : 0;
+    }
+
+    /**
+     * Attach a resource to this provider. The resource will be closed on {@link #shutdown()}.
+     *
+     * @param closeable resource to attach
+     * @param <C>       type of the resource
+     * @return the attached resource
+     */
+    public <C extends AutoCloseable> C attach(C closeable) {
+        attached.add(closeable);
+        return closeable;
+    }
+
+    /**
+     * Get the async executor of this provider. The executor allows as many tasks in flight as the pool has connections.
+     * <p>
+     * The executor is created on first use and closed on {@link #shutdown()}.
+     *
+     * @return async executor
+     */
+    public AsyncQueryExecutor async() {
+        AsyncQueryExecutor executor = async;
+        if (executor == null) {
+            synchronized (this) {
+                executor = async;
+                if (executor == null) {
+                    executor = attach(new AsyncQueryExecutor(getSource(), config.getMaxConnections()));
+                    async = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Get the outbox of this provider. Writes through the outbox are journaled while the database is not reachable.
+     * <p>
+     * The outbox is created on first use and closed on {@link #shutdown()}. Its journal is kept in a sub directory of
+     * the configured directory per database type and database, so pending writes are replayed after a restart.
+     *
+     * @return outbox
+     * @throws IOException if the journal could not be opened
+     */
+    public Outbox outbox() throws IOException {
+        Outbox current = outbox;
+        if (current == null) {
+            synchronized (this) {
+                current = outbox;
+                if (current == null) {
+                    DbConfig.Outbox settings = config.getOutbox();
+                    Journal journal = new Journal(Paths.get(settings.getDirectory(),
+                            type.name().toLowerCase(Locale.ROOT) + "-" + config.getDatabase()),
+                            settings.getSegmentSize(), settings.isSync());
+                    current = attach(new Outbox(getSource(), async(), journal, settings.getDeadlineMillis(),
+                            settings.getReplayIntervalMillis(), TimeUnit.MILLISECONDS, this::tableWritten));
+                    outbox = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Get the resilient source of this provider. It admits at most as many concurrent connection requests as
+     * configured, serves critical requests first and fails fast while the circuit breaker is open.
+     * <p>
+     * The source is created on first use and shares the pool of {@link #getSource()}. Only requests through the
+     * resilient source are admitted and drive its circuit breaker.
+     *
+     * @return resilient source
+     */
+    public ResilientDataSource resilient() {
+        ResilientDataSource current = resilient;
+        if (current == null) {
+            synchronized (this) {
+                current = resilient;
+                if (current == null) {
+                    DbConfig.Resilience settings = config.getResilience();
+                    int permits = settings.getMaxConcurrent() > 0
+                            ? settings.getMaxConcurrent() : config.getMaxConnections();
+                    AdmissionQueue admission = new AdmissionQueue(permits,
+                            Math.max(0, Math.min(settings.getReservedCritical(), permits - 1)), settings.getMaxQueued());
+                    CircuitBreaker breaker = new CircuitBreaker(metrics.getName(), settings.getWindowSize(),
+                            settings.getMinCalls(), settings.getFailureRateThreshold(),
+                            settings.getSlowCallRateThreshold(), settings.getSlowCallMillis(), settings.getOpenMillis(),
+                            TimeUnit.MILLISECONDS, settings.getHalfOpenCalls());
+                    current = new ResilientDataSource(getSource(), admission, breaker,
+                            settings.getAdmissionTimeoutMillis(), TimeUnit.MILLISECONDS);
+                    resilient = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Get the transaction runner of this provider. It retries idempotent transactions after deadlocks, lock wait
+     * timeouts and failovers with the configured backoff and retry budget.
+     * <p>
+     * The runner is created on first use. Its retries are counted in the {@link #getMetrics() metrics}. Tables which
+     * are written by its transactions are reported to the {@link #onWrite(Consumer) write listeners} after the commit.
+     *
+     * @return transaction runner
+     */
+    public TransactionRunner transactions() {
+        TransactionRunner current = runner;
+        if (current == null) {
+            synchronized (this) {
+                current = runner;
+                if (current == null) {
+                    DbConfig.Retry settings = config.getRetry();
+                    RetryPolicy policy = new RetryPolicy(settings.getMaxAttempts(), settings.getBaseDelayMillis(),
+                            settings.getMaxDelayMillis(), TimeUnit.MILLISECONDS,
+                            new RetryBudget(settings.getBudgetRatio(), settings.getBudgetTokens()));
+                    current = new TransactionRunner(transactions, policy, metrics);
+                    runner = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Run a block in a read write transaction on a connection of this provider.
+     * <p>
+     * All statements of the block are committed at once. A transaction which is started within the block joins the
+     * running transaction as a savepoint. Tables which are written by the transaction are reported to the
+     * {@link #onWrite(Consumer) write listeners} after the commit.
+     *
+     * @param block block to run. The transaction is committed once the block returned.
+     * @param <R>   type of the result
+     * @return result of the block
+     * @throws SQLException if the block failed. The transaction is rolled back in this case.
+     */
+    public <R> R inTransaction(SqlFunction<UnitOfWork, R> block) throws SQLException {
+        return transactions.inTransaction(block);
+    }
+
+    /**
+     * Run a block in a transaction on a connection of this provider.
+     * <p>
+     * All statements of the block are committed at once. A transaction which is started within the block joins the
+     * running transaction as a savepoint. Tables which are written by the transaction are reported to the
+     * {@link #onWrite(Consumer) write listeners} after the commit.
+     *
+     * @param options isolation level and access mode of the transaction. Use {@link TransactionOptions#READ_ONLY} for
+     *                transactions which only read.
+     * @param block   block to run. The transaction is committed once the block returned.
+     * @param <R>     type of the result
+     * @return result of the block
+     * @throws SQLException if the block failed. The transaction is rolled back in this case.
+     */
+    public <R> R inTransaction(TransactionOptions options, SqlFunction<UnitOfWork, R> block) throws SQLException {
+        return transactions.inTransaction(options, block);
+    }
+
+    /**
+     * Apply a function with a connection and a deadline.
+     * <p>
+     * Every statement which is executed within the function gets the remaining time as query timeout and is cancelled
+     * once the deadline passed. The deadline also applies to async calls which are started within the function.
+     * Requires {@link DbConfig.Timeouts#isDeadlines()} or a query timeout.
+     *
+     * @param timeout  time until the deadline passes
+     * @param unit     unit of the timeout
+     * @param function function to apply on the connection
+     * @param <R>      type of the result
+     * @return result of the function
+     * @throws java.sql.SQLTimeoutException if the deadline passed
+     * @throws SQLException                 if the function failed
+     * @throws IllegalStateException        if neither deadlines nor a query timeout are enabled
+     */
+    public <R> R withDeadline(long timeout, TimeUnit unit, SqlFunction<Connection, R> function) throws SQLException {
+        if (!enforcesTimeouts(config.getTimeouts())) {
+            throw new IllegalStateException("Deadlines are disabled for " + metrics.getName());
+        }
+        return Deadline.after(timeout, unit).apply(source -> {
+            try (Connection conn = source.getConnection()) {
+                return function.apply(conn);
+            }
+        }, getSource());
+    }
+
+    /**
+     * Create a pipeline which sends several statements over one connection of this provider.
+     * <p>
+     * The statements are sent at once if the driver supports several statements in one prepared statement.
+     * Otherwise they are executed one after another on the same connection. Tables written by the pipeline are
+     * reported to the {@link #onWrite(Consumer) write listeners}.
+     *
+     * @return new pipeline
+     */
+    public Pipeline pipeline() {
+        return new Pipeline(pipelineSource(), multiStatements(), this::tableWritten);
+    }
+
+    /**
+     * Prepares several statements which are joined with semicolons as one statement for {@link #pipeline()}.
+     *
+     * @return preparer of joined statements or null if the driver does not support them
+     */
+    protected Pipeline.MultiStatements multiStatements() {
+        return null;
+    }
+
+    /**
+     * Source of the connections of {@link #pipeline()}.
+     * <p>
+     * Providers which need other driver options for joined statements may return a separate pool here.
+     *
+     * @return source of pipeline connections
+     */
+    protected DataSource pipelineSource() {
+        return getSource();
+    }
+
+    /**
+     * Create a batch writer with default settings which is flushed on {@link #shutdown()}.
+     *
+     * @param sql    statement which is executed for every row
+     * @param binder binder to bind a row to the statement
+     * @param <R>    type of the written rows
+     * @return new batch writer
+     */
+    public <R> BatchWriter<R> batchWriter(String sql, StatementBinder<R> binder) {
+        return batchWriter(sql, binder, BatchWriter.DEFAULT_BATCH_SIZE, BatchWriter.DEFAULT_FLUSH_INTERVAL,
+                TimeUnit.MILLISECONDS, BatchWriter.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a batch writer which is flushed on {@link #shutdown()}.
+     *
+     * @param sql           statement which is executed for every row
+     * @param binder        binder to bind a row to the statement
+     * @param batchSize     max amount of rows in one batch
+     * @param flushInterval max time a row waits in the buffer
+     * @param unit          unit of the flush interval
+     * @param capacity      max amount of buffered rows
+     * @param <R>           type of the written rows
+     * @return new batch writer
+     */
+    public <R> BatchWriter<R> batchWriter(String sql, StatementBinder<R> binder, int batchSize, long flushInterval,
+                                          TimeUnit unit, int capacity) {
+        return attach(new BatchWriter<>(getSource(), sql, binder, batchSize, flushInterval, unit, capacity, this::tableWritten));
+    }
+
+    /**
+     * Create a write behind store with default settings which is flushed on {@link #shutdown()}.
+     *
+     * @param table      table of the entities
+     * @param columns    columns of a row
+     * @param keyColumns columns of the primary key
+     * @param toRow      maps an entity to its row with one value per column
+     * @param <K>        type of the primary key
+     * @param <V>        type of the entity
+     * @return new write behind store
+     */
+    public <K, V> WriteBehindStore<K, V> writeBehindStore(String table, List<String> columns, List<String> keyColumns,
+                                                          Function<V, Object[]> toRow) {
+        return writeBehindStore(table, columns, keyColumns, toRow, WriteBehindStore.DEFAULT_MAX_DIRTY,
+                WriteBehindStore.DEFAULT_FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Create a write behind store which is flushed on {@link #shutdown()}.
+     *
+     * @param table         table of the entities
+     * @param columns       columns of a row
+     * @param keyColumns    columns of the primary key
+     * @param toRow         maps an entity to its row with one value per column
+     * @param maxDirty      max amount of dirty keys before writers flush themselves
+     * @param flushInterval interval of the periodic flush
+     * @param unit          unit of the flush interval
+     * @param <K>           type of the primary key
+     * @param <V>           type of the entity
+     * @return new write behind store
+     */
+    public <K, V> WriteBehindStore<K, V> writeBehindStore(String table, List<String> columns, List<String> keyColumns,
+                                                          Function<V, Object[]> toRow, int maxDirty,
+                                                          long flushInterval, TimeUnit unit) {
+        return attach(new WriteBehindStore<>(getSource(), getDialect(), table, columns, keyColumns, toRow, maxDirty,
+                flushInterval, unit, this::tableWritten));
+    }
+
+    /**
+     * Create a read through cache for query results of this provider.
+     * <p>
+     * Writes through the write apis and the transactions of this provider invalidate the cached results of the written
+     * table. Other writes have to be reported with {@link #tableWritten(String)}. Close the cache once it is no longer
+     * used, so it is removed from the write listeners of this provider.
+     *
+     * @param maxEntries max amount of cached results
+     * @param maxWeight  max estimated size of all cached results in bytes
+     * @param ttl        time to live of a result
+     * @param unit       unit of the time to live
+     * @return new query cache
+     */
+    public QueryCache queryCache(int maxEntries, long maxWeight, long ttl, TimeUnit unit) {
+        QueryCache cache = new QueryCache(getSource(), maxEntries, maxWeight, ttl, unit);
+        Consumer<String> listener = cache::invalidate;
+        onWrite(listener);
+        return cache.onClose(() -> writeListeners.remove(listener));
+    }
+
+    /**
+     * Register a listener which is called with the table name after a write through the write apis of this provider.
+     *
+     * @param listener listener to register
+     */
+    public void onWrite(Consumer<String> listener) {
+        writeListeners.add(listener);
+    }
+
+    /**
+     * Notify all write listeners that a table was written.
+     * <p>
+     * Call this after writes which do not go through the write apis of this provider.
+     *
+     * @param table written table
+     */
+    public void tableWritten(String table) {
+        if (table == null) return;
+        for (Consumer<String> listener : writeListeners) {
+            listener.accept(table);
+        }
+    }
+
+    /**
+     * Stream the result of a query with the configured fetch size.
+     *
+     * @param sql    query
+     * @param mapper mapper for the rows of the result
+     * @param params parameters which are bound in order
+     * @param <R>    type of the mapped rows
+     * @return lazy stream of the mapped rows. The stream holds a connection until it is closed or exhausted.
+     * @throws SQLException if the query could not be executed
+     * @see #stream(String, int, RowMapper, Object...)
+     */
+    public <R> Stream<R> stream(String sql, RowMapper<R> mapper, Object... params) throws SQLException {
+        return stream(sql, config.getFetchSize(), mapper, params);
+    }
+
+    /**
+     * Stream the result of a query.
+     * <p>
+     * Rows are fetched through a cursor in chunks of the fetch size and mapped while the stream is consumed. The
+     * result is never loaded into memory at once.
+     *
+     * @param sql       query
+     * @param fetchSize amount of rows which are fetched at once
+     * @param mapper    mapper for the rows of the result
+     * @param params    parameters which are bound in order
+     * @param <R>       type of the mapped rows
+     * @return lazy stream of the mapped rows. The stream holds a connection until it is closed or exhausted.
+     * @throws SQLException if the query could not be executed
+     */
+    public <R> Stream<R> stream(String sql, int fetchSize, RowMapper<R> mapper, Object... params) throws SQLException {
+        return QueryStream.open(getSource(), sql, mapper, fetchSize, cursorRequiresTransaction(), params).stream();
+    }
+
+    /**
+     * Read the result of a query into a reusable columnar batch.
+     * <p>
+     * The rows are fetched through a cursor in chunks of the batch capacity. Every chunk is passed to the consumer and
+     * the batch is reused for the next chunk.
+     *
+     * @param sql      query
+     * @param mapper   mapper which declares the read columns
+     * @param batch    batch to read the rows into. Create it with {@link ColumnarMapper#newBatch(int)}.
+     * @param consumer consumer which receives every chunk
+     * @param params   parameters which are bound in order
+     * @return amount of read rows
+     * @throws SQLException if the query could not be executed
+     */
+    public long scanColumnar(String sql, ColumnarMapper mapper, ColumnBatch batch, Consumer<ColumnBatch> consumer,
+                             Object... params) throws SQLException {
+        return mapper.scan(getSource(), sql, batch, cursorRequiresTransaction(), consumer, params);
+    }
+
+    /**
+     * Scan a table in parallel with one range per pool connection.
+     *
+     * @param table     table to scan
+     * @param keyColumn integer or timestamp column, ideally indexed
+     * @param mapper    mapper for the rows
+     * @param <R>       type of the mapped rows
+     * @return unordered stream of all rows
+     * @throws SQLException if the key range could not be read
+     * @see #parallelScan(String, String, int, RowMapper)
+     */
+    public <R> Stream<R> parallelScan(String table, String keyColumn, RowMapper<R> mapper) throws SQLException {
+        return parallelScan(table, keyColumn, config.getMaxConnections(), mapper);
+    }
+
+    /**
+     * Scan a table in parallel.
+     * <p>
+     * The table is split into ranges of equal width between the min and max key. The ranges are read concurrently by
+     * the {@link #async()} executor, so up to one range per pool connection is read at once. The rows are merged into a
+     * single stream. Close the stream to stop reading early.
+     *
+     * @param table      table to scan
+     * @param keyColumn  integer or timestamp column, ideally indexed
+     * @param partitions amount of ranges
+     * @param mapper     mapper for the rows
+     * @param <R>        type of the mapped rows
+     * @return unordered stream of all rows
+     * @throws SQLException if the key range could not be read
+     */
+    public <R> Stream<R> parallelScan(String table, String keyColumn, int partitions, RowMapper<R> mapper)
+            throws SQLException {
+        return ParallelScan.byMinMax(getSource(), table, keyColumn, Collections.emptyList(), partitions,
+                config.getFetchSize(), cursorRequiresTransaction()).stream(async(), mapper);
+    }
+
+    /**
+     * Whether the driver only reads a result through a cursor while auto commit is disabled.
+     *
+     * @return true if streamed queries are executed in a transaction
+     */
+    protected boolean cursorRequiresTransaction() {
+        return false;
+    }
+
+    /**
+     * Stream rows into a table in one transaction.
+     * <p>
+     * Rows are read from the iterator while loading and never held in memory at once.
+     *
+     * @param table   table to load the rows into
+     * @param columns columns of the rows
+     * @param rows    rows to load. Every row needs to have one value per column.
+     * @return amount of loaded rows
+     * @throws SQLException if the rows could not be loaded
+     */
+    public final long bulkLoad(String table, List<String> columns, Iterator<Object[]> rows) throws SQLException {
+        long count = loadRows(table, columns, rows);
+        tableWritten(table);
+        return count;
+    }
+
+    /**
+     * Insert rows with multi row inserts in one transaction.
+     * <p>
+     * The rows are split into statements which stay below the parameter and statement size limits of the database.
+     *
+     * @param table   table to insert the rows into
+     * @param columns columns of the rows
+     * @param rows    rows to insert. Every row needs to have one value per column.
+     * @return amount of inserted rows
+     * @throws SQLException if the rows could not be inserted. No rows are inserted in this case.
+     */
+    public final long insertRows(String table, List<String> columns, Iterator<Object[]> rows) throws SQLException {
+        long count = new MultiRowInsert(getDialect(), table, columns).execute(getSource(), rows);
+        tableWritten(table);
+        return count;
+    }
+
+    /**
+     * Insert rows with multi row upserts in one transaction. Rows with an existing key are updated instead.
+     *
+     * @param table      table to write the rows into
+     * @param columns    columns of the rows
+     * @param keyColumns columns of the unique key which identifies existing rows
+     * @param rows       rows to write. Every row needs to have one value per column.
+     * @return amount of written rows
+     * @throws SQLException if the rows could not be written. No rows are written in this case.
+     */
+    public final long upsertRows(String table, List<String> columns, List<String> keyColumns, Iterator<Object[]> rows)
+            throws SQLException {
+        long count = new MultiRowInsert(getDialect(), table, columns, keyColumns).execute(getSource(), rows);
+        tableWritten(table);
+        return count;
+    }
+
+    /**
+     * Loads rows for {@link #bulkLoad(String, List, Iterator)}.
+     * <p>
+     * Providers override this with the fastest bulk load path of their database.
+     * The default implementation uses batched inserts.
+     *
+     * @param table   table to load the rows into
+     * @param columns columns of the rows
+     * @param rows    rows to load
+     * @return amount of loaded rows
+     * @throws SQLException if the rows could not be loaded
+     */
+    protected long loadRows(String table, List<String> columns, Iterator<Object[]> rows) throws SQLException {
+        return BulkLoad.batched(getSource(), table, columns, rows, BulkLoad.DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Creates the pool, validates a connection and applies the decorators.
+     *
+     * @return started pool
+     * @throws SQLException if the pool could not be created or the connection is not valid
+     */
+    private Pool start() throws SQLException {
+        long begin = System.nanoTime();
+        generation++;
+        T created = initSource();
+        try {
+            if (!testConnection(created)) throw new SQLException("Connection to database is not valid");
+        } catch (SQLException | RuntimeException e) {
+            close(created);
+            throw e;
+        }
+        DataSource decorated = decorate(created);
+        AdaptivePoolSizer sizer = null;
+        if (config.isAdaptivePoolSize() && created instanceof ManagedPool) {
+            sizer = new AdaptivePoolSizer((ManagedPool) created, metrics,
+                    Math.max(1, Math.min(config.getMinConnections(), config.getMaxConnections())),
+                    config.getMaxConnections(), AdaptivePoolSizer.DEFAULT_INTERVAL);
+        }
+        log.debug("Started pool {} in {} ms.", metrics.getName(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+        return new Pool(created, decorated, sizer);
+    }
+
+    /**
+     * Checks whether new settings can only be applied by a new pool.
+     *
+     * @param previous current settings
+     * @param next     new settings
+     * @return true if the settings differ in more than the pool size and the timeouts
+     */
+    private static boolean requiresNewPool(DbConfig.DBSettings previous, DbConfig.DBSettings next) {
+        if (!Objects.equals(previous.getAddress(), next.getAddress())
+                || !Objects.equals(previous.getPort(), next.getPort())
+                || !Objects.equals(previous.getDatabase(), next.getDatabase())
+                || !Objects.equals(previous.getUser(), next.getUser())
+                || !Objects.equals(previous.getPassword(), next.getPassword())
+                || !previous.getPoolBackend().equalsIgnoreCase(next.getPoolBackend())
+                || previous.isMultiQueries() != next.isMultiQueries()) {
+            return true;
+        }
+        // The adaptive sizer keeps the bounds it was started with.
+        if (previous.isAdaptivePoolSize() != next.isAdaptivePoolSize()
+                || next.isAdaptivePoolSize() && (previous.getMinConnections() != next.getMinConnections()
+                || previous.getMaxConnections() != next.getMaxConnections())) {
+            return true;
+        }
+        DbConfig.StatementCache cache = previous.getStatementCache();
+        DbConfig.StatementCache nextCache = next.getStatementCache();
+        if (cache.isServerPrepare() != nextCache.isServerPrepare() || cache.getCacheSize() != nextCache.getCacheSize()
+                || cache.getCacheSqlLimit() != nextCache.getCacheSqlLimit()
+                || cache.getPrepareThreshold() != nextCache.getPrepareThreshold()
+                || cache.getConnectionCacheSize() != nextCache.getConnectionCacheSize()) {
+            return true;
+        }
+        if (previous.getMetrics().isQueries() != next.getMetrics().isQueries()
+                || previous.getMetrics().isJmx() != next.getMetrics().isJmx()
+                || previous.getTimeouts().getSocketTimeoutMillis() != next.getTimeouts().getSocketTimeoutMillis()
+                || enforcesTimeouts(previous.getTimeouts()) != enforcesTimeouts(next.getTimeouts())) {
+            return true;
+        }
+        List<DbConfig.DBSettings> replicas = previous.getReplicas();
+        List<DbConfig.DBSettings> nextReplicas = next.getReplicas();
+        if (replicas.size() != nextReplicas.size() || previous.getMaxReplicaLag() != next.getMaxReplicaLag()) {
+            return true;
+        }
+        for (int i = 0; i < replicas.size(); i++) {
+            if (requiresNewPool(replicas.get(i), nextReplicas.get(i))) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Closes a replaced pool once all of its borrowed connections were returned or the timeout passed.
+     * <p>
+     * Idle connections of the pool are closed right away. Borrowed connections are closed when they are returned.
+     *
+     * @param old     replaced pool
+     * @param timeout drain timeout in milliseconds
+     */
+    private void drain(Pool old, long timeout) {
+        draining.add(old);
+        if (old.source instanceof ManagedPool) ((ManagedPool) old.source).softEvictConnections();
+        Thread thread = new Thread(() -> {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+            try {
+                int active;
+                while ((active = activeConnections(old.source)) > 0) {
+                    if (System.nanoTime() - deadline >= 0) {
+                        log.warn("Closing old pool of {} with {} borrowed connections after the drain timeout.",
+                                metrics.getName(), active);
+                        break;
+                    }
+                    Thread.sleep(DRAIN_POLL_INTERVAL);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (draining.remove(old)) {
+                old.close();
+                log.debug("Closed old pool of {}.", metrics.getName());
+            }
+        }, "pool-drain-" + THREAD_ID.incrementAndGet());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Opens the min connections in parallel and prepares the hot statements on each of them.
+     * <p>
+     * All connections are held until every connection is open. Otherwise the pool would hand out the same connection
+     * again. The statements are closed right away. They stay in the driver cache and in the statement cache of this
+     * provider, if these are enabled.
+     *
+     * @param target     source to warm up
+     * @param statements statements to prepare on every connection
+     * @return future which is completed once all connections are open
+     */
+    private CompletableFuture<Void> warmUp(DataSource target, List<String> statements) {
+        int connections = Math.max(1, Math.min(config.getMinConnections(), config.getMaxConnections()));
+        ExecutorService executor = Executors.newFixedThreadPool(connections, r -> {
+            Thread thread = new Thread(r, "pool-warmup-" + THREAD_ID.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        CountDownLatch opened = new CountDownLatch(connections);
+        CompletableFuture<?>[] tasks = new CompletableFuture<?>[connections];
+        for (int i = 0; i < connections; i++) {
+            tasks[i] = CompletableFuture.runAsync(() -> {
+                try (Connection conn = target.getConnection()) {
+                    for (String sql : statements) {
+                        conn.prepareStatement(sql).close();
+                    }
+                    opened.countDown();
+                    opened.await(WARM_UP_TIMEOUT, TimeUnit.MILLISECONDS);
+                } catch (SQLException e) {
+                    throw new UncheckedSQLException(e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, executor);
+        }
+        long begin = System.nanoTime();
+        CompletableFuture<Void> warmed = new CompletableFuture<>();
+        CompletableFuture.allOf(tasks).whenComplete((result, err) -> {
+            executor.shutdown();
+            if (err == null) {
+                log.debug("Warmed up {} connections of pool {} in {} ms.", connections, metrics.getName(),
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+                warmed.complete(null);
+                return;
+            }
+            Throwable cause = err instanceof CompletionException && err.getCause() != null ? err.getCause() : err;
+            if (cause instanceof UncheckedSQLException) cause = cause.getCause();
+            log.warn("Could not warm up pool {}.", metrics.getName(), cause);
+            warmed.completeExceptionally(cause);
+        });
+        return warmed;
     }
 
     /**
      * Get the stored data Source
+     * <p>
+     * The returned source stays the same when the pool is replaced by {@link #reload(DbConfig.DBSettings)}.
      *
      * @return the stored data source
      */
     public DataSource getSource() {
-        return source;
+        return view;
+    }
+
+    /**
+     * Get the type of the database behind this provider.
+     *
+     * @return database type
+     */
+    public DatabaseType getType() {
+        return type;
+    }
+
+    /**
+     * Get the sql dialect of the database behind this provider.
+     *
+     * @return sql dialect
+     */
+    public SqlDialect getDialect() {
+        return SqlDialect.forType(type);
+    }
+
+    /**
+     * Get the pool and query metrics of this provider.
+     *
+     * @return metrics
+     */
+    public DatabaseMetrics getMetrics() {
+        return metrics;
     }
 
     public DbConfig.DBSettings getConfig() {
         return config;
     }
 
+    /**
+     * Get the source of the current pool. Creates the pool if the provider is started lazily and was not started yet.
+     * <p>
+     * The source changes when {@link #reload(DbConfig.DBSettings)} starts a new pool.
+     *
+     * @return source created by {@link #initSource()}
+     * @throws SQLException if the provider was shut down or the pool could not be started
+     */
+    protected T currentSource() throws SQLException {
+        return current().source;
+    }
+
+    private Pool current() throws SQLException {
+        Pool current = pool;
+        if (current != null) return current;
+        synchronized (startLock) {
+            if (pool == null) {
+                if (closed) throw new SQLException("Provider was shut down");
+                pool = start();
+                ready.complete(null);
+            }
+            return pool;
+        }
+    }
+
     protected abstract void close(T source);
 
+    /**
+     * Closes the decorators which were applied by {@link #decorate(DataSource)} and are {@link AutoCloseable}.
+     * The source itself stays open.
+     *
+     * @param decorated decorated source
+     * @param source    source which was decorated
+     */
+    protected void closeDecorators(DataSource decorated, T source) {
+        for (DataSource current = decorated; current != source && current instanceof DelegatingDataSource;
+             current = ((DelegatingDataSource) current).getDelegate()) {
+            if (!(current instanceof AutoCloseable)) continue;
+            try {
+                ((AutoCloseable) current).close();
+            } catch (Exception e) {
+                log.warn("Could not close decorator {}.", current, e);
+            }
+        }
+    }
+
+    /**
+     * Remove a connection from the pool, because a statement on it was cancelled or did not return.
+     * <p>
+     * The physical connection is aborted, so a statement which is still running fails and the connection is dropped
+     * by the pool once it is returned. Pools of a {@link PoolBackend} are told to evict the connection as well.
+     *
+     * @param source     source created by {@link #initSource()}
+     * @param connection connection which was handed out by the decorated source
+     * @throws SQLException if the connection could not be aborted
+     */
+    protected void evict(T source, Connection connection) throws SQLException {
+        connection.unwrap(Connection.class).abort(Runnable::run);
+        if (source instanceof ManagedPool) ((ManagedPool) source).evictConnection(connection);
+    }
+
     protected boolean testConnection(DataSource source) throws SQLException {
         try (Connection conn = source.getConnection()) {
             return conn.isValid(5 * 1000);
         }
     }
+
+    /**
+     * A started pool with its decorators.
+     */
+    private final class Pool {
+        private final T source;
+        private final DataSource decorated;
+        private final AdaptivePoolSizer sizer;
+
+        private Pool(T source, DataSource decorated, AdaptivePoolSizer sizer) {
+            this.source = source;
+            this.decorated = decorated;
+            this.sizer = sizer;
+        }
+
+        private TimeoutDataSource timeouts() {
+            for (DataSource current = decorated; current instanceof DelegatingDataSource;
+                 current = ((DelegatingDataSource) current).getDelegate()) {
+                if (current instanceof TimeoutDataSource) return (TimeoutDataSource) current;
+            }
+            return null;
+        }
+
+        /**
+         * Closes the sizer, the closeable decorators and the pool.
+         */
+        private void close() {
+            if (sizer != null) sizer.close();
+            closeDecorators(decorated, source);
+            DataSourceProvider.this.close(source);
+        }
+    }
+
+    /**
+     * Delegates to the current pool. Creates the pool on the first request if the provider is started lazily.
+     */
+    private final class PoolDataSource implements DataSource {
+        private DataSource target() throws SQLException {
+            return current().decorated;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            return target().getConnection();
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            return target().getConnection(username, password);
+        }
+
+        @Override
+        public PrintWriter getLogWriter() throws SQLException {
+            return target().getLogWriter();
+        }
+
+        @Override
+        public void setLogWriter(PrintWriter out) throws SQLException {
+            target().setLogWriter(out);
+        }
+
+        @Override
+        public void setLoginTimeout(int seconds) throws SQLException {
+            target().setLoginTimeout(seconds);
+        }
+
+        @Override
+        public int getLoginTimeout() throws SQLException {
+            return target().getLoginTimeout();
+        }
+
+        @Override
+        public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            throw new SQLFeatureNotSupportedException();
+        }
+
+        @Override
+        public <W> W unwrap(Class<W> iface) throws SQLException {
+            if (iface.isInstance(this)) return iface.cast(this);
+            return target().unwrap(iface);
+        }
+
+        @Override
+        public boolean isWrapperFor(Class<?> iface) throws SQLException {
+            return iface.isInstance(this) || target().isWrapperFor(iface);
+        }
+    }
 }
@@ -3,9 +3,15 @@ package de.eldoria.databasesamples.util;
 import de.eldoria.databasesamples.config.DbConfig;
 
 import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientConnectionException;
 import java.util.Properties;
+import java.util.regex.Pattern;
 
 public final class DbUtil {
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_$]*(\\.[A-Za-z_][A-Za-z0-9_$]*)?");
+
     private DbUtil() {
     }
 
@@ -22,4 +28,33 @@ public final class DbUtil {
         props.setProperty("dataSource.password", settings.getPassword());
         props.setProperty("dataSource.databaseName", settings.getDatabase());
     }
+
+    /**
+     * Checks that the name is a plain, optionally schema qualified identifier which can be safely placed into a query.
+     *
+     * @param name name of a table or column
+     * @return the name
+     * @throws IllegalArgumentException if the name is not a plain identifier
+     */
+    public static String requireIdentifier(String name) {
+        if (name == null || !IDENTIFIER.matcher(name).matches()) {
+            throw new IllegalArgumentException("Invalid identifier: " + name);
+        }
+        return name;
+    }
+
+    /**
+     * Checks whether an exception indicates a lost or unavailable connection.
+     *
+     * @param e exception of a database call
+     * @return true if the database was not reachable
+     */
+    public static boolean isConnectionFailure(SQLException e) {
+        if (e instanceof SQLTransientConnectionException || e instanceof SQLNonTransientConnectionException
+                || e instanceof SQLRecoverableException) {
+            return true;
+        }
+        String state = e.getSQLState();
+        return state != null && state.startsWith("08");
+    }
 }
@@ -0,0 +1,43 @@
+package de.eldoria.databasesamples.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Helper to decorate jdbc interfaces with dynamic proxies.
+ */
+public final class Proxies {
+    private Proxies() {
+    }
+
+    /**
+     * Create a proxy for an interface.
+     *
+     * @param iface   interface to implement
+     * @param handler handler of the calls
+     * @param <T>     type of the interface
+     * @return new proxy
+     */
+    public static <T> T create(Class<T> iface, InvocationHandler handler) {
+        return iface.cast(Proxy.newProxyInstance(iface.getClassLoader(), new Class<?>[]{iface}, handler));
+    }
+
+    /**
+     * Invoke a method on the target and unwrap the exception thrown by the target.
+     *
+     * @param target target of the call
+     * @param method method to invoke
+     * @param args   arguments of the call
+     * @return the result of the call
+     * @throws Throwable the exception thrown by the target
+     */
+    public static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
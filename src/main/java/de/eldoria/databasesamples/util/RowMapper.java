@@ -0,0 +1,21 @@
+package de.eldoria.databasesamples.util;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps the current row of a result set to an object.
+ *
+ * @param <T> type of the mapped object
+ */
+@FunctionalInterface
+public interface RowMapper<T> {
+    /**
+     * Map the current row. Implementations must not move the cursor.
+     *
+     * @param rs result set positioned on the row to map
+     * @return mapped object
+     * @throws SQLException if a column could not be read
+     */
+    T map(ResultSet rs) throws SQLException;
+}
@@ -0,0 +1,21 @@
+package de.eldoria.databasesamples.util;
+
+import java.sql.SQLException;
+
+/**
+ * A function which may throw a {@link SQLException}.
+ *
+ * @param <T> type of the input
+ * @param <R> type of the result
+ */
+@FunctionalInterface
+public interface SqlFunction<T, R> {
+    /**
+     * Apply the function.
+     *
+     * @param value input value
+     * @return result of the function
+     * @throws SQLException if a database access error occurs
+     */
+    R apply(T value) throws SQLException;
+}
@@ -0,0 +1,58 @@
+package de.eldoria.databasesamples.util;
+
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Extracts table names from simple sql statements.
+ * <p>
+ * This is no sql parser. It finds the identifiers after {@code FROM}, {@code JOIN}, {@code INTO}, {@code UPDATE} and
+ * {@code TABLE}. Table names are returned in lower case without quotes.
+ */
+public final class SqlTables {
+    private static final Pattern TABLE = Pattern.compile(
+            "\\b(?:from|join|into|update|table)\\s+(?:if\\s+(?:not\\s+)?exists\\s+)?[`\"]?([A-Za-z_][A-Za-z0-9_$.]*)",
+            Pattern.CASE_INSENSITIVE);
+
+    private SqlTables() {
+    }
+
+    /**
+     * Get all tables which are referenced by the statement.
+     *
+     * @param sql sql statement
+     * @return referenced tables in order of appearance
+     */
+    public static Set<String> referencedTables(String sql) {
+        Set<String> tables = new LinkedHashSet<>();
+        Matcher matcher = TABLE.matcher(sql);
+        while (matcher.find()) {
+            tables.add(normalize(matcher.group(1)));
+        }
+        return tables;
+    }
+
+    /**
+     * Get the table which is written by an insert, update, delete or load statement.
+     *
+     * @param sql sql statement
+     * @return the written table or null if the statement does not write a known table
+     */
+    public static String writtenTable(String sql) {
+        Matcher matcher = TABLE.matcher(sql);
+        return matcher.find() ? normalize(matcher.group(1)) : null;
+    }
+
+    /**
+     * Normalize a table name.
+     *
+     * @param table table name
+     * @return table name in lower case
+     */
+    public static String normalize(String table) {
+        return table.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,21 @@
+package de.eldoria.databasesamples.util;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Binds the values of an object to the parameters of a prepared statement.
+ *
+ * @param <T> type of the bound object
+ */
+@FunctionalInterface
+public interface StatementBinder<T> {
+    /**
+     * Bind the value to the statement.
+     *
+     * @param stmt  statement to bind the value
+     * @param value value to bind
+     * @throws SQLException when a parameter could not be set
+     */
+    void bind(PreparedStatement stmt, T value) throws SQLException;
+}
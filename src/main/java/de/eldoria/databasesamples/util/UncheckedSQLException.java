@@ -0,0 +1,21 @@
+package de.eldoria.databasesamples.util;
+
+import java.sql.SQLException;
+
+/**
+ * Wraps a {@link SQLException} where checked exceptions can not be thrown, e.g. in streams.
+ */
+public class UncheckedSQLException extends RuntimeException {
+    public UncheckedSQLException(SQLException cause) {
+        super(cause);
+    }
+
+    public UncheckedSQLException(String message, SQLException cause) {
+        super(message, cause);
+    }
+
+    @Override
+    public synchronized SQLException getCause() {
+        return (SQLException) super.getCause();
+    }
+}
@@ -0,0 +1,53 @@
+package de.eldoria.databasesamples.async;
+
+import de.eldoria.util.LocalSourceProvider;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class AsyncQueryExecutorTest {
+    @Test
+    public void testInFlightIsCapped() throws SQLException {
+        LocalSourceProvider provider = LocalSourceProvider.create(4);
+        AsyncQueryExecutor executor = provider.async();
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxActive = new AtomicInteger();
+
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            int value = i;
+            futures.add(executor.supply(conn -> {
+                maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+                try (PreparedStatement stmt = conn.prepareStatement("Select ?")) {
+                    stmt.setInt(1, value);
+                    ResultSet resultSet = stmt.executeQuery();
+                    resultSet.next();
+                    return resultSet.getInt(1);
+                } finally {
+                    active.decrementAndGet();
+                }
+            }));
+        }
+
+        for (int i = 0; i < futures.size(); i++) {
+            Assertions.assertEquals(i, futures.get(i).join());
+        }
+        Assertions.assertTrue(maxActive.get() <= 4);
+        provider.shutdown();
+    }
+
+    @Test
+    public void testFailureCompletesExceptionally() throws SQLException {
+        LocalSourceProvider provider = LocalSourceProvider.create(1);
+        CompletableFuture<Boolean> future = provider.async().supply(conn -> conn.prepareStatement("Select from nowhere").execute());
+        Assertions.assertThrows(Exception.class, future::join);
+        provider.shutdown();
+    }
+}
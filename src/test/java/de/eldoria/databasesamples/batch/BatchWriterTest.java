@@ -0,0 +1,113 @@
+package de.eldoria.databasesamples.batch;
+
+import de.eldoria.util.LocalSourceProvider;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static de.eldoria.util.TestUtil.clearDatabase;
+import static de.eldoria.util.TestUtil.prepareDatabase;
+
+class BatchWriterTest {
+    private LocalSourceProvider provider;
+
+    @BeforeEach
+    public void setup() throws SQLException {
+        provider = LocalSourceProvider.create(4);
+        prepareDatabase(provider.getSource(), Logger.getAnonymousLogger());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        clearDatabase(provider.getSource(), Logger.getAnonymousLogger());
+        provider.shutdown();
+    }
+
+    @Test
+    public void testBatchedInsert() throws SQLException {
+        BatchWriter<Integer> writer = provider.batchWriter("Insert into some_table(id, message) VALUES(?, ?)",
+                (stmt, id) -> {
+                    stmt.setInt(1, id);
+                    stmt.setString(2, "message " + id);
+                }, 100, 10, TimeUnit.MILLISECONDS, 200);
+
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            futures.add(writer.submit(i));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        writer.close();
+
+        Assertions.assertEquals(1000, count());
+    }
+
+    @Test
+    public void testFailedBatchCompletesExceptionally() {
+        BatchWriter<Integer> writer = provider.batchWriter("Insert into missing_table(id) VALUES(?)",
+                (stmt, id) -> stmt.setInt(1, id));
+        CompletableFuture<Integer> future = writer.submit(1);
+        Assertions.assertThrows(Exception.class, future::join);
+        writer.close();
+        Assertions.assertTrue(writer.submit(2).isCompletedExceptionally());
+    }
+
+    @Test
+    public void testCloseCompletesConcurrentSubmits() throws Exception {
+        BatchWriter<Integer> writer = provider.batchWriter("Insert into some_table(id, message) VALUES(?, ?)",
+                (stmt, id) -> {
+                    stmt.setInt(1, id);
+                    stmt.setString(2, "message " + id);
+                }, 10, 1, TimeUnit.MILLISECONDS, 20);
+        List<CompletableFuture<Integer>> futures = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> submitters = new ArrayList<>();
+        for (int thread = 0; thread < 4; thread++) {
+            int offset = thread * 10000;
+            Thread submitter = new Thread(() -> {
+                for (int i = 0; i < 500; i++) {
+                    futures.add(writer.submit(offset + i));
+                }
+            });
+            submitter.start();
+            submitters.add(submitter);
+        }
+        Thread.sleep(5);
+        writer.close();
+        for (Thread submitter : submitters) {
+            submitter.join(5000);
+            Assertions.assertFalse(submitter.isAlive());
+        }
+
+        int written = 0;
+        for (CompletableFuture<Integer> future : futures) {
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                written++;
+            } catch (ExecutionException e) {
+                Assertions.assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        }
+        Assertions.assertEquals(written, count());
+    }
+
+    private int count() throws SQLException {
+        try (Connection conn = provider.getSource().getConnection(); PreparedStatement stmt =
+                conn.prepareStatement("Select count(1) from some_table")) {
+            ResultSet resultSet = stmt.executeQuery();
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package de.eldoria.databasesamples.batch;
+
+import de.eldoria.util.LocalSourceProvider;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+import static de.eldoria.util.TestUtil.clearDatabase;
+import static de.eldoria.util.TestUtil.prepareDatabase;
+
+class BulkLoadTest {
+    @Test
+    public void testEncoding() throws IOException {
+        Iterator<Object[]> rows = Arrays.asList(
+                new Object[]{1, "tab\there"},
+                new Object[]{2, null},
+                new Object[]{true, "back\\slash\nline"}).iterator();
+        InputStream in = new DelimitedRowInputStream(rows, 2);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[3];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        Assertions.assertEquals("1\ttab\\there\n2\t\\N\n1\tback\\\\slash\\nline\n",
+                new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testBatchedBulkLoad() throws SQLException {
+        LocalSourceProvider provider = LocalSourceProvider.create(2);
+        prepareDatabase(provider.getSource(), Logger.getAnonymousLogger());
+
+        Iterator<Object[]> rows = IntStream.range(0, 2500).mapToObj(i -> new Object[]{i, "message " + i}).iterator();
+        long loaded = provider.bulkLoad("some_table", Arrays.asList("id", "message"), rows);
+
+        Assertions.assertEquals(2500, loaded);
+        try (Connection conn = provider.getSource().getConnection(); PreparedStatement stmt =
+                conn.prepareStatement("Select count(1) from some_table")) {
+            ResultSet resultSet = stmt.executeQuery();
+            resultSet.next();
+            Assertions.assertEquals(2500, resultSet.getInt(1));
+        }
+
+        clearDatabase(provider.getSource(), Logger.getAnonymousLogger());
+        provider.shutdown();
+    }
+}
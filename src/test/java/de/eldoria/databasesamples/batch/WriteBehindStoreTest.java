@@ -0,0 +1,166 @@
+package de.eldoria.databasesamples.batch;
+
+import de.eldoria.util.LocalSourceProvider;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class WriteBehindStoreTest {
+    private static final List<String> COLUMNS = Arrays.asList("id", "score");
+    private static final List<String> KEY = Collections.singletonList("id");
+
+    private LocalSourceProvider provider;
+
+    @BeforeEach
+    public void setup() throws SQLException {
+        provider = LocalSourceProvider.create(4);
+        try (Connection conn = provider.getSource().getConnection()) {
+            conn.createStatement().execute("CREATE TABLE player(id int primary key, score int not null)");
+        }
+    }
+
+    @AfterEach
+    public void tearDown() {
+        provider.shutdown();
+    }
+
+    @Test
+    public void testCoalescing() throws SQLException {
+        WriteBehindStore<Integer, int[]> store = provider.writeBehindStore("player", COLUMNS, KEY,
+                player -> new Object[]{player[0], player[1]}, 1000, 1, TimeUnit.HOURS);
+        for (int i = 0; i < 10000; i++) {
+            store.put(i % 10, new int[]{i % 10, i});
+        }
+        Assertions.assertEquals(10, store.dirty());
+        Assertions.assertEquals(9995, store.pending(5)[1]);
+
+        Assertions.assertEquals(10, store.flush());
+        Assertions.assertEquals(0, store.dirty());
+        Assertions.assertNull(store.pending(5));
+        Assertions.assertEquals(10000, store.updates());
+        Assertions.assertEquals(10, count());
+        Assertions.assertEquals(9995, score(5));
+
+        store.put(5, new int[]{5, 1});
+        store.flush();
+        Assertions.assertEquals(1, score(5));
+    }
+
+    @Test
+    public void testFullDirtySetFlushes() throws SQLException {
+        WriteBehindStore<Integer, int[]> store = provider.writeBehindStore("player", COLUMNS, KEY,
+                player -> new Object[]{player[0], player[1]}, 100, 1, TimeUnit.HOURS);
+        for (int i = 0; i < 1000; i++) {
+            store.put(i, new int[]{i, i});
+            Assertions.assertTrue(store.dirty() <= 100);
+        }
+        Assertions.assertTrue(store.flushes() >= 9);
+        Assertions.assertTrue(count() >= 900);
+    }
+
+    @Test
+    public void testPeriodicFlush() throws SQLException, InterruptedException {
+        WriteBehindStore<Integer, int[]> store = provider.writeBehindStore("player", COLUMNS, KEY,
+                player -> new Object[]{player[0], player[1]}, 1000, 10, TimeUnit.MILLISECONDS);
+        store.put(1, new int[]{1, 42});
+        long deadline = System.currentTimeMillis() + 5000;
+        while (store.dirty() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assertions.assertEquals(42, score(1));
+    }
+
+    @Test
+    public void testFailedFlushKeepsEntries() throws SQLException {
+        WriteBehindStore<Integer, int[]> store = provider.writeBehindStore("player", COLUMNS, KEY,
+                player -> new Object[]{player[0], player[1] < 0 ? null : player[1]}, 1000, 1, TimeUnit.HOURS);
+        store.put(1, new int[]{1, 1});
+        store.put(2, new int[]{2, -1});
+        Assertions.assertThrows(SQLException.class, store::flush);
+        Assertions.assertEquals(2, store.dirty());
+        Assertions.assertEquals(0, count());
+
+        store.put(2, new int[]{2, 2});
+        Assertions.assertEquals(2, store.flush());
+        Assertions.assertEquals(2, score(2));
+    }
+
+    @Test
+    public void testShutdownFlushes() throws SQLException {
+        // Attached resources close in reverse order, so the score is read after the store flushed and before the
+        // in memory database is dropped.
+        AtomicInteger score = new AtomicInteger(-1);
+        provider.attach(() -> score.set(score(1)));
+        WriteBehindStore<Integer, int[]> store = provider.writeBehindStore("player", COLUMNS, KEY,
+                player -> new Object[]{player[0], player[1]}, 1000, 1, TimeUnit.HOURS);
+        store.put(1, new int[]{1, 7});
+        provider.shutdown();
+        Assertions.assertThrows(IllegalStateException.class, () -> store.put(2, new int[]{2, 2}));
+        Assertions.assertEquals(7, score.get());
+        provider = LocalSourceProvider.create(4);
+    }
+
+    @Test
+    public void testCloseWritesConcurrentPuts() throws Exception {
+        WriteBehindStore<Integer, int[]> store = new WriteBehindStore<>(provider.getSource(), provider.getDialect(),
+                "player", COLUMNS, KEY, player -> new Object[]{player[0], player[1]}, 1000, 1, TimeUnit.HOURS);
+        AtomicInteger accepted = new AtomicInteger();
+        List<Thread> writers = new ArrayList<>();
+        for (int thread = 0; thread < 4; thread++) {
+            int offset = thread * 10000;
+            Thread writer = new Thread(() -> {
+                for (int i = 0; i < 500; i++) {
+                    try {
+                        store.put(offset + i, new int[]{offset + i, i});
+                        accepted.incrementAndGet();
+                    } catch (IllegalStateException e) {
+                        return;
+                    } catch (SQLException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            writer.start();
+            writers.add(writer);
+        }
+        Thread.sleep(5);
+        store.close();
+        for (Thread writer : writers) {
+            writer.join(5000);
+            Assertions.assertFalse(writer.isAlive());
+        }
+        // Every accepted update was written.
+        Assertions.assertEquals(accepted.get(), count());
+    }
+
+    private int count() throws SQLException {
+        try (Connection conn = provider.getSource().getConnection(); PreparedStatement stmt =
+                conn.prepareStatement("SELECT count(1) FROM player")) {
+            ResultSet resultSet = stmt.executeQuery();
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+    private int score(int id) throws SQLException {
+        try (Connection conn = provider.getSource().getConnection(); PreparedStatement stmt =
+                conn.prepareStatement("SELECT score FROM player WHERE id = ?")) {
+            stmt.setInt(1, id);
+            ResultSet resultSet = stmt.executeQuery();
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+}
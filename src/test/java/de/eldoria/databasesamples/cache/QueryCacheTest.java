@@ -0,0 +1,103 @@
+package de.eldoria.databasesamples.cache;
+
+import de.eldoria.databasesamples.batch.BatchWriter;
+import de.eldoria.util.LocalSourceProvider;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static de.eldoria.util.TestUtil.clearDatabase;
+import static de.eldoria.util.TestUtil.prepareDatabase;
+
+class QueryCacheTest {
+    private static final String SELECT = "Select id, message from some_table where id = ?";
+    private LocalSourceProvider provider;
+
+    @BeforeEach
+    public void setup() throws SQLException {
+        provider = LocalSourceProvider.create(2);
+        prepareDatabase(provider.getSource(), Logger.getAnonymousLogger());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        clearDatabase(provider.getSource(), Logger.getAnonymousLogger());
+        provider.shutdown();
+    }
+
+    @Test
+    public void testHitAndInvalidation() throws SQLException {
+        QueryCache cache = provider.queryCache(100, 1024 * 1024, 1, TimeUnit.MINUTES);
+        BatchWriter<Integer> writer = provider.batchWriter("Insert into some_table(id, message) VALUES(?, ?)",
+                (stmt, id) -> {
+                    stmt.setInt(1, id);
+                    stmt.setString(2, "message " + id);
+                });
+
+        Assertions.assertTrue(cache.query(SELECT, rs -> rs.getString("message"), 1).isEmpty());
+        Assertions.assertTrue(cache.query(SELECT, rs -> rs.getString("message"), 1).isEmpty());
+        Assertions.assertEquals(1, cache.stats().getHits());
+
+        writer.submit(1).join();
+
+        List<String> messages = cache.query(SELECT, rs -> rs.getString("message"), 1);
+        Assertions.assertEquals(1, messages.size());
+        Assertions.assertEquals("message 1", messages.get(0));
+        Assertions.assertEquals(2, cache.stats().getMisses());
+        writer.close();
+    }
+
+    @Test
+    public void testCloseUnregistersCache() throws SQLException {
+        QueryCache cache = provider.queryCache(100, 1024 * 1024, 1, TimeUnit.MINUTES);
+        cache.query(SELECT, rs -> rs.getInt("id"), 1);
+        provider.tableWritten("some_table");
+        Assertions.assertEquals(1, cache.stats().getInvalidations());
+
+        cache.close();
+        provider.tableWritten("some_table");
+        Assertions.assertEquals(1, cache.stats().getInvalidations());
+        Assertions.assertEquals(0, cache.stats().getSize());
+        Assertions.assertThrows(IllegalStateException.class, () -> cache.query(SELECT, rs -> rs.getInt("id"), 1));
+    }
+
+    @Test
+    public void testEviction() throws SQLException {
+        QueryCache cache = provider.queryCache(16, 1024 * 1024, 1, TimeUnit.MINUTES);
+        for (int i = 0; i < 100; i++) {
+            cache.query(SELECT, rs -> rs.getInt("id"), i);
+        }
+        CacheStats stats = cache.stats();
+        Assertions.assertTrue(stats.getSize() <= 16);
+        Assertions.assertEquals(100, stats.getSize() + stats.getEvictions());
+    }
+
+    @Test
+    public void testSmallCacheIsBounded() throws SQLException {
+        QueryCache cache = provider.queryCache(3, 1024 * 1024, 1, TimeUnit.MINUTES);
+        for (int i = 0; i < 50; i++) {
+            cache.query(SELECT, rs -> rs.getInt("id"), i);
+            Assertions.assertTrue(cache.stats().getSize() <= 3);
+        }
+        // The most recent result is never evicted by its own insertion.
+        cache.query(SELECT, rs -> rs.getInt("id"), 49);
+        Assertions.assertEquals(1, cache.stats().getHits());
+        Assertions.assertEquals(3, cache.stats().getSize());
+    }
+
+    @Test
+    public void testExpiration() throws SQLException, InterruptedException {
+        QueryCache cache = provider.queryCache(16, 1024 * 1024, 10, TimeUnit.MILLISECONDS);
+        cache.query(SELECT, rs -> rs.getInt("id"), 1);
+        Thread.sleep(20);
+        cache.query(SELECT, rs -> rs.getInt("id"), 1);
+        Assertions.assertEquals(1, cache.stats().getExpirations());
+        Assertions.assertEquals(0, cache.stats().getHits());
+    }
+}
@@ -0,0 +1,109 @@
+package de.eldoria.databasesamples.cache;
+
+import de.eldoria.databasesamples.config.DbConfig;
+import de.eldoria.util.LocalSourceProvider;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+class StatementCachingDataSourceTest {
+    @Test
+    public void testStatementIsReused() throws SQLException {
+        DbConfig.DBSettings settings = LocalSourceProvider.settings(1);
+        settings.getStatementCache().setConnectionCacheSize(1);
+        LocalSourceProvider provider = new LocalSourceProvider(settings);
+        DataSource source = provider.getSource();
+
+        PreparedStatement first = physical(source, "Select 1");
+        Assertions.assertSame(first, physical(source, "Select 1"));
+        // Evicts the first statement
+        PreparedStatement other = physical(source, "Select 2");
+        Assertions.assertTrue(first.isClosed());
+        Assertions.assertFalse(other.isClosed());
+        Assertions.assertNotSame(first, physical(source, "Select 1"));
+
+        provider.shutdown();
+    }
+
+    @Test
+    public void testSameStatementTwiceOnConnection() throws SQLException {
+        DbConfig.DBSettings settings = LocalSourceProvider.settings(1);
+        settings.getStatementCache().setConnectionCacheSize(10);
+        LocalSourceProvider provider = new LocalSourceProvider(settings);
+
+        try (Connection conn = provider.getSource().getConnection();
+             PreparedStatement outer = conn.prepareStatement("Select ?");
+             PreparedStatement inner = conn.prepareStatement("Select ?")) {
+            outer.setInt(1, 1);
+            inner.setInt(1, 2);
+            ResultSet outerResult = outer.executeQuery();
+            ResultSet innerResult = inner.executeQuery();
+            outerResult.next();
+            innerResult.next();
+            Assertions.assertEquals(1, outerResult.getInt(1));
+            Assertions.assertEquals(2, innerResult.getInt(1));
+        }
+
+        provider.shutdown();
+    }
+
+    @Test
+    public void testClosedConnectionsAreDropped() throws SQLException {
+        DbConfig.DBSettings settings = LocalSourceProvider.settings(1);
+        // Every returned connection is closed like a connection which reached its max lifetime.
+        settings.setPoolBackend("unpooled");
+        LocalSourceProvider provider = new LocalSourceProvider(settings);
+        StatementCachingDataSource source = new StatementCachingDataSource(provider.getSource(), 4, conn -> {
+        });
+
+        PreparedStatement first = physical(source, "Select 1");
+        for (int i = 1; i < 64; i++) {
+            physical(source, "Select 1");
+        }
+        // The caches were swept before the last borrow.
+        Assertions.assertTrue(first.isClosed());
+        Assertions.assertEquals(1, source.cachedConnections());
+
+        source.close();
+        provider.shutdown();
+    }
+
+    @Test
+    public void testUncommittedWritesAreRolledBack() throws SQLException {
+        DbConfig.DBSettings settings = LocalSourceProvider.settings(1);
+        settings.getStatementCache().setConnectionCacheSize(10);
+        LocalSourceProvider provider = new LocalSourceProvider(settings);
+        DataSource source = provider.getSource();
+        try (Connection conn = source.getConnection(); PreparedStatement stmt = conn.prepareStatement(
+                "CREATE TABLE cached_rollback(id INT)")) {
+            stmt.execute();
+        }
+
+        try (Connection conn = source.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO cached_rollback VALUES (1)")) {
+                stmt.executeUpdate();
+            }
+        }
+        try (Connection conn = source.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("SELECT count(*) FROM cached_rollback")) {
+            ResultSet result = stmt.executeQuery();
+            result.next();
+            Assertions.assertEquals(0, result.getInt(1));
+        }
+
+        provider.shutdown();
+    }
+
+    private PreparedStatement physical(DataSource source, String sql) throws SQLException {
+        try (Connection conn = source.getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.executeQuery().next();
+            return stmt.unwrap(PreparedStatement.class);
+        }
+    }
+}
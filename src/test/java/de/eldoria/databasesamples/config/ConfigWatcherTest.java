@@ -0,0 +1,119 @@
+package de.eldoria.databasesamples.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import de.eldoria.util.LocalSourceProvider;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+class ConfigWatcherTest {
+    @TempDir
+    Path dir;
+
+    private LocalSourceProvider provider;
+
+    @AfterEach
+    public void tearDown() {
+        if (provider != null) provider.shutdown();
+    }
+
+    @Test
+    public void testLiveChange() throws IOException, SQLException, InterruptedException {
+        Path file = write(dir.resolve("config.json"), "watch_live", 2);
+        try (ConfigWatcher watcher = new ConfigWatcher(file, 50, TimeUnit.MILLISECONDS)) {
+            provider = new LocalSourceProvider(watcher.getConfig().getMariadb());
+            provider.watch(watcher);
+            HikariDataSource pool = provider.getSource().unwrap(HikariDataSource.class);
+
+            write(file, "watch_live", 4);
+            await(() -> provider.getConfig().getMaxConnections() == 4);
+            Assertions.assertEquals(4, pool.getHikariConfigMXBean().getMaximumPoolSize());
+            Assertions.assertSame(pool, provider.getSource().unwrap(HikariDataSource.class));
+        }
+    }
+
+    @Test
+    public void testPoolSwap() throws IOException, SQLException, InterruptedException {
+        Path file = write(dir.resolve("config.json"), "watch_old", 2);
+        try (ConfigWatcher watcher = new ConfigWatcher(file, 50, TimeUnit.MILLISECONDS)) {
+            provider = new LocalSourceProvider(watcher.getConfig().getMariadb());
+            provider.watch(watcher);
+            DataSource source = provider.getSource();
+            execute(source, "CREATE TABLE marker(id INT PRIMARY KEY)");
+            HikariDataSource old = source.unwrap(HikariDataSource.class);
+
+            try (Connection borrowed = source.getConnection()) {
+                write(file, "watch_new", 2);
+                await(() -> old != unwrap(source));
+                Assertions.assertSame(source, provider.getSource());
+                Assertions.assertEquals("watch_new", provider.getConfig().getDatabase());
+                // New requests go to the new database.
+                Assertions.assertThrows(SQLException.class, () -> execute(source, "SELECT * FROM marker"));
+                // Borrowed connections of the old pool stay usable until they are returned.
+                try (Statement stmt = borrowed.createStatement(); ResultSet rs = stmt.executeQuery(
+                        "SELECT COUNT(*) FROM marker")) {
+                    Assertions.assertTrue(rs.next());
+                }
+                Assertions.assertFalse(old.isClosed());
+            }
+            await(old::isClosed);
+        }
+    }
+
+    @Test
+    public void testInvalidFileIsIgnored() throws IOException {
+        Path file = write(dir.resolve("config.json"), "watch_invalid", 2);
+        try (ConfigWatcher watcher = new ConfigWatcher(file, 50, TimeUnit.MILLISECONDS)) {
+            DbConfig config = watcher.getConfig();
+            Files.write(file, "{\"mariadb\": {".getBytes(StandardCharsets.UTF_8));
+            Assertions.assertFalse(watcher.reload());
+            Assertions.assertSame(config, watcher.getConfig());
+            write(file, "watch_invalid", 3);
+            Assertions.assertTrue(watcher.reload());
+            Assertions.assertEquals(3, watcher.getConfig().getMariadb().getMaxConnections());
+            Assertions.assertFalse(watcher.reload());
+        }
+    }
+
+    private static Path write(Path file, String database, int maxConnections) throws IOException {
+        String json = String.format("{\"mariadb\": {\"address\": \"mem\", \"database\": \"%s\", \"user\": \"sa\", "
+                + "\"password\": \"\", \"minConnections\": 1, \"maxConnections\": %d, "
+                + "\"metrics\": {\"jmx\": false}}}", database, maxConnections);
+        return Files.write(file, json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static HikariDataSource unwrap(DataSource source) {
+        try {
+            return source.unwrap(HikariDataSource.class);
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void execute(DataSource source, String sql) throws SQLException {
+        try (Connection conn = source.getConnection(); Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            Assertions.assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package de.eldoria.databasesamples.datarequests;
+
+import de.eldoria.databasesamples.batch.BulkLoad;
+import de.eldoria.databasesamples.util.DataSourceProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+import static de.eldoria.util.TestUtil.clearDatabase;
+import static de.eldoria.util.TestUtil.prepareDatabase;
+
+/**
+ * Compares the vendor bulk load of a provider with batched inserts and multi row inserts.
+ * <p>
+ * Rows are generated while loading from a fixed set of payloads, so the heap usage stays flat.
+ * Add {@code -prof gc} to the JMH arguments to compare the allocation rates.
+ * <p>
+ * Run it via {@code mvn test-compile exec:exec -Pbenchmark -Dbenchmark.main=org.openjdk.jmh.Main -Dbenchmark.args=BulkLoadBenchmark}.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BulkLoadBenchmark {
+    private static final List<String> COLUMNS = Arrays.asList("id", "message");
+
+    @Param({"H2"})
+    public String database;
+    @Param({"50000"})
+    public int rows;
+    @Param({"5000"})
+    public int payloadLength;
+
+    private DataSourceProvider<?> provider;
+    private String[] payloads;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        provider = RequestBenchmark.createProvider(database, 1);
+        RequestBenchmark.RandomString randomString = new RequestBenchmark.RandomString(payloadLength, ThreadLocalRandom.current());
+        payloads = new String[1024];
+        for (int i = 0; i < payloads.length; i++) {
+            payloads[i] = randomString.nextString();
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void prepare() {
+        prepareDatabase(provider.getSource(), Logger.getAnonymousLogger());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        clearDatabase(provider.getSource(), Logger.getAnonymousLogger());
+        provider.shutdown();
+    }
+
+    @Benchmark
+    public long executeBatch() throws SQLException {
+        return BulkLoad.batched(provider.getSource(), "some_table", COLUMNS, rows(), BulkLoad.DEFAULT_BATCH_SIZE);
+    }
+
+    @Benchmark
+    public long multiRowInsert() throws SQLException {
+        return provider.insertRows("some_table", COLUMNS, rows());
+    }
+
+    @Benchmark
+    public long bulkLoad() throws SQLException {
+        return provider.bulkLoad("some_table", COLUMNS, rows());
+    }
+
+    private Iterator<Object[]> rows() {
+        return IntStream.range(0, rows).mapToObj(i -> new Object[]{i, payloads[i % payloads.length]}).iterator();
+    }
+}
@@ -0,0 +1,124 @@
+package de.eldoria.databasesamples.datarequests;
+
+import de.eldoria.databasesamples.stream.ColumnBatch;
+import de.eldoria.databasesamples.stream.ColumnarMapper;
+import de.eldoria.databasesamples.util.DataSourceProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Compares reading a result by column name into row objects with the columnar mapper.
+ * <p>
+ * Both variants sum the ids and the message lengths of all rows. Add {@code -prof gc} to the JMH arguments to compare
+ * the allocations per operation.
+ * <p>
+ * Run it via {@code mvn test-compile exec:exec -Pbenchmark -Dbenchmark.main=org.openjdk.jmh.Main -Dbenchmark.args=ColumnarReadBenchmark}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ColumnarReadBenchmark {
+    private static final String QUERY = "SELECT id, score, message FROM entry";
+    private static final ColumnarMapper MAPPER = ColumnarMapper.builder()
+            .intColumn("id")
+            .doubleColumn("score")
+            .bytesColumn("message")
+            .build();
+
+    @Param({"H2"})
+    public String database;
+    @Param({"100000"})
+    public int rows;
+    @Param({"1000"})
+    public int batchSize;
+
+    private DataSourceProvider<?> provider;
+    private ColumnBatch batch;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        provider = RequestBenchmark.createProvider(database, 1);
+        try (Connection conn = provider.getSource().getConnection()) {
+            conn.prepareStatement("DROP TABLE IF EXISTS entry").execute();
+            conn.prepareStatement("CREATE TABLE entry(id int, score double, message varbinary(64))").execute();
+        }
+        Iterator<Object[]> values = IntStream.range(0, rows)
+                .mapToObj(i -> new Object[]{i, i / 3.0, "message " + i})
+                .iterator();
+        provider.bulkLoad("entry", Arrays.asList("id", "score", "message"), values);
+        batch = MAPPER.newBatch(batchSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        try (Connection conn = provider.getSource().getConnection()) {
+            conn.prepareStatement("DROP TABLE entry").execute();
+        }
+        provider.shutdown();
+    }
+
+    @Benchmark
+    public double nameBased() throws SQLException {
+        double sum = 0;
+        try (Connection conn = provider.getSource().getConnection();
+             PreparedStatement stmt = conn.prepareStatement(QUERY)) {
+            stmt.setFetchSize(batchSize);
+            ResultSet resultSet = stmt.executeQuery();
+            while (resultSet.next()) {
+                Row row = new Row(resultSet.getInt("id"), resultSet.getDouble("score"), resultSet.getBytes("message"));
+                sum += row.id + row.score + row.message.length;
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double columnar() throws SQLException {
+        double[] sum = new double[1];
+        provider.scanColumnar(QUERY, MAPPER, batch, chunk -> {
+            int[] ids = chunk.ints(0);
+            double[] scores = chunk.doubles(1);
+            double chunkSum = 0;
+            for (int row = 0; row < chunk.size(); row++) {
+                chunkSum += ids[row] + scores[row] + chunk.length(2, row);
+            }
+            sum[0] += chunkSum;
+        });
+        return sum[0];
+    }
+
+    private static class Row {
+        private final int id;
+        private final double score;
+        private final byte[] message;
+
+        private Row(int id, double score, byte[] message) {
+            this.id = id;
+            this.score = score;
+            this.message = message;
+        }
+    }
+}
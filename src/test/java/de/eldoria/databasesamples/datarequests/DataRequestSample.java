@@ -15,6 +15,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
 
 import static de.eldoria.util.TestUtil.clearDatabase;
 import static de.eldoria.util.TestUtil.prepareDatabase;
@@ -40,9 +41,10 @@ public class DataRequestSample {
         // In this example we will use a MariaDB.
 
         // Lets start with creating the Data Source.
+        MariaDBSourceProvider mariaDBSourceProvider;
         DataSource source;
         try {
-            MariaDBSourceProvider mariaDBSourceProvider = new MariaDBSourceProvider(config.getMariadb());
+            mariaDBSourceProvider = new MariaDBSourceProvider(config.getMariadb());
             source = mariaDBSourceProvider.getSource();
         } catch (SQLException e) {
             logger.log(Level.WARNING, "Could not build data source.", e);
@@ -129,6 +131,18 @@ public class DataRequestSample {
             return;
         }
 
+        // The driver loads the whole result into memory before we read the first row.
+        // This is fine for small results but will fail for tables with millions of rows.
+        // For large results we can stream the rows instead. The rows are fetched in chunks and mapped while we read them.
+        // The stream holds a connection until it is closed. So we close it with try-with-resources as well.
+        try (Stream<String> messages = mariaDBSourceProvider.stream("Select id, message from some_table",
+                resultSet -> String.format("Streamed message id %d : %s", resultSet.getInt("id"), resultSet.getString("message")))) {
+            messages.forEach(logger::info);
+        } catch (SQLException e) {
+            logger.log(Level.WARNING, "Could not stream data.", e);
+            return;
+        }
+
         clearDatabase(source, logger);
     }
 }
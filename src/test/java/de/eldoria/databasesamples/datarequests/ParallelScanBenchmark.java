@@ -0,0 +1,88 @@
+package de.eldoria.databasesamples.datarequests;
+
+import de.eldoria.databasesamples.util.DataSourceProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Compares a single threaded table scan with a parallel range scan over pools of different sizes.
+ * <p>
+ * Run it via {@code mvn test-compile exec:exec -Pbenchmark -Dbenchmark.main=org.openjdk.jmh.Main -Dbenchmark.args=ParallelScanBenchmark}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelScanBenchmark {
+    @Param({"H2"})
+    public String database;
+    @Param({"200000"})
+    public int rows;
+    @Param({"1", "4", "8"})
+    public int poolSize;
+
+    private DataSourceProvider<?> provider;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        provider = RequestBenchmark.createProvider(database, poolSize);
+        try (Connection conn = provider.getSource().getConnection()) {
+            conn.prepareStatement("DROP TABLE IF EXISTS scan_entry").execute();
+            conn.prepareStatement("CREATE TABLE scan_entry(id int primary key, message varchar(64))").execute();
+        }
+        provider.bulkLoad("scan_entry", Arrays.asList("id", "message"), IntStream.range(0, rows)
+                .mapToObj(i -> new Object[]{i, "message " + i})
+                .iterator());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        try (Connection conn = provider.getSource().getConnection()) {
+            conn.prepareStatement("DROP TABLE scan_entry").execute();
+        }
+        provider.shutdown();
+    }
+
+    @Benchmark
+    public long singleConnection() throws SQLException {
+        long sum = 0;
+        try (Connection conn = provider.getSource().getConnection();
+             PreparedStatement stmt = conn.prepareStatement("SELECT id, message FROM scan_entry")) {
+            ResultSet resultSet = stmt.executeQuery();
+            while (resultSet.next()) {
+                sum += resultSet.getInt(1) + resultSet.getString(2).length();
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long parallelScan() throws SQLException {
+        try (Stream<Long> stream = provider.parallelScan("scan_entry", "id",
+                rs -> (long) rs.getInt(1) + rs.getString(2).length())) {
+            return stream.mapToLong(Long::longValue).sum();
+        }
+    }
+}
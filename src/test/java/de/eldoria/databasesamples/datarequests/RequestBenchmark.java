@@ -1,222 +1,345 @@
 package de.eldoria.databasesamples.datarequests;
 
+import de.eldoria.databasesamples.batch.BatchWriter;
+import de.eldoria.databasesamples.config.DatabaseType;
 import de.eldoria.databasesamples.config.DbConfig;
-import de.eldoria.databasesamples.datasources.MariaDBSourceProvider;
+import de.eldoria.databasesamples.pipeline.Pipeline;
+import de.eldoria.databasesamples.pool.PoolBackends;
+import de.eldoria.databasesamples.util.DataSourceProvider;
 import de.eldoria.util.TestUtil;
-import org.junit.jupiter.api.BeforeAll;
-import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
 
-import javax.naming.ConfigurationException;
 import javax.sql.DataSource;
-import java.io.IOException;
 import java.security.SecureRandom;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
 import java.util.Random;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ThreadLocalRandom;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.logging.Level;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 import static de.eldoria.util.TestUtil.clearDatabase;
 import static de.eldoria.util.TestUtil.prepareDatabase;
 
+/**
+ * JMH benchmark of single inserts against a pooled data source.
+ * <p>
+ * Covers the four scenarios parallel, serial, single connection parallel and single connection serial.
+ * The single connection scenarios use a pool with a max size of one connection.
+ * The batched scenario writes the same rows through a {@link BatchWriter}.
+ * The flow scenarios run a sequence of three dependent statements on a single connection, once with a round trip per
+ * statement and once sent at once through a {@link Pipeline}.
+ * The transaction scenario inserts {@value #TRANSACTION_SIZE} rows per commit instead of one commit per row and reports
+ * its results per row.
+ * The acquire scenario borrows and returns a connection without a statement and measures the latency of the pool.
+ * <p>
+ * Every scenario runs against each {@link PoolBackends pool backend}. Use {@code -p poolBackend=lockfree} to select
+ * a single backend.
+ * <p>
+ * Reports throughput and the latency percentiles of {@link Mode#SampleTime}.
+ * <p>
+ * Run it via {@code mvn test-compile exec:exec -Pbenchmark}.
+ * The thread counts of the parallel scenarios are taken from the {@code benchmark.threads} system property.
+ * All other arguments are passed to JMH, e.g. {@code -Dbenchmark.args="-p database=MARIADB -p poolSize=5,10,20"}.
+ * Use {@code -p statementCache=0,250} to compare the pooled scenarios with and without the statement cache.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
 public class RequestBenchmark {
-    private static DbConfig config;
-    private static Logger logger;
-    private static int benchmarkCalls = 50000;
-    private static int benchmarkStringLength = 5000;
-
-    @BeforeAll
-    public static void loadConfig() throws IOException, ConfigurationException {
-        config = TestUtil.loadDbConfig();
-        logger = Logger.getAnonymousLogger();
-    }
-
-    @Test
-    public void parallelRequests() {
-        ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newCachedThreadPool();
-
-        DataSource source;
-        try {
-            MariaDBSourceProvider mariaDBSourceProvider = new MariaDBSourceProvider(config.getMariadb());
-            source = mariaDBSourceProvider.getSource();
-        } catch (SQLException e) {
-            logger.log(Level.WARNING, "Could not build data source.", e);
+    private static final String INSERT = "Insert into some_table(id, message) VALUES(?, ?)";
+    private static final String UPDATE = "UPDATE some_table SET message = ? WHERE id = ?";
+    private static final String SELECT = "SELECT message FROM some_table WHERE id = ?";
+    private static final int TRANSACTION_SIZE = 10;
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions cli = new CommandLineOptions(args);
+        if (!cli.getIncludes().isEmpty()) {
+            // Explicitly selected benchmarks are run as they are.
+            new Runner(cli).run();
             return;
         }
+        String parallel = RequestBenchmark.class.getName() + ".(parallel|singleConnectionParallel|batched|acquire)$";
+        String serial = RequestBenchmark.class.getName()
+                + ".(serial|serialTransaction|singleConnectionSerial|singleConnectionFlow|singleConnectionPipelined)$";
+
+        for (String threads : System.getProperty("benchmark.threads", "8").split(",")) {
+            ChainedOptionsBuilder options = new OptionsBuilder().parent(cli)
+                    .include(parallel)
+                    .threads(Integer.parseInt(threads.trim()));
+            new Runner(options.build()).run();
+        }
+        new Runner(new OptionsBuilder().parent(cli).include(serial).build()).run();
+    }
 
+    @Benchmark
+    @Threads(8)
+    public void parallel(PooledSource source, Payloads payloads) throws SQLException {
+        insert(source.source, payloads);
+    }
 
-        prepareDatabase(source, logger);
-
-        List<String> randomStrings = getRandomStrings(benchmarkCalls, benchmarkStringLength);
+    @Benchmark
+    @Threads(8)
+    public void acquire(PooledSource source) throws SQLException {
+        source.source.getConnection().close();
+    }
 
-        long duration = System.currentTimeMillis();
+    @Benchmark
+    @Threads(1)
+    public void serial(PooledSource source, Payloads payloads) throws SQLException {
+        insert(source.source, payloads);
+    }
 
-        for (int i = 0; i < benchmarkCalls; i++) {
-            int id = i;
-            executor.execute(() -> {
-                try (Connection conn = source.getConnection(); PreparedStatement stmt =
-                        conn.prepareStatement("Insert into some_table(id, message) VALUES(?, ?)")) {
-                    stmt.setInt(1, id);
-                    stmt.setString(2, randomStrings.get(id));
+    @Benchmark
+    @Threads(1)
+    @OperationsPerInvocation(TRANSACTION_SIZE)
+    public int serialTransaction(PooledSource source, Payloads payloads) throws SQLException {
+        return source.provider.inTransaction(work -> {
+            try (PreparedStatement stmt = work.getConnection().prepareStatement(INSERT)) {
+                for (int i = 0; i < TRANSACTION_SIZE; i++) {
+                    stmt.setInt(1, payloads.nextId());
+                    stmt.setString(2, payloads.next());
                     stmt.execute();
-                } catch (SQLException e) {
-                    logger.log(Level.WARNING, "Could not insert data.", e);
                 }
-            });
-        }
-
-        executor.shutdown();
-        try {
-            executor.awaitTermination(1L, TimeUnit.HOURS);
-        } catch (InterruptedException e) {
-            logger.log(Level.WARNING, "Timout", e);
-        }
-
-        duration = System.currentTimeMillis() - duration;
-
-        logger.info(String.format("%d Parallel Requests took %d ms | %d seconds", benchmarkCalls, duration, duration / 1000));
-
-        clearDatabase(source, logger);
+            }
+            return TRANSACTION_SIZE;
+        });
     }
 
-    @Test
-    public void nonParallelRequests() {
-        DataSource source;
-        try {
-            MariaDBSourceProvider mariaDBSourceProvider = new MariaDBSourceProvider(config.getMariadb());
-            source = mariaDBSourceProvider.getSource();
-        } catch (SQLException e) {
-            logger.log(Level.WARNING, "Could not build data source.", e);
-            return;
-        }
-
-
-        prepareDatabase(source, logger);
-
-        List<String> randomStrings = getRandomStrings(benchmarkCalls, benchmarkStringLength);
+    @Benchmark
+    @Threads(8)
+    public void singleConnectionParallel(SingleConnectionSource source, Payloads payloads) throws SQLException {
+        insert(source.source, payloads);
+    }
 
-        long duration = System.currentTimeMillis();
+    @Benchmark
+    @Threads(1)
+    public void singleConnectionSerial(SingleConnectionSource source, Payloads payloads) throws SQLException {
+        insert(source.source, payloads);
+    }
 
-        for (int i = 0; i < benchmarkCalls; i++) {
-            try (Connection conn = source.getConnection(); PreparedStatement stmt =
-                    conn.prepareStatement("Insert into some_table(id, message) VALUES(?, ?)")) {
-                stmt.setInt(1, i);
-                stmt.setString(2, randomStrings.get(i));
+    @Benchmark
+    @Threads(1)
+    public String singleConnectionFlow(SingleConnectionSource source, Payloads payloads) throws SQLException {
+        int id = payloads.nextId();
+        try (Connection conn = source.source.getConnection()) {
+            try (PreparedStatement stmt = conn.prepareStatement(INSERT)) {
+                stmt.setInt(1, id);
+                stmt.setString(2, payloads.next());
+                stmt.execute();
+            }
+            try (PreparedStatement stmt = conn.prepareStatement(UPDATE)) {
+                stmt.setString(1, payloads.next());
+                stmt.setInt(2, id);
                 stmt.execute();
-            } catch (SQLException e) {
-                logger.log(Level.WARNING, "Could not insert data.", e);
+            }
+            try (PreparedStatement stmt = conn.prepareStatement(SELECT)) {
+                stmt.setInt(1, id);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    return rs.next() ? rs.getString(1) : null;
+                }
             }
         }
-
-        duration = System.currentTimeMillis() - duration;
-
-        logger.info(String.format("%d Non Parallel Requests took %d ms | %d seconds", benchmarkCalls, duration, duration / 1000));
-
-        clearDatabase(source, logger);
     }
 
-    @Test
-    public void singleConnectionParallelRequests() {
-        ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newCachedThreadPool();
+    @Benchmark
+    @Threads(1)
+    public List<String> singleConnectionPipelined(SingleConnectionSource source, Payloads payloads)
+            throws SQLException {
+        int id = payloads.nextId();
+        Pipeline pipeline = source.provider.pipeline();
+        pipeline.update(INSERT, id, payloads.next());
+        pipeline.update(UPDATE, payloads.next(), id);
+        CompletableFuture<List<String>> message = pipeline.query(SELECT, rs -> rs.getString(1), id);
+        pipeline.execute();
+        return message.join();
+    }
 
-        DbConfig.DBSettings clone = config.getMariadb().clone();
-        clone.setMaxConnections(1);
+    /**
+     * Submits the row to a {@link BatchWriter} of the pooled source.
+     * Measures the submission until the buffer applies backpressure and not the round trip of a single row.
+     */
+    @Benchmark
+    @Threads(8)
+    public CompletableFuture<Integer> batched(PooledSource source, Payloads payloads) {
+        return source.writer.submit(payloads.nextId());
+    }
 
-        DataSource source;
-        try {
-            MariaDBSourceProvider mariaDBSourceProvider = new MariaDBSourceProvider(clone);
-            source = mariaDBSourceProvider.getSource();
-        } catch (SQLException e) {
-            logger.log(Level.WARNING, "Could not build data source.", e);
-            return;
+    private void insert(DataSource source, Payloads payloads) throws SQLException {
+        try (Connection conn = source.getConnection(); PreparedStatement stmt = conn.prepareStatement(INSERT)) {
+            stmt.setInt(1, payloads.nextId());
+            stmt.setString(2, payloads.next());
+            stmt.execute();
         }
+    }
 
-        prepareDatabase(source, logger);
+    /**
+     * Creates a provider for the requested database.
+     *
+     * @param database       MARIADB, POSTGRESQL or H2 for the embedded database
+     * @param maxConnections max size of the pool
+     * @return new provider
+     * @throws Exception if the config could not be loaded or the connection failed
+     */
+    static DataSourceProvider<?> createProvider(String database, int maxConnections) throws Exception {
+        return createProvider(database, maxConnections, settings -> {
+        });
+    }
 
-        List<String> randomStrings = getRandomStrings(benchmarkCalls, benchmarkStringLength);
+    /**
+     * Creates a provider for the requested database.
+     * <p>
+     * MARIADB and POSTGRESQL fall back to an embedded database in their compatibility mode if they are not configured.
+     *
+     * @param database       MARIADB, POSTGRESQL or H2 for the embedded database
+     * @param maxConnections max size of the pool
+     * @param customizer     applied to the settings before the provider is created
+     * @return new provider
+     * @throws Exception if the config could not be loaded or the connection failed
+     */
+    static DataSourceProvider<?> createProvider(String database, int maxConnections,
+                                                Consumer<DbConfig.DBSettings> customizer) throws Exception {
+        return TestUtil.createProvider(DatabaseType.valueOf(database), maxConnections, customizer);
+    }
 
-        long duration = System.currentTimeMillis();
+    /**
+     * A pooled source with a configurable pool size.
+     */
+    @State(Scope.Benchmark)
+    public static class PooledSource {
+        @Param({"H2"})
+        public String database;
+        @Param({"10"})
+        public int poolSize;
+        /**
+         * Size of the library statement cache per connection. 0 disables the cache.
+         */
+        @Param({"0"})
+        public int statementCache;
+        @Param({"hikari", "lockfree", "unpooled"})
+        public String poolBackend;
 
-        for (int i = 0; i < benchmarkCalls; i++) {
-            int id = i;
-            executor.execute(() -> {
-                try (Connection conn = source.getConnection(); PreparedStatement stmt =
-                        conn.prepareStatement("Insert into some_table(id, message) VALUES(?, ?)")) {
-                    stmt.setInt(1, id);
-                    stmt.setString(2, randomStrings.get(id));
-                    stmt.execute();
-                } catch (SQLException e) {
-                    logger.log(Level.WARNING, "Could not insert data.", e);
-                }
+        DataSourceProvider<?> provider;
+        DataSource source;
+        BatchWriter<Integer> writer;
+
+        @Setup(Level.Trial)
+        public void setup(Payloads payloads) throws Exception {
+            provider = createProvider(database, poolSize,
+                    settings -> {
+                        settings.getStatementCache().setConnectionCacheSize(statementCache);
+                        settings.setPoolBackend(poolBackend);
+                    });
+            source = provider.getSource();
+            writer = provider.batchWriter(INSERT, (stmt, id) -> {
+                stmt.setInt(1, id);
+                stmt.setString(2, payloads.next());
             });
         }
 
-        executor.shutdown();
-        try {
-            executor.awaitTermination(1L, TimeUnit.HOURS);
-        } catch (InterruptedException e) {
-            logger.log(Level.WARNING, "Timout", e);
+        @Setup(Level.Iteration)
+        public void prepare() {
+            prepareDatabase(source, Logger.getAnonymousLogger());
         }
 
-        duration = System.currentTimeMillis() - duration;
-
-        logger.info(String.format("%d Single Connection Parallel Requests took %d ms | %d seconds", benchmarkCalls, duration, duration / 1000));
-
-        clearDatabase(source, logger);
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            writer.close();
+            clearDatabase(source, Logger.getAnonymousLogger());
+            provider.shutdown();
+        }
     }
 
-    @Test
-    public void singleConnectionNonParallelRequests() {
-        DbConfig.DBSettings clone = config.getMariadb().clone();
-        clone.setMaxConnections(1);
+    /**
+     * A source backed by a pool with a single connection.
+     */
+    @State(Scope.Benchmark)
+    public static class SingleConnectionSource {
+        @Param({"H2"})
+        public String database;
+        @Param({"hikari", "lockfree", "unpooled"})
+        public String poolBackend;
+
+        DataSourceProvider<?> provider;
         DataSource source;
-        try {
-            MariaDBSourceProvider mariaDBSourceProvider = new MariaDBSourceProvider(clone);
-            source = mariaDBSourceProvider.getSource();
-        } catch (SQLException e) {
-            logger.log(Level.WARNING, "Could not build data source.", e);
-            return;
-        }
-
 
-        prepareDatabase(source, logger);
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            provider = createProvider(database, 1, settings -> settings.setPoolBackend(poolBackend));
+            source = provider.getSource();
+        }
 
-        List<String> randomStrings = getRandomStrings(benchmarkCalls, benchmarkStringLength);
+        @Setup(Level.Iteration)
+        public void prepare() {
+            prepareDatabase(source, Logger.getAnonymousLogger());
+        }
 
-        long duration = System.currentTimeMillis();
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            clearDatabase(source, Logger.getAnonymousLogger());
+            provider.shutdown();
+        }
+    }
 
-        for (int i = 0; i < benchmarkCalls; i++) {
-            try (Connection conn = source.getConnection(); PreparedStatement stmt =
-                    conn.prepareStatement("Insert into some_table(id, message) VALUES(?, ?)")) {
-                stmt.setInt(1, i);
-                stmt.setString(2, randomStrings.get(i));
-                stmt.execute();
-            } catch (SQLException e) {
-                logger.log(Level.WARNING, "Could not insert data.", e);
+    /**
+     * Pre generated payloads. Generation happens once per trial and is not part of the measurement.
+     */
+    @State(Scope.Benchmark)
+    public static class Payloads {
+        private static final int POOL = 1024;
+
+        @Param({"5000"})
+        public int payloadLength;
+
+        private String[] payloads;
+        private final AtomicInteger ids = new AtomicInteger();
+
+        @Setup(Level.Trial)
+        public void setup() {
+            RandomString randomString = new RandomString(payloadLength, ThreadLocalRandom.current());
+            payloads = new String[POOL];
+            for (int i = 0; i < POOL; i++) {
+                payloads[i] = randomString.nextString();
             }
         }
 
-        duration = System.currentTimeMillis() - duration;
-
-        logger.info(String.format("%d Single Connection Non Parallel Requests took %d ms | %d seconds", benchmarkCalls, duration, duration / 1000));
-
-        clearDatabase(source, logger);
-    }
-
+        int nextId() {
+            return ids.incrementAndGet();
+        }
 
-    private List<String> getRandomStrings(int amount, int length) {
-        RandomString randomString = new RandomString(length, ThreadLocalRandom.current());
-        return IntStream.range(0, amount).mapToObj(i -> randomString.nextString()).collect(Collectors.toList());
+        String next() {
+            return payloads[ThreadLocalRandom.current().nextInt(POOL)];
+        }
     }
 
     // Proudly stolen from https://stackoverflow.com/questions/41107/how-to-generate-a-random-alpha-numeric-string
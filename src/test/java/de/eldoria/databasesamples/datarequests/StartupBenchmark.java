@@ -0,0 +1,100 @@
+package de.eldoria.databasesamples.datarequests;
+
+import de.eldoria.databasesamples.config.DbConfig;
+import de.eldoria.databasesamples.util.DataSourceProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the startup time of a provider and the time until the first query or the first burst of queries is
+ * answered for the different startup modes.
+ * <p>
+ * Every invocation starts a new provider.
+ * <p>
+ * Run it via {@code mvn test-compile exec:exec -Pbenchmark -Dbenchmark.main=org.openjdk.jmh.Main -Dbenchmark.args=StartupBenchmark}.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 20)
+@Measurement(iterations = 50)
+@Fork(1)
+@State(Scope.Thread)
+public class StartupBenchmark {
+    private static final String QUERY = "SELECT 1";
+
+    @Param({"H2"})
+    public String database;
+    @Param({"EAGER", "WARM", "LAZY"})
+    public DbConfig.Startup.Mode mode;
+    @Param({"8"})
+    public int minConnections;
+
+    private DataSourceProvider<?> provider;
+
+    @TearDown(Level.Invocation)
+    public void tearDown() {
+        if (provider != null) provider.shutdown();
+        provider = null;
+    }
+
+    @Benchmark
+    public DataSourceProvider<?> startup() throws Exception {
+        provider = createProvider();
+        return provider;
+    }
+
+    @Benchmark
+    public int firstQuery() throws Exception {
+        provider = createProvider();
+        return query(provider);
+    }
+
+    @Benchmark
+    public int firstBurst() throws Exception {
+        provider = createProvider();
+        CompletableFuture<?>[] queries = new CompletableFuture<?>[minConnections];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = provider.async().supply(StartupBenchmark::select);
+        }
+        CompletableFuture.allOf(queries).join();
+        return queries.length;
+    }
+
+    private DataSourceProvider<?> createProvider() throws Exception {
+        return RequestBenchmark.createProvider(database, minConnections * 2, settings -> {
+            settings.setMinConnections(minConnections);
+            settings.setStartup(new DbConfig.Startup(mode, Collections.singletonList(QUERY)));
+        });
+    }
+
+    private static int query(DataSourceProvider<?> provider) throws SQLException {
+        try (Connection conn = provider.getSource().getConnection()) {
+            return select(conn);
+        }
+    }
+
+    private static int select(Connection conn) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(QUERY); ResultSet resultSet = stmt.executeQuery()) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package de.eldoria.databasesamples.datasources;
+
+import de.eldoria.databasesamples.config.DatabaseType;
+import de.eldoria.databasesamples.config.DbConfig;
+import de.eldoria.databasesamples.dialect.SqlDialect;
+import de.eldoria.databasesamples.util.DataSourceProvider;
+import de.eldoria.util.LocalSourceProvider;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+class H2SourceProviderTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testMariaDBCompatibility() throws SQLException {
+        DataSourceProvider<?> provider = SourceProviders.create(DatabaseType.H2, LocalSourceProvider.settings(2));
+        try {
+            Assertions.assertEquals(DatabaseType.H2, provider.getType());
+            Assertions.assertSame(SqlDialect.MARIADB, provider.getDialect());
+            execute(provider, "CREATE TABLE entries(id INT PRIMARY KEY, name TEXT)");
+            execute(provider, "INSERT INTO entries VALUES (1, 'a') ON DUPLICATE KEY UPDATE name = 'b'");
+            execute(provider, "INSERT INTO entries VALUES (1, 'a') ON DUPLICATE KEY UPDATE name = 'b'");
+            Assertions.assertEquals("b", queryName(provider));
+        } finally {
+            provider.shutdown();
+        }
+    }
+
+    @Test
+    public void testPostgreSQLCompatibility() throws SQLException {
+        DbConfig.DBSettings settings = LocalSourceProvider.settings(2);
+        settings.setCompatibility(DatabaseType.POSTGRESQL);
+        H2SourceProvider provider = new H2SourceProvider(settings);
+        try {
+            Assertions.assertEquals(DatabaseType.POSTGRESQL, provider.getCompatibility());
+            Assertions.assertSame(SqlDialect.POSTGRESQL, provider.getDialect());
+            execute(provider, "CREATE TABLE entries(id INT PRIMARY KEY, name TEXT)");
+            execute(provider, "INSERT INTO entries VALUES (1, 'a') ON CONFLICT DO NOTHING");
+            execute(provider, "INSERT INTO entries VALUES (1, 'b') ON CONFLICT DO NOTHING");
+            Assertions.assertEquals("a", queryName(provider));
+        } finally {
+            provider.shutdown();
+        }
+    }
+
+    @Test
+    public void testFileDatabase() throws SQLException {
+        DbConfig.DBSettings settings = new DbConfig.DBSettings(dir.toString(), "", "stored", "sa", "", 1, 2);
+        settings.setPoolBackend("lockfree");
+        H2SourceProvider provider = new H2SourceProvider(settings);
+        try {
+            execute(provider, "CREATE TABLE entries(id INT PRIMARY KEY, name TEXT)");
+            execute(provider, "INSERT INTO entries VALUES (1, 'a')");
+        } finally {
+            provider.shutdown();
+        }
+        Assertions.assertTrue(Files.exists(dir.resolve("stored.mv.db")));
+
+        provider = new H2SourceProvider(settings);
+        try {
+            Assertions.assertEquals("a", queryName(provider));
+        } finally {
+            provider.shutdown();
+        }
+    }
+
+    private static void execute(DataSourceProvider<?> provider, String sql) throws SQLException {
+        try (Connection conn = provider.getSource().getConnection(); Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    private static String queryName(DataSourceProvider<?> provider) throws SQLException {
+        try (Connection conn = provider.getSource().getConnection(); Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT name FROM entries WHERE id = 1")) {
+            Assertions.assertTrue(rs.next());
+            return rs.getString(1);
+        }
+    }
+}
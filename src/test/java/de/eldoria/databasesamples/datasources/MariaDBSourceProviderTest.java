@@ -1,8 +1,10 @@
 package de.eldoria.databasesamples.datasources;
 
+import de.eldoria.databasesamples.config.DatabaseType;
 import de.eldoria.databasesamples.config.DbConfig;
 import de.eldoria.util.TestUtil;
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
@@ -14,6 +16,7 @@ class MariaDBSourceProviderTest {
 
     @BeforeAll
     public static void loadConfig() throws IOException, ConfigurationException {
+        Assumptions.assumeTrue(TestUtil.isServerAvailable(DatabaseType.MARIADB), "No MariaDB server is configured");
         config = TestUtil.loadDbConfig();
     }
 
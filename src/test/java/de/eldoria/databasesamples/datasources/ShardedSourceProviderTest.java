@@ -0,0 +1,108 @@
+package de.eldoria.databasesamples.datasources;
+
+import de.eldoria.databasesamples.sharding.ShardStrategy;
+import de.eldoria.databasesamples.util.UncheckedSQLException;
+import de.eldoria.util.LocalSourceProvider;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+class ShardedSourceProviderTest {
+    private ShardedSourceProvider provider;
+
+    @BeforeEach
+    public void setup() throws SQLException {
+        List<LocalSourceProvider> shards = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            LocalSourceProvider shard = LocalSourceProvider.create(4);
+            try (Connection conn = shard.getSource().getConnection()) {
+                conn.prepareStatement("CREATE TABLE entry(id int, shard int)").execute();
+            }
+            shards.add(shard);
+        }
+        provider = new ShardedSourceProvider(shards, ShardStrategy.consistentHash(3));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        provider.shutdown();
+    }
+
+    @Test
+    public void testRoutingAndScatterGather() {
+        List<CompletableFuture<Integer>> writes = new ArrayList<>();
+        for (int id = 0; id < 300; id++) {
+            int key = id;
+            writes.add(provider.supply(key, conn -> {
+                try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO entry VALUES(?, ?)")) {
+                    stmt.setInt(1, key);
+                    stmt.setInt(2, provider.shardOf(key));
+                    return stmt.executeUpdate();
+                }
+            }));
+        }
+        writes.forEach(CompletableFuture::join);
+
+        List<int[]> rows;
+        try (Stream<int[]> stream = provider.scatterGather("SELECT id, shard FROM entry WHERE id >= ?",
+                rs -> new int[]{rs.getInt(1), rs.getInt(2)}, 0)) {
+            rows = stream.collect(Collectors.toList());
+        }
+        Assertions.assertEquals(300, rows.size());
+        for (int[] row : rows) {
+            Assertions.assertEquals(provider.shardOf(row[0]), row[1]);
+        }
+        Assertions.assertEquals(3, rows.stream().map(row -> row[1]).distinct().count());
+    }
+
+    @Test
+    public void testLimitReleasesShards() throws SQLException, InterruptedException {
+        for (int shard = 0; shard < 3; shard++) {
+            try (Connection conn = provider.getShards().get(shard).getSource().getConnection();
+                 PreparedStatement stmt = conn.prepareStatement("INSERT INTO entry VALUES(?, ?)")) {
+                for (int id = 0; id < 5000; id++) {
+                    stmt.setInt(1, id);
+                    stmt.setInt(2, shard);
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            }
+        }
+
+        try (Stream<Integer> stream = provider.scatterGather("SELECT id FROM entry", rs -> rs.getInt(1))) {
+            Assertions.assertEquals(10, stream.limit(10).count());
+        }
+        // Closing the stream stops the shard queries, which return their connections.
+        long deadline = System.currentTimeMillis() + 5000;
+        while (active() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assertions.assertEquals(0, active());
+    }
+
+    @Test
+    public void testFailedShard() {
+        Assertions.assertThrows(UncheckedSQLException.class,
+                () -> provider.scatterGather("SELECT * FROM missing", rs -> rs.getInt(1)).count());
+    }
+
+    @Test
+    public void testStrategyMismatch() {
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> new ShardedSourceProvider(provider.getShards(), ShardStrategy.range(10)));
+    }
+
+    private int active() {
+        return provider.getShards().stream().mapToInt(shard -> shard.getMetrics().getActiveConnections()).sum();
+    }
+}
@@ -0,0 +1,162 @@
+package de.eldoria.databasesamples.dialect;
+
+import de.eldoria.util.LocalSourceProvider;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.IntStream;
+
+class MultiRowInsertTest {
+    private static final List<String> COLUMNS = Arrays.asList("id", "message");
+
+    @Test
+    public void testInsertStatements() {
+        Assertions.assertEquals("INSERT INTO some_table(id, message) VALUES (?, ?), (?, ?)",
+                SqlDialect.MARIADB.insert("some_table", COLUMNS, 2));
+        Assertions.assertEquals("INSERT INTO some_table(id, message) VALUES (?, ?)",
+                SqlDialect.POSTGRESQL.insert("some_table", COLUMNS, 1));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> SqlDialect.MARIADB.insert("some_table; DROP", COLUMNS, 1));
+    }
+
+    @Test
+    public void testUpsertStatements() {
+        List<String> key = Collections.singletonList("id");
+        Assertions.assertEquals("INSERT INTO some_table(id, message) VALUES (?, ?), (?, ?) "
+                        + "ON DUPLICATE KEY UPDATE message = VALUES(message)",
+                SqlDialect.MARIADB.upsert("some_table", COLUMNS, key, 2));
+        Assertions.assertEquals("INSERT INTO some_table(id, message) VALUES (?, ?) "
+                        + "ON CONFLICT (id) DO UPDATE SET message = EXCLUDED.message",
+                SqlDialect.POSTGRESQL.upsert("some_table", COLUMNS, key, 1));
+        Assertions.assertEquals("INSERT INTO some_table(id) VALUES (?) ON DUPLICATE KEY UPDATE id = id",
+                SqlDialect.MARIADB.upsert("some_table", key, key, 1));
+        Assertions.assertEquals("INSERT INTO some_table(id) VALUES (?) ON CONFLICT (id) DO NOTHING",
+                SqlDialect.POSTGRESQL.upsert("some_table", key, key, 1));
+    }
+
+    @Test
+    public void testChunksStayBelowLimits() throws SQLException {
+        LocalSourceProvider provider = LocalSourceProvider.create(2);
+        try {
+            createTable(provider);
+            LimitedDialect dialect = new LimitedDialect(64, 600);
+            MultiRowInsert insert = new MultiRowInsert(dialect, "entry", COLUMNS);
+            Assertions.assertEquals(32, insert.maxRows());
+
+            long written = insert.execute(provider.getSource(), rows(0, 1000));
+
+            Assertions.assertEquals(1000, written);
+            Assertions.assertEquals(1000, count(provider));
+            for (int rows : dialect.sizes) {
+                Assertions.assertTrue(rows <= 32);
+                Assertions.assertTrue(rows <= 600 / 50, "chunk of " + rows + " rows exceeds the statement size");
+            }
+            // Chunks cut by the statement size are powers of two. Only the last chunk has an arbitrary size.
+            Assertions.assertTrue(dialect.sizes.size() <= 3, dialect.sizes.toString());
+        } finally {
+            provider.shutdown();
+        }
+    }
+
+    @Test
+    public void testUpsert() throws SQLException {
+        LocalSourceProvider provider = LocalSourceProvider.create(2);
+        try {
+            createTable(provider);
+            provider.insertRows("entry", COLUMNS, rows(0, 100));
+            provider.upsertRows("entry", COLUMNS, Collections.singletonList("id"),
+                    IntStream.range(50, 150).mapToObj(i -> new Object[]{i, "updated " + i}).iterator());
+
+            Assertions.assertEquals(150, count(provider));
+            try (Connection conn = provider.getSource().getConnection();
+                 PreparedStatement stmt = conn.prepareStatement("SELECT message FROM entry WHERE id = ?")) {
+                stmt.setInt(1, 10);
+                ResultSet resultSet = stmt.executeQuery();
+                resultSet.next();
+                Assertions.assertEquals("message 10", resultSet.getString(1));
+                stmt.setInt(1, 75);
+                resultSet = stmt.executeQuery();
+                resultSet.next();
+                Assertions.assertEquals("updated 75", resultSet.getString(1));
+            }
+        } finally {
+            provider.shutdown();
+        }
+    }
+
+    @Test
+    public void testFailedInsertIsRolledBack() throws SQLException {
+        LocalSourceProvider provider = LocalSourceProvider.create(2);
+        try {
+            createTable(provider);
+            MultiRowInsert insert = new MultiRowInsert(new LimitedDialect(20, Long.MAX_VALUE), "entry", COLUMNS);
+            Iterator<Object[]> rows = IntStream.range(0, 100).map(i -> i == 90 ? 5 : i)
+                    .mapToObj(i -> new Object[]{i, "message " + i}).iterator();
+            Assertions.assertThrows(SQLException.class, () -> insert.execute(provider.getSource(), rows));
+            Assertions.assertEquals(0, count(provider));
+        } finally {
+            provider.shutdown();
+        }
+    }
+
+    private static Iterator<Object[]> rows(int from, int to) {
+        return IntStream.range(from, to).mapToObj(i -> new Object[]{i, "message " + i}).iterator();
+    }
+
+    private static void createTable(LocalSourceProvider provider) throws SQLException {
+        try (Connection conn = provider.getSource().getConnection()) {
+            conn.createStatement().execute("CREATE TABLE entry(id int primary key, message varchar(64) not null)");
+        }
+    }
+
+    private static int count(LocalSourceProvider provider) throws SQLException {
+        try (Connection conn = provider.getSource().getConnection();
+             ResultSet resultSet = conn.createStatement().executeQuery("SELECT COUNT(*) FROM entry")) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+    private static final class LimitedDialect implements SqlDialect {
+        private final int maxParameters;
+        private final long maxStatementSize;
+        private final Set<Integer> sizes = new TreeSet<>();
+
+        private LimitedDialect(int maxParameters, long maxStatementSize) {
+            this.maxParameters = maxParameters;
+            this.maxStatementSize = maxStatementSize;
+        }
+
+        @Override
+        public int maxParameters() {
+            return maxParameters;
+        }
+
+        @Override
+        public long maxStatementSize(Connection conn) {
+            // The reserve for protocol headers is added on top.
+            return maxStatementSize == Long.MAX_VALUE ? maxStatementSize : maxStatementSize + 1024 + 48;
+        }
+
+        @Override
+        public String insert(String table, List<String> columns, int rows) {
+            sizes.add(rows);
+            return SqlDialect.MARIADB.insert(table, columns, rows);
+        }
+
+        @Override
+        public String upsert(String table, List<String> columns, List<String> keyColumns, int rows) {
+            return SqlDialect.MARIADB.upsert(table, columns, keyColumns, rows);
+        }
+    }
+}
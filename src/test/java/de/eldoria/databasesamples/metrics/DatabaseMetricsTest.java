@@ -0,0 +1,149 @@
+package de.eldoria.databasesamples.metrics;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.PoolStats;
+import de.eldoria.databasesamples.config.DbConfig;
+import de.eldoria.util.LocalSourceProvider;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+class DatabaseMetricsTest {
+    private LocalSourceProvider provider;
+
+    @BeforeEach
+    public void setup() throws SQLException {
+        DbConfig.DBSettings settings = LocalSourceProvider.settings(4);
+        settings.getMetrics().setQueries(true);
+        provider = new LocalSourceProvider(settings);
+        try (Connection conn = provider.getSource().getConnection()) {
+            conn.prepareStatement("CREATE TABLE entry(id int)").execute();
+        }
+        provider.getMetrics().reset();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        provider.shutdown();
+    }
+
+    @Test
+    public void testQueryMetrics() throws SQLException {
+        try (Connection conn = provider.getSource().getConnection()) {
+            try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO entry VALUES(?)")) {
+                for (int i = 0; i < 10; i++) {
+                    stmt.setInt(1, i);
+                    stmt.executeUpdate();
+                }
+            }
+            // Literals are reduced to the same shape.
+            try (Statement stmt = conn.createStatement()) {
+                for (int i = 0; i < 3; i++) {
+                    ResultSet resultSet = stmt.executeQuery("SELECT id FROM entry WHERE id < " + (i + 5));
+                    while (resultSet.next()) {
+                        resultSet.getInt(1);
+                    }
+                }
+            }
+            try (Statement stmt = conn.createStatement()) {
+                Assertions.assertThrows(SQLException.class, () -> stmt.executeQuery("SELECT * FROM missing"));
+            }
+        }
+
+        MetricsSnapshot snapshot = provider.getMetrics().snapshot();
+        QueryStats insert = find(snapshot, "INSERT INTO entry VALUES(?)");
+        Assertions.assertEquals(10, insert.getLatency().getCount());
+        Assertions.assertEquals(0, insert.getErrors());
+
+        QueryStats select = find(snapshot, "SELECT id FROM entry WHERE id < ?");
+        Assertions.assertEquals(3, select.getLatency().getCount());
+        Assertions.assertEquals(5 + 6 + 7, select.getRows());
+        Assertions.assertTrue(select.getLatency().getMax() > 0);
+
+        Assertions.assertEquals(1, find(snapshot, "SELECT * FROM missing").getErrors());
+        Assertions.assertTrue(snapshot.getConnectionAcquire().getCount() > 0);
+    }
+
+    @Test
+    public void testBorrowNanos() throws SQLException {
+        DatabaseMetrics metrics = provider.getMetrics();
+        Connection conn = provider.getSource().getConnection();
+        conn.close();
+        long borrowed = metrics.getBorrowNanos();
+        // Borrows below a millisecond are recorded as well.
+        Assertions.assertTrue(borrowed > 0);
+        conn.close();
+        Assertions.assertEquals(borrowed, metrics.getBorrowNanos());
+    }
+
+    @Test
+    public void testSlowQueries() throws SQLException, InterruptedException {
+        List<SlowQuery> slow = new CopyOnWriteArrayList<>();
+        provider.getMetrics().onSlowQuery(slow::add);
+        provider.getMetrics().setSlowQueryMillis(0);
+        try (Connection conn = provider.getSource().getConnection()) {
+            conn.prepareStatement("SELECT 1").executeQuery();
+        }
+        // Slow queries are dispatched on a background thread.
+        long deadline = System.currentTimeMillis() + 5000;
+        while (slow.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assertions.assertEquals(1, slow.size());
+        Assertions.assertEquals("SELECT ?", slow.get(0).getShape());
+    }
+
+    @Test
+    public void testPoolStatsPerPool() {
+        DatabaseMetrics metrics = new DatabaseMetrics("pools", new DbConfig.Metrics());
+        IMetricsTracker first = metrics.create("first", stats(2));
+        IMetricsTracker second = metrics.create("second", stats(3));
+        Assertions.assertEquals(5, metrics.getActiveConnections());
+        first.close();
+        Assertions.assertEquals(3, metrics.getActiveConnections());
+        second.close();
+        Assertions.assertEquals(0, metrics.getActiveConnections());
+    }
+
+    @Test
+    public void testPoolMetrics() throws Exception {
+        DatabaseMetrics metrics = provider.getMetrics();
+        try (Connection first = provider.getSource().getConnection();
+             Connection second = provider.getSource().getConnection()) {
+            Assertions.assertEquals(2, metrics.getActiveConnections());
+        }
+        ObjectName name = new ObjectName("de.eldoria.databasesamples:type=DatabaseMetrics,name="
+                + ObjectName.quote(metrics.getName()));
+        Assertions.assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+        Assertions.assertNotNull(ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Queries"));
+        provider.shutdown();
+        Assertions.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+
+    private static PoolStats stats(int active) {
+        return new PoolStats(0) {
+            @Override
+            protected void update() {
+                activeConnections = active;
+            }
+        };
+    }
+
+    private static QueryStats find(MetricsSnapshot snapshot, String shape) {
+        return snapshot.getQueries().stream()
+                .filter(stats -> stats.getShape().equals(shape))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("Missing shape " + shape + " in " + snapshot));
+    }
+}
@@ -0,0 +1,41 @@
+package de.eldoria.databasesamples.metrics;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class LatencyHistogramTest {
+    @Test
+    public void testBuckets() {
+        long previous = -1;
+        for (int index = 0; index < 900; index++) {
+            long highest = LatencyHistogram.highestValue(index);
+            Assertions.assertTrue(highest > previous);
+            Assertions.assertEquals(index, LatencyHistogram.index(highest));
+            Assertions.assertEquals(index, LatencyHistogram.index(previous + 1));
+            previous = highest;
+        }
+        Assertions.assertTrue(LatencyHistogram.index(Long.MAX_VALUE) < 1000);
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 1000; micros++) {
+            histogram.record(micros * 1000);
+        }
+        HistogramSnapshot snapshot = histogram.snapshot();
+        Assertions.assertEquals(1000, snapshot.getCount());
+        Assertions.assertEquals(1_000_000, snapshot.getMax());
+        assertClose(500_500, snapshot.getMean());
+        assertClose(500_000, snapshot.getP50());
+        assertClose(990_000, snapshot.getP99());
+
+        histogram.reset();
+        Assertions.assertEquals(0, histogram.snapshot().getCount());
+        Assertions.assertEquals(0, histogram.snapshot().getP99());
+    }
+
+    private static void assertClose(long expected, long actual) {
+        Assertions.assertTrue(Math.abs(expected - actual) <= expected * 0.0625, expected + " != " + actual);
+    }
+}
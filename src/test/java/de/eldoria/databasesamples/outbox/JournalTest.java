@@ -0,0 +1,107 @@
+package de.eldoria.databasesamples.outbox;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+class JournalTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testAppendReadAcknowledge() throws IOException {
+        UUID uuid = UUID.randomUUID();
+        Timestamp timestamp = new Timestamp(123456789L);
+        timestamp.setNanos(42);
+        try (Journal journal = new Journal(directory, 4096, true)) {
+            journal.append("INSERT INTO a VALUES(?, ?, ?)", 1, "one", null);
+            journal.append("INSERT INTO b VALUES(?, ?, ?, ?)", 2L, new BigDecimal("1.50"), uuid, timestamp);
+            Assertions.assertEquals(2, journal.pending());
+
+            List<JournalRecord> records = journal.read(10);
+            Assertions.assertEquals(2, records.size());
+            Assertions.assertEquals("INSERT INTO a VALUES(?, ?, ?)", records.get(0).getSql());
+            Assertions.assertArrayEquals(new Object[]{1, "one", null}, records.get(0).getParams());
+            Assertions.assertArrayEquals(new Object[]{2L, new BigDecimal("1.50"), uuid, timestamp},
+                    records.get(1).getParams());
+
+            journal.acknowledge(records.subList(0, 1));
+            Assertions.assertEquals(1, journal.pending());
+            Assertions.assertEquals("INSERT INTO b VALUES(?, ?, ?, ?)", journal.read(10).get(0).getSql());
+        }
+    }
+
+    @Test
+    public void testRotationAndRecovery() throws IOException {
+        try (Journal journal = new Journal(directory, 256, false)) {
+            for (int i = 0; i < 100; i++) {
+                journal.append("UPDATE player SET score = ? WHERE id = ?", i, i);
+            }
+            Assertions.assertTrue(journal.segments() > 1);
+            journal.acknowledge(journal.read(30));
+        }
+        try (Journal journal = new Journal(directory, 256, false)) {
+            Assertions.assertEquals(70, journal.pending());
+            List<JournalRecord> records = journal.read(1000);
+            for (int i = 0; i < records.size(); i++) {
+                Assertions.assertEquals(30 + i, records.get(i).getParams()[0]);
+            }
+            int segments = journal.segments();
+            journal.acknowledge(records);
+            Assertions.assertEquals(0, journal.pending());
+            Assertions.assertTrue(journal.segments() < segments);
+            Assertions.assertEquals(1, segmentFiles().size());
+        }
+    }
+
+    @Test
+    public void testTornRecordIsDiscarded() throws IOException {
+        try (Journal journal = new Journal(directory, 4096, true)) {
+            journal.append("INSERT INTO a VALUES(?)", 1);
+            journal.append("INSERT INTO a VALUES(?)", 2);
+        }
+        // Corrupts the payload of the second record like a write which was interrupted by a crash.
+        Path segment = segmentFiles().get(0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer length = ByteBuffer.allocate(4);
+            channel.read(length, 16);
+            int second = 16 + 8 + length.getInt(0);
+            channel.write(ByteBuffer.wrap(new byte[]{(byte) 0xFF}), second + 12);
+        }
+        try (Journal journal = new Journal(directory, 4096, true)) {
+            Assertions.assertEquals(1, journal.pending());
+            journal.append("INSERT INTO a VALUES(?)", 3);
+            List<JournalRecord> records = journal.read(10);
+            Assertions.assertEquals(2, records.size());
+            Assertions.assertEquals(3, records.get(1).getParams()[0]);
+        }
+    }
+
+    @Test
+    public void testUnsupportedParameter() throws IOException {
+        try (Journal journal = new Journal(directory, 4096, true)) {
+            Assertions.assertThrows(IllegalArgumentException.class,
+                    () -> journal.append("INSERT INTO a VALUES(?)", new Object()));
+            Assertions.assertEquals(0, journal.pending());
+        }
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+}
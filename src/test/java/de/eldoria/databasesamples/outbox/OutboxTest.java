@@ -0,0 +1,166 @@
+package de.eldoria.databasesamples.outbox;
+
+import de.eldoria.databasesamples.async.AsyncQueryExecutor;
+import de.eldoria.databasesamples.util.DelegatingDataSource;
+import de.eldoria.util.LocalSourceProvider;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.TimeUnit;
+
+class OutboxTest {
+    private static final String UPSERT = "INSERT INTO player(id, score) VALUES(?, ?) ON DUPLICATE KEY UPDATE score = VALUES(score)";
+
+    @TempDir
+    Path directory;
+
+    private LocalSourceProvider provider;
+    private FlakySource source;
+    private AsyncQueryExecutor executor;
+
+    @BeforeEach
+    public void setup() throws SQLException {
+        provider = LocalSourceProvider.create(4);
+        try (Connection conn = provider.getSource().getConnection()) {
+            conn.createStatement().execute("CREATE TABLE player(id int primary key, score int not null)");
+        }
+        source = new FlakySource(provider.getSource());
+        executor = new AsyncQueryExecutor(source, 4);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        executor.close();
+        provider.shutdown();
+    }
+
+    @Test
+    public void testSpillAndReplay() throws SQLException, IOException {
+        try (Outbox outbox = outbox()) {
+            Assertions.assertTrue(outbox.execute(UPSERT, 1, 1));
+
+            source.down = true;
+            long start = System.nanoTime();
+            for (int i = 0; i < 1000; i++) {
+                Assertions.assertFalse(outbox.execute(UPSERT, i % 10, i));
+            }
+            Assertions.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+            Assertions.assertEquals(1000, outbox.pending());
+            Assertions.assertThrows(SQLException.class, outbox::replay);
+
+            source.down = false;
+            // Writes stay behind the journaled writes until the journal is drained.
+            Assertions.assertFalse(outbox.execute(UPSERT, 5, -1));
+            Assertions.assertEquals(1001, outbox.replay());
+            Assertions.assertEquals(0, outbox.pending());
+            Assertions.assertEquals(-1, score(5));
+            Assertions.assertEquals(999, score(9));
+            Assertions.assertTrue(outbox.execute(UPSERT, 1, 1));
+        }
+    }
+
+    @Test
+    public void testDeadline() throws SQLException, IOException {
+        try (Outbox outbox = outbox()) {
+            source.delayMillis = 500;
+            long start = System.nanoTime();
+            Assertions.assertFalse(outbox.execute(UPSERT, 1, 1));
+            Assertions.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(400));
+            source.delayMillis = 0;
+            executor.close();
+            // The late connection must not execute the journaled write a second time.
+            Assertions.assertEquals(0, count());
+            Assertions.assertEquals(1, outbox.replay());
+            Assertions.assertEquals(1, count());
+        }
+    }
+
+    @Test
+    public void testJournalSurvivesRestart() throws SQLException, IOException {
+        try (Outbox outbox = outbox()) {
+            source.down = true;
+            outbox.execute(UPSERT, 1, 10);
+            outbox.execute(UPSERT, 2, 20);
+        }
+        source.down = false;
+        try (Outbox outbox = outbox()) {
+            Assertions.assertEquals(2, outbox.pending());
+            outbox.replay();
+            Assertions.assertEquals(10, score(1));
+            Assertions.assertEquals(20, score(2));
+        }
+    }
+
+    @Test
+    public void testRejectedWriteIsSkipped() throws SQLException, IOException {
+        try (Outbox outbox = outbox()) {
+            source.down = true;
+            outbox.execute(UPSERT, 1, 1);
+            outbox.execute("INSERT INTO missing_table VALUES(?)", 1);
+            outbox.execute(UPSERT, 2, 2);
+            source.down = false;
+            Assertions.assertEquals(3, outbox.replay());
+            Assertions.assertEquals(1, outbox.rejected());
+            Assertions.assertEquals(2, count());
+
+            // Writes which are rejected directly are not journaled.
+            Assertions.assertThrows(SQLException.class, () -> outbox.execute("INSERT INTO missing_table VALUES(?)", 1));
+            Assertions.assertEquals(0, outbox.pending());
+        }
+    }
+
+    private Outbox outbox() throws IOException {
+        return new Outbox(source, executor, new Journal(directory, 64 * 1024, true), 100,
+                TimeUnit.HOURS.toMillis(1), TimeUnit.MILLISECONDS,
+                table -> {
+                });
+    }
+
+    private int count() throws SQLException {
+        try (Connection conn = provider.getSource().getConnection();
+             ResultSet resultSet = conn.createStatement().executeQuery("SELECT COUNT(*) FROM player")) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+    private int score(int id) throws SQLException {
+        try (Connection conn = provider.getSource().getConnection();
+             ResultSet resultSet = conn.createStatement().executeQuery("SELECT score FROM player WHERE id = " + id)) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+    private static final class FlakySource extends DelegatingDataSource {
+        private volatile boolean down;
+        private volatile long delayMillis;
+
+        private FlakySource(DataSource delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            if (delayMillis > 0) {
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (down) throw new SQLTransientConnectionException("Connection is not available");
+            return super.getConnection();
+        }
+    }
+}
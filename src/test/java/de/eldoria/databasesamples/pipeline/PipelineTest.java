@@ -0,0 +1,169 @@
+package de.eldoria.databasesamples.pipeline;
+
+import de.eldoria.databasesamples.util.Proxies;
+import de.eldoria.util.LocalSourceProvider;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+class PipelineTest {
+    private LocalSourceProvider provider;
+
+    @BeforeEach
+    public void setup() throws SQLException {
+        provider = LocalSourceProvider.create(2);
+        try (Connection conn = provider.getSource().getConnection()) {
+            conn.createStatement().execute("CREATE TABLE users(id INT PRIMARY KEY, name TEXT, logins INT)");
+            conn.createStatement().execute("INSERT INTO users VALUES (1, 'alex', 0)");
+        }
+    }
+
+    @AfterEach
+    public void tearDown() {
+        provider.shutdown();
+    }
+
+    @Test
+    public void testSequential() throws SQLException {
+        Pipeline pipeline = provider.pipeline();
+        CompletableFuture<List<String>> user = pipeline.query("SELECT name FROM users WHERE id = ?",
+                rs -> rs.getString(1), 1);
+        CompletableFuture<Integer> login = pipeline.update("UPDATE users SET logins = logins + 1 WHERE id = ?;", 1);
+        CompletableFuture<List<Integer>> logins = pipeline.query("SELECT logins FROM users WHERE id = ?",
+                rs -> rs.getInt(1), 1);
+        Assertions.assertFalse(user.isDone());
+        pipeline.execute();
+
+        Assertions.assertEquals(Collections.singletonList("alex"), user.join());
+        Assertions.assertEquals(1, login.join());
+        Assertions.assertEquals(Collections.singletonList(1), logins.join());
+        Assertions.assertThrows(IllegalStateException.class, pipeline::execute);
+        Assertions.assertThrows(IllegalStateException.class, () -> pipeline.update("SELECT 1"));
+    }
+
+    @Test
+    public void testFailureSkipsRemaining() {
+        Pipeline pipeline = provider.pipeline();
+        CompletableFuture<Integer> first = pipeline.update("UPDATE users SET logins = 5 WHERE id = ?", 1);
+        CompletableFuture<Integer> failed = pipeline.update("UPDATE missing SET logins = 1");
+        CompletableFuture<List<Integer>> skipped = pipeline.query("SELECT logins FROM users", rs -> rs.getInt(1));
+        Assertions.assertThrows(SQLException.class, pipeline::execute);
+
+        Assertions.assertEquals(1, first.join());
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class, failed::get);
+        Assertions.assertInstanceOf(SQLException.class, e.getCause());
+        Assertions.assertTrue(skipped.isCompletedExceptionally());
+    }
+
+    @Test
+    public void testJoined() throws SQLException {
+        ScriptedStatement scripted = new ScriptedStatement();
+        Pipeline pipeline = new Pipeline(null, (conn, sql) -> scripted.prepare(sql));
+        CompletableFuture<List<String>> user = pipeline.query("SELECT name FROM users WHERE id = ?",
+                rs -> rs.getString(1), 7);
+        CompletableFuture<Integer> login = pipeline.update("UPDATE users SET logins = logins + 1 WHERE id = ?;  ", 7);
+        CompletableFuture<Integer> audit = pipeline.update("INSERT INTO audit(user_id, event) VALUES (?, ?)", 7,
+                "login");
+        pipeline.execute(null);
+
+        Assertions.assertEquals("SELECT name FROM users WHERE id = ?;\n"
+                + "UPDATE users SET logins = logins + 1 WHERE id = ?;\n"
+                + "INSERT INTO audit(user_id, event) VALUES (?, ?)", scripted.sql);
+        Assertions.assertEquals(1, scripted.executions);
+        Map<Integer, Object> params = new HashMap<>();
+        params.put(1, 7);
+        params.put(2, 7);
+        params.put(3, 7);
+        params.put(4, "login");
+        Assertions.assertEquals(params, scripted.params);
+        Assertions.assertEquals(Collections.singletonList("alex"), user.join());
+        Assertions.assertEquals(1, login.join());
+        Assertions.assertEquals(1, audit.join());
+    }
+
+    @Test
+    public void testWritesAreReported() throws SQLException {
+        List<String> written = new ArrayList<>();
+        provider.onWrite(written::add);
+        Pipeline pipeline = provider.pipeline();
+        pipeline.query("SELECT name FROM users", rs -> rs.getString(1));
+        pipeline.update("UPDATE users SET logins = 2 WHERE id = ?", 1);
+        pipeline.execute();
+
+        Assertions.assertEquals(Collections.singletonList("users"), written);
+    }
+
+    @Test
+    public void testStatementsAreCleaned() {
+        Assertions.assertEquals("SELECT 1", Pipeline.clean("SELECT 1 -- comment"));
+        Assertions.assertEquals("SELECT ';--' FROM t", Pipeline.clean("SELECT ';--'/* note */FROM t;\n"));
+        Assertions.assertEquals("SELECT 'it''s'", Pipeline.clean("SELECT 'it''s'; -- done"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Pipeline.clean("SELECT 1; SELECT 2"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Pipeline.clean("SELECT 'open"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Pipeline.clean("SELECT 1 /* open"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> provider.pipeline().update("DELETE FROM a; x"));
+    }
+
+    /**
+     * A joined statement which answers with one result set and two update counts.
+     */
+    private static final class ScriptedStatement {
+        private final Map<Integer, Object> params = new HashMap<>();
+        private final List<Object> results = new ArrayList<>(Arrays.asList("alex", 1, 1));
+        private String sql;
+        private int executions;
+
+        private PreparedStatement prepare(String sql) {
+            this.sql = sql;
+            return Proxies.create(PreparedStatement.class, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "setObject":
+                        params.put((Integer) args[0], args[1]);
+                        return null;
+                    case "execute":
+                        executions++;
+                        return results.get(0) instanceof String;
+                    case "getMoreResults":
+                        results.remove(0);
+                        return !results.isEmpty() && results.get(0) instanceof String;
+                    case "getUpdateCount":
+                        return results.get(0);
+                    case "getResultSet":
+                        return resultSet((String) results.get(0));
+                    default:
+                        return null;
+                }
+            });
+        }
+
+        private static ResultSet resultSet(String value) {
+            boolean[] read = {false};
+            return Proxies.create(ResultSet.class, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "next":
+                        if (read[0]) return false;
+                        read[0] = true;
+                        return true;
+                    case "getString":
+                        return value;
+                    default:
+                        return null;
+                }
+            });
+        }
+    }
+}
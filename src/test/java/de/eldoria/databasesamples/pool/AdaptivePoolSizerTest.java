@@ -0,0 +1,27 @@
+package de.eldoria.databasesamples.pool;
+
+import de.eldoria.util.LocalSourceProvider;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+
+class AdaptivePoolSizerTest {
+    @Test
+    public void testShrinkIdlePool() throws SQLException, InterruptedException {
+        LocalSourceProvider provider = LocalSourceProvider.create(10);
+        try {
+            ManagedPool pool = provider.getSource().unwrap(ManagedPool.class);
+            AdaptivePoolSizer sizer = provider.attach(new AdaptivePoolSizer(pool, provider.getMetrics(), 1, 10, 20));
+            Assertions.assertEquals(10, sizer.size());
+            long deadline = System.currentTimeMillis() + 5000;
+            while (sizer.size() > 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            Assertions.assertEquals(1, sizer.size());
+            Assertions.assertEquals(1, pool.getMaximumPoolSize());
+        } finally {
+            provider.shutdown();
+        }
+    }
+}
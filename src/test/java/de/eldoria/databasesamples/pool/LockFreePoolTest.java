@@ -0,0 +1,145 @@
+package de.eldoria.databasesamples.pool;
+
+import de.eldoria.databasesamples.config.DbConfig;
+import de.eldoria.util.LocalSourceProvider;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+class LockFreePoolTest {
+    @Test
+    public void testReuseReturnedConnection() throws SQLException {
+        try (LockFreePool pool = pool(1, 2, 1000)) {
+            Assertions.assertEquals(1, pool.getTotalConnections());
+            Connection physical;
+            try (Connection conn = pool.getConnection()) {
+                physical = conn.unwrap(Connection.class);
+                conn.setAutoCommit(false);
+                conn.setReadOnly(true);
+                Assertions.assertEquals(1, pool.getActiveConnections());
+            }
+            Assertions.assertEquals(0, pool.getActiveConnections());
+            try (Connection conn = pool.getConnection()) {
+                Assertions.assertSame(physical, conn.unwrap(Connection.class));
+                Assertions.assertTrue(conn.getAutoCommit());
+            }
+            Assertions.assertEquals(1, pool.getTotalConnections());
+        }
+    }
+
+    @Test
+    public void testReturnClosesStatementsAndRestoresSession() throws SQLException {
+        try (LockFreePool pool = pool(1, 1, 1000)) {
+            Statement statement;
+            ResultSet resultSet;
+            String schema;
+            try (Connection conn = pool.getConnection()) {
+                schema = conn.getSchema();
+                conn.createStatement().execute("CREATE SCHEMA IF NOT EXISTS other");
+                conn.setSchema("OTHER");
+                conn.setNetworkTimeout(Runnable::run, 1234);
+                statement = conn.createStatement();
+                resultSet = statement.executeQuery("SELECT 1");
+            }
+            Assertions.assertTrue(statement.isClosed());
+            Assertions.assertTrue(resultSet.isClosed());
+            try (Connection conn = pool.getConnection()) {
+                Assertions.assertEquals(schema, conn.getSchema());
+                Assertions.assertEquals(0, conn.getNetworkTimeout());
+            }
+        }
+    }
+
+    @Test
+    public void testTimeoutWhenExhausted() throws SQLException {
+        try (LockFreePool pool = pool(0, 1, 100); Connection ignored = pool.getConnection()) {
+            long start = System.nanoTime();
+            Assertions.assertThrows(SQLTransientConnectionException.class, pool::getConnection);
+            Assertions.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+            Assertions.assertEquals(0, pool.getPendingThreads());
+        }
+    }
+
+    @Test
+    public void testWaiterReceivesReturnedConnection() throws Exception {
+        try (LockFreePool pool = pool(0, 1, 5000)) {
+            Connection conn = pool.getConnection();
+            CompletableFuture<Boolean> waiter = CompletableFuture.supplyAsync(() -> {
+                try (Connection next = pool.getConnection()) {
+                    return next.isValid(1);
+                } catch (SQLException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            long deadline = System.currentTimeMillis() + 5000;
+            while (pool.getPendingThreads() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            Assertions.assertEquals(1, pool.getPendingThreads());
+            conn.close();
+            Assertions.assertTrue(waiter.get(5, TimeUnit.SECONDS));
+            Assertions.assertEquals(1, pool.getTotalConnections());
+        }
+    }
+
+    @Test
+    public void testEvictAndResize() throws SQLException {
+        try (LockFreePool pool = pool(3, 3, 1000)) {
+            Connection conn = pool.getConnection();
+            pool.softEvictConnections();
+            Assertions.assertEquals(1, pool.getTotalConnections());
+            conn.close();
+            Assertions.assertEquals(0, pool.getTotalConnections());
+
+            try (Connection first = pool.getConnection(); Connection second = pool.getConnection()) {
+                pool.evictConnection(first);
+                Assertions.assertTrue(first.isClosed());
+                pool.setMaximumPoolSize(1);
+            }
+            Assertions.assertEquals(0, pool.getTotalConnections());
+            try (Connection ignored = pool.getConnection()) {
+                Assertions.assertThrows(SQLTransientConnectionException.class, pool::getConnection);
+            }
+        }
+    }
+
+    @Test
+    public void testProviderBackends() throws SQLException {
+        checkBackend("lockfree", LockFreePool.class);
+        checkBackend("unpooled", UnpooledSource.class);
+        checkBackend("hikari", HikariPool.class);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> PoolBackends.forName("missing"));
+    }
+
+    private static void checkBackend(String backend, Class<? extends ManagedPool> type) throws SQLException {
+        DbConfig.DBSettings settings = LocalSourceProvider.settings(4);
+        settings.setPoolBackend(backend);
+        LocalSourceProvider provider = new LocalSourceProvider(settings);
+        try {
+            ManagedPool pool = provider.getSource().unwrap(ManagedPool.class);
+            Assertions.assertTrue(type.isInstance(pool));
+            try (Connection conn = provider.getSource().getConnection(); Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT 1")) {
+                Assertions.assertTrue(rs.next());
+                Assertions.assertEquals(1, pool.getActiveConnections());
+            }
+            Assertions.assertEquals(0, pool.getActiveConnections());
+        } finally {
+            provider.shutdown();
+        }
+    }
+
+    private static LockFreePool pool(int minIdle, int maxPoolSize, long timeoutMs) throws SQLException {
+        JdbcDataSource driver = new JdbcDataSource();
+        driver.setURL("jdbc:h2:mem:lockfree;DB_CLOSE_DELAY=-1");
+        return new LockFreePool("lockfree", driver, minIdle, maxPoolSize, timeoutMs, null);
+    }
+}
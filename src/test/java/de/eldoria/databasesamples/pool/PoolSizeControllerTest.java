@@ -0,0 +1,82 @@
+package de.eldoria.databasesamples.pool;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class PoolSizeControllerTest {
+    private static final int MIN = 2;
+    private static final int MAX = 50;
+
+    @Test
+    public void testLoadStepConvergence() {
+        SimulatedDatabase database = new SimulatedDatabase(8, 10_000_000);
+        PoolSizeController controller = new PoolSizeController(MIN, MAX, 10);
+
+        // Low load: 200 requests per second need about two connections.
+        int size = run(controller, database, 200, 30);
+        Assertions.assertTrue(size >= MIN && size <= 4, "Low load size " + size);
+
+        // Step to moderate load below the capacity of the database: 600 requests per second need six connections.
+        size = run(controller, database, 600, 30);
+        Assertions.assertTrue(size >= 7 && size <= 9, "Moderate load size " + size);
+
+        // Step to overload. The database is saturated at eight concurrent queries. The pool must not grow to max.
+        size = run(controller, database, 3000, 60);
+        Assertions.assertTrue(size >= 8 && size <= 14, "Overload size " + size);
+
+        // Back to low load. Surplus connections are released.
+        size = run(controller, database, 200, 30);
+        Assertions.assertTrue(size >= MIN && size <= 4, "Recovered size " + size);
+    }
+
+    @Test
+    public void testBounds() {
+        PoolSizeController controller = new PoolSizeController(3, 5, 100);
+        Assertions.assertEquals(5, controller.size());
+        for (int i = 0; i < 20; i++) controller.update(0, 0, 0);
+        Assertions.assertEquals(3, controller.size());
+        for (int i = 0; i < 20; i++) controller.update(100, 100, 0);
+        Assertions.assertEquals(5, controller.size());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new PoolSizeController(5, 3, 4));
+    }
+
+    private static int run(PoolSizeController controller, SimulatedDatabase database, double rate, int intervals) {
+        int size = controller.size();
+        for (int i = 0; i < intervals; i++) {
+            database.step(rate, size);
+            size = controller.update(database.concurrency, database.pending, database.latencyNanos);
+        }
+        return size;
+    }
+
+    /**
+     * Database which executes up to capacity queries in parallel at the base latency. More concurrent queries share
+     * the capacity and take proportionally longer.
+     */
+    private static class SimulatedDatabase {
+        private final int capacity;
+        private final double baseLatency;
+        private double concurrency;
+        private int pending;
+        private double latencyNanos;
+
+        private SimulatedDatabase(int capacity, double baseLatency) {
+            this.capacity = capacity;
+            this.baseLatency = baseLatency;
+        }
+
+        private void step(double rate, int poolSize) {
+            // Concurrency required to serve the rate at the latency the pool size allows.
+            double active = poolSize;
+            double latency = baseLatency;
+            for (int i = 0; i < 50; i++) {
+                latency = baseLatency * Math.max(1, active / capacity);
+                active = Math.min(poolSize, rate * latency / 1e9);
+            }
+            double offered = rate * latency / 1e9;
+            concurrency = active;
+            pending = (int) Math.ceil(Math.max(0, offered - poolSize));
+            latencyNanos = latency;
+        }
+    }
+}
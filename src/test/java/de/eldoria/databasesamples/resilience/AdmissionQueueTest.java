@@ -0,0 +1,96 @@
+package de.eldoria.databasesamples.resilience;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+class AdmissionQueueTest {
+    @Test
+    public void testReservedPermits() throws InterruptedException {
+        AdmissionQueue queue = new AdmissionQueue(3, 1, 10);
+        Assertions.assertTrue(queue.acquire(Priority.BULK, 0, TimeUnit.MILLISECONDS));
+        Assertions.assertTrue(queue.acquire(Priority.NORMAL, 0, TimeUnit.MILLISECONDS));
+        Assertions.assertFalse(queue.acquire(Priority.NORMAL, 0, TimeUnit.MILLISECONDS));
+        Assertions.assertTrue(queue.acquire(Priority.CRITICAL, 0, TimeUnit.MILLISECONDS));
+        Assertions.assertEquals(3, queue.inUse());
+        queue.release();
+        queue.release();
+        queue.release();
+        Assertions.assertEquals(0, queue.inUse());
+    }
+
+    @Test
+    public void testTimeout() throws InterruptedException {
+        AdmissionQueue queue = new AdmissionQueue(1, 0, 10);
+        queue.acquire(Priority.NORMAL, 0, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+        Assertions.assertFalse(queue.acquire(Priority.CRITICAL, 50, TimeUnit.MILLISECONDS));
+        long waited = System.nanoTime() - start;
+        Assertions.assertTrue(waited >= TimeUnit.MILLISECONDS.toNanos(50));
+        Assertions.assertTrue(waited < TimeUnit.SECONDS.toNanos(1));
+        Assertions.assertEquals(1, queue.timedOut());
+        Assertions.assertEquals(0, queue.queued());
+    }
+
+    @Test
+    public void testQueueLimit() throws InterruptedException {
+        AdmissionQueue queue = new AdmissionQueue(1, 0, 1);
+        queue.acquire(Priority.NORMAL, 0, TimeUnit.MILLISECONDS);
+        Thread waiter = new Thread(() -> {
+            try {
+                queue.acquire(Priority.NORMAL, 10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiter.start();
+        awaitQueued(queue, 1);
+        Assertions.assertFalse(queue.acquire(Priority.CRITICAL, 10, TimeUnit.SECONDS));
+        Assertions.assertEquals(1, queue.rejected());
+        waiter.interrupt();
+        waiter.join();
+        Assertions.assertEquals(0, queue.queued());
+        Assertions.assertEquals(1, queue.inUse());
+    }
+
+    @Test
+    public void testPriorityOrder() throws InterruptedException {
+        AdmissionQueue queue = new AdmissionQueue(1, 0, 10);
+        queue.acquire(Priority.NORMAL, 0, TimeUnit.MILLISECONDS);
+        List<Priority> served = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(3);
+        Priority[] order = {Priority.BULK, Priority.NORMAL, Priority.CRITICAL};
+        for (int i = 0; i < order.length; i++) {
+            Priority priority = order[i];
+            new Thread(() -> {
+                try {
+                    if (queue.acquire(priority, 10, TimeUnit.SECONDS)) {
+                        served.add(priority);
+                        queue.release();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+            awaitQueued(queue, i + 1);
+        }
+        queue.release();
+        Assertions.assertTrue(done.await(10, TimeUnit.SECONDS));
+        Assertions.assertEquals(Arrays.asList(Priority.CRITICAL, Priority.NORMAL, Priority.BULK), served);
+    }
+
+    private static void awaitQueued(AdmissionQueue queue, int queued) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (queue.queued() < queued) {
+            Assertions.assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+    }
+}
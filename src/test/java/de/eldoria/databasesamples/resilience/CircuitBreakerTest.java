@@ -0,0 +1,112 @@
+package de.eldoria.databasesamples.resilience;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+class CircuitBreakerTest {
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SLOW = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testOpensOnFailureRate() {
+        CircuitBreaker breaker = breaker(60_000);
+        for (int i = 0; i < 9; i++) {
+            breaker.record(acquire(breaker), FAST, true);
+        }
+        // Below the min amount of calls.
+        Assertions.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.record(acquire(breaker), FAST, true);
+        Assertions.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Assertions.assertEquals(CircuitBreaker.REJECTED, breaker.tryAcquire());
+        Assertions.assertEquals(1, breaker.rejected());
+    }
+
+    @Test
+    public void testStaysClosedBelowThreshold() {
+        CircuitBreaker breaker = breaker(60_000);
+        for (int i = 0; i < 100; i++) {
+            breaker.record(acquire(breaker), FAST, i % 3 == 0);
+        }
+        Assertions.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testOpensOnSlowCalls() {
+        CircuitBreaker breaker = breaker(60_000);
+        for (int i = 0; i < 10; i++) {
+            breaker.record(breaker.tryAcquire(), i < 2 ? FAST : SLOW, false);
+        }
+        Assertions.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testHalfOpen() throws InterruptedException {
+        CircuitBreaker breaker = breaker(50);
+        open(breaker);
+        Thread.sleep(100);
+
+        // Only the trial calls are let through.
+        long first = acquire(breaker);
+        long second = acquire(breaker);
+        Assertions.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        Assertions.assertEquals(CircuitBreaker.REJECTED, breaker.tryAcquire());
+        breaker.release(second);
+        long third = acquire(breaker);
+
+        breaker.record(first, FAST, false);
+        breaker.record(third, SLOW, false);
+        Assertions.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        Thread.sleep(100);
+        for (int i = 0; i < 2; i++) {
+            breaker.record(acquire(breaker), FAST, false);
+        }
+        Assertions.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        // The window starts empty after closing.
+        breaker.record(acquire(breaker), FAST, true);
+        Assertions.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testStaleOutcomesAreIgnored() throws InterruptedException {
+        CircuitBreaker breaker = breaker(50);
+        // Calls which started while the breaker was closed.
+        long slowSuccess = acquire(breaker);
+        long lateFailure = acquire(breaker);
+        open(breaker);
+        Thread.sleep(100);
+
+        long trial = acquire(breaker);
+        Assertions.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        // Neither reopens nor closes the breaker, and does not give up a trial permit.
+        breaker.record(lateFailure, FAST, true);
+        breaker.record(slowSuccess, FAST, false);
+        breaker.release(slowSuccess);
+        Assertions.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        acquire(breaker);
+        Assertions.assertEquals(CircuitBreaker.REJECTED, breaker.tryAcquire());
+
+        breaker.record(trial, FAST, false);
+        Assertions.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    }
+
+    private static long acquire(CircuitBreaker breaker) {
+        long permit = breaker.tryAcquire();
+        Assertions.assertNotEquals(CircuitBreaker.REJECTED, permit);
+        return permit;
+    }
+
+    private static void open(CircuitBreaker breaker) {
+        for (int i = 0; i < 10; i++) {
+            breaker.record(breaker.tryAcquire(), FAST, true);
+        }
+        Assertions.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    private static CircuitBreaker breaker(long openMillis) {
+        return new CircuitBreaker("test", 20, 10, 50, 80, TimeUnit.MILLISECONDS.toNanos(100),
+                TimeUnit.MILLISECONDS.toNanos(openMillis), TimeUnit.NANOSECONDS, 2);
+    }
+}
@@ -0,0 +1,104 @@
+package de.eldoria.databasesamples.resilience;
+
+import de.eldoria.databasesamples.config.DbConfig;
+import de.eldoria.databasesamples.util.DelegatingDataSource;
+import de.eldoria.util.LocalSourceProvider;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class ResilientDataSourceTest {
+    private LocalSourceProvider provider;
+
+    @AfterEach
+    public void tearDown() {
+        provider.shutdown();
+    }
+
+    @Test
+    public void testBoundedWait() throws SQLException {
+        DbConfig.DBSettings settings = LocalSourceProvider.settings(2);
+        settings.getResilience().setAdmissionTimeoutMillis(100);
+        provider = new LocalSourceProvider(settings);
+        ResilientDataSource source = provider.resilient();
+
+        try (Connection conn = source.getConnection()) {
+            long start = System.nanoTime();
+            Assertions.assertThrows(SQLTransientConnectionException.class, () -> source.getConnection(Priority.BULK));
+            Assertions.assertThrows(SQLTransientConnectionException.class, source::getConnection);
+            Assertions.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+            // The last connection is reserved for critical requests.
+            try (Connection critical = source.getConnection(Priority.CRITICAL)) {
+                Assertions.assertTrue(critical.isValid(1));
+                Assertions.assertEquals(2, source.getAdmission().inUse());
+            }
+            Assertions.assertEquals(2, source.getAdmission().timedOut());
+        }
+        Assertions.assertEquals(0, source.getAdmission().inUse());
+        Assertions.assertEquals(CircuitBreaker.State.CLOSED, source.getBreaker().getState());
+    }
+
+    @Test
+    public void testFailFast() throws SQLException {
+        provider = LocalSourceProvider.create(2);
+        FlakySource flaky = new FlakySource(provider.getSource());
+        ResilientDataSource source = new ResilientDataSource(flaky, new AdmissionQueue(2, 0, 10),
+                new CircuitBreaker("test", 10, 5, 50, 100, 1, 100, TimeUnit.SECONDS, 1), 1, TimeUnit.SECONDS);
+
+        flaky.down = true;
+        for (int i = 0; i < 5; i++) {
+            Assertions.assertThrows(SQLTransientConnectionException.class, source::getConnection);
+        }
+        Assertions.assertEquals(CircuitBreaker.State.OPEN, source.getBreaker().getState());
+        flaky.down = false;
+        SQLException e = Assertions.assertThrows(SQLTransientConnectionException.class, source::getConnection);
+        Assertions.assertTrue(e.getMessage().contains("Circuit breaker"));
+        Assertions.assertEquals(5, flaky.requests.get());
+        Assertions.assertEquals(0, source.getAdmission().inUse());
+    }
+
+    @Test
+    public void testStatementErrors() throws SQLException {
+        provider = LocalSourceProvider.create(2);
+        ResilientDataSource source = new ResilientDataSource(provider.getSource(), new AdmissionQueue(2, 0, 10),
+                new CircuitBreaker("test", 10, 5, 50, 100, 1, 100, TimeUnit.SECONDS, 1), 1, TimeUnit.SECONDS);
+
+        for (int i = 0; i < 10; i++) {
+            try (Connection conn = source.getConnection(); Statement stmt = conn.createStatement()) {
+                Assertions.assertSame(conn, stmt.getConnection());
+                // Errors of the statement itself do not indicate an unhealthy database.
+                Assertions.assertThrows(SQLException.class, () -> stmt.execute("SELECT * FROM missing_table"));
+            }
+        }
+        Assertions.assertEquals(CircuitBreaker.State.CLOSED, source.getBreaker().getState());
+
+        Connection conn = source.getConnection();
+        conn.close();
+        conn.close();
+        Assertions.assertEquals(0, source.getAdmission().inUse());
+    }
+
+    private static final class FlakySource extends DelegatingDataSource {
+        private final AtomicInteger requests = new AtomicInteger();
+        private volatile boolean down;
+
+        private FlakySource(DataSource delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            requests.incrementAndGet();
+            if (down) throw new SQLTransientConnectionException("Connection is not available");
+            return super.getConnection();
+        }
+    }
+}
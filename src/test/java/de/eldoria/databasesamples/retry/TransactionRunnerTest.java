@@ -0,0 +1,181 @@
+package de.eldoria.databasesamples.retry;
+
+import de.eldoria.databasesamples.dialect.SqlDialect;
+import de.eldoria.databasesamples.transaction.Transactions;
+import de.eldoria.databasesamples.util.DelegatingDataSource;
+import de.eldoria.util.LocalSourceProvider;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class TransactionRunnerTest {
+    private LocalSourceProvider provider;
+
+    @BeforeEach
+    public void setup() throws SQLException {
+        provider = LocalSourceProvider.create(2);
+        try (Connection conn = provider.getSource().getConnection()) {
+            conn.createStatement().execute("CREATE TABLE accounts(id INT PRIMARY KEY, balance INT)");
+        }
+    }
+
+    @AfterEach
+    public void tearDown() {
+        provider.shutdown();
+    }
+
+    @Test
+    public void testDeadlockIsRetried() throws SQLException {
+        TransactionRunner runner = runner(provider.getSource(), new RetryBudget(0.1, 10));
+        AtomicInteger attempts = new AtomicInteger();
+        int result = runner.runIdempotent(work -> {
+            work.getConnection().createStatement().execute("INSERT INTO accounts VALUES (1, 100)");
+            if (attempts.incrementAndGet() < 3) throw new SQLException("Deadlock found", "40001", 1213);
+            return attempts.get();
+        });
+
+        Assertions.assertEquals(3, result);
+        // The failed attempts were rolled back.
+        Assertions.assertEquals(1, count());
+        Assertions.assertEquals(2, provider.getMetrics().getRetries());
+        Assertions.assertEquals(2, provider.getMetrics().snapshot().getRetries());
+    }
+
+    @Test
+    public void testCommittedAttemptIsReported() throws SQLException {
+        List<String> written = new ArrayList<>();
+        provider.onWrite(written::add);
+        AtomicInteger attempts = new AtomicInteger();
+        provider.transactions().runIdempotent(work -> {
+            work.getConnection().createStatement().execute("INSERT INTO accounts VALUES (1, 100)");
+            if (attempts.incrementAndGet() < 2) throw new SQLException("Deadlock found", "40001", 1213);
+            return attempts.get();
+        });
+        Assertions.assertEquals(Collections.singletonList("accounts"), written);
+    }
+
+    @Test
+    public void testNotIdempotent() throws SQLException {
+        TransactionRunner runner = runner(provider.getSource(), new RetryBudget(0.1, 10));
+        AtomicInteger attempts = new AtomicInteger();
+        Assertions.assertThrows(SQLException.class, () -> runner.run(work -> {
+            work.getConnection().createStatement().execute("INSERT INTO accounts VALUES (1, 100)");
+            attempts.incrementAndGet();
+            throw new SQLException("Deadlock found", "40001", 1213);
+        }));
+        Assertions.assertEquals(1, attempts.get());
+        Assertions.assertEquals(0, count());
+        Assertions.assertEquals(0, provider.getMetrics().getRetries());
+
+        // Errors which are not transient are never retried.
+        Assertions.assertThrows(SQLException.class, () -> runner.runIdempotent(
+                work -> work.getConnection().createStatement().execute("SELECT * FROM missing")));
+        Assertions.assertEquals(0, provider.getMetrics().getRetries());
+    }
+
+    @Test
+    public void testConnectionFailureIsRetried() throws SQLException {
+        FlakySource flaky = new FlakySource(provider.getSource(), 2);
+        TransactionRunner runner = runner(flaky, new RetryBudget(0.1, 10));
+        // The block did not run before the connection was acquired, so it is safe to retry.
+        int result = runner.run(work -> 1);
+        Assertions.assertEquals(1, result);
+        Assertions.assertEquals(3, flaky.requests.get());
+        Assertions.assertEquals(2, provider.getMetrics().getRetries());
+    }
+
+    @Test
+    public void testRetryBudget() throws SQLException {
+        TransactionRunner runner = runner(new FlakySource(provider.getSource(), Integer.MAX_VALUE),
+                new RetryBudget(0, 1));
+        Assertions.assertThrows(SQLTransientConnectionException.class, () -> runner.run(work -> null));
+        Assertions.assertEquals(1, provider.getMetrics().getRetries());
+        Assertions.assertEquals(1, provider.getMetrics().getRetriesRejected());
+        Assertions.assertThrows(SQLTransientConnectionException.class, () -> runner.run(work -> null));
+        Assertions.assertEquals(1, provider.getMetrics().getRetries());
+        Assertions.assertEquals(2, provider.getMetrics().getRetriesRejected());
+        Assertions.assertEquals(0, runner.getPolicy().getBudget().available());
+    }
+
+    @Test
+    public void testClassification() {
+        Assertions.assertEquals(FailureClass.CONFLICT,
+                SqlDialect.MARIADB.classify(new SQLException("Deadlock found", "40001", 1213)));
+        Assertions.assertEquals(FailureClass.LOCK_TIMEOUT,
+                SqlDialect.MARIADB.classify(new SQLException("Lock wait timeout exceeded", "HY000", 1205)));
+        Assertions.assertEquals(FailureClass.CONNECTION,
+                SqlDialect.MARIADB.classify(new SQLException("Server has gone away", "HY000", 2006)));
+        Assertions.assertEquals(FailureClass.CONFLICT,
+                SqlDialect.POSTGRESQL.classify(new SQLException("deadlock detected", "40P01")));
+        Assertions.assertEquals(FailureClass.LOCK_TIMEOUT,
+                SqlDialect.POSTGRESQL.classify(new SQLException("could not obtain lock", "55P03")));
+        Assertions.assertEquals(FailureClass.TIMEOUT,
+                SqlDialect.POSTGRESQL.classify(new SQLException("canceling statement", "57014")));
+        Assertions.assertEquals(FailureClass.CONNECTION,
+                SqlDialect.POSTGRESQL.classify(new SQLException("terminating connection", "57P01")));
+        Assertions.assertEquals(FailureClass.PERMANENT,
+                SqlDialect.POSTGRESQL.classify(new SQLException("duplicate key", "23505")));
+        Assertions.assertEquals(FailureClass.TIMEOUT,
+                SqlDialect.POSTGRESQL.classify(new SQLTimeoutException("Deadline exceeded")));
+
+        // Batches report the failure of the single statement as next exception.
+        BatchUpdateException batch = new BatchUpdateException("Batch failed", "HY000", 0, new int[0]);
+        batch.setNextException(new SQLException("Deadlock found", "40001", 1213));
+        Assertions.assertEquals(FailureClass.CONFLICT, SqlDialect.MARIADB.classify(batch));
+    }
+
+    @Test
+    public void testBackoff() {
+        RetryPolicy policy = new RetryPolicy(5, 10, 50, TimeUnit.MILLISECONDS, new RetryBudget(0, 0));
+        for (int i = 0; i < 100; i++) {
+            Assertions.assertTrue(policy.backoffNanos(1) <= TimeUnit.MILLISECONDS.toNanos(10));
+            Assertions.assertTrue(policy.backoffNanos(2) <= TimeUnit.MILLISECONDS.toNanos(20));
+            Assertions.assertTrue(policy.backoffNanos(40) <= TimeUnit.MILLISECONDS.toNanos(50));
+        }
+    }
+
+    private TransactionRunner runner(DataSource source, RetryBudget budget) {
+        return new TransactionRunner(new Transactions(source, SqlDialect.MARIADB),
+                new RetryPolicy(3, 1, 5, TimeUnit.MILLISECONDS, budget), provider.getMetrics());
+    }
+
+    private int count() throws SQLException {
+        try (Connection conn = provider.getSource().getConnection();
+             ResultSet rs = conn.createStatement().executeQuery("SELECT COUNT(*) FROM accounts")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    private static final class FlakySource extends DelegatingDataSource {
+        private final AtomicInteger requests = new AtomicInteger();
+        private final int failures;
+
+        private FlakySource(DataSource delegate, int failures) {
+            super(delegate);
+            this.failures = failures;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            if (requests.incrementAndGet() <= failures) {
+                throw new SQLTransientConnectionException("Connection is not available");
+            }
+            return super.getConnection();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package de.eldoria.databasesamples.routing;
+
+import de.eldoria.util.LocalSourceProvider;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+class RoutingDataSourceTest {
+    private final List<LocalSourceProvider> providers = new ArrayList<>();
+
+    @BeforeEach
+    public void setup() throws SQLException {
+        // One embedded database per node. Every node stores its own name.
+        for (String name : Arrays.asList("primary", "replica1", "replica2")) {
+            LocalSourceProvider provider = LocalSourceProvider.create(4);
+            try (Connection conn = provider.getSource().getConnection()) {
+                conn.prepareStatement("CREATE TABLE node(name varchar(16))").execute();
+                conn.prepareStatement("INSERT INTO node VALUES('" + name + "')").execute();
+            }
+            providers.add(provider);
+        }
+    }
+
+    @AfterEach
+    public void tearDown() {
+        providers.forEach(LocalSourceProvider::shutdown);
+    }
+
+    @Test
+    public void testRouting() throws SQLException {
+        RoutingDataSource source = routing(ReplicaLagProbe.NONE);
+
+        try (Connection conn = source.getConnection()) {
+            Assertions.assertEquals("primary", node(conn));
+        }
+
+        // Two open read connections are balanced over both replicas.
+        try (Connection first = source.getReadConnection(); Connection second = source.getConnection()) {
+            second.setReadOnly(true);
+            String firstNode = node(first);
+            String secondNode = node(second);
+            Assertions.assertTrue(firstNode.startsWith("replica"));
+            Assertions.assertTrue(secondNode.startsWith("replica"));
+            Assertions.assertNotEquals(firstNode, secondNode);
+        }
+        source.getReplicas().forEach(replica -> Assertions.assertEquals(0, replica.getOutstanding()));
+        source.close();
+    }
+
+    @Test
+    public void testLaggingReplicasFallBackToPrimary() throws SQLException, InterruptedException {
+        RoutingDataSource source = routing(conn -> 60 * 1000);
+        // Wait for the first probe
+        Thread.sleep(200);
+        try (Connection conn = source.getReadConnection()) {
+            Assertions.assertEquals("primary", node(conn));
+        }
+        source.close();
+    }
+
+    private RoutingDataSource routing(ReplicaLagProbe probe) {
+        List<DataSource> replicas = Arrays.asList(providers.get(1).getSource(), providers.get(2).getSource());
+        return new RoutingDataSource(providers.get(0).getSource(), replicas, probe, 1000, 50);
+    }
+
+    private String node(Connection conn) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT name FROM node")) {
+            ResultSet resultSet = stmt.executeQuery();
+            resultSet.next();
+            return resultSet.getString(1);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package de.eldoria.databasesamples.sharding;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class ShardStrategyTest {
+    @Test
+    public void testRange() {
+        ShardStrategy strategy = ShardStrategy.range(100, 200);
+        Assertions.assertEquals(3, strategy.shards());
+        Assertions.assertEquals(0, strategy.shardOf(Long.MIN_VALUE));
+        Assertions.assertEquals(0, strategy.shardOf(99));
+        Assertions.assertEquals(1, strategy.shardOf(100));
+        Assertions.assertEquals(1, strategy.shardOf(199L));
+        Assertions.assertEquals(2, strategy.shardOf(200));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> strategy.shardOf("100"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> ShardStrategy.range(200, 100));
+    }
+
+    @Test
+    public void testConsistentHashDistribution() {
+        ShardStrategy strategy = ShardStrategy.consistentHash(4);
+        int[] counts = new int[4];
+        for (int key = 0; key < 40000; key++) {
+            counts[strategy.shardOf(key)]++;
+        }
+        for (int count : counts) {
+            // Every shard gets roughly a quarter of the keys.
+            Assertions.assertTrue(count > 7000 && count < 13000, "Unbalanced shard with " + count + " keys");
+        }
+        Assertions.assertEquals(strategy.shardOf("user-1"), ShardStrategy.consistentHash(4).shardOf("user-1"));
+    }
+
+    @Test
+    public void testConsistentHashRebalance() {
+        ShardStrategy four = ShardStrategy.consistentHash(4);
+        ShardStrategy five = ShardStrategy.consistentHash(5);
+        int moved = 0;
+        for (int key = 0; key < 10000; key++) {
+            int before = four.shardOf("key-" + key);
+            int after = five.shardOf("key-" + key);
+            if (before != after) {
+                // Keys only move to the new shard.
+                Assertions.assertEquals(4, after);
+                moved++;
+            }
+        }
+        // Roughly a fifth of the keys moves.
+        Assertions.assertTrue(moved > 1000 && moved < 3000, moved + " keys moved");
+    }
+}
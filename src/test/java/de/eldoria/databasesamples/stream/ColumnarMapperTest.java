@@ -0,0 +1,102 @@
+package de.eldoria.databasesamples.stream;
+
+import de.eldoria.util.LocalSourceProvider;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+class ColumnarMapperTest {
+    private static final ColumnarMapper MAPPER = ColumnarMapper.builder()
+            .intColumn("id")
+            .longColumn("big")
+            .doubleColumn("score")
+            .stringColumn("message")
+            .bytesColumn("data")
+            .build();
+
+    private LocalSourceProvider provider;
+
+    @BeforeEach
+    public void setup() throws SQLException {
+        provider = LocalSourceProvider.create(2);
+        try (Connection conn = provider.getSource().getConnection()) {
+            conn.prepareStatement("CREATE TABLE entry(id int, big bigint, score double, message text, data varbinary(16))")
+                    .execute();
+            try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO entry VALUES(?, ?, ?, ?, ?)")) {
+                for (int i = 0; i < 50; i++) {
+                    stmt.setInt(1, i);
+                    stmt.setLong(2, i * 10_000_000_000L);
+                    stmt.setDouble(3, i / 2.0);
+                    stmt.setString(4, i % 10 == 0 ? null : "nachricht ü€😀 " + i);
+                    stmt.setBytes(5, new byte[]{(byte) i, (byte) -i});
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            }
+        }
+    }
+
+    @AfterEach
+    public void tearDown() {
+        provider.shutdown();
+    }
+
+    @Test
+    public void testScan() throws SQLException {
+        ColumnBatch batch = MAPPER.newBatch(7);
+        List<Integer> sizes = new ArrayList<>();
+        long[] checksum = new long[1];
+        long rows = provider.scanColumnar("SELECT data, message, score, big, id FROM entry ORDER BY id", MAPPER, batch,
+                chunk -> {
+                    Assertions.assertSame(batch, chunk);
+                    sizes.add(chunk.size());
+                    for (int row = 0; row < chunk.size(); row++) {
+                        int id = chunk.getInt(0, row);
+                        Assertions.assertEquals(id * 10_000_000_000L, chunk.getLong(1, row));
+                        Assertions.assertEquals(id / 2.0, chunk.getDouble(2, row));
+                        if (id % 10 == 0) {
+                            Assertions.assertTrue(chunk.isNull(3, row));
+                            Assertions.assertNull(chunk.getString(3, row));
+                        } else {
+                            Assertions.assertEquals("nachricht ü€😀 " + id, chunk.getString(3, row));
+                        }
+                        Assertions.assertArrayEquals(new byte[]{(byte) id, (byte) -id}, chunk.getBytes(4, row));
+                        checksum[0] += id;
+                    }
+                });
+        Assertions.assertEquals(50, rows);
+        Assertions.assertEquals(49 * 50 / 2, checksum[0]);
+        Assertions.assertEquals(8, sizes.size());
+        Assertions.assertEquals(1, sizes.get(7));
+    }
+
+    @Test
+    public void testNullPrimitives() throws SQLException {
+        try (Connection conn = provider.getSource().getConnection()) {
+            conn.prepareStatement("INSERT INTO entry(id) VALUES(100)").execute();
+        }
+        ColumnBatch batch = MAPPER.newBatch(10);
+        provider.scanColumnar("SELECT * FROM entry WHERE id = ?", MAPPER, batch, chunk -> {
+            Assertions.assertEquals(1, chunk.size());
+            Assertions.assertFalse(chunk.isNull(0, 0));
+            Assertions.assertTrue(chunk.isNull(1, 0));
+            Assertions.assertTrue(chunk.isNull(2, 0));
+            Assertions.assertTrue(chunk.isNull(4, 0));
+        }, 100);
+    }
+
+    @Test
+    public void testMissingColumn() {
+        ColumnarMapper mapper = ColumnarMapper.builder().intColumn("missing").build();
+        Assertions.assertThrows(SQLException.class,
+                () -> provider.scanColumnar("SELECT id FROM entry", mapper, mapper.newBatch(10), chunk -> {
+                }));
+    }
+}
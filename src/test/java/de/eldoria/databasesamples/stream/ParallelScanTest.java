@@ -0,0 +1,149 @@
+package de.eldoria.databasesamples.stream;
+
+import de.eldoria.databasesamples.util.UncheckedSQLException;
+import de.eldoria.util.LocalSourceProvider;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+class ParallelScanTest {
+    private static final int ROWS = 10000;
+
+    private LocalSourceProvider provider;
+
+    @BeforeEach
+    public void setup() throws SQLException {
+        provider = LocalSourceProvider.create(4);
+        try (Connection conn = provider.getSource().getConnection()) {
+            conn.prepareStatement("CREATE TABLE entry(id int primary key, created timestamp)").execute();
+        }
+        // Skewed keys. Most rows are at the start of the key range.
+        provider.bulkLoad("entry", Arrays.asList("id", "created"), IntStream.range(0, ROWS)
+                .mapToObj(i -> {
+                    int id = i < ROWS - 10 ? i : i * 1000;
+                    return new Object[]{id, new Timestamp(1_600_000_000_000L + id * 1000L)};
+                })
+                .iterator());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        provider.shutdown();
+    }
+
+    @Test
+    public void testParallelScan() throws SQLException {
+        try (Stream<Integer> stream = provider.parallelScan("entry", "id", 7, rs -> rs.getInt("id"))) {
+            List<Integer> ids = stream.collect(Collectors.toList());
+            Assertions.assertEquals(ROWS, ids.size());
+            Assertions.assertEquals(ROWS, ids.stream().distinct().count());
+        }
+    }
+
+    @Test
+    public void testSampledRanges() throws SQLException {
+        ParallelScan scan = ParallelScan.bySample(provider.getSource(), "entry", "id", Collections.singletonList("id"),
+                4, 1000, 100, false);
+        Assertions.assertEquals(4, scan.getRanges().size());
+        // Sampled split points balance skewed keys. Equal width ranges would put almost all rows into the first range.
+        KeyRange first = scan.getRanges().get(0);
+        Assertions.assertTrue(first.getTo() < ROWS / 2, "First range " + first);
+
+        try (Stream<Integer> stream = scan.parallelStream(rs -> rs.getInt(1))) {
+            Assertions.assertEquals(ROWS, stream.collect(Collectors.toSet()).size());
+        }
+    }
+
+    @Test
+    public void testTimestampKey() throws SQLException {
+        ParallelScan scan = ParallelScan.byMinMax(provider.getSource(), "entry", "created",
+                Collections.singletonList("id"), 3, 100, true);
+        Assertions.assertTrue(scan.getRanges().get(0).isTimestamp());
+        try (Stream<Integer> stream = scan.stream(provider.async(), rs -> rs.getInt(1))) {
+            Assertions.assertEquals(ROWS, stream.distinct().count());
+        }
+    }
+
+    @Test
+    public void testMicrosecondTimestampKey() throws SQLException {
+        try (Connection conn = provider.getSource().getConnection()) {
+            conn.prepareStatement("CREATE TABLE micro(id int, created timestamp(6))").execute();
+        }
+        provider.bulkLoad("micro", Arrays.asList("id", "created"), IntStream.range(0, 100)
+                .mapToObj(i -> {
+                    Timestamp created = new Timestamp(1_600_000_000_000L + i * 1000L);
+                    // Sub millisecond fraction which is lost if the max key is truncated to millis.
+                    created.setNanos(123_456_000);
+                    return new Object[]{i, created};
+                })
+                .iterator());
+
+        ParallelScan byMinMax = ParallelScan.byMinMax(provider.getSource(), "micro", "created",
+                Collections.singletonList("id"), 3, 100, false);
+        ParallelScan bySample = ParallelScan.bySample(provider.getSource(), "micro", "created",
+                Collections.singletonList("id"), 3, 10, 100, false);
+        for (ParallelScan scan : Arrays.asList(byMinMax, bySample)) {
+            try (Stream<Integer> stream = scan.stream(provider.async(), rs -> rs.getInt(1))) {
+                Assertions.assertEquals(100, stream.distinct().count());
+            }
+        }
+    }
+
+    @Test
+    public void testParallelStreamReleasesRanges() throws SQLException {
+        ParallelScan scan = ParallelScan.byMinMax(provider.getSource(), "entry", "id", Collections.singletonList("id"),
+                16, 100, false);
+        for (int i = 0; i < 5; i++) {
+            try (Stream<Integer> stream = scan.parallelStream(rs -> rs.getInt(1))) {
+                Assertions.assertTrue(stream.anyMatch(id -> id >= 0));
+            }
+            try (Stream<Integer> stream = scan.parallelStream(rs -> rs.getInt(1))) {
+                Assertions.assertThrows(IllegalStateException.class, () -> stream.forEach(id -> {
+                    throw new IllegalStateException();
+                }));
+            }
+        }
+        // All ranges released their connections.
+        try (Stream<Integer> stream = scan.parallelStream(rs -> rs.getInt(1))) {
+            Assertions.assertEquals(ROWS, stream.count());
+        }
+    }
+
+    @Test
+    public void testEarlyClose() throws SQLException {
+        for (int i = 0; i < 5; i++) {
+            try (Stream<Integer> stream = provider.parallelScan("entry", "id", 8, rs -> rs.getInt(1))) {
+                Assertions.assertEquals(10, stream.limit(10).count());
+            }
+        }
+        // All readers stopped and released their connections.
+        Assertions.assertEquals(ROWS, provider.parallelScan("entry", "id", rs -> rs.getInt(1)).count());
+    }
+
+    @Test
+    public void testEmptyTable() throws SQLException {
+        try (Connection conn = provider.getSource().getConnection()) {
+            conn.prepareStatement("CREATE TABLE empty(id int)").execute();
+        }
+        Assertions.assertEquals(0, provider.parallelScan("empty", "id", rs -> rs.getInt(1)).count());
+    }
+
+    @Test
+    public void testFailure() {
+        Assertions.assertThrows(UncheckedSQLException.class,
+                () -> provider.parallelScan("entry", "id", 3, rs -> rs.getInt("missing")).count());
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> provider.parallelScan("entry; DROP TABLE entry", "id", rs -> rs.getInt(1)));
+    }
+}
@@ -0,0 +1,86 @@
+package de.eldoria.databasesamples.stream;
+
+import com.zaxxer.hikari.HikariDataSource;
+import de.eldoria.databasesamples.util.UncheckedSQLException;
+import de.eldoria.util.LocalSourceProvider;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+class QueryStreamTest {
+    private LocalSourceProvider provider;
+
+    @BeforeEach
+    public void setup() throws SQLException {
+        provider = LocalSourceProvider.create(2);
+        try (Connection conn = provider.getSource().getConnection()) {
+            conn.prepareStatement("CREATE TABLE entry(id int, message text)").execute();
+        }
+        Iterator<Object[]> rows = IntStream.range(0, 5000)
+                .mapToObj(i -> new Object[]{i, "message " + i})
+                .iterator();
+        provider.bulkLoad("entry", Arrays.asList("id", "message"), rows);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        provider.shutdown();
+    }
+
+    private int active() throws SQLException {
+        // Pool stats of the metrics are cached for a second.
+        return provider.getSource().unwrap(HikariDataSource.class).getHikariPoolMXBean().getActiveConnections();
+    }
+
+    @Test
+    public void testStream() throws SQLException {
+        try (Stream<Integer> stream = provider.stream("SELECT id FROM entry WHERE id >= ?", 100,
+                rs -> rs.getInt(1), 1000)) {
+            Assertions.assertEquals(4000, stream.count());
+        }
+        Assertions.assertEquals(0, active());
+    }
+
+    @Test
+    public void testEarlyClose() throws SQLException {
+        try (Stream<String> stream = provider.stream("SELECT message FROM entry ORDER BY id", rs -> rs.getString(1))) {
+            Assertions.assertEquals("message 0", stream.findFirst().orElse(null));
+            Assertions.assertEquals(1, active());
+        }
+        Assertions.assertEquals(0, active());
+    }
+
+    @Test
+    public void testTransactionalCursor() throws SQLException {
+        try (QueryStream<Integer> rows = QueryStream.open(provider.getSource(), "SELECT id FROM entry", rs -> rs.getInt(1),
+                10, true)) {
+            int count = 0;
+            while (rows.hasNext()) {
+                rows.next();
+                count++;
+            }
+            Assertions.assertEquals(5000, count);
+            // The connection was released when the result was exhausted.
+            Assertions.assertEquals(0, active());
+        }
+        try (Connection conn = provider.getSource().getConnection()) {
+            Assertions.assertTrue(conn.getAutoCommit());
+        }
+    }
+
+    @Test
+    public void testMapperFailure() throws SQLException {
+        try (Stream<String> stream = provider.stream("SELECT id FROM entry", rs -> rs.getString("missing"))) {
+            Assertions.assertThrows(UncheckedSQLException.class, stream::count);
+        }
+        Assertions.assertEquals(0, active());
+    }
+}
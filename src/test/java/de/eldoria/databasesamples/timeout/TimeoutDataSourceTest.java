@@ -0,0 +1,178 @@
+package de.eldoria.databasesamples.timeout;
+
+import de.eldoria.databasesamples.config.DbConfig;
+import de.eldoria.databasesamples.util.DelegatingDataSource;
+import de.eldoria.databasesamples.util.Proxies;
+import de.eldoria.util.LocalSourceProvider;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class TimeoutDataSourceTest {
+    // Runs for hours unless it is cancelled.
+    private static final String RUNAWAY =
+            "SELECT COUNT(*) FROM SYSTEM_RANGE(1, 10000000) a, SYSTEM_RANGE(1, 10000000) b WHERE RAND() < 0";
+
+    private LocalSourceProvider provider;
+
+    @BeforeEach
+    public void setup() throws SQLException {
+        DbConfig.DBSettings settings = LocalSourceProvider.settings(2);
+        settings.getTimeouts().setDeadlines(true);
+        provider = new LocalSourceProvider(settings);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        provider.shutdown();
+    }
+
+    @Test
+    public void testDeadlineCancelsStatement() throws SQLException {
+        long start = System.nanoTime();
+        Assertions.assertThrows(SQLTimeoutException.class, () -> provider.withDeadline(200, TimeUnit.MILLISECONDS,
+                conn -> conn.createStatement().executeQuery(RUNAWAY)));
+        Assertions.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+
+        // The pool serves queries again once the connection was evicted.
+        for (int i = 0; i < 4; i++) {
+            Assertions.assertEquals(1, provider.withDeadline(5, TimeUnit.SECONDS, this::one));
+        }
+        Assertions.assertEquals(1, one(provider.getSource().getConnection()));
+    }
+
+    @Test
+    public void testAsyncDeadline() throws InterruptedException {
+        CompletableFuture<Integer> future = provider.async().supply(conn -> {
+            try (ResultSet resultSet = conn.createStatement().executeQuery(RUNAWAY)) {
+                resultSet.next();
+                return resultSet.getInt(1);
+            }
+        }, 200, TimeUnit.MILLISECONDS);
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class,
+                () -> future.get(5, TimeUnit.SECONDS));
+        Assertions.assertInstanceOf(SQLTimeoutException.class, e.getCause());
+    }
+
+    @Test
+    public void testDeadlinePropagatesToAsync() throws SQLException {
+        // The deadline of the caller is shorter than the deadline of the async call.
+        Assertions.assertThrows(SQLTimeoutException.class, () -> provider.withDeadline(200, TimeUnit.MILLISECONDS,
+                conn -> {
+                    try {
+                        return provider.async().supply(async -> async.createStatement().execute(RUNAWAY),
+                                1, TimeUnit.HOURS).get();
+                    } catch (ExecutionException e) {
+                        throw (SQLException) e.getCause();
+                    } catch (InterruptedException e) {
+                        throw new SQLException(e);
+                    }
+                }));
+    }
+
+    @Test
+    public void testDisabledByDefault() throws SQLException {
+        LocalSourceProvider plain = LocalSourceProvider.create(1);
+        try {
+            Assertions.assertThrows(IllegalStateException.class,
+                    () -> plain.withDeadline(1, TimeUnit.SECONDS, this::one));
+        } finally {
+            plain.shutdown();
+        }
+    }
+
+    @Test
+    public void testExpiredDeadline() {
+        Deadline deadline = Deadline.after(0, TimeUnit.MILLISECONDS);
+        AtomicInteger calls = new AtomicInteger();
+        Assertions.assertThrows(SQLTimeoutException.class, () -> deadline.apply(calls::addAndGet, 1));
+        Assertions.assertEquals(0, calls.get());
+        Assertions.assertNull(Deadline.current());
+    }
+
+    @Test
+    public void testStuckStatementIsEvicted() throws SQLException {
+        StuckSource stuck = new StuckSource();
+        AtomicInteger evictions = new AtomicInteger();
+        try (TimeoutDataSource source = new TimeoutDataSource(stuck, 0, 100, TimeUnit.MILLISECONDS, conn -> {
+            evictions.incrementAndGet();
+            conn.abort(Runnable::run);
+        })) {
+            long start = System.nanoTime();
+            SQLTimeoutException e = Assertions.assertThrows(SQLTimeoutException.class,
+                    () -> Deadline.after(100, TimeUnit.MILLISECONDS).apply(this::execute, source));
+            Assertions.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+            Assertions.assertInstanceOf(SQLNonTransientConnectionException.class, e.getCause());
+            Assertions.assertEquals(1, stuck.cancels.get());
+            Assertions.assertEquals(1, evictions.get());
+            Assertions.assertEquals(1, source.cancelled());
+            Assertions.assertEquals(1, source.evicted());
+        }
+    }
+
+    private int one(Connection conn) throws SQLException {
+        try (Connection closed = conn; ResultSet resultSet = closed.createStatement().executeQuery("SELECT 1")) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+    private boolean execute(DataSource source) throws SQLException {
+        try (Connection conn = source.getConnection(); Statement stmt = conn.createStatement()) {
+            return stmt.execute("SELECT 1");
+        }
+    }
+
+    /**
+     * Statements of this source ignore cancel requests and only return once their connection is aborted.
+     */
+    private static final class StuckSource extends DelegatingDataSource {
+        private final AtomicInteger cancels = new AtomicInteger();
+
+        private StuckSource() {
+            super(null);
+        }
+
+        @Override
+        public Connection getConnection() {
+            CountDownLatch aborted = new CountDownLatch(1);
+            Statement stmt = Proxies.create(Statement.class, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "cancel":
+                        cancels.incrementAndGet();
+                        return null;
+                    case "execute":
+                        aborted.await();
+                        throw new SQLNonTransientConnectionException("Connection was aborted");
+                    default:
+                        return null;
+                }
+            });
+            return Proxies.create(Connection.class, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "createStatement":
+                        return stmt;
+                    case "abort":
+                        aborted.countDown();
+                        return null;
+                    default:
+                        return null;
+                }
+            });
+        }
+    }
+}
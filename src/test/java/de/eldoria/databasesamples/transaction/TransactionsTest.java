@@ -0,0 +1,152 @@
+package de.eldoria.databasesamples.transaction;
+
+import de.eldoria.databasesamples.dialect.SqlDialect;
+import de.eldoria.util.LocalSourceProvider;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+class TransactionsTest {
+    private LocalSourceProvider provider;
+
+    @BeforeEach
+    public void setup() throws SQLException {
+        provider = LocalSourceProvider.create(2);
+        try (Connection conn = provider.getSource().getConnection()) {
+            conn.createStatement().execute("CREATE TABLE accounts(id INT PRIMARY KEY, balance INT)");
+        }
+    }
+
+    @AfterEach
+    public void tearDown() {
+        provider.shutdown();
+    }
+
+    @Test
+    public void testCommitAndRollback() throws SQLException {
+        int inserted = provider.inTransaction(work -> {
+            try (PreparedStatement stmt = work.getConnection().prepareStatement("INSERT INTO accounts VALUES (?, ?)")) {
+                for (int i = 0; i < 10; i++) {
+                    stmt.setInt(1, i);
+                    stmt.setInt(2, 100);
+                    stmt.executeUpdate();
+                }
+            }
+            return 10;
+        });
+        Assertions.assertEquals(10, inserted);
+        Assertions.assertEquals(10, count());
+
+        Assertions.assertThrows(SQLException.class, () -> provider.inTransaction(work -> {
+            work.getConnection().createStatement().execute("INSERT INTO accounts VALUES (10, 100)");
+            return work.getConnection().createStatement().execute("INSERT INTO accounts VALUES (0, 100)");
+        }));
+        Assertions.assertEquals(10, count());
+
+        // The connection is returned in auto commit mode.
+        try (Connection conn = provider.getSource().getConnection()) {
+            Assertions.assertTrue(conn.getAutoCommit());
+        }
+    }
+
+    @Test
+    public void testSavepoints() throws SQLException {
+        provider.inTransaction(work -> {
+            insert(work, 1);
+            Assertions.assertThrows(SQLException.class, () -> work.savepoint(inner -> {
+                insert(inner, 2);
+                Assertions.assertEquals(1, inner.getDepth());
+                // Duplicate key
+                return insert(inner, 1);
+            }));
+            Assertions.assertEquals(0, work.getDepth());
+            // A nested transaction joins the running one as savepoint.
+            return provider.inTransaction(nested -> {
+                Assertions.assertSame(work, nested);
+                return insert(nested, 3);
+            });
+        });
+        Assertions.assertEquals(2, count());
+        try (Connection conn = provider.getSource().getConnection();
+             ResultSet rs = conn.createStatement().executeQuery("SELECT id FROM accounts WHERE id = 2")) {
+            Assertions.assertFalse(rs.next());
+        }
+    }
+
+    @Test
+    public void testOptions() throws SQLException {
+        provider.inTransaction(new TransactionOptions(Isolation.SERIALIZABLE, true), work -> {
+            Assertions.assertTrue(work.isReadOnly());
+            Assertions.assertEquals(Connection.TRANSACTION_SERIALIZABLE,
+                    work.getConnection().getTransactionIsolation());
+            Assertions.assertThrows(IllegalStateException.class, () -> provider.inTransaction(inner -> null));
+            TransactionOptions otherIsolation = new TransactionOptions(Isolation.READ_COMMITTED, true);
+            Assertions.assertThrows(IllegalStateException.class,
+                    () -> provider.inTransaction(otherIsolation, inner -> null));
+            return provider.inTransaction(TransactionOptions.READ_ONLY, inner -> count(inner.getConnection()));
+        });
+
+        try (Connection conn = provider.getSource().getConnection()) {
+            Assertions.assertFalse(conn.isReadOnly());
+            Assertions.assertNotEquals(Connection.TRANSACTION_SERIALIZABLE, conn.getTransactionIsolation());
+        }
+    }
+
+    @Test
+    public void testCommittedWritesAreReported() throws SQLException {
+        List<String> written = new ArrayList<>();
+        provider.onWrite(written::add);
+        provider.inTransaction(TransactionOptions.READ_ONLY, work -> count(work.getConnection()));
+        Assertions.assertTrue(written.isEmpty());
+
+        Assertions.assertThrows(SQLException.class, () -> provider.inTransaction(work -> {
+            insert(work, 1);
+            return insert(work, 1);
+        }));
+        Assertions.assertTrue(written.isEmpty());
+
+        provider.inTransaction(work -> {
+            count(work.getConnection());
+            work.getConnection().createStatement().executeUpdate("UPDATE accounts SET balance = 0");
+            Assertions.assertEquals(Collections.singleton("accounts"), work.getWrittenTables());
+            return insert(work, 1);
+        });
+        Assertions.assertEquals(Collections.singletonList("accounts"), written);
+    }
+
+    @Test
+    public void testDialectIsolation() {
+        Assertions.assertEquals(Isolation.READ_COMMITTED, SqlDialect.POSTGRESQL.isolation(Isolation.READ_UNCOMMITTED));
+        Assertions.assertEquals(Isolation.SERIALIZABLE, SqlDialect.POSTGRESQL.isolation(Isolation.SERIALIZABLE));
+        Assertions.assertEquals(Isolation.READ_UNCOMMITTED, SqlDialect.MARIADB.isolation(Isolation.READ_UNCOMMITTED));
+    }
+
+    private static int insert(UnitOfWork work, int id) throws SQLException {
+        try (PreparedStatement stmt = work.getConnection().prepareStatement("INSERT INTO accounts VALUES (?, 100)")) {
+            stmt.setInt(1, id);
+            return stmt.executeUpdate();
+        }
+    }
+
+    private int count() throws SQLException {
+        try (Connection conn = provider.getSource().getConnection()) {
+            return count(conn);
+        }
+    }
+
+    private static int count(Connection conn) throws SQLException {
+        try (ResultSet rs = conn.createStatement().executeQuery("SELECT COUNT(*) FROM accounts")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package de.eldoria.databasesamples.util;
+
+import com.zaxxer.hikari.HikariDataSource;
+import de.eldoria.databasesamples.config.DbConfig;
+import de.eldoria.util.LocalSourceProvider;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+class DataSourceProviderTest {
+    @Test
+    public void testEagerStartupIsReady() throws SQLException {
+        LocalSourceProvider provider = LocalSourceProvider.create(4);
+        try {
+            Assertions.assertTrue(provider.ready().isDone());
+            Assertions.assertFalse(provider.ready().isCompletedExceptionally());
+        } finally {
+            provider.shutdown();
+        }
+    }
+
+    @Test
+    public void testWarmUpOpensMinConnections() throws Exception {
+        DbConfig.DBSettings settings = settings(DbConfig.Startup.Mode.WARM,
+                Arrays.asList("SELECT 1", "SELECT ? + 1"));
+        settings.setMinConnections(4);
+        LocalSourceProvider provider = new LocalSourceProvider(settings);
+        try {
+            provider.ready().get(10, TimeUnit.SECONDS);
+            HikariDataSource pool = provider.getSource().unwrap(HikariDataSource.class);
+            Assertions.assertTrue(pool.getHikariPoolMXBean().getTotalConnections() >= 4);
+        } finally {
+            provider.shutdown();
+        }
+    }
+
+    @Test
+    public void testWarmUpFailsOnInvalidStatement() throws SQLException, InterruptedException, TimeoutException {
+        LocalSourceProvider provider = new LocalSourceProvider(settings(DbConfig.Startup.Mode.WARM,
+                Collections.singletonList("SELECT * FROM missing_table")));
+        try {
+            ExecutionException e = Assertions.assertThrows(ExecutionException.class,
+                    () -> provider.ready().get(10, TimeUnit.SECONDS));
+            Assertions.assertTrue(e.getCause() instanceof SQLException);
+            // The pool itself is usable nevertheless.
+            Assertions.assertEquals(1, selectOne(provider));
+        } finally {
+            provider.shutdown();
+        }
+    }
+
+    @Test
+    public void testLazyStartupOnFirstUse() throws Exception {
+        LocalSourceProvider provider = new LocalSourceProvider(settings(DbConfig.Startup.Mode.LAZY,
+                Collections.emptyList()));
+        try {
+            Assertions.assertFalse(provider.ready().isDone());
+            Assertions.assertEquals(1, selectOne(provider));
+            provider.ready().get(0, TimeUnit.SECONDS);
+        } finally {
+            provider.shutdown();
+        }
+    }
+
+    @Test
+    public void testLazyShutdownBeforeUse() throws SQLException {
+        LocalSourceProvider provider = new LocalSourceProvider(settings(DbConfig.Startup.Mode.LAZY,
+                Collections.emptyList()));
+        provider.shutdown();
+        Assertions.assertTrue(provider.ready().isCompletedExceptionally());
+        Assertions.assertThrows(SQLException.class, () -> provider.getSource().getConnection());
+    }
+
+    @Test
+    public void testShutdownDuringReload() throws Exception {
+        CountDownLatch starting = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+        AtomicBoolean reloading = new AtomicBoolean();
+        LocalSourceProvider provider = new LocalSourceProvider(LocalSourceProvider.settings(2)) {
+            @Override
+            protected boolean testConnection(DataSource source) throws SQLException {
+                if (reloading.get()) {
+                    // A slow start of the new pool.
+                    starting.countDown();
+                    try {
+                        proceed.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.testConnection(source);
+            }
+        };
+        reloading.set(true);
+        CompletableFuture<Boolean> reload = CompletableFuture.supplyAsync(() -> {
+            try {
+                return provider.reload(LocalSourceProvider.settings(2));
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        });
+        Assertions.assertTrue(starting.await(10, TimeUnit.SECONDS));
+
+        // The start of the new pool does not hold the lock of the current pool.
+        Assertions.assertEquals(1, selectOne(provider));
+        CompletableFuture<Void> shutdown = CompletableFuture.runAsync(provider::shutdown);
+        shutdown.get(5, TimeUnit.SECONDS);
+
+        proceed.countDown();
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class,
+                () -> reload.get(10, TimeUnit.SECONDS));
+        Assertions.assertInstanceOf(SQLException.class, e.getCause());
+        Assertions.assertThrows(SQLException.class, () -> provider.getSource().getConnection());
+    }
+
+    private static DbConfig.DBSettings settings(DbConfig.Startup.Mode mode, List<String> statements) {
+        DbConfig.DBSettings settings = LocalSourceProvider.settings(8);
+        settings.setStartup(new DbConfig.Startup(mode, statements));
+        return settings;
+    }
+
+    private static int selectOne(DataSourceProvider<?> provider) throws SQLException {
+        try (Connection conn = provider.getSource().getConnection();
+             ResultSet resultSet = conn.createStatement().executeQuery("SELECT 1")) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package de.eldoria.util;
+
+import de.eldoria.databasesamples.config.DatabaseType;
+import de.eldoria.databasesamples.config.DbConfig;
+import de.eldoria.databasesamples.datasources.H2SourceProvider;
+
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In memory H2 database in MariaDB compatibility mode.
+ * <p>
+ * Used as local stand-in for benchmarks and tests when no database server is available.
+ */
+public class LocalSourceProvider extends H2SourceProvider {
+    private static final AtomicInteger DATABASE_ID = new AtomicInteger();
+
+    public LocalSourceProvider(DbConfig.DBSettings config) throws SQLException {
+        super(DatabaseType.MARIADB, config);
+    }
+
+    /**
+     * Create a local provider with a pool of the given size.
+     * <p>
+     * Every provider gets its own database.
+     *
+     * @param maxConnections max connections of the pool
+     * @return new provider
+     * @throws SQLException if the database could not be started
+     */
+    public static LocalSourceProvider create(int maxConnections) throws SQLException {
+        return new LocalSourceProvider(settings(maxConnections));
+    }
+
+    /**
+     * Create settings for a new local database.
+     *
+     * @param maxConnections max connections of the pool
+     * @return settings of a new database
+     */
+    public static DbConfig.DBSettings settings(int maxConnections) {
+        String database = "local" + DATABASE_ID.incrementAndGet();
+        return new DbConfig.DBSettings("mem", "", database, "sa", "", 1, maxConnections);
+    }
+}
@@ -1,14 +1,18 @@
 package de.eldoria.util;
 
-import com.google.gson.Gson;
+import de.eldoria.databasesamples.config.DatabaseType;
 import de.eldoria.databasesamples.config.DbConfig;
+import de.eldoria.databasesamples.datasources.H2SourceProvider;
+import de.eldoria.databasesamples.datasources.SourceProviders;
+import de.eldoria.databasesamples.util.DataSourceProvider;
 
 import javax.naming.ConfigurationException;
 import javax.sql.DataSource;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -16,10 +20,13 @@ import java.nio.file.StandardCopyOption;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public final class TestUtil {
+    private static final int REACHABLE_TIMEOUT = 1000;
+
     private TestUtil() {
     }
 
@@ -42,7 +49,76 @@ public final class TestUtil {
             throw new ConfigurationException("Please configure the config file");
         }
 
-        return new Gson().fromJson(new InputStreamReader(Files.newInputStream(configPath)), DbConfig.class);
+        return DbConfig.load(configPath);
+    }
+
+    /**
+     * Create a provider for a database type.
+     * <p>
+     * Uses the settings of the config file. Falls back to a new embedded H2 database in the compatibility mode of the
+     * type if the config file or its section for the type is missing or the server is not reachable, so tests and
+     * benchmarks also run without a database server. {@link DatabaseType#H2} always creates a new embedded database.
+     *
+     * @param type           database type
+     * @param maxConnections max size of the pool
+     * @param customizer     applied to the settings before the provider is created
+     * @return new provider
+     * @throws IOException  if the config file could not be read
+     * @throws SQLException if the connection failed
+     */
+    public static DataSourceProvider<?> createProvider(DatabaseType type, int maxConnections,
+                                                       Consumer<DbConfig.DBSettings> customizer)
+            throws IOException, SQLException {
+        DbConfig.DBSettings settings = configuredSettings(type);
+        if (settings == null || !isReachable(settings)) {
+            settings = LocalSourceProvider.settings(maxConnections);
+            settings.setCompatibility(type);
+            customizer.accept(settings);
+            if (type != DatabaseType.H2) {
+                Logger.getLogger(TestUtil.class.getName()).info("No reachable server for " + type
+                        + " is configured. Using an embedded database instead.");
+                return new H2SourceProvider(type, settings);
+            }
+            return new H2SourceProvider(settings);
+        }
+        settings.setMaxConnections(maxConnections);
+        customizer.accept(settings);
+        return SourceProviders.create(type, settings);
+    }
+
+    /**
+     * Check whether the server of a database type is configured and accepts connections.
+     * <p>
+     * Does not create the config file. Tests which need a real server are skipped if this is false.
+     *
+     * @param type database type
+     * @return true if the server is reachable
+     */
+    public static boolean isServerAvailable(DatabaseType type) {
+        try {
+            DbConfig.DBSettings settings = configuredSettings(type);
+            return settings != null && isReachable(settings);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static boolean isReachable(DbConfig.DBSettings settings) {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(settings.getAddress(), Integer.parseInt(settings.getPort())),
+                    REACHABLE_TIMEOUT);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    private static DbConfig.DBSettings configuredSettings(DatabaseType type) throws IOException {
+        if (type == DatabaseType.H2) return null;
+        Path configPath = Paths.get(new File(".").getAbsoluteFile().getParentFile().toString(), "config/config.json");
+        if (!configPath.toFile().exists()) return null;
+        DbConfig.DBSettings settings = DbConfig.load(configPath).getSettings(type);
+        return settings == null ? null : settings.clone();
     }
 
     public static void prepareDatabase(DataSource source, Logger logger) {